@@ -0,0 +1,132 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.AnsiFactory;
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.AsciicastRecorder;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Measures the overhead of recording output with {@link AnsiUtils#recordAsciicast}, compared to
+ * writing the same output without recording it. Output is discarded, so this measures the cost
+ * of producing it rather than of the terminal displaying it.
+ */
+public class AsciicastBenchmark {
+  private static final int LINES = 100_000;
+
+  /** Counts and discards output. */
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /** Writes a colored log line per iteration, as a typical CLI would. */
+  private static long writeLines(AnsiFactory factory, CountingStream counter) {
+    for (int i = 0; i < LINES; i++) {
+      factory.ansi().color(i % 10 == 0 ? Color.RED : Color.GREEN).out("[%5d] ", i)
+          .outln("Compiling module %s", i % 97);
+    }
+    return counter.count;
+  }
+
+  /**
+   * Returns the median ratio of the CPU time the current thread takes to write the lines with
+   * {@code recorded} to the time it takes with {@code plain}. They alternate, in both orders, so
+   * that neither benefits from running first.
+   */
+  private static double cpuTimeRatio(AnsiFactory plain, AnsiFactory recorded,
+      CountingStream counter) throws InterruptedException {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    double[] ratios = new double[21];
+    for (int i = 0; i < ratios.length; i++) {
+      boolean plainFirst = i % 2 == 0;
+      long start = threads.getCurrentThreadCpuTime();
+      writeLines(plainFirst ? plain : recorded, counter);
+      long middle = threads.getCurrentThreadCpuTime();
+      writeLines(plainFirst ? recorded : plain, counter);
+      long end = threads.getCurrentThreadCpuTime();
+      ratios[i] = plainFirst
+          ? (end - middle) / (double) (middle - start)
+          : (middle - start) / (double) (end - middle);
+      // Lets the recording catch up, so that it doesn't compete with the next round
+      Thread.sleep(50);
+    }
+    Arrays.sort(ratios);
+    return ratios[ratios.length / 2];
+  }
+
+  /**
+   * Returns the mean time {@link System#nanoTime} takes, which recording calls once per batch of
+   * writes rather than for each write.
+   */
+  private static double nanoTimeCost() {
+    int calls = 10_000_000;
+    long sum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < calls; i++) {
+      sum += System.nanoTime();
+    }
+    return (System.nanoTime() - start + (sum & 1)) / (double) calls;
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final CountingStream counter = new CountingStream();
+    final PrintStream discard = new PrintStream(counter);
+    final PrintStream stdout = System.out;
+    Path recording = Files.createTempFile("fansi-benchmark", ".cast");
+
+    // Ansi instances write to the System.out they were created with
+    double plain = Harness.measure("Ansi, not recorded", LINES, "lines", () -> {
+      System.setOut(discard);
+      try {
+        return writeLines(AnsiFactory.DEFAULT, counter);
+      } finally {
+        System.setOut(stdout);
+      }
+    });
+    double recorded;
+    double cpuRatio;
+    try (final AsciicastRecorder recorder =
+        AnsiUtils.recordAsciicast(AnsiFactory.DEFAULT, recording)) {
+      recorded = Harness.measure("Ansi, recorded", LINES, "lines", () -> {
+        System.setOut(discard);
+        try {
+          return writeLines(recorder, counter);
+        } finally {
+          System.setOut(stdout);
+        }
+      });
+      // The recording is written by a background thread, which only competes with the
+      // application for CPU time if there aren't enough processors to go around
+      System.setOut(discard);
+      try {
+        cpuRatio = cpuTimeRatio(AnsiFactory.DEFAULT, recorder, counter);
+      } finally {
+        System.setOut(stdout);
+      }
+    }
+    System.out.printf("Recording is %.1f%% slower on %d processors, and wrote %,d bytes%n",
+        (plain / recorded - 1) * 100, Runtime.getRuntime().availableProcessors(),
+        Files.size(recording));
+    System.out.printf("Recording adds %.1f%% to the CPU time of the thread writing output, "
+        + "with System.nanoTime() taking %.0f ns%n", (cpuRatio - 1) * 100, nanoTimeCost());
+    Files.delete(recording);
+    Harness.done();
+  }
+}
@@ -0,0 +1,36 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.Ansi;
+
+/**
+ * Measures the throughput of {@link Ansi#toColorIndex} across the full RGB space.
+ */
+public class ColorIndexBenchmark {
+  private static final int COLORS = 1 << 24;
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final java.awt.Color[] javaColors = new java.awt.Color[1 << 16];
+    for (int i = 0; i < javaColors.length; i++) {
+      javaColors[i] = new java.awt.Color(i * 257);
+    }
+
+    Harness.measure("toColorIndex(int)", COLORS, "colors", () -> {
+      long sum = 0;
+      for (int rgb = 0; rgb < COLORS; rgb++) {
+        sum += Ansi.toColorIndex(rgb);
+      }
+      return sum;
+    });
+    Harness.measure("toColorIndex(java.awt.Color)", 16L * javaColors.length, "colors", () -> {
+      long sum = 0;
+      for (int i = 0; i < 16; i++) {
+        for (java.awt.Color color : javaColors) {
+          sum += Ansi.toColorIndex(color);
+        }
+      }
+      return sum;
+    });
+    Harness.done();
+  }
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.Ansi;
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.AnsiFactory;
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.DisplayList;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures rendering a screen of colored output to a terminal and to HTML directly with
+ * {@link Ansi}, compared to building it once as a {@link DisplayList} and rendering the list to
+ * both, which reuses the output cached for each destination.
+ */
+public class DisplayListBenchmark {
+  private static final int LINES = 50;
+  private static final int SCREENS = 200;
+
+  /** Counts and discards output. */
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /** Writes a screen of status lines, as a dashboard might redraw. */
+  private static void writeScreen(AnsiFactory factory) {
+    for (int i = 0; i < LINES; i++) {
+      Ansi ansi = factory.ansi();
+      ansi.fixed(i + 1, 1).color(i % 7 == 0 ? Color.RED : Color.GREEN, Style.BOLD)
+          .out("[%s]", i % 7 == 0 ? "FAIL" : " OK ");
+      ansi.colorRgb(0x4080FF).outln(" worker-%02d processed %d items <%d%%>", i, i * 1234, i * 2);
+    }
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final CountingStream counter = new CountingStream();
+    final PrintStream discard = new PrintStream(counter);
+    final PrintStream stdout = System.out;
+    // Ansi instances write to the System.out they were created with
+    final AnsiFactory terminal = new AnsiFactory() {
+      @Override
+      public Ansi ansi() {
+        System.setOut(discard);
+        try {
+          return Ansi.realAnsi();
+        } finally {
+          System.setOut(stdout);
+        }
+      }
+    };
+    final AnsiFactory html = new AnsiFactory() {
+      @Override
+      public Ansi ansi() {
+        return Ansi.htmlAnsi(discard);
+      }
+    };
+
+    Harness.measure("Ansi, terminal and HTML", SCREENS, "screens", () -> {
+      for (int i = 0; i < SCREENS; i++) {
+        writeScreen(terminal);
+        writeScreen(html);
+      }
+      return counter.count;
+    });
+    Harness.measure("DisplayList, build", SCREENS, "screens", () -> {
+      long hash = 0;
+      for (int i = 0; i < SCREENS; i++) {
+        DisplayList.Builder builder = AnsiUtils.displayList();
+        writeScreen(builder);
+        hash += builder.build().hashCode();
+      }
+      return hash;
+    });
+    DisplayList.Builder builder = AnsiUtils.displayList();
+    writeScreen(builder);
+    final DisplayList list = builder.build();
+    Harness.measure("DisplayList, render terminal and HTML", SCREENS, "screens", () -> {
+      for (int i = 0; i < SCREENS; i++) {
+        list.render(terminal.ansi());
+        list.render(html.ansi());
+      }
+      return counter.count;
+    });
+    Harness.done();
+  }
+}
@@ -0,0 +1,83 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.Ansi;
+import com.mwdiamond.fansi.AnsiFactory;
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.Gradient;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Compares coloring a long line with a {@link Gradient} against the naive approach of printing
+ * each character with its own {@link Ansi} instance. Output is discarded, so this measures the
+ * cost of producing it rather than of the terminal displaying it.
+ */
+public class GradientBenchmark {
+  private static final int LENGTH = 10_000;
+
+  /** Counts and discards output. */
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < LENGTH; i++) {
+      builder.append((char) ('a' + i % 26));
+    }
+    final String text = builder.toString();
+    final Gradient gradient = AnsiUtils.create(AnsiFactory.DEFAULT).gradientBuilder().build();
+    final int[] colors = new int[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      colors[i] = 0xFF0000 | (i * 255 / LENGTH) << 8;
+    }
+
+    final CountingStream counter = new CountingStream();
+    final PrintStream discard = new PrintStream(counter);
+    final PrintStream stdout = System.out;
+
+    // Ansi instances write to the System.out they were created with
+    double naive = Harness.measure("per-character Ansi", LENGTH, "chars", () -> {
+      System.setOut(discard);
+      try {
+        for (int i = 0; i < LENGTH; i++) {
+          Ansi.ansi().colorRgb(colors[i]).out(text.substring(i, i + 1));
+        }
+      } finally {
+        System.setOut(stdout);
+      }
+      return counter.count;
+    });
+    long naiveBytes = counter.count;
+    counter.count = 0;
+    double fast = Harness.measure("Gradient.print", LENGTH, "chars", () -> {
+      System.setOut(discard);
+      try {
+        gradient.print(text);
+      } finally {
+        System.setOut(stdout);
+      }
+      return counter.count;
+    });
+    long fastBytes = counter.count;
+    final StringBuilder out = new StringBuilder();
+    Harness.measure("Gradient.appendTo (reused buffer)", LENGTH, "chars", () -> {
+      out.setLength(0);
+      return gradient.appendTo(out, text).length();
+    });
+    System.out.printf("Gradient.print is %.1fx faster, and wrote %.0f%% as many bytes%n",
+        fast / naive, 100.0 * fastBytes / naiveBytes);
+    Harness.done();
+  }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal benchmark harness; F-ANSI has no benchmarking dependencies, so this simply runs each
+ * benchmark repeatedly, discards warm-up iterations, and reports the median throughput.
+ *
+ * <p>Numbers from this harness are only meaningful relative to one another on the same machine.
+ */
+final class Harness {
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  /** A unit of work to measure. */
+  interface Body {
+    /**
+     * Runs one iteration of the benchmark, returning a value derived from its work so the JIT
+     * can't eliminate it.
+     */
+    long run() throws Exception;
+  }
+
+  private static long sink;
+
+  private Harness() {}
+
+  /**
+   * Runs {@code body} repeatedly and prints its median throughput.
+   *
+   * @param name the name to report
+   * @param operations the number of operations performed by each call to {@code body}
+   * @param unit a label for the operations, e.g. "colors" or "bytes"
+   */
+  static double measure(String name, long operations, String unit, Body body) throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      sink += body.run();
+    }
+    long[] nanos = new long[MEASURED_ITERATIONS];
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      long start = System.nanoTime();
+      sink += body.run();
+      nanos[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(nanos);
+    long median = nanos[nanos.length / 2];
+    double perSecond = operations * (double) TimeUnit.SECONDS.toNanos(1) / median;
+    System.out.printf("%-40s %,15.0f %s/s  (%,.1f ns/op)%n",
+        name, perSecond, unit, (double) median / operations);
+    return perSecond;
+  }
+
+  /** Prints the accumulated result of all benchmarks, so that none of their work is dead. */
+  static void done() {
+    System.out.println("(checksum " + sink + ")");
+  }
+}
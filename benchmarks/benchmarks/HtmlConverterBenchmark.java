@@ -0,0 +1,72 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.HtmlConverter;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the throughput of converting a colored log file to HTML with
+ * {@link AnsiUtils#htmlConverter}, in parallel chunks and as one sequential range, and the time
+ * taken to render a page from the middle of the file.
+ */
+public class HtmlConverterBenchmark {
+  private static final int SIZE = 64 * 1024 * 1024;
+  private static final int PIECE = 1024 * 1024;
+  private static final int PAGE = 64 * 1024;
+
+  /** Counts and discards output. */
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final Path input = Files.createTempFile("fansi-benchmark", ".log");
+    final Path output = Files.createTempFile("fansi-benchmark", ".html");
+    try {
+      // Written in pieces, so the benchmark can run with a small heap
+      byte[] piece = SampleOutput.coloredLog(PIECE);
+      try (OutputStream out = Files.newOutputStream(input)) {
+        for (int i = 0; i < SIZE / PIECE; i++) {
+          out.write(piece);
+        }
+      }
+      try (final HtmlConverter converter = AnsiUtils.htmlConverter(input)) {
+        double parallel = Harness.measure("convert(), parallel chunks", SIZE, "bytes", () -> {
+          converter.convert(output);
+          return Files.size(output);
+        });
+        double sequential = Harness.measure("render(), whole file", SIZE, "bytes", () -> {
+          CountingStream counter = new CountingStream();
+          converter.render(0, converter.size(), counter);
+          return counter.count;
+        });
+        Harness.measure("render(), 64KiB page", 1, "pages", () -> {
+          CountingStream counter = new CountingStream();
+          converter.render(SIZE / 2, SIZE / 2 + PAGE, counter);
+          return counter.count;
+        });
+        // convert() also writes the output file, so it's only faster given several processors
+        System.out.printf("HTML is %.1fx the size of the log; convert() is %.1fx render() on %d"
+            + " processors%n", (double) Files.size(output) / SIZE, parallel / sequential,
+            Runtime.getRuntime().availableProcessors());
+      }
+    } finally {
+      Files.delete(input);
+      Files.delete(output);
+    }
+    Harness.done();
+  }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.AnsiFactory;
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.ImageRenderer;
+import com.mwdiamond.fansi.Palette;
+
+/**
+ * Measures {@link ImageRenderer} rendering a 200x100 image, and the size of its output compared to
+ * writing the full foreground and background codes for every cell.
+ */
+public class ImageRenderBenchmark {
+  private static final int WIDTH = 200;
+  private static final int HEIGHT = 100;
+  private static final int RENDERS = 20;
+
+  private static long render(ImageRenderer renderer, int[] image) {
+    long length = 0;
+    for (int i = 0; i < RENDERS; i++) {
+      length += renderer.render(image, WIDTH, HEIGHT).length();
+    }
+    return length;
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final int[] image = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        // Bands of flat color, with a noisy gradient in the bottom half
+        int rgb = y < HEIGHT / 2
+            ? (x / 25 * 0x1F) << 16 | (y / 10 * 0x33) << 8
+            : (x * 255 / WIDTH) << 16 | ((x * 31 + y * 17) % 64) << 8 | y * 2;
+        image[y * WIDTH + x] = rgb;
+      }
+    }
+    AnsiUtils ansiUtils = AnsiUtils.create(AnsiFactory.DEFAULT);
+    final ImageRenderer trueColor = ansiUtils.imageRendererBuilder().width(WIDTH).build();
+    final ImageRenderer dithered = ansiUtils.imageRendererBuilder()
+        .width(WIDTH).palette(Palette.xterm256()).dither(true).build();
+    final ImageRenderer downscaled = ansiUtils.imageRendererBuilder().width(WIDTH / 4).build();
+
+    Harness.measure("render 200x100 true color", RENDERS, "images", () -> render(trueColor, image));
+    Harness.measure("render 200x100 dithered 256 colors", RENDERS, "images", () -> render(dithered, image));
+    Harness.measure("render 200x100 scaled to 50 columns", RENDERS, "images", () -> render(downscaled, image));
+    Harness.done();
+
+    int naive = 0;
+    for (int y = 0; y < HEIGHT; y += 2) {
+      for (int x = 0; x < WIDTH; x++) {
+        int top = image[y * WIDTH + x];
+        int bottom = image[(y + 1) * WIDTH + x];
+        naive += String.format("\u001B[38;2;%d;%d;%d;48;2;%d;%d;%dm▀",
+            top >> 16 & 0xFF, top >> 8 & 0xFF, top & 0xFF,
+            bottom >> 16 & 0xFF, bottom >> 8 & 0xFF, bottom & 0xFF).length();
+      }
+      naive += "\u001B[m\n".length();
+    }
+    int coalesced = trueColor.render(image, WIDTH, HEIGHT).length();
+    System.out.printf("Output: %,d chars, vs %,d chars with codes for every cell (%.0f%%)%n",
+        coalesced, naive, 100.0 * coalesced / naive);
+  }
+}
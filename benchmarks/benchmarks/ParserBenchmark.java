@@ -0,0 +1,61 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.AnsiParser;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the throughput of {@link AnsiParser} over colored log output, with a visitor that only
+ * counts the events it receives.
+ */
+public class ParserBenchmark {
+  private static final int SIZE = 16 * 1024 * 1024;
+  private static final int CHUNK = 64 * 1024;
+
+  /** Counts events, and the length of the text runs. */
+  private static final class CountingVisitor extends AnsiParser.Visitor {
+    long events;
+
+    @Override
+    public void text(char[] chars, int offset, int length) {
+      events += length;
+    }
+
+    @Override
+    public void control(char control) {
+      events++;
+    }
+
+    @Override
+    public void csi(AnsiParser.Params params, char finalChar) {
+      events += params.size();
+    }
+
+    @Override
+    public void sgr(AnsiParser.Params params) {
+      events += params.get(0, 0);
+    }
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final byte[] bytes = SampleOutput.coloredLog(SIZE);
+    final char[] chars = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+    final CountingVisitor visitor = new CountingVisitor();
+    final AnsiParser parser = new AnsiParser(visitor);
+
+    Harness.measure("parse(byte[]) in 64KiB chunks", bytes.length, "bytes", () -> {
+      for (int offset = 0; offset < bytes.length; offset += CHUNK) {
+        parser.parse(bytes, offset, Math.min(CHUNK, bytes.length - offset));
+      }
+      parser.finish();
+      return visitor.events;
+    });
+    Harness.measure("parse(CharBuffer)", chars.length, "chars", () -> {
+      parser.parse(CharBuffer.wrap(chars));
+      parser.finish();
+      return visitor.events;
+    });
+    Harness.done();
+  }
+}
@@ -0,0 +1,29 @@
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates colored output resembling a build or test log, for benchmarks that consume ANSI
+ * escape codes rather than produce them.
+ */
+final class SampleOutput {
+  private static final String[] LINES = {
+    "\u001B[32m[ PASS ]\u001B[m com.example.FooTest#testBar (12ms)\n",
+    "\u001B[1;31m[ FAIL ]\u001B[m com.example.FooTest#testBaz: expected <3> but was <4>\n",
+    "\u001B[37m[ INFO ]\u001B[m Compiling 42 source files to /home/user/project/build/classes\n",
+    "\u001B[33m[ WARN ]\u001B[m \u001B[1mdeprecated\u001B[m API used in Baz.java:17 – see docs\n",
+    "\u001B[38;2;255;128;0mprogress\u001B[m \u001B[48;5;236m          \u001B[m 37%\u001B[0K\r\n",
+    "plain line of output with no escape codes at all, just some text to index\n",
+  };
+
+  private SampleOutput() {}
+
+  /** Returns roughly {@code size} bytes of UTF-8 encoded colored log output. */
+  static byte[] coloredLog(int size) {
+    StringBuilder builder = new StringBuilder(size + 128);
+    for (int i = 0; builder.length() < size; i++) {
+      builder.append(LINES[i % LINES.length]);
+    }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
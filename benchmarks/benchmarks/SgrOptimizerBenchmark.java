@@ -0,0 +1,109 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.SgrOptimizer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures how many bytes {@link AnsiUtils#optimizeSgr} removes from several kinds of colored
+ * output, and its throughput.
+ */
+public class SgrOptimizerBenchmark {
+  private static final int SIZE = 16 * 1024 * 1024;
+  private static final int CHUNK = 64 * 1024;
+  private static final String[] TOKENS = {
+    "public", " ", "static", " ", "int", " ", "count", "(", "String", " ", "text", ")", " {\n",
+    "  ", "return", " ", "text", ".", "length", "()", ";", " ", "// characters", "\n", "}\n",
+  };
+  private static final String[] TOKEN_COLORS = {
+    "1;34", "", "1;34", "", "36", "", "", "", "36", "", "", "", "",
+    "", "1;34", "", "", "", "", "", "", "", "2;32", "", "",
+  };
+
+  /** Counts and discards output. */
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /**
+   * Syntax-highlighted code, styled the way {@code Ansi} styles each call's text: set the
+   * style, write the text, and reset.
+   */
+  private static byte[] highlighted() {
+    StringBuilder builder = new StringBuilder(SIZE + 128);
+    for (int i = 0; builder.length() < SIZE; i++) {
+      String color = TOKEN_COLORS[i % TOKENS.length];
+      if (color.isEmpty()) {
+        builder.append("\u001B[39m").append(TOKENS[i % TOKENS.length]);
+      } else {
+        builder.append("\u001B[").append(color).append('m').append(TOKENS[i % TOKENS.length])
+            .append("\u001B[m");
+      }
+    }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** A horizontal gradient, which changes color every character but repeats many colors. */
+  private static byte[] gradient() {
+    StringBuilder builder = new StringBuilder(SIZE + 128);
+    for (int i = 0; builder.length() < SIZE; i++) {
+      int column = i % 81;
+      if (column == 80) {
+        builder.append('\n');
+        continue;
+      }
+      int red = column * 255 / 79 / 8 * 8; // the 24-bit color is quantized, so runs repeat
+      builder.append("\u001B[38;2;").append(red).append(";0;").append(255 - red).append('m')
+          .append((char) ('a' + column % 26)).append("\u001B[m");
+    }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void reportSavings(String name, byte[] input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(input.length);
+    SgrOptimizer optimizer = AnsiUtils.optimizeSgr(output);
+    optimizer.write(input);
+    optimizer.flush();
+    System.out.printf("%-20s %,12d -> %,12d bytes (%.1f%% saved)%n", name, input.length,
+        output.size(), 100.0 * optimizer.bytesSaved() / input.length);
+  }
+
+  private static void measure(String name, final byte[] input) throws Exception {
+    final CountingStream counter = new CountingStream();
+    final SgrOptimizer optimizer = AnsiUtils.optimizeSgr(counter);
+    Harness.measure(name, input.length, "bytes", () -> {
+      for (int offset = 0; offset < input.length; offset += CHUNK) {
+        optimizer.write(input, offset, Math.min(CHUNK, input.length - offset));
+      }
+      optimizer.flush();
+      return counter.count;
+    });
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    byte[] log = SampleOutput.coloredLog(SIZE);
+    byte[] highlighted = highlighted();
+    byte[] gradient = gradient();
+    reportSavings("build log", log);
+    reportSavings("highlighted code", highlighted);
+    reportSavings("gradient", gradient);
+    measure("optimizeSgr, build log", log);
+    measure("optimizeSgr, highlighted code", highlighted);
+    measure("optimizeSgr, gradient", gradient);
+    Harness.done();
+  }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.Ansi;
+import com.mwdiamond.fansi.AnsiFactory;
+import com.mwdiamond.fansi.AnsiUtils;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the startup cost of printing an RGB color via {@link Ansi#colorRgb} against
+ * {@link Ansi#color(java.awt.Color, Ansi.Style...)}, which has to load and initialize AWT, and
+ * against output that needs the width of the terminal, which has to be detected.
+ *
+ * <p>Each sample launches a fresh JVM that prints a single colored string, and reports the median
+ * wall-clock time to completion along with the number of classes loaded.
+ */
+public class StartupBenchmark {
+  private static final int SAMPLES = 15;
+
+  /** Child process: prints a color using an int. */
+  public static class Rgb {
+    /** main method - see class docs. */
+    public static void main(String[] args) {
+      AnsiFactory.DEFAULT.ansi().colorRgb(0xFF8000).outln("Hello");
+    }
+  }
+
+  /** Child process: prints a color using java.awt.Color. */
+  public static class Awt {
+    /** main method - see class docs. */
+    public static void main(String[] args) {
+      AnsiFactory.DEFAULT.ansi().color(new java.awt.Color(0xFF8000)).outln("Hello");
+    }
+  }
+
+  /** Child process: prints an image at the width of the terminal. */
+  public static class TerminalWidth {
+    /** main method - see class docs. */
+    public static void main(String[] args) {
+      AnsiUtils.create(AnsiFactory.DEFAULT).imageRenderer().print(new int[] {0xFF8000}, 1, 1);
+    }
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    for (Class<?> child : Arrays.asList(
+        Rgb.class, Awt.class, TerminalWidth.class, Rgb.class, Awt.class, TerminalWidth.class)) {
+      long[] nanos = new long[SAMPLES];
+      int classes = 0;
+      for (int i = 0; i < SAMPLES; i++) {
+        long start = System.nanoTime();
+        classes = launch(child);
+        nanos[i] = System.nanoTime() - start;
+      }
+      Arrays.sort(nanos);
+      System.out.printf("%-40s %,8.1f ms  (%,d classes loaded)%n", child.getSimpleName(),
+          nanos[SAMPLES / 2] / (double) TimeUnit.MILLISECONDS.toNanos(1), classes);
+    }
+  }
+
+  /** Runs {@code main} in a new JVM, returning the number of classes it loaded. */
+  private static int launch(Class<?> main) throws Exception {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.add("-verbose:class");
+    command.add("-Djava.awt.headless=true");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(main.getName());
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    int classes = 0;
+    try (InputStream in = process.getInputStream()) {
+      StringBuilder line = new StringBuilder();
+      for (int b = in.read(); b != -1; b = in.read()) {
+        if (b != '\n') {
+          line.append((char) b);
+          continue;
+        }
+        // Java 8 logs "[Loaded ...", Java 9+ logs "[...][class,load] ..."
+        if (line.indexOf("[Loaded ") >= 0 || line.indexOf("class,load") >= 0) {
+          classes++;
+        }
+        line.setLength(0);
+      }
+    }
+    if (process.waitFor() != 0) {
+      throw new IllegalStateException(main + " failed with exit code " + process.exitValue());
+    }
+    return classes;
+  }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.AnsiUtils;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Compares stripping escape codes from colored log output with {@link AnsiUtils#stripEscapes}
+ * against a typical regular expression.
+ */
+public class StripBenchmark {
+  private static final int SIZE = 16 * 1024 * 1024;
+  private static final int CHUNK = 64 * 1024;
+  /** CSI sequences, OSC strings, and two-character escapes. */
+  private static final Pattern ESCAPES = Pattern.compile("\u001B(?:"
+      + "\\[[0-?]*[ -/]*[@-~]"
+      + "|\\][^\u0007\u001B]*(?:\u0007|\u001B\\\\)"
+      + "|[@-Z\\\\-_])");
+
+  /** Counts and discards output. */
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final byte[] colored = SampleOutput.coloredLog(SIZE);
+    final byte[] plain = colored.clone();
+    for (int i = 0; i < plain.length; i++) {
+      if (plain[i] == 0x1B) {
+        plain[i] = 0x1C; // same size, but nothing to strip
+      }
+    }
+    // The in-place benchmarks include copying the input, so it's unchanged for the next iteration
+    final byte[] scratch = new byte[colored.length];
+
+    double regex = Harness.measure("regex replaceAll", colored.length, "bytes", () -> {
+      String text = new String(colored, StandardCharsets.UTF_8);
+      return ESCAPES.matcher(text).replaceAll("").getBytes(StandardCharsets.UTF_8).length;
+    });
+    double bulk = Harness.measure("stripEscapes(byte[]) in place", colored.length, "bytes", () -> {
+      System.arraycopy(colored, 0, scratch, 0, colored.length);
+      return AnsiUtils.stripEscapes(scratch, 0, scratch.length);
+    });
+    final CountingStream counter = new CountingStream();
+    final OutputStream stripping = AnsiUtils.stripEscapes(counter);
+    Harness.measure("stripEscapes(OutputStream), 64KiB writes", colored.length, "bytes", () -> {
+      for (int offset = 0; offset < colored.length; offset += CHUNK) {
+        stripping.write(colored, offset, Math.min(CHUNK, colored.length - offset));
+      }
+      return counter.count;
+    });
+    Harness.measure("stripEscapes(byte[]), no escapes", plain.length, "bytes", () -> {
+      System.arraycopy(plain, 0, scratch, 0, plain.length);
+      return AnsiUtils.stripEscapes(scratch, 0, scratch.length);
+    });
+    System.out.printf("In-place stripping is %.1fx faster than the regex%n", bulk / regex);
+    Harness.done();
+  }
+}
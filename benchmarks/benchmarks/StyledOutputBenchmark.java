@@ -0,0 +1,118 @@
+package benchmarks;
+
+import com.mwdiamond.fansi.Ansi;
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.AnsiFactory;
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.StyledOutputReader;
+import com.mwdiamond.fansi.StyledOutputWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures encoding colored output with a {@link StyledOutputWriter}, compared to rendering it as
+ * ANSI escape codes, and decoding it with a {@link StyledOutputReader} onto a terminal {@link Ansi}
+ * instance, as a worker process and its parent would. Also reports the size of the encoded output
+ * relative to the escape codes. Output is measured as log lines with named colors, lines with 256
+ * colors, and RGB gradients.
+ */
+public class StyledOutputBenchmark {
+  private static final int LINES = 100_000;
+
+  /** Counts and discards output. */
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /** Writes a line of output. */
+  private interface Line {
+    void write(AnsiFactory factory, int i);
+  }
+
+  /** A colored log line, as a typical worker would write. */
+  private static final Line LOG = (factory, i) ->
+      factory.ansi().color(i % 10 == 0 ? Color.RED : Color.GREEN).out("[%5d] ", i)
+          .outln("Compiling module %s", i % 97);
+
+  /** A log line in one of the 256 indexed colors. */
+  private static final Line INDEXED = (factory, i) ->
+      factory.ansi().color(i % 256).out("[%5d] ", i).outln("Compiling module %s", i % 97);
+
+  /** A line colored with an RGB gradient, e.g. a banner or progress bar. */
+  private static final Line GRADIENT = (factory, i) ->
+      AnsiUtils.create(factory).gradient(0xFF0000 + i % 256, 0x0000FF)
+          .println("Compiling module " + i % 97);
+
+  private static void writeLines(AnsiFactory factory, Line line) {
+    for (int i = 0; i < LINES; i++) {
+      line.write(factory, i);
+    }
+  }
+
+  private static void measure(String name, final Line line, final AnsiFactory terminal,
+      final CountingStream counter) throws Exception {
+    Harness.measure("Ansi, escape codes, " + name, LINES, "lines", () -> {
+      writeLines(terminal, line);
+      return counter.count;
+    });
+    Harness.measure("StyledOutputWriter, encode, " + name, LINES, "lines", () -> {
+      try (StyledOutputWriter writer = AnsiUtils.styledOutputWriter(counter)) {
+        writeLines(writer, line);
+      }
+      return counter.count;
+    });
+
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    try (StyledOutputWriter writer = AnsiUtils.styledOutputWriter(encoded)) {
+      writeLines(writer, line);
+    }
+    final byte[] bytes = encoded.toByteArray();
+    final Ansi ansi = terminal.ansi();
+    Harness.measure("StyledOutputReader, decode, " + name, LINES, "lines", () -> {
+      AnsiUtils.styledOutputReader().render(ByteBuffer.wrap(bytes), ansi);
+      return counter.count;
+    });
+
+    long start = counter.count;
+    writeLines(terminal, line);
+    long escaped = counter.count - start;
+    System.out.printf("Encoded %s are %,d bytes, %.1f%% of the %,d bytes of escape codes%n",
+        name, bytes.length, bytes.length * 100.0 / escaped, escaped);
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    final CountingStream counter = new CountingStream();
+    final PrintStream discard = new PrintStream(counter);
+    final PrintStream stdout = System.out;
+    // Ansi instances write to the System.out they were created with
+    final AnsiFactory terminal = new AnsiFactory() {
+      @Override
+      public Ansi ansi() {
+        System.setOut(discard);
+        try {
+          return Ansi.realAnsi();
+        } finally {
+          System.setOut(stdout);
+        }
+      }
+    };
+
+    measure("named colors", LOG, terminal, counter);
+    measure("256 colors", INDEXED, terminal, counter);
+    measure("RGB gradients", GRADIENT, terminal, counter);
+    Harness.done();
+  }
+}
@@ -0,0 +1,60 @@
+package demo;
+
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.FramePlayer;
+import com.mwdiamond.fansi.Palette;
+import java.io.File;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Demonstrates rendering images with {@link com.mwdiamond.fansi.ImageRenderer}. Pass the path to an
+ * image to render it, otherwise a generated color wheel is rendered at several color depths and
+ * then animated with a {@link com.mwdiamond.fansi.FramePlayer}.
+ */
+public class ImageDemo {
+  private static final AnsiUtils ansiUtils = AnsiUtils.create();
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0) {
+      ansiUtils.imageRenderer().print(ImageIO.read(new File(args[0])));
+      return;
+    }
+
+    int size = 64;
+    int[] wheel = colorWheel(size, 0);
+    System.out.println("Detected color depth:");
+    ansiUtils.imageRendererBuilder().width(size).build().print(wheel, size, size);
+    System.out.println("16 colors:");
+    ansiUtils.imageRendererBuilder().width(size).palette(Palette.ansi16()).build()
+        .print(wheel, size, size);
+    System.out.println("16 colors, dithered:");
+    ansiUtils.imageRendererBuilder().width(size).palette(Palette.ansi16()).dither(true).build()
+        .print(wheel, size, size);
+
+    System.out.println("Animated:");
+    FramePlayer.Stats stats = ansiUtils.imageRendererBuilder().width(size).build().framePlayer(30)
+        .play(IntStream.range(0, 90).mapToObj(i -> colorWheel(size, i / 90.0)).iterator(),
+            size, size);
+    System.out.println(stats);
+  }
+
+  /** Generates a hue/saturation wheel on a black background, rotated by a fraction of a turn. */
+  private static int[] colorWheel(int size, double rotation) {
+    int[] pixels = new int[size * size];
+    double radius = size / 2.0;
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        double dx = x + 0.5 - radius;
+        double dy = y + 0.5 - radius;
+        double distance = Math.sqrt(dx * dx + dy * dy) / radius;
+        if (distance <= 1) {
+          float hue = (float) ((Math.atan2(dy, dx) / (2 * Math.PI)) + 0.5 + rotation);
+          pixels[y * size + x] = java.awt.Color.HSBtoRGB(hue, (float) distance, 1);
+        }
+      }
+    }
+    return pixels;
+  }
+}
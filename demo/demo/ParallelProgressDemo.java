@@ -0,0 +1,138 @@
+package demo;
+
+import com.mwdiamond.fansi.AnsiUtils;
+import com.mwdiamond.fansi.ConcurrentProgress;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Demonstrates reporting the progress of a parallel stream via {@link ConcurrentProgress}.
+ *
+ * <p>F-ANSI's core library targets Java 7, so the {@link Spliterator} adapter lives here; copy it
+ * into Java 8+ applications as needed.
+ */
+public class ParallelProgressDemo {
+  private static final AnsiUtils ansiUtils = AnsiUtils.create();
+
+  /**
+   * Decorates a stream so that each element consumed from it is reported to a progress bar, which
+   * is published once the whole stream has been consumed. If the stream's exact size is known
+   * (e.g. it is {@link Spliterator#SIZED SIZED}) that is the bar's total, otherwise the total
+   * grows with the number of elements consumed, so pass a
+   * {@linkplain AnsiUtils#counterProgressBar counter progress bar} for such streams.
+   */
+  static <T> Stream<T> withProgress(Stream<T> stream, AnsiUtils.ProgressBar progressBar) {
+    Spliterator<T> spliterator = stream.spliterator();
+    ConcurrentProgress progress = AnsiUtils.trackConcurrently(
+        progressBar, Math.max(0, spliterator.getExactSizeIfKnown()));
+    return StreamSupport.stream(
+        new ProgressSpliterator<>(spliterator, progress, new AtomicInteger(1)),
+        stream.isParallel())
+        .onClose(stream::close);
+  }
+
+  /**
+   * Wraps a {@link Spliterator}, giving each split its own {@link ConcurrentProgress.Counter} so
+   * that parallel traversals don't contend on a shared counter. The splits share a count of those
+   * not yet exhausted, and whichever is exhausted last publishes the final progress, since the
+   * last counter's flush may not have been rendered.
+   */
+  static class ProgressSpliterator<T> implements Spliterator<T> {
+    private final Spliterator<T> delegate;
+    private final ConcurrentProgress progress;
+    private final ConcurrentProgress.Counter counter;
+    private final AtomicInteger remaining;
+    private boolean exhausted;
+
+    ProgressSpliterator(
+        Spliterator<T> delegate, ConcurrentProgress progress, AtomicInteger remaining) {
+      this.delegate = delegate;
+      this.progress = progress;
+      this.counter = progress.newCounter();
+      this.remaining = remaining;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      if (delegate.tryAdvance(action)) {
+        counter.increment();
+        return true;
+      }
+      exhausted();
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+      delegate.forEachRemaining(t -> {
+        action.accept(t);
+        counter.increment();
+      });
+      exhausted();
+    }
+
+    private void exhausted() {
+      if (!exhausted) {
+        exhausted = true;
+        counter.flush();
+        if (remaining.decrementAndGet() == 0) {
+          progress.publish();
+        }
+      }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+      Spliterator<T> split = delegate.trySplit();
+      if (split == null) {
+        return null;
+      }
+      remaining.incrementAndGet();
+      return new ProgressSpliterator<>(split, progress, remaining);
+    }
+
+    @Override
+    public long estimateSize() {
+      return delegate.estimateSize();
+    }
+
+    @Override
+    public long getExactSizeIfKnown() {
+      return delegate.getExactSizeIfKnown();
+    }
+
+    @Override
+    public int characteristics() {
+      return delegate.characteristics();
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+      return delegate.getComparator();
+    }
+  }
+
+  /** main method - see class docs. */
+  public static void main(String[] args) throws Exception {
+    AnsiUtils.ProgressBar progressBar = ansiUtils.percentProgressBar();
+    long primes = withProgress(LongStream.range(2, 2_000_000).boxed().parallel(), progressBar)
+        .filter(ParallelProgressDemo::isPrime)
+        .count();
+    progressBar.finish();
+    ansiUtils.done("Found %d primes", primes);
+  }
+
+  private static boolean isPrime(long n) {
+    for (long i = 2; i * i <= n; i++) {
+      if (n % i == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
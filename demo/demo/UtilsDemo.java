@@ -29,6 +29,10 @@ public class UtilsDemo {
     ansiUtils.fail("Task %d of %d Crashed", 3, 3);
     ansi().outln();
 
+    ansiUtils.gradientBuilder().build().println("Rainbows are interpolated in OKLab by default");
+    ansiUtils.gradient(0xFF8000, 0x8000FF).println("Or use your own colors, as many as you like");
+    ansi().outln();
+
     AnsiUtils.ProgressBar progress = ansiUtils.percentProgressBar();
     for (int i = 0; i <= 100; i++) {
       progress.updateProgress(i);
@@ -47,5 +51,11 @@ public class UtilsDemo {
     Thread.sleep(100);
     tasks.remove();
     ansiUtils.done("All tasks complete.");
+
+    AnsiUtils.Spinner spinner = ansiUtils.spinner("Waiting for a response");
+    Thread.sleep(2000);
+    spinner.updateMessage("Still waiting");
+    Thread.sleep(1500);
+    spinner.finish();
   }
 }
@@ -0,0 +1,165 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs periodic tasks, such as spinner frames, elapsed-time counters, and other redraws, for any
+ * number of widgets. The {@linkplain #shared shared} scheduler runs all tasks on a single daemon
+ * thread, rather than each animated widget needing its own.
+ *
+ * <p>Deadlines are computed from a {@link Clock}. Schedulers created with a fake clock don't start
+ * a thread; instead tests advance the clock and call {@link #runDue} to run any tasks that have
+ * become due.
+ *
+ * <p>Tasks run at a fixed rate, but frames that are missed (because the clock jumped forward, or a
+ * previous frame ran long) are skipped rather than run back-to-back. Tasks should be quick, as
+ * they delay all other tasks while running.
+ */
+final class AnimationScheduler {
+  private final Clock clock;
+  private final PriorityQueue<Task> tasks = new PriorityQueue<>(); // guarded by this
+  private long sequence = 0; // guarded by this
+
+  AnimationScheduler(Clock clock) {
+    this.clock = checkNotNull(clock);
+  }
+
+  private static final class SharedHolder {
+    static final AnimationScheduler SHARED = start(new AnimationScheduler(Clock.SYSTEM));
+
+    private static AnimationScheduler start(final AnimationScheduler scheduler) {
+      Thread thread = SystemInfo.threadFactory.newThread(new Runnable() {
+        @Override
+        public void run() {
+          scheduler.runForever();
+        }
+      });
+      thread.start();
+      return scheduler;
+    }
+  }
+
+  /** Returns the system-wide scheduler, starting its thread if it's not already running. */
+  static AnimationScheduler shared() {
+    return SharedHolder.SHARED;
+  }
+
+  /**
+   * Schedules {@code frame} to run after {@code initialDelay}, and then every {@code period} until
+   * cancelled.
+   *
+   * @return a handle that can be used to cancel the task
+   */
+  Task schedule(Runnable frame, long initialDelay, long period, TimeUnit unit) {
+    checkArgument(initialDelay >= 0, "Invalid initialDelay: %s", initialDelay);
+    checkArgument(period > 0, "Invalid period: %s", period);
+    Task task = new Task(checkNotNull(frame), unit.toNanos(period));
+    synchronized (this) {
+      task.deadline = clock.nanoTime() + unit.toNanos(initialDelay);
+      task.sequence = sequence++;
+      tasks.add(task);
+      notifyAll();
+    }
+    return task;
+  }
+
+  /**
+   * Runs every task that is due according to the clock, in deadline order.
+   *
+   * @return the number of nanoseconds until the next task is due, or -1 if there are no tasks
+   */
+  long runDue() {
+    while (true) {
+      Task task;
+      long now = clock.nanoTime();
+      synchronized (this) {
+        task = tasks.peek();
+        if (task == null) {
+          return -1;
+        }
+        if (task.deadline - now > 0) {
+          return task.deadline - now;
+        }
+        tasks.poll();
+      }
+
+      try {
+        task.frame.run();
+      } catch (RuntimeException e) {
+        task.cancel();
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+
+      synchronized (this) {
+        if (!task.cancelled) {
+          task.deadline += task.period;
+          if (task.deadline - now <= 0) {
+            task.deadline = now + task.period; // skip missed frames
+          }
+          tasks.add(task);
+        }
+      }
+    }
+  }
+
+  private void runForever() {
+    try {
+      while (true) {
+        runDue();
+        synchronized (this) {
+          // Re-check, in case a task was scheduled while runDue() was running
+          Task next = tasks.peek();
+          if (next == null) {
+            wait();
+          } else {
+            long delay = next.deadline - clock.nanoTime();
+            if (delay > 0) {
+              TimeUnit.NANOSECONDS.timedWait(this, delay);
+            }
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // Only daemon threads run this method, nothing should be interrupting them
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** A scheduled task. */
+  final class Task implements Comparable<Task> {
+    private final Runnable frame;
+    private final long period;
+    private volatile boolean cancelled = false;
+    private long deadline; // guarded by AnimationScheduler.this
+    private long sequence; // guarded by AnimationScheduler.this
+
+    private Task(Runnable frame, long period) {
+      this.frame = frame;
+      this.period = period;
+    }
+
+    /**
+     * Stops this task from running again. If the task is currently running it will finish, but not
+     * be rescheduled.
+     */
+    void cancel() {
+      cancelled = true;
+      synchronized (AnimationScheduler.this) {
+        tasks.remove(this);
+      }
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if (deadline != other.deadline) {
+        return deadline - other.deadline < 0 ? -1 : 1;
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+}
@@ -1,17 +1,15 @@
 package com.mwdiamond.fansi;
 
-import static com.google.common.base.Preconditions.checkState;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+import static com.mwdiamond.fansi.Preconditions.checkState;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.primitives.Ints;
-import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.mwdiamond.fansi.Codes.ColorDepth;
 import com.mwdiamond.fansi.Codes.ColorType;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.List;
+import java.util.Set;
 import javax.annotation.CheckReturnValue;
 
 /**
@@ -50,17 +48,133 @@ import javax.annotation.CheckReturnValue;
 @CheckReturnValue
 public class Ansi {
   private static final Codes DEFAULT_CODES = Codes.REAL;
-  private static final int DEFAULT_COLUMNS = 80;
+  static final int DEFAULT_COLUMNS = 80;
+  static final int DEFAULT_ROWS = 24;
   private static final long DEFAULT_DELAY = 100;
 
   /**
    * Returns the width of the currently executing terminal, falling back to {@code 80} if the width
-   * is not (yet) available.
+   * is not available. The width is kept up to date as the terminal is resized, so this is cheap
+   * enough to call on every render.
    */
   int columns() {
     return systemInfo.columns(DEFAULT_COLUMNS);
   }
 
+  /**
+   * Returns the height of the currently executing terminal, falling back to {@code 24} if the
+   * height is not available.
+   */
+  int rows() {
+    return systemInfo.rows(DEFAULT_ROWS);
+  }
+
+  /**
+   * Returns whether this instance's output is (believed to be) displayed on an interactive
+   * terminal, and can therefore be updated in place. This is false if escape codes are disabled,
+   * or the output isn't for a terminal (e.g. HTML).
+   */
+  boolean interactive() {
+    return codes().isTerminal() && systemInfo.interactive(true);
+  }
+
+  /**
+   * Returns the codes this instance uses for stdout, for utilities that write escape codes in bulk.
+   * These are no-op codes if stdout is redirected, even if stderr isn't.
+   */
+  Codes codes() {
+    return stdoutEscapes ? codes : Codes.NO_OP;
+  }
+
+  /** Returns the codes this instance uses for stderr, like {@link #codes} does for stdout. */
+  Codes stderrCodes() {
+    return stderrEscapes ? codes : Codes.NO_OP;
+  }
+
+  /**
+   * Flushes stdout, for output that should be displayed immediately even though it doesn't end in
+   * a newline.
+   */
+  void flush() {
+    stdout.flush();
+  }
+
+  /** Returns the stream this instance writes stdout output to. */
+  PrintStream stdout() {
+    return stdout;
+  }
+
+  /** Returns the stream this instance writes stderr output to. */
+  PrintStream stderr() {
+    return stderr;
+  }
+
+  /**
+   * Returns an instance like this one that writes to the given streams instead, e.g. wrappers that
+   * filter this instance's output.
+   */
+  Ansi withStreams(PrintStream stdout, PrintStream stderr) {
+    checkState(preBuffer.isEmpty() && postBuffer.isEmpty(),
+        "Cannot change the streams of an instance with pending formatting.");
+    return new Ansi(this, stdout, stderr, sink);
+  }
+
+  /**
+   * Writes output that's already been rendered with this instance's {@linkplain #codes codes},
+   * such as recorded output, as one write.
+   */
+  void writeRendered(boolean toStderr, CharSequence rendered, boolean newLine) {
+    sink.write(toStderr ? stderr : stdout, toStderr, rendered, newLine);
+  }
+
+  /** Returns the sink this instance's rendered output is passed to. */
+  Sink sink() {
+    return sink;
+  }
+
+  /**
+   * Returns an instance like this one that passes its rendered output to {@code sink} instead,
+   * e.g. to record it.
+   */
+  Ansi withSink(Sink sink) {
+    checkState(preBuffer.isEmpty() && postBuffer.isEmpty(),
+        "Cannot change the sink of an instance with pending formatting.");
+    return new Ansi(this, stdout, stderr, checkNotNull(sink));
+  }
+
+  /** Returns the clock to use for time-sensitive output. */
+  Clock clock() {
+    return systemInfo.clock();
+  }
+
+  /** Returns the scheduler to use for animated output. */
+  AnimationScheduler scheduler() {
+    return systemInfo.scheduler();
+  }
+
+  /** Returns the monitor tracking the terminal's size. */
+  TerminalSizeMonitor sizeMonitor() {
+    return systemInfo.sizeMonitor();
+  }
+
+  /**
+   * Queries the terminal, after flushing any pending output so that e.g. the cursor position is up
+   * to date. Nothing is sent, and there are no replies, if escape codes are disabled or the output
+   * isn't for a terminal.
+   */
+  TerminalQueries.Replies query(Set<TerminalQueries.Query> queries) {
+    if (!codes().isTerminal()) {
+      return TerminalQueries.Replies.NONE;
+    }
+    flush();
+    return systemInfo.queries().query(queries);
+  }
+
+  /** Returns the terminal's default colors, which are only queried once. */
+  TerminalQueries.Replies terminalColors() {
+    return codes().isTerminal() ? systemInfo.colors() : TerminalQueries.Replies.NONE;
+  }
+
   /**
    * Constructs a new {@code Ansi} instance configured for the current environment. Generally you
    * should use this method to obtain an {@code Ansi} instance.
@@ -77,15 +191,38 @@ public class Ansi {
    * <li><b>RAW</b>: makes this method behave like {@link #rawAnsi}.</li>
    * <li><b>OFF</b>: disables all ANSI escape codes, output is written to stdout/stderr unchanged.
    * </li>
-   * <li><b>CONSOLE</b>:Uses {@link System#console} to detect if the application is running in an
-   * interactive shell, and only outputs ANSI escape codes (equivalent to REAL) if so; otherwise
-   * escape codes are disabled, like OFF.</li>
+   * <li><b>CONSOLE</b>: like the default, but escape codes are also disabled for stderr if it can't
+   * be checked, unless {@link System#console} indicates the application is running in an
+   * interactive shell.</li>
    * </ul>
    *
+   * <p>Unless the property is set to REAL, RAW, or OFF, stdout and stderr are each checked to see
+   * if they're attached to a terminal, and escape codes are only written to those that are. Output
+   * redirected to a file or pipe is therefore written unchanged, even if the other stream is still
+   * displayed on the terminal. Where this can't be determined, e.g. on platforms other than Linux,
+   * escape codes are only written to stdout if {@link System#console} indicates the application is
+   * running in an interactive shell (which it doesn't if stdin is redirected, or in some IDE
+   * consoles; set the property to REAL to always write them), and are always written to stderr.
+   *
+   * <p>Text written to a redirected stream is otherwise written as-is, so any escape codes it
+   * contains itself, e.g. relayed from a subprocess, are kept. Set the Java property
+   * {@code com.mwdiamond.fansi.redirected} to <b>STRIP</b> to remove them too.
+   *
+   * <p>Colors the terminal can't display are replaced with the closest color it can, so it's safe
+   * to always use RGB colors. The terminal's color depth is detected from the {@code COLORTERM}
+   * and {@code TERM} environment variables, and can be overridden with the Java property
+   * {@code com.mwdiamond.fansi.colors}, which can be set to <b>TRUECOLOR</b>, <b>256</b>, or
+   * <b>16</b>. If the depth can't be determined RGB colors are output unchanged.
+   *
    * @return an Ansi instance wrapping System.out and System.err.
    */
   public static Ansi ansi() {
-    return new Ansi(SystemInfo.get().codes(DEFAULT_CODES));
+    SystemInfo systemInfo = SystemInfo.get();
+    return new Ansi(System.out, System.err,
+        systemInfo.codes(DEFAULT_CODES)
+            .withColorDepth(systemInfo.colorDepth(ColorDepth.TRUE_COLOR)),
+        systemInfo.escapes(SystemInfo.Stream.STDOUT, true),
+        systemInfo.escapes(SystemInfo.Stream.STDERR, true), systemInfo);
   }
 
   /**
@@ -108,6 +245,34 @@ public class Ansi {
     return new Ansi(Codes.RAW);
   }
 
+  /**
+   * Constructs a new {@code Ansi} instance that renders output as HTML, and writes both its stdout
+   * and stderr output to {@code out}. Text is escaped, and colors and styles are rendered as
+   * {@code <span>} elements, using the CSS classes defined by {@link #htmlStylesheet} and inline
+   * styles for RGB colors. Place the output in a {@code <pre>} element.
+   *
+   * <p>HTML can't be updated in place, so cursor movements and clearing are omitted, and utilities
+   * such as progress bars behave as they do when output is redirected to a file.
+   *
+   * @param out the stream to write HTML to
+   * @return an Ansi instance that writes HTML to {@code out}
+   */
+  public static Ansi htmlAnsi(PrintStream out) {
+    return new Ansi(out, out, Codes.HTML, SystemInfo.get());
+  }
+
+  /**
+   * Returns the CSS rules used by the output of {@link #htmlAnsi}, which can be included in a
+   * {@code <style>} element or served as a stylesheet. Color indexes, and therefore the named
+   * colors, use xterm's default colors; override the {@code fansi-fg0} - {@code fansi-fg255} and
+   * {@code fansi-bg0} - {@code fansi-bg255} classes to use a different theme.
+   *
+   * @return a CSS stylesheet
+   */
+  public static String htmlStylesheet() {
+    return Codes.HtmlCodes.stylesheet();
+  }
+
   /**
    * Constructs a new {@code Ansi} instance that doesn't output any escape codes. No need to be
    * public, there's little reason for a caller to manually ask for a no-op Ansi; they could just
@@ -141,9 +306,6 @@ public class Ansi {
     DEFAULT(39);
 
     private static final int BACKGROUND = 10; // additive
-    private static final int EXTENDED = 38;
-    private static final int RGB = 2;
-    private static final int COLOR_INDEX = 5;
 
     private final int code;
 
@@ -160,18 +322,6 @@ public class Ansi {
     int background() {
       return color() + BACKGROUND;
     }
-
-    /** Creates a list of the codes to specify a color index. */
-    static List<Object> extended(int colorIndex, boolean background) {
-      int code = background ? EXTENDED + BACKGROUND : EXTENDED;
-      return ImmutableList.<Object>of(code, COLOR_INDEX, colorIndex);
-    }
-
-    /** Creates a list of the codes to specify an RGB color. */
-    static List<Object> extended(java.awt.Color color, boolean background) {
-      int code = background ? EXTENDED + BACKGROUND : EXTENDED;
-      return ImmutableList.<Object>of(code, RGB, color.getRed(), color.getGreen(), color.getBlue());
-    }
   }
 
   /**
@@ -181,34 +331,62 @@ public class Ansi {
    * @param color a Java color
    * @return an approximately equivalent color index
    */
-  // http://stackoverflow.com/a/27165165/113632
   public static int toColorIndex(java.awt.Color color) {
+    return toColorIndex(color.getRGB());
+  }
+
+  /**
+   * Maps an RGB color to a reasonably close color index, for terminals that don't support full
+   * colors. This method does not allocate, and is suitable for converting large numbers of pixels.
+   *
+   * <p>This uses a simple, fast bucketing of each component; {@link Palette#xterm256()} finds
+   * perceptually closer colors, and can also target the 16 named colors.
+   *
+   * @param rgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @return an approximately equivalent color index
+   */
+  // http://stackoverflow.com/a/27165165/113632
+  public static int toColorIndex(int rgb) {
     // 0x00-0x0F: Native colors, unspecified and not provided here
 
     // 0x10-0xE7: 6 × 6 × 6 = 216 colors: 16 + 36 × r + 6 × g + b (0 ≤ r, g, b ≤ 5)
-    int[] indicies = {toCode(color.getRed()), toCode(color.getGreen()), toCode(color.getBlue())};
-    if (ImmutableSet.copyOf(Ints.asList(indicies)).size() > 1) {
+    int red = (rgb >> 16) & 0xFF;
+    int green = (rgb >> 8) & 0xFF;
+    int blue = rgb & 0xFF;
+    int redCode = CUBE_CODES[red];
+    int greenCode = CUBE_CODES[green];
+    int blueCode = CUBE_CODES[blue];
+    if (redCode != greenCode || greenCode != blueCode) {
       // If all indicies map to the same value, we'd return one of six
       // greys in the color section. We can do better by using the
       // greyscale section.
-      return 0x10 + 0x24 * indicies[0] + 0x06 * indicies[1] + indicies[2];
+      return 0x10 + 0x24 * redCode + 0x06 * greenCode + blueCode;
     }
 
     // 0xE8-0xFF: grayscale from black to white in 24 steps
     // Averaging probably isn't ideal for colors, but it's good enough;
     // R, G, and B should be fairly close to each other.
-    int average = (color.getRed() + color.getGreen() + color.getBlue()) / 3;
-    int greycode = (average - 0x08) / 0x0A;
-    if (greycode <= 0) {
-      return 0x10; // black
-    } else if (greycode > 23) {
-      return 0xE7; // white
-    }
-    return 0xE8 + greycode;
+    return GREY_INDICIES[(red + green + blue) / 3] & 0xFF;
   }
 
-  private static int toCode(int component) {
-    return Math.max(0, (component - 55) / 40);
+  /** Maps an 8-bit color component to its position (0-5) along an axis of the color cube. */
+  private static final byte[] CUBE_CODES = new byte[256];
+  /** Maps an 8-bit grey level to the closest color index in the greyscale section. */
+  private static final byte[] GREY_INDICIES = new byte[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      CUBE_CODES[i] = (byte) Math.max(0, (i - 55) / 40);
+
+      int greycode = (i - 0x08) / 0x0A;
+      if (greycode <= 0) {
+        GREY_INDICIES[i] = 0x10; // black
+      } else if (greycode > 23) {
+        GREY_INDICIES[i] = (byte) 0xE7; // white
+      } else {
+        GREY_INDICIES[i] = (byte) (0xE8 + greycode);
+      }
+    }
   }
 
   /**
@@ -258,9 +436,41 @@ public class Ansi {
     }
   }
 
+  /**
+   * Receives the output of each of an instance's writes once it's rendered, such as a call to
+   * {@link #out}. By default it's {@linkplain #PRINT printed} to the instance's streams.
+   */
+  interface Sink {
+    /**
+     * Writes the rendered output of one write.
+     *
+     * @param out the stream the output is for
+     * @param stderr whether {@code out} is the instance's stderr, rather than its stdout
+     * @param rendered the text and escape codes to write
+     * @param newLine whether the write ends with a newline, which isn't included in
+     *     {@code rendered}
+     */
+    void write(PrintStream out, boolean stderr, CharSequence rendered, boolean newLine);
+  }
+
+  /** Prints output to the stream it's for. */
+  static final Sink PRINT = new Sink() {
+    @Override
+    public void write(PrintStream out, boolean stderr, CharSequence rendered, boolean newLine) {
+      if (newLine) {
+        out.println(rendered);
+      } else {
+        out.print(rendered);
+      }
+    }
+  };
+
   private final PrintStream stdout;
   private final PrintStream stderr;
+  private final Sink sink;
   private final Codes codes;
+  private final boolean stdoutEscapes;
+  private final boolean stderrEscapes;
   private final SystemInfo systemInfo;
   private final LinkedList<String> preBuffer;
   private final LinkedList<String> postBuffer;
@@ -271,14 +481,41 @@ public class Ansi {
 
   // Package-visible for AnsiForTests
   Ansi(PrintStream stdout, PrintStream stderr, Codes codes, SystemInfo systemInfo) {
-    this.stdout = stdout;
-    this.stderr = stderr;
+    this(stdout, stderr, codes, true, true, systemInfo);
+  }
+
+  /**
+   * Constructs an instance that only writes escape codes to the streams they're enabled for, and
+   * writes just the text to the other.
+   */
+  Ansi(PrintStream stdout, PrintStream stderr, Codes codes, boolean stdoutEscapes,
+      boolean stderrEscapes, SystemInfo systemInfo) {
+    this.stdout =
+        stdoutEscapes ? stdout : systemInfo.redirected(SystemInfo.Stream.STDOUT, stdout);
+    this.stderr =
+        stderrEscapes ? stderr : systemInfo.redirected(SystemInfo.Stream.STDERR, stderr);
+    sink = PRINT;
     this.codes = codes;
+    this.stdoutEscapes = stdoutEscapes;
+    this.stderrEscapes = stderrEscapes;
     this.systemInfo = systemInfo;
     preBuffer = new LinkedList<>();
     postBuffer = new LinkedList<>();
   }
 
+  /** Constructs a copy of {@code original} that writes to exactly the given streams and sink. */
+  private Ansi(Ansi original, PrintStream stdout, PrintStream stderr, Sink sink) {
+    this.stdout = stdout;
+    this.stderr = stderr;
+    this.sink = sink;
+    codes = original.codes;
+    stdoutEscapes = original.stdoutEscapes;
+    stderrEscapes = original.stderrEscapes;
+    systemInfo = original.systemInfo;
+    preBuffer = new LinkedList<>();
+    postBuffer = new LinkedList<>();
+  }
+
   private void prepend(String... parts) {
     preBuffer.addAll(Arrays.asList(parts));
   }
@@ -298,7 +535,8 @@ public class Ansi {
   public void title(String title) {
     checkState(preBuffer.isEmpty() && postBuffer.isEmpty(),
         "Unnecessary chaining; cannot set additional formatting on the window title.");
-    out(codes.title(title));
+    prepend(codes().title(title));
+    out("");
   }
 
   /**
@@ -324,7 +562,7 @@ public class Ansi {
    * @return this Ansi instance, to continue modifying the output
    */
   public Ansi color(int colorIndex, Style... styles) {
-    prepend(codes.color(new ColorType(colorIndex), ColorType.DEFAULT, Font.DEFAULT, styles));
+    prepend(codes.color(ColorType.fromIndex(colorIndex), ColorType.DEFAULT, Font.DEFAULT, styles));
     append(codes.clear());
     return this;
   }
@@ -345,6 +583,22 @@ public class Ansi {
     return this;
   }
 
+  /**
+   * Sets the color, and optionally the style(s), of the next block of text to display.
+   *
+   * <p>Use {@link #ansi()} to have colors the terminal can't display replaced with the closest
+   * color it can. Unlike the {@code java.awt.Color} overloads this method does not load AWT.
+   *
+   * @param rgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @param styles any additional styles to apply, <i>optional</i>
+   * @return this Ansi instance, to continue modifying the output
+   */
+  public Ansi colorRgb(int rgb, Style... styles) {
+    prepend(codes.color(ColorType.fromRgb(rgb), ColorType.DEFAULT, Font.DEFAULT, styles));
+    append(codes.clear());
+    return this;
+  }
+
   /**
    * Sets the color, font, and optionally the style(s), of the next block of text to display.
    *
@@ -370,7 +624,7 @@ public class Ansi {
    * @return this Ansi instance, to continue modifying the output
    */
   public Ansi color(int colorIndex, Font font, Style... styles) {
-    prepend(codes.color(new ColorType(colorIndex), ColorType.DEFAULT, font, styles));
+    prepend(codes.color(ColorType.fromIndex(colorIndex), ColorType.DEFAULT, font, styles));
     append(codes.clearFont(), codes.clear());
     return this;
   }
@@ -392,6 +646,23 @@ public class Ansi {
     return this;
   }
 
+  /**
+   * Sets the color, font, and optionally the style(s), of the next block of text to display.
+   *
+   * <p>Use {@link #ansi()} to have colors the terminal can't display replaced with the closest
+   * color it can. Unlike the {@code java.awt.Color} overloads this method does not load AWT.
+   *
+   * @param rgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @param font a standard ANSI font
+   * @param styles any additional styles to apply, <i>optional</i>
+   * @return this Ansi instance, to continue modifying the output
+   */
+  public Ansi colorRgb(int rgb, Font font, Style... styles) {
+    prepend(codes.color(ColorType.fromRgb(rgb), ColorType.DEFAULT, font, styles));
+    append(codes.clearFont(), codes.clear());
+    return this;
+  }
+
   /**
    * Sets the color and background, and optionally the style(s), of the next block of text to
    * display.
@@ -419,8 +690,8 @@ public class Ansi {
    * @return this Ansi instance, to continue modifying the output
    */
   public Ansi color(int colorIndex, int backgroundIndex, Style... styles) {
-    prepend(codes.color(new ColorType(colorIndex), new ColorType(backgroundIndex), Font.DEFAULT,
-        styles));
+    prepend(codes.color(ColorType.fromIndex(colorIndex), ColorType.fromIndex(backgroundIndex),
+        Font.DEFAULT, styles));
     append(codes.clear());
     return this;
   }
@@ -443,6 +714,25 @@ public class Ansi {
     return this;
   }
 
+  /**
+   * Sets the color and background, and optionally the style(s), of the next block of text to
+   * display.
+   *
+   * <p>Use {@link #ansi()} to have colors the terminal can't display replaced with the closest
+   * color it can. Unlike the {@code java.awt.Color} overloads this method does not load AWT.
+   *
+   * @param rgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @param backgroundRgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @param styles any additional styles to apply, <i>optional</i>
+   * @return this Ansi instance, to continue modifying the output
+   */
+  public Ansi colorRgb(int rgb, int backgroundRgb, Style... styles) {
+    prepend(codes.color(ColorType.fromRgb(rgb), ColorType.fromRgb(backgroundRgb), Font.DEFAULT,
+        styles));
+    append(codes.clear());
+    return this;
+  }
+
   /**
    * Sets the color, background, font, and optionally style(s), of the next block of text to
    * display.
@@ -472,7 +762,8 @@ public class Ansi {
    * @return this Ansi instance, to continue modifying the output
    */
   public Ansi color(int colorIndex, int backgroundIndex, Font font, Style... styles) {
-    prepend(codes.color(new ColorType(colorIndex), new ColorType(backgroundIndex), font, styles));
+    prepend(codes.color(ColorType.fromIndex(colorIndex), ColorType.fromIndex(backgroundIndex),
+        font, styles));
     append(codes.clearFont(), codes.clear());
     return this;
   }
@@ -496,6 +787,25 @@ public class Ansi {
     return this;
   }
 
+  /**
+   * Sets the color, background, font, and optionally style(s), of the next block of text to
+   * display.
+   *
+   * <p>Use {@link #ansi()} to have colors the terminal can't display replaced with the closest
+   * color it can. Unlike the {@code java.awt.Color} overloads this method does not load AWT.
+   *
+   * @param rgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @param backgroundRgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @param font a standard ANSI font
+   * @param styles any additional styles to apply, <i>optional</i>
+   * @return this Ansi instance, to continue modifying the output
+   */
+  public Ansi colorRgb(int rgb, int backgroundRgb, Font font, Style... styles) {
+    prepend(codes.color(ColorType.fromRgb(rgb), ColorType.fromRgb(backgroundRgb), font, styles));
+    append(codes.clearFont(), codes.clear());
+    return this;
+  }
+
   /**
    * Sets the background color, and optionally the style(s), of the next block of text to display.
    *
@@ -519,7 +829,8 @@ public class Ansi {
    * @return this Ansi instance, to continue modifying the output
    */
   public Ansi background(int backgroundIndex, Style... styles) {
-    prepend(codes.color(ColorType.DEFAULT, new ColorType(backgroundIndex), Font.DEFAULT, styles));
+    prepend(codes.color(ColorType.DEFAULT, ColorType.fromIndex(backgroundIndex), Font.DEFAULT,
+        styles));
     append(codes.clear());
     return this;
   }
@@ -540,6 +851,23 @@ public class Ansi {
     return this;
   }
 
+  /**
+   * Sets the background color, and optionally the style(s), of the next block of text to display.
+   *
+   * <p>Use {@link #ansi()} to have colors the terminal can't display replaced with the closest
+   * color it can. Unlike the {@code java.awt.Color} overloads this method does not load AWT.
+   *
+   * @param backgroundRgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @param styles any additional styles to apply, <i>optional</i>
+   * @return this Ansi instance, to continue modifying the output
+   */
+  public Ansi backgroundRgb(int backgroundRgb, Style... styles) {
+    prepend(codes.color(ColorType.DEFAULT, ColorType.fromRgb(backgroundRgb), Font.DEFAULT,
+        styles));
+    append(codes.clear());
+    return this;
+  }
+
   /**
    * Sets the font, and optionally the style(s), of the next block of text to display.
    *
@@ -672,26 +1000,35 @@ public class Ansi {
     return this;
   }
 
-  private Ansi writeToPrintStream(PrintStream out, boolean newLine, String text, Object... args) {
+  private Ansi writeToPrintStream(PrintStream out, boolean escapes, boolean newLine, String text,
+      Object... args) {
     String formatted = args.length > 0 ? String.format(text, args) : text;
+    return write(out, escapes, newLine, formatted, escapes);
+  }
 
+  private Ansi write(PrintStream out, boolean escapes, boolean newLine, String text,
+      boolean escapeText) {
     StringBuilder buffer = new StringBuilder();
-    for (String part : preBuffer) {
-      buffer.append(part);
+    if (escapes) {
+      for (String part : preBuffer) {
+        buffer.append(part);
+      }
     }
 
-    buffer.append(formatted);
-
-    for (String part : postBuffer) {
-      buffer.append(part);
+    if (escapeText) {
+      codes.appendText(buffer, text, 0, text.length());
+    } else {
+      buffer.append(text);
     }
 
-    if (newLine) {
-      out.println(buffer);
-    } else {
-      out.print(buffer);
+    if (escapes) {
+      for (String part : postBuffer) {
+        buffer.append(part);
+      }
     }
 
+    sink.write(out, out == stderr, buffer, newLine);
+
     preBuffer.clear();
     postBuffer.clear();
     return this;
@@ -708,7 +1045,7 @@ public class Ansi {
    */
   @CanIgnoreReturnValue
   public Ansi out(String text, Object... args) {
-    return writeToPrintStream(stdout, false, text, args);
+    return writeToPrintStream(stdout, stdoutEscapes, false, text, args);
   }
 
   /**
@@ -722,7 +1059,23 @@ public class Ansi {
    */
   @CanIgnoreReturnValue
   public Ansi outln(String text, Object... args) {
-    return writeToPrintStream(stdout, true, text, args);
+    return writeToPrintStream(stdout, stdoutEscapes, true, text, args);
+  }
+
+  /**
+   * Writes output that was already rendered with {@link #codes}, such as a gradient or an image, to
+   * stdout. Unlike {@link #out} the output is neither formatted nor escaped, since any text it
+   * contains was escaped as it was rendered.
+   */
+  @CanIgnoreReturnValue
+  Ansi outRendered(String rendered) {
+    return write(stdout, stdoutEscapes, false, rendered, false);
+  }
+
+  /** Like {@link #outRendered}, but also prints a newline. */
+  @CanIgnoreReturnValue
+  Ansi outlnRendered(String rendered) {
+    return write(stdout, stdoutEscapes, true, rendered, false);
   }
 
   /**
@@ -734,7 +1087,7 @@ public class Ansi {
    */
   @CanIgnoreReturnValue
   public Ansi outln() {
-    return writeToPrintStream(stdout, true, "");
+    return writeToPrintStream(stdout, stdoutEscapes, true, "");
   }
 
   /**
@@ -748,7 +1101,7 @@ public class Ansi {
    */
   @CanIgnoreReturnValue
   public Ansi err(String text, Object... args) {
-    return writeToPrintStream(stderr, false, text, args);
+    return writeToPrintStream(stderr, stderrEscapes, false, text, args);
   }
 
   /**
@@ -762,7 +1115,7 @@ public class Ansi {
    */
   @CanIgnoreReturnValue
   public Ansi errln(String text, Object... args) {
-    return writeToPrintStream(stderr, true, text, args);
+    return writeToPrintStream(stderr, stderrEscapes, true, text, args);
   }
 
   /**
@@ -774,7 +1127,7 @@ public class Ansi {
    */
   @CanIgnoreReturnValue
   public Ansi errln() {
-    return writeToPrintStream(stderr, true, "");
+    return writeToPrintStream(stderr, stderrEscapes, true, "");
   }
 
   /**
@@ -786,7 +1139,7 @@ public class Ansi {
    * responsible for handling such interruptions. Do not use this method simply to avoid calling
    * {@code Thread.sleep()} yourself - if you really don't want to handle the
    * {@code InterruptedException} use
-   * {@link Uninterruptibles#sleepUninterruptibly Uninterruptibles.sleepUninterruptibly()}.
+   * Guava's {@code Uninterruptibles.sleepUninterruptibly()}.
    *
    * @return this Ansi instance, to continue modifying the output
    */
@@ -803,15 +1156,14 @@ public class Ansi {
    * responsible for handling such interruptions. Do not use this method simply to avoid calling
    * {@code Thread.sleep()} yourself - if you really don't want to handle the
    * {@code InterruptedException} use
-   * {@link Uninterruptibles#sleepUninterruptibly Uninterruptibles.sleepUninterruptibly()}.
+   * Guava's {@code Uninterruptibles.sleepUninterruptibly()}.
    *
    * @param millis a number of milliseconds to delay output
    * @return this Ansi instance, to continue modifying the output
    */
   public Ansi delay(long millis) {
     try {
-      // TODO make this mock-able via AnsiForTests
-      Thread.sleep(millis);
+      systemInfo.clock().sleep(millis);
     } catch (InterruptedException e) {
       // Restore threads interrupted state, the application should handle the interruption
       Thread.currentThread().interrupt();
@@ -1,9 +1,15 @@
 package com.mwdiamond.fansi;
 
-import static com.google.common.base.Preconditions.checkNotNull;
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+import static com.mwdiamond.fansi.Preconditions.checkState;
 
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import com.mwdiamond.fansi.SystemInfo.SttySize;
+import com.mwdiamond.fansi.SystemInfo.TerminalSize;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Mechanism for writing ANSI codes to strings for testing, rather than stdout and stderr. Use this
@@ -40,7 +46,8 @@ public class AnsiForTests implements AnsiFactory {
    */
   @Override
   public Ansi ansi() {
-    return new Ansi(stdout, stderr, codes, systemInfo);
+    return new Ansi(stdout, stderr, codes, systemInfo.escapes(SystemInfo.Stream.STDOUT, true),
+        systemInfo.escapes(SystemInfo.Stream.STDERR, true), systemInfo);
   }
 
   /**
@@ -79,12 +86,47 @@ public class AnsiForTests implements AnsiFactory {
     stderrSink.reset();
   }
 
+  /**
+   * Advances this instance's fake clock by the given amount of time and then runs any animations
+   * (such as {@linkplain AnsiUtils.Spinner spinners}) that are due. Time does not otherwise pass
+   * for {@code Ansi} instances created by this class; e.g. {@link Ansi#delay} returns immediately.
+   *
+   * @param duration the amount of time to advance by
+   * @param unit the unit of {@code duration}
+   */
+  public void advanceTime(long duration, TimeUnit unit) {
+    checkState(systemInfo.clock() instanceof FakeClock,
+        "advanceTime() requires a FakeClock, was %s", systemInfo.clock());
+    ((FakeClock) systemInfo.clock()).advance(duration, unit);
+    systemInfo.scheduler().runDue();
+  }
+
+  /**
+   * Simulates the terminal being resized, notifying any
+   * {@linkplain AnsiUtils#addResizeListener resize listeners} and changing the width used by
+   * subsequent output.
+   *
+   * @param columns the new width of the terminal
+   * @param rows the new height of the terminal
+   */
+  public void resize(int columns, int rows) {
+    checkArgument(columns > 0 && rows > 0, "Invalid size: %sx%s", columns, rows);
+    systemInfo.sizeMonitor().update(new TerminalSize(columns, rows));
+  }
+
   /**
    * Fake implementation of {@code SystemInfo} that does not access the system.
    */
   static class SystemInfoForTests extends SystemInfo {
     private final Codes codes;
-    private final Integer columns;
+    private final TerminalSizeMonitor sizeMonitor;
+    private final Boolean interactive;
+    private final Clock clock;
+    private final AnimationScheduler scheduler;
+    private TerminalQueries queries = TerminalQueries.NONE;
+    private Boolean stdoutEscapes;
+    private Boolean stderrEscapes;
+    private Boolean stripRedirected;
 
     /** No system info available, always falls back to the defaults. */
     SystemInfoForTests() {
@@ -93,8 +135,21 @@ public class AnsiForTests implements AnsiFactory {
 
     /** Uses the given (possibly null) values as the information retrieved from the system. */
     SystemInfoForTests(Codes codes, Integer columns) {
+      this(codes, columns, null, new FakeClock());
+    }
+
+    /** Uses the given (possibly null) values as the information retrieved from the system. */
+    SystemInfoForTests(Codes codes, Integer columns, Boolean interactive, Clock clock) {
       this.codes = codes;
-      this.columns = columns;
+      sizeMonitor = new TerminalSizeMonitor(new TerminalSize(columns, null), new SttySize() {
+        @Override
+        public String get() {
+          return null;
+        }
+      });
+      this.interactive = interactive;
+      this.clock = checkNotNull(clock);
+      scheduler = new AnimationScheduler(clock);
     }
 
     @Override
@@ -102,9 +157,83 @@ public class AnsiForTests implements AnsiFactory {
       return codes;
     }
 
+    /** Sets whether escapes are written to each stream, as if either were redirected. */
+    void setEscapes(Boolean stdoutEscapes, Boolean stderrEscapes) {
+      this.stdoutEscapes = stdoutEscapes;
+      this.stderrEscapes = stderrEscapes;
+    }
+
+    @Override
+    Boolean systemEscapes(SystemInfo.Stream stream) {
+      return stream == SystemInfo.Stream.STDOUT ? stdoutEscapes : stderrEscapes;
+    }
+
+    /** Sets whether escape sequences are stripped from streams escapes aren't written to. */
+    void setStripRedirected(Boolean stripRedirected) {
+      this.stripRedirected = stripRedirected;
+    }
+
+    @Override
+    Boolean systemStripRedirected() {
+      return stripRedirected;
+    }
+
+    @Override
+    TerminalSizeMonitor sizeMonitor() {
+      return sizeMonitor;
+    }
+
     @Override
-    Integer systemColumns() {
-      return columns;
+    Boolean systemInteractive() {
+      return interactive;
+    }
+
+    @Override
+    ColorDepth systemColorDepth() {
+      return null;
+    }
+
+    /** Sets the queries used to ask the (fake) terminal about itself. */
+    void setQueries(TerminalQueries queries) {
+      this.queries = checkNotNull(queries);
+    }
+
+    @Override
+    TerminalQueries queries() {
+      return queries;
+    }
+
+    @Override
+    Clock clock() {
+      return clock;
+    }
+
+    @Override
+    AnimationScheduler scheduler() {
+      return scheduler;
+    }
+  }
+
+  /**
+   * A clock that only advances when told to.
+   */
+  static class FakeClock extends Clock {
+    private long nanos;
+
+    @Override
+    long nanoTime() {
+      return nanos;
+    }
+
+    /** Advances the clock rather than blocking. */
+    @Override
+    void sleep(long millis) {
+      advance(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Advances the clock by the given amount of time. */
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
     }
   }
 }
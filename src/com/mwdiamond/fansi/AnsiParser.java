@@ -0,0 +1,652 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkElementIndex;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+import static com.mwdiamond.fansi.Preconditions.checkPositionIndexes;
+
+import java.nio.CharBuffer;
+
+/**
+ * Incrementally splits text containing ANSI escape codes, such as the output of a subprocess or a
+ * stored log, into runs of text and control events, which are passed to a {@link Visitor}.
+ *
+ * <p>Input can be fed in chunks of any size; escape sequences and UTF-8 encoded characters split
+ * across chunks are reassembled. The parser is a state machine modelled on the DEC VT500 parser
+ * described at https://vt100.net/emu/dec_ansi_parser, and recognizes:
+ *
+ * <ul>
+ *   <li>C0 controls (e.g. newline, tab) and C1 controls (U+0080 - U+009F, including the
+ *   single-character CSI, OSC and ST forms)</li>
+ *   <li>CSI sequences, with their numeric parameters, e.g. cursor movement and SGR (colors and
+ *   styles)</li>
+ *   <li>OSC strings terminated by BEL or ST, e.g. window titles</li>
+ *   <li>Other escape sequences, e.g. {@code ESC 7} or {@code ESC ( B}</li>
+ * </ul>
+ *
+ * <p>DCS, SOS, PM, and APC strings are recognized and skipped. CAN and SUB abort any sequence in
+ * progress. Malformed sequences are consumed without being reported, as a terminal would.
+ *
+ * <p>The parser does not allocate while parsing; text runs are passed to the visitor as a range of
+ * the input (or of an internal buffer, for byte input), and sequence parameters through a reusable
+ * {@link Params} view. The visitor must therefore not retain either beyond the callback.
+ *
+ * <p>Instances are stateful and not thread-safe.
+ */
+public final class AnsiParser {
+  /** The maximum number of CSI parameters recorded; further parameters are ignored. */
+  static final int MAX_PARAMS = 32;
+  /** The maximum length of an OSC string recorded; the rest of a longer string is dropped. */
+  static final int MAX_OSC_LENGTH = 64 * 1024;
+  /** Parameter values are clamped to this, to avoid overflow. */
+  private static final int MAX_PARAM_VALUE = 65535;
+  private static final int BUFFER_SIZE = 8192;
+  private static final char REPLACEMENT = '\uFFFD';
+
+  private static final char BEL = 0x07;
+  private static final char CAN = 0x18;
+  private static final char SUB = 0x1A;
+  private static final char ESC = 0x1B;
+  private static final char DEL = 0x7F;
+  private static final char DCS = 0x90;
+  private static final char SOS = 0x98;
+  private static final char CSI = 0x9B;
+  private static final char ST = 0x9C;
+  private static final char OSC = 0x9D;
+  private static final char PM = 0x9E;
+  private static final char APC = 0x9F;
+
+  // States
+  private static final int GROUND = 0;
+  private static final int ESCAPE = 1;
+  private static final int ESCAPE_INTERMEDIATE = 2;
+  private static final int CSI_PARAM = 3;
+  private static final int CSI_INTERMEDIATE = 4;
+  private static final int CSI_IGNORE = 5;
+  private static final int OSC_STRING = 6;
+  private static final int STRING_IGNORE = 7;
+  /** An ESC ended a string; if it's followed by a backslash the two form an ST. */
+  private static final int STRING_END = 8;
+
+  /**
+   * Receives the text and control events found by an {@link AnsiParser}. Every method does
+   * nothing by default, so subclasses need only override the events they're interested in.
+   *
+   * <p>Arrays and {@link Params} passed to these methods are only valid for the duration of the
+   * call; they're reused for subsequent events.
+   */
+  public abstract static class Visitor {
+    /**
+     * Called with a run of text. Consecutive runs are not necessarily merged, e.g. a run split
+     * across chunks of input is reported in two parts.
+     *
+     * @param chars an array containing the text
+     * @param offset the start of the text in {@code chars}
+     * @param length the length of the text
+     */
+    public void text(char[] chars, int offset, int length) {}
+
+    /**
+     * Called with a C0 control character (other than ESC, CAN and SUB, which start and abort
+     * sequences), DEL, or a C1 control character that doesn't begin a sequence.
+     *
+     * @param control the control character, e.g. {@code '\n'}
+     */
+    public void control(char control) {}
+
+    /**
+     * Called with an escape sequence that isn't a CSI, OSC, or other string, e.g. {@code ESC 7}
+     * (save cursor) or {@code ESC ( B} (select character set).
+     *
+     * @param intermediate the first intermediate character (0x20 - 0x2F), or 0 if there is none
+     * @param finalChar the final character of the sequence
+     */
+    public void escape(char intermediate, char finalChar) {}
+
+    /**
+     * Called with a CSI (Control Sequence Introducer) sequence, other than SGR sequences.
+     *
+     * @param params the sequence's parameters
+     * @param finalChar the final character, which identifies the function, e.g. {@code 'H'} for
+     *     cursor position
+     */
+    public void csi(Params params, char finalChar) {}
+
+    /**
+     * Called with an SGR (Select Graphic Rendition) sequence, i.e. a CSI sequence with the final
+     * character {@code 'm'} and no private marker or intermediate. By default passes the sequence
+     * to {@link #csi}.
+     *
+     * @param params the SGR parameters, e.g. {@code [1, 31]} for bold red text; an empty list is
+     *     equivalent to {@code [0]} (reset)
+     */
+    public void sgr(Params params) {
+      csi(params, 'm');
+    }
+
+    /**
+     * Called with an OSC (Operating System Command) string, e.g. {@code 2;title} to set the window
+     * title.
+     *
+     * @param command the numeric command before the first semicolon, e.g. {@code 2}, or -1 if the
+     *     string doesn't start with a number
+     * @param chars an array containing the rest of the string, after the command and semicolon
+     * @param offset the start of the string in {@code chars}
+     * @param length the length of the string
+     */
+    public void osc(int command, char[] chars, int offset, int length) {}
+  }
+
+  /**
+   * The parameters of a CSI sequence. An instance is reused for every sequence a parser reports,
+   * so it must not be retained by a {@link Visitor}.
+   */
+  public static final class Params {
+    private final int[] values = new int[MAX_PARAMS];
+    private long subParameters;
+    private int size;
+    private char privateMarker;
+    private char intermediate;
+
+    private Params() {}
+
+    private void reset() {
+      values[0] = -1;
+      subParameters = 0;
+      size = 0;
+      privateMarker = 0;
+      intermediate = 0;
+    }
+
+    /** Returns the number of parameters, including omitted ones (e.g. {@code ;5} has two). */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Returns the parameter at the given index, or -1 if it was omitted.
+     *
+     * @param index the parameter's index
+     * @return the parameter's value, or -1
+     */
+    public int get(int index) {
+      checkElementIndex(index, size);
+      return values[index];
+    }
+
+    /**
+     * Returns the parameter at the given index, or {@code defaultValue} if it was omitted or
+     * doesn't exist.
+     *
+     * @param index the parameter's index
+     * @param defaultValue the value to return for omitted parameters
+     * @return the parameter's value, or {@code defaultValue}
+     */
+    public int get(int index, int defaultValue) {
+      if (index < 0 || index >= size || values[index] < 0) {
+        return defaultValue;
+      }
+      return values[index];
+    }
+
+    /**
+     * Returns whether the parameter at the given index was separated from the previous one by a
+     * colon rather than a semicolon, as in the ITU T.416 form of extended colors,
+     * {@code 38:2::255:0:0}.
+     *
+     * @param index the parameter's index
+     * @return whether the parameter is a sub-parameter
+     */
+    public boolean isSubParameter(int index) {
+      checkElementIndex(index, size);
+      return (subParameters & (1L << index)) != 0;
+    }
+
+    /** Returns the private marker ({@code <}, {@code =}, {@code >}, or {@code ?}), or 0. */
+    public char privateMarker() {
+      return privateMarker;
+    }
+
+    /** Returns the intermediate character (0x20 - 0x2F), or 0 if there is none. */
+    public char intermediate() {
+      return intermediate;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buffer = new StringBuilder();
+      if (privateMarker != 0) {
+        buffer.append(privateMarker);
+      }
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          buffer.append(isSubParameter(i) ? ':' : ';');
+        }
+        if (values[i] >= 0) {
+          buffer.append(values[i]);
+        }
+      }
+      if (intermediate != 0) {
+        buffer.append(intermediate);
+      }
+      return buffer.toString();
+    }
+  }
+
+  private final Visitor visitor;
+  private final Params params = new Params();
+  private final char[] buffer = new char[BUFFER_SIZE + 2];
+  private final char[] single = new char[1];
+  private char[] osc = new char[256];
+  private int oscLength;
+  private int state = GROUND;
+  private char intermediate;
+  private boolean hasParams;
+  private int paramIndex;
+
+  // Partially decoded UTF-8 character
+  private int utf8Remaining;
+  private int utf8CodePoint;
+  private int utf8Min;
+
+  /**
+   * Creates a parser that passes the events it finds to the given visitor.
+   *
+   * @param visitor the visitor to call
+   */
+  public AnsiParser(Visitor visitor) {
+    this.visitor = checkNotNull(visitor);
+  }
+
+  /**
+   * Parses a chunk of UTF-8 encoded input. Malformed UTF-8 is replaced with U+FFFD.
+   *
+   * @param bytes an array containing the input
+   * @param offset the start of the input in {@code bytes}
+   * @param length the length of the input
+   */
+  public void parse(byte[] bytes, int offset, int length) {
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    int end = offset + length;
+    while (offset < end) {
+      int sliceEnd = offset + Math.min(end - offset, BUFFER_SIZE);
+      int decoded = decode(bytes, offset, sliceEnd);
+      parse(buffer, 0, decoded);
+      offset = sliceEnd;
+    }
+  }
+
+  /**
+   * Parses a chunk of input.
+   *
+   * @param chars an array containing the input
+   * @param offset the start of the input in {@code chars}
+   * @param length the length of the input
+   */
+  public void parse(char[] chars, int offset, int length) {
+    checkPositionIndexes(offset, offset + length, chars.length);
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      if (state == GROUND) {
+        int start = i;
+        while (i < end && isPrintable(chars[i])) {
+          i++;
+        }
+        if (i > start) {
+          visitor.text(chars, start, i - start);
+        }
+      } else if (state == OSC_STRING) {
+        int start = i;
+        while (i < end && isPrintable(chars[i])) {
+          i++;
+        }
+        appendOsc(chars, start, i - start);
+      } else if (state == CSI_PARAM) {
+        // Parameters make up most of a typical sequence, so accumulate them without dispatching
+        for (char c; i < end && (c = chars[i]) >= '0' && c <= ';'; i++) {
+          processCsiParam(c);
+        }
+      }
+      if (i < end) {
+        process(chars[i++]);
+      }
+    }
+  }
+
+  /**
+   * Parses a chunk of input, consuming all of the buffer's remaining characters.
+   *
+   * @param chars the input
+   */
+  public void parse(CharBuffer chars) {
+    if (chars.hasArray()) {
+      parse(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+      chars.position(chars.limit());
+      return;
+    }
+    while (chars.hasRemaining()) {
+      int length = Math.min(chars.remaining(), BUFFER_SIZE);
+      chars.get(buffer, 0, length);
+      parse(buffer, 0, length);
+    }
+  }
+
+  /**
+   * Signals the end of the input. A trailing partial UTF-8 character is reported as U+FFFD, and an
+   * unterminated escape sequence is discarded. The parser can then be reused for new input.
+   */
+  public void finish() {
+    if (utf8Remaining > 0) {
+      utf8Remaining = 0;
+      single[0] = REPLACEMENT;
+      visitor.text(single, 0, 1);
+    }
+    state = GROUND;
+  }
+
+  /** Returns whether the parser is in the middle of an escape sequence or UTF-8 character. */
+  public boolean inSequence() {
+    return state != GROUND || utf8Remaining > 0;
+  }
+
+  private static boolean isPrintable(char c) {
+    return c >= 0x20 && (c < DEL || c > APC);
+  }
+
+  /**
+   * Decodes UTF-8 bytes into {@link #buffer}, returning the number of chars decoded. At most one
+   * more char is decoded than there are bytes, if a character left incomplete by the previous
+   * chunk is replaced with U+FFFD.
+   */
+  private int decode(byte[] bytes, int offset, int end) {
+    char[] out = buffer;
+    int n = 0;
+    int i = offset;
+    while (i < end) {
+      if (utf8Remaining > 0) {
+        int b = bytes[i];
+        if ((b & 0xC0) != 0x80) {
+          // Truncated character; reprocess this byte
+          utf8Remaining = 0;
+          out[n++] = REPLACEMENT;
+          continue;
+        }
+        i++;
+        utf8CodePoint = utf8CodePoint << 6 | (b & 0x3F);
+        if (--utf8Remaining == 0) {
+          int codePoint = utf8CodePoint;
+          if (codePoint < utf8Min || codePoint > Character.MAX_CODE_POINT
+              || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            out[n++] = REPLACEMENT;
+          } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            out[n++] = (char) codePoint;
+          } else {
+            out[n++] = Character.highSurrogate(codePoint);
+            out[n++] = Character.lowSurrogate(codePoint);
+          }
+        }
+        continue;
+      }
+
+      // Fast path for ASCII
+      while (i < end && bytes[i] >= 0) {
+        out[n++] = (char) bytes[i++];
+      }
+      if (i == end) {
+        break;
+      }
+
+      int b = bytes[i++] & 0xFF;
+      if (b >= 0xF5) {
+        out[n++] = REPLACEMENT;
+      } else if (b >= 0xF0) {
+        startUtf8(b & 0x07, 3, Character.MIN_SUPPLEMENTARY_CODE_POINT);
+      } else if (b >= 0xE0) {
+        startUtf8(b & 0x0F, 2, 0x800);
+      } else if (b >= 0xC2) {
+        startUtf8(b & 0x1F, 1, 0x80);
+      } else {
+        // Unexpected continuation byte, or an overlong encoding
+        out[n++] = REPLACEMENT;
+      }
+    }
+    return n;
+  }
+
+  private void startUtf8(int bits, int remaining, int min) {
+    utf8CodePoint = bits;
+    utf8Remaining = remaining;
+    utf8Min = min;
+  }
+
+  /** Advances the state machine by one character, which is never printable in the ground state. */
+  private void process(char c) {
+    // Transitions from any state
+    if (c == CAN || c == SUB) {
+      state = GROUND;
+      visitor.control(c);
+      return;
+    }
+    if (c == ESC) {
+      if (state == OSC_STRING) {
+        dispatchOsc();
+        state = STRING_END;
+      } else if (state == STRING_IGNORE) {
+        state = STRING_END;
+      } else {
+        intermediate = 0;
+        state = ESCAPE;
+      }
+      return;
+    }
+    if (c >= 0x80 && c <= APC) {
+      processC1(c);
+      return;
+    }
+
+    switch (state) {
+      case GROUND:
+        if (c < 0x20 || c == DEL) {
+          visitor.control(c);
+        } else {
+          single[0] = c;
+          visitor.text(single, 0, 1);
+        }
+        return;
+      case ESCAPE:
+        if (c < 0x20) {
+          visitor.control(c);
+        } else if (c == '[') {
+          enterCsi();
+        } else if (c == ']') {
+          enterOsc();
+        } else if (c == 'P' || c == 'X' || c == '^' || c == '_') {
+          state = STRING_IGNORE;
+        } else if (c <= 0x2F) {
+          intermediate = c;
+          state = ESCAPE_INTERMEDIATE;
+        } else if (c < DEL) {
+          state = GROUND;
+          visitor.escape((char) 0, c);
+        }
+        return;
+      case ESCAPE_INTERMEDIATE:
+        if (c < 0x20) {
+          visitor.control(c);
+        } else if (c >= 0x30 && c < DEL) {
+          state = GROUND;
+          visitor.escape(intermediate, c);
+        }
+        // further intermediates are ignored
+        return;
+      case CSI_PARAM:
+        processCsiParam(c);
+        return;
+      case CSI_INTERMEDIATE:
+        if (c < 0x20) {
+          visitor.control(c);
+        } else if (c <= 0x2F) {
+          state = CSI_IGNORE; // only one intermediate is supported
+        } else if (c <= 0x3F) {
+          state = CSI_IGNORE;
+        } else if (c < DEL) {
+          dispatchCsi(c);
+        }
+        return;
+      case CSI_IGNORE:
+        if (c < 0x20) {
+          visitor.control(c);
+        } else if (c >= 0x40 && c < DEL) {
+          state = GROUND;
+        }
+        return;
+      case OSC_STRING:
+        if (c == BEL) {
+          dispatchOsc();
+          state = GROUND;
+        } else if (c >= 0x20 && c != DEL) {
+          osc(c);
+        }
+        return;
+      case STRING_IGNORE:
+        return;
+      case STRING_END:
+        if (c == '\\') {
+          state = GROUND;
+        } else {
+          intermediate = 0;
+          state = ESCAPE;
+          process(c);
+        }
+        return;
+      default:
+        throw new AssertionError(state);
+    }
+  }
+
+  private void processC1(char c) {
+    if (state == OSC_STRING) {
+      dispatchOsc(); // ST, or another C1 which aborts the string
+    }
+    if ((state == OSC_STRING || state == STRING_IGNORE) && c == ST) {
+      state = GROUND;
+      return;
+    }
+    switch (c) {
+      case CSI:
+        enterCsi();
+        return;
+      case OSC:
+        enterOsc();
+        return;
+      case DCS:
+      case SOS:
+      case PM:
+      case APC:
+        state = STRING_IGNORE;
+        return;
+      default:
+        state = GROUND;
+        visitor.control(c);
+    }
+  }
+
+  private void enterCsi() {
+    params.reset();
+    hasParams = false;
+    paramIndex = 0;
+    state = CSI_PARAM;
+  }
+
+  private void processCsiParam(char c) {
+    if (c >= '0' && c <= '9') {
+      hasParams = true;
+      if (paramIndex < MAX_PARAMS) {
+        int value = params.values[paramIndex];
+        value = value < 0 ? c - '0' : Math.min(value * 10 + (c - '0'), MAX_PARAM_VALUE);
+        params.values[paramIndex] = value;
+      }
+    } else if (c == ';' || c == ':') {
+      hasParams = true;
+      paramIndex++;
+      if (paramIndex < MAX_PARAMS) {
+        params.values[paramIndex] = -1;
+        if (c == ':') {
+          params.subParameters |= 1L << paramIndex;
+        }
+      }
+    } else if (c >= '<' && c <= '?') {
+      if (hasParams || params.privateMarker != 0) {
+        state = CSI_IGNORE;
+      } else {
+        params.privateMarker = c;
+      }
+    } else if (c < 0x20) {
+      visitor.control(c);
+    } else if (c <= 0x2F) {
+      params.intermediate = c;
+      state = CSI_INTERMEDIATE;
+    } else if (c < DEL) {
+      dispatchCsi(c);
+    }
+  }
+
+  private void dispatchCsi(char finalChar) {
+    state = GROUND;
+    params.size = hasParams ? Math.min(paramIndex + 1, MAX_PARAMS) : 0;
+    if (finalChar == 'm' && params.privateMarker == 0 && params.intermediate == 0) {
+      visitor.sgr(params);
+    } else {
+      visitor.csi(params, finalChar);
+    }
+  }
+
+  private void enterOsc() {
+    oscLength = 0;
+    state = OSC_STRING;
+  }
+
+  private void osc(char c) {
+    if (oscLength == osc.length) {
+      if (!growOsc(1)) {
+        return;
+      }
+    }
+    osc[oscLength++] = c;
+  }
+
+  private void appendOsc(char[] chars, int offset, int length) {
+    if (oscLength + length > osc.length && !growOsc(length)) {
+      length = osc.length - oscLength;
+    }
+    System.arraycopy(chars, offset, osc, oscLength, length);
+    oscLength += length;
+  }
+
+  /** Grows the OSC buffer to fit {@code needed} more chars, returning false if it's at capacity. */
+  private boolean growOsc(int needed) {
+    if (osc.length >= MAX_OSC_LENGTH) {
+      return false;
+    }
+    int length = Math.max(osc.length * 2, oscLength + needed);
+    char[] grown = new char[Math.min(length, MAX_OSC_LENGTH)];
+    System.arraycopy(osc, 0, grown, 0, oscLength);
+    osc = grown;
+    return oscLength + needed <= osc.length;
+  }
+
+  private void dispatchOsc() {
+    int command = 0;
+    int i = 0;
+    while (i < oscLength && osc[i] >= '0' && osc[i] <= '9' && command <= MAX_PARAM_VALUE) {
+      command = command * 10 + (osc[i] - '0');
+      i++;
+    }
+    if (i == 0 || (i < oscLength && osc[i] != ';')) {
+      visitor.osc(-1, osc, 0, oscLength);
+    } else {
+      int start = Math.min(i + 1, oscLength);
+      visitor.osc(command, osc, start, oscLength - start);
+    }
+  }
+}
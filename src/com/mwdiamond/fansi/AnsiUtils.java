@@ -1,12 +1,28 @@
 package com.mwdiamond.fansi;
 
-import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+import static com.mwdiamond.fansi.Preconditions.checkState;
 
-import com.google.common.base.Strings;
 import com.mwdiamond.fansi.Ansi.Color;
 import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.ProgressStreams.ByteCounter;
+import com.mwdiamond.fansi.ProgressStreams.ProgressInputStream;
+import com.mwdiamond.fansi.ProgressStreams.ProgressOutputStream;
+import com.mwdiamond.fansi.ProgressStreams.ProgressReadableChannel;
+import com.mwdiamond.fansi.ProgressStreams.ProgressWritableChannel;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * High-level utility class for common tasks involving ANSI output.
@@ -16,6 +32,25 @@ import com.mwdiamond.fansi.Ansi.Style;
  * <ul>
  *   <li>Updatable progress bars for {@linkplain #percentProgressBar percentages} or
  *   {@linkplain #counterProgressBar items}</li>
+ *   <li>Streams and channels that {@linkplain #trackProgress(InputStream, long, ProgressBar) update
+ *   a progress bar} as bytes are transferred</li>
+ *   <li>Low-overhead progress reporting from {@linkplain #trackConcurrently parallel tasks}</li>
+ *   <li>Animated {@linkplain #spinner spinners} for tasks of unknown length</li>
+ *   <li>{@linkplain #stripEscapes(OutputStream) Stripping} escape codes from text, e.g. before
+ *   archiving or indexing it</li>
+ *   <li>{@linkplain #optimizeSgr(OutputStream) Removing redundant} color and style codes from
+ *   output</li>
+ *   <li>{@linkplain #htmlConverter Converting} large colored log files to HTML</li>
+ *   <li>{@linkplain #displayList Building} output once, and rendering it to several destinations
+ *   such as a terminal and HTML</li>
+ *   <li>{@linkplain #styledOutputWriter Relaying} colored output from worker processes in a compact
+ *   binary format</li>
+ *   <li>{@linkplain #recordAsciicast Recording} output with timings, and
+ *   {@linkplain #asciicastPlayer replaying} it</li>
+ *   <li>Rendering {@linkplain #imageRenderer images} as colored text</li>
+ *   <li>Coloring text with {@linkplain #gradient gradients}, such as rainbows</li>
+ *   <li>Asking the terminal for its {@linkplain #backgroundColor colors} and
+ *   {@linkplain #cursorPosition cursor position}</li>
  *   <li>Message Templates:
  *   <ul>
  *     <li>Status messages: {@link #ok [ OK ]}, {@link #warn [ WARN ]}, {@link #error [ ERROR ]}
@@ -199,6 +234,116 @@ public class AnsiUtils {
     ansi().out("[ ").color(color, Style.BOLD).out(status).out(" ] ").outln(message, args);
   }
 
+  /**
+   * Registers a listener to be notified whenever the terminal is resized, e.g. to re-layout a
+   * dashboard. Output that adapts to the terminal's width, such as progress bars, already uses
+   * the current width each time it's rendered.
+   *
+   * <p>Resizes are detected via {@code SIGWINCH} where the JVM supports handling it, otherwise by
+   * periodically checking the terminal's size. No resizes are reported if there's no terminal.
+   *
+   * @param listener the listener to notify
+   */
+  public void addResizeListener(ResizeListener listener) {
+    ansi().sizeMonitor().addListener(listener);
+  }
+
+  /**
+   * Unregisters a listener previously passed to {@link #addResizeListener}.
+   *
+   * @param listener the listener to unregister
+   */
+  public void removeResizeListener(ResizeListener listener) {
+    ansi().sizeMonitor().removeListener(listener);
+  }
+
+  /**
+   * Notified when the terminal is resized.
+   */
+  public interface ResizeListener {
+    /**
+     * Called after the terminal has been resized. This is called on a background thread, so
+     * implementations should be quick and thread-safe.
+     *
+     * @param columns the new width of the terminal
+     * @param rows the new height of the terminal
+     */
+    void resized(int columns, int rows);
+  }
+
+  /**
+   * Returns the terminal's default background color, e.g. to pick colors that are legible against
+   * it. The terminal is only asked the first time this or {@link #foregroundColor} is called; the
+   * query takes a single round trip to the terminal.
+   *
+   * @return the background color in the form {@code 0xRRGGBB}, or null if it can't be determined,
+   *     e.g. because output isn't interactive or the terminal doesn't report its colors
+   */
+  public Integer backgroundColor() {
+    return ansi().terminalColors().background();
+  }
+
+  /**
+   * Returns the terminal's default foreground color. Like {@link #backgroundColor} this is only
+   * queried once.
+   *
+   * @return the foreground color in the form {@code 0xRRGGBB}, or null if it can't be determined
+   */
+  public Integer foregroundColor() {
+    return ansi().terminalColors().foreground();
+  }
+
+  /**
+   * Asks the terminal where the cursor currently is, after flushing any pending output. This blocks
+   * for a round trip to the terminal, so avoid calling it on every update.
+   *
+   * @return the cursor's position, or null if it can't be determined
+   */
+  public CursorPosition cursorPosition() {
+    TerminalQueries.Replies replies =
+        ansi().query(EnumSet.of(TerminalQueries.Query.CURSOR_POSITION));
+    if (replies.cursorRow() == null) {
+      return null;
+    }
+    return new CursorPosition(replies.cursorRow(), replies.cursorColumn());
+  }
+
+  /**
+   * The position of the terminal's cursor, as reported by {@link #cursorPosition}.
+   */
+  public static final class CursorPosition {
+    private final int row;
+    private final int column;
+
+    CursorPosition(int row, int column) {
+      this.row = row;
+      this.column = column;
+    }
+
+    /**
+     * Returns the row the cursor is on, where the top row is 1.
+     *
+     * @return the cursor's row
+     */
+    public int row() {
+      return row;
+    }
+
+    /**
+     * Returns the column the cursor is in, where the leftmost column is 1.
+     *
+     * @return the cursor's column
+     */
+    public int column() {
+      return column;
+    }
+
+    @Override
+    public String toString() {
+      return row + "," + column;
+    }
+  }
+
   /** Functional interface to describe the progress bar textually, rather than visually. */
   private interface TextProgress {
     TextProgress FRACTION_PROGRESS = new TextProgress() {
@@ -228,23 +373,59 @@ public class AnsiUtils {
   /**
    * A text progress bar that will overwrite itself when updated, presenting the user with dynamic
    * yet concise visualization of the application's current progress.
+   *
+   * <p>When output is not being displayed on an interactive terminal (for example it's redirected
+   * to a file, or escape codes are disabled) overwriting the bar is not possible, and each update
+   * would instead add another line to the output. In that case the bar switches to
+   * {@linkplain Mode#LOG logging mode}, and only prints a line when progress passes a milestone or
+   * after a period of time has passed. See {@link Builder#mode}.
    * 
    * <p>This class is not thread-safe; multi-threaded applications should generally have a single
    * thread responsible for output, otherwise access to this class needs to be
    * {@code synchronized}. 
    */
   public static class ProgressBar {
+    /**
+     * How a progress bar should display updates.
+     */
+    public enum Mode {
+      /**
+       * The default; behaves like {@link #INTERACTIVE} if output appears to be displayed on an
+       * interactive terminal, otherwise like {@link #LOG}.
+       */
+      AUTO,
+      /** Overwrite the progress bar on every update. */
+      INTERACTIVE,
+      /**
+       * Writes the progress bar on a new line, without any cursor movement, but only each time
+       * progress crosses a {@linkplain Builder#logMilestones milestone} or the
+       * {@linkplain Builder#logInterval log interval} has passed. The amount of output is therefore
+       * bounded regardless of how frequently the progress bar is updated.
+       */
+      LOG
+    }
+
     private final AnsiFactory factory;
     private final String prefix;
     private final String suffix;
     private final String bar;
     private final String units;
     private final TextProgress textProgress;
+    private final boolean logging;
+    private final Clock clock;
+    private final int logPercent;
+    private final long logIntervalNanos;
     
     private int step;
     private int steps;
     private boolean done = false;
 
+    // Only used in LOG mode
+    private int nextLogPercent = 0;
+    private long lastLogNanos;
+    private int loggedStep = -1;
+    private int loggedSteps = -1;
+
     private ProgressBar(AnsiFactory factory, Builder builder) {
       this.factory = checkNotNull(factory);
       prefix = builder.prefix;
@@ -253,6 +434,22 @@ public class AnsiUtils {
       units = builder.units;
       textProgress = builder.textProgress;
       steps = builder.steps;
+      logPercent = builder.logPercent;
+      logIntervalNanos = builder.logIntervalNanos;
+
+      Ansi ansi = factory.ansi();
+      switch (builder.mode) {
+        case AUTO:
+          logging = !ansi.interactive();
+          break;
+        case LOG:
+          logging = true;
+          break;
+        default:
+          logging = false;
+      }
+      clock = ansi.clock();
+      lastLogNanos = clock.nanoTime();
     }
 
     /**
@@ -299,6 +496,15 @@ public class AnsiUtils {
       this.steps = totalSteps;
       render();
     }
+
+    /**
+     * Like {@link #updateSteps}, but accepts {@code long} values; if {@code totalSteps} doesn't fit
+     * in an {@code int} both values are scaled down by a power of two.
+     */
+    void updateScaledSteps(long currentStep, long totalSteps) {
+      int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(totalSteps) - 31);
+      updateSteps((int) (currentStep >>> shift), (int) (totalSteps >>> shift));
+    }
     
     /**
      * Clears the progress bar from the screen leaving the cursor at the beginning of the current
@@ -306,7 +512,9 @@ public class AnsiUtils {
      */
     public void remove() {
       checkState(!done, "Progress bar can not be removed; remove() or finish() already called.");
-      factory.ansi().overwriteThisLine().out("");
+      if (!logging) {
+        factory.ansi().overwriteThisLine().out("");
+      }
       done = true;
     }
     
@@ -318,29 +526,61 @@ public class AnsiUtils {
     public void finish() {
       checkState(!done, "Progress bar can not be finished; remove() or finish() already called.");
       step = steps;
-      render();
-      factory.ansi().outln();
+      if (logging) {
+        log(true);
+      } else {
+        render();
+        factory.ansi().outln();
+      }
       done = true;
     }
     
     private void render() {
       checkState(!done, "Progress bar can no longer be updated; remove() or finish() called.");
-      int columns = factory.ansi().columns();
-      
+      if (logging) {
+        log(false);
+        return;
+      }
+      Ansi ansi = factory.ansi();
+      ansi.overwriteThisLine().out(formatBar(ansi.columns()));
+    }
+
+    /**
+     * Writes the progress bar on its own line if a milestone has been reached, the log interval
+     * has elapsed, or {@code force} is true. Never writes the same progress twice in a row.
+     */
+    private void log(boolean force) {
+      if (step == loggedStep && steps == loggedSteps) {
+        return;
+      }
+      int percent = (int) (100L * step / steps);
+      long now = clock.nanoTime();
+      if (percent + logPercent < nextLogPercent) {
+        // progress went backwards, e.g. totalSteps increased
+        nextLogPercent = (percent / logPercent + 1) * logPercent;
+      }
+      if (force || percent >= nextLogPercent || now - lastLogNanos >= logIntervalNanos) {
+        Ansi ansi = factory.ansi();
+        ansi.outln(formatBar(ansi.columns()));
+        nextLogPercent = (percent / logPercent + 1) * logPercent;
+        lastLogNanos = now;
+        loggedStep = step;
+        loggedSteps = steps;
+      }
+    }
+
+    private String formatBar(int columns) {
       String suffixAndCount = suffix + " " + textProgress.progressAsText(step, steps) + units;
       int barWidth = columns - (prefix.length() + suffixAndCount.length());
       if (barWidth < 4) { // 25% per char
-        factory.ansi().overwriteThisLine().out(step + units);
-        return;
+        return step + units;
       }
       // round down so progress bar doesn't look done too early
-      int progress = barWidth * step / steps;
-      factory.ansi()
-          .overwriteThisLine()
-          .out(prefix)
-          .out(Strings.repeat(bar, progress))
-          .out(Strings.repeat(" ", barWidth - progress))
-          .out(suffixAndCount);
+      int progress = (int) ((long) barWidth * step / steps);
+      return prefix
+          + StringUtils.repeat(bar, progress)
+          + StringUtils.repeat(" ", barWidth - progress)
+          + suffixAndCount;
     }
 
     /**
@@ -353,6 +593,10 @@ public class AnsiUtils {
       private String bar = "=";
       private String units = "";
 
+      private Mode mode = Mode.AUTO;
+      private int logPercent = 10;
+      private long logIntervalNanos = TimeUnit.SECONDS.toNanos(30);
+
       private TextProgress textProgress;
       private int steps;
 
@@ -360,6 +604,46 @@ public class AnsiUtils {
         this.factory = checkNotNull(factory);
       }
 
+      /**
+       * Specify how the progress bar should display updates. Defaults to {@link Mode#AUTO}, which
+       * only overwrites the progress bar if output is going to an interactive terminal.
+       *
+       * @param mode how to display updates
+       * @return this builder
+       */
+      public Builder mode(Mode mode) {
+        this.mode = checkNotNull(mode);
+        return this;
+      }
+
+      /**
+       * Specify how often a progress bar in {@linkplain Mode#LOG logging mode} should be written,
+       * as a percentage of the total progress. Defaults to every 10%.
+       *
+       * @param percent how many percentage points progress should advance between log lines
+       * @return this builder
+       */
+      public Builder logMilestones(int percent) {
+        checkArgument(percent > 0 && percent <= 100, "Invalid percent: %s", percent);
+        this.logPercent = percent;
+        return this;
+      }
+
+      /**
+       * Specify how long a progress bar in {@linkplain Mode#LOG logging mode} should wait before
+       * writing its progress, if no milestone has been reached in the meantime. Defaults to 30
+       * seconds.
+       *
+       * @param interval how long to wait between log lines
+       * @param unit the unit of {@code interval}
+       * @return this builder
+       */
+      public Builder logInterval(long interval, TimeUnit unit) {
+        checkArgument(interval > 0, "Invalid interval: %s", interval);
+        this.logIntervalNanos = unit.toNanos(interval);
+        return this;
+      }
+
       /**
        * Specify the text to frame the start of the progress bar.
        *
@@ -440,6 +724,212 @@ public class AnsiUtils {
     }
   }
 
+  /**
+   * An animated spinner, along with a message and the time elapsed since the spinner started,
+   * indicating that the application is busy with a task of unknown length. For example:
+   *
+   * <pre>{@code / Downloading index (12s)}</pre>
+   *
+   * <p>Spinners are animated by a single shared daemon thread, regardless of how many are active.
+   * If output is not being displayed on an interactive terminal the message is simply written
+   * once when the spinner starts, and again (with the elapsed time) when it is finished.
+   *
+   * <p>This class is thread-safe, but note that the spinner will be redrawn periodically from
+   * another thread, so the application should avoid writing other output while a spinner is active.
+   */
+  public static class Spinner {
+    private static final String[] FRAMES = {"|", "/", "-", "\\"};
+    private static final long FRAME_MILLIS = 100;
+
+    private final AnsiFactory factory;
+    private final boolean interactive;
+    private final Clock clock;
+    private final long startNanos;
+    private final AnimationScheduler.Task task;
+
+    private String message;
+    private int frame = 0;
+    private boolean done = false;
+
+    private Spinner(AnsiFactory factory, String message) {
+      this.factory = checkNotNull(factory);
+      this.message = checkNotNull(message);
+      Ansi ansi = factory.ansi();
+      interactive = ansi.interactive();
+      clock = ansi.clock();
+      startNanos = clock.nanoTime();
+
+      if (interactive) {
+        render();
+        task = ansi.scheduler().schedule(new Runnable() {
+          @Override
+          public void run() {
+            nextFrame();
+          }
+        }, FRAME_MILLIS, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+      } else {
+        factory.ansi().outln(message);
+        task = null;
+      }
+    }
+
+    /**
+     * Replaces the message displayed alongside the spinner.
+     *
+     * @param message the new message to display
+     * @param args (optionally) arguments to format into the message
+     */
+    public synchronized void updateMessage(String message, Object... args) {
+      checkState(!done, "Spinner can no longer be updated; remove() or finish() called.");
+      this.message = args.length > 0 ? String.format(message, args) : message;
+      if (interactive) {
+        render();
+      }
+    }
+
+    /**
+     * Stops the spinner and clears it from the screen, leaving the cursor at the beginning of the
+     * current line. This is a terminating operation; the spinner can no longer be updated.
+     */
+    public synchronized void remove() {
+      checkState(!done, "Spinner can not be removed; remove() or finish() already called.");
+      stop();
+      if (interactive) {
+        factory.ansi().overwriteThisLine().out("");
+      }
+    }
+
+    /**
+     * Stops the spinner, replacing it with the message and the total elapsed time, and moves the
+     * cursor to the next line. This is a terminating operation; the spinner can no longer be
+     * updated.
+     */
+    public synchronized void finish() {
+      checkState(!done, "Spinner can not be finished; remove() or finish() already called.");
+      stop();
+      String line = message + formatElapsed();
+      if (interactive) {
+        factory.ansi().overwriteThisLine().outln(line);
+      } else {
+        factory.ansi().outln(line);
+      }
+    }
+
+    private void stop() {
+      done = true;
+      if (task != null) {
+        task.cancel();
+      }
+    }
+
+    private synchronized void nextFrame() {
+      if (done) {
+        return; // finished while this frame was waiting for the lock
+      }
+      frame = (frame + 1) % FRAMES.length;
+      render();
+    }
+
+    private void render() {
+      factory.ansi().overwriteThisLine().out(FRAMES[frame] + " " + message + formatElapsed());
+    }
+
+    /** Returns the elapsed time, e.g. " (1m05s)", or an empty string for the first second. */
+    private String formatElapsed() {
+      long seconds = TimeUnit.NANOSECONDS.toSeconds(clock.nanoTime() - startNanos);
+      if (seconds < 1) {
+        return "";
+      } else if (seconds < 60) {
+        return " (" + seconds + "s)";
+      }
+      return String.format(" (%dm%02ds)", seconds / 60, seconds % 60);
+    }
+  }
+
+  /**
+   * Starts an animated {@link Spinner}, which will continue to spin until it is
+   * {@linkplain Spinner#finish finished} or {@linkplain Spinner#remove removed}.
+   *
+   * <p>Example:
+   *
+   * <pre>{@code - Waiting for server (5s)}</pre>
+   *
+   * @param message the message to display alongside the spinner
+   * @param args (optionally) arguments to format into the message
+   * @return a running spinner
+   */
+  public Spinner spinner(String message, Object... args) {
+    return new Spinner(factory, args.length > 0 ? String.format(message, args) : message);
+  }
+
+  /**
+   * Returns an {@link ImageRenderer} that renders images at up to the width of the terminal,
+   * reduced to the terminal's color depth. For example:
+   *
+   * <pre>{@code ansiUtils.imageRenderer().print(ImageIO.read(thumbnailFile));}</pre>
+   *
+   * @return an image renderer with the default settings
+   */
+  public ImageRenderer imageRenderer() {
+    return imageRendererBuilder().build();
+  }
+
+  /**
+   * Returns a builder to configure a custom {@link ImageRenderer}, e.g. to render images at a
+   * fixed width or with dithering.
+   *
+   * @return a builder to construct {@link ImageRenderer} instances
+   */
+  public ImageRenderer.Builder imageRendererBuilder() {
+    return new ImageRenderer.Builder(factory);
+  }
+
+  /**
+   * Returns an {@link AsciicastPlayer} that replays recordings, such as those made by
+   * {@link #recordAsciicast}, at the speed they were recorded. For example:
+   *
+   * <pre>{@code ansiUtils.asciicastPlayer().play(Paths.get("bug-1234.cast"));}</pre>
+   *
+   * @return a player with the default settings
+   */
+  public AsciicastPlayer asciicastPlayer() {
+    return asciicastPlayerBuilder().build();
+  }
+
+  /**
+   * Returns a builder to configure a custom {@link AsciicastPlayer}, e.g. to play recordings
+   * faster or skip long pauses.
+   *
+   * @return a builder to construct {@link AsciicastPlayer} instances
+   */
+  public AsciicastPlayer.Builder asciicastPlayerBuilder() {
+    return new AsciicastPlayer.Builder(factory);
+  }
+
+  /**
+   * Returns a {@link Gradient} that colors text with the given colors, interpolated in OKLab. For
+   * example:
+   *
+   * <pre>{@code ansiUtils.gradient(0xFF8000, 0x8000FF).println("Build succeeded");}</pre>
+   *
+   * @param stops one or more colors in the form {@code 0xRRGGBB}, spaced evenly across the text
+   * @return a gradient between the given colors
+   */
+  public Gradient gradient(int... stops) {
+    return gradientBuilder().stops(stops).build();
+  }
+
+  /**
+   * Returns a builder to configure a custom {@link Gradient}, e.g. to interpolate in a different
+   * color space. Gradients built without specifying any stops are rainbows.
+   *
+   * @return a builder to construct {@link Gradient} instances
+   */
+  public Gradient.Builder gradientBuilder() {
+    return new Gradient.Builder(factory);
+  }
+
+
   /**
    * Returns a builder to configure a custom {@link ProgressBar}. Most users can simply use
    * {@link #percentProgressBar()} or {@link #counterProgressBar(int)}, but more options are
@@ -518,4 +1008,266 @@ public class AnsiUtils {
   public ProgressBar counterProgressBar(int initialStepCount, String units) {
     return progressBarBuilder().units(units).usingCounter(initialStepCount);
   }
+
+  /**
+   * Wraps an {@code InputStream} so that bytes read from it update the given progress bar. The bar
+   * is only re-rendered when enough bytes have been read to visibly change it, so the wrapper adds
+   * negligible overhead even to very fast streams.
+   *
+   * <p>If {@code totalBytes} exceeds {@link Integer#MAX_VALUE} the bar's steps are scaled down, so
+   * {@link #percentProgressBar percentage} bars are generally preferable to counters.
+   *
+   * @param in the stream to read from
+   * @param totalBytes the number of bytes expected to be read in total
+   * @param progressBar the progress bar to update
+   * @return a stream that reads from {@code in} and updates {@code progressBar}
+   */
+  public static InputStream trackProgress(
+      InputStream in, long totalBytes, ProgressBar progressBar) {
+    return new ProgressInputStream(in, new ByteCounter(progressBar, totalBytes));
+  }
+
+  /**
+   * Wraps an {@code OutputStream} so that bytes written to it update the given progress bar. The
+   * bar is only re-rendered when enough bytes have been written to visibly change it, so the
+   * wrapper adds negligible overhead even to very fast streams.
+   *
+   * @param out the stream to write to
+   * @param totalBytes the number of bytes expected to be written in total
+   * @param progressBar the progress bar to update
+   * @return a stream that writes to {@code out} and updates {@code progressBar}
+   * @see #trackProgress(InputStream, long, ProgressBar)
+   */
+  public static OutputStream trackProgress(
+      OutputStream out, long totalBytes, ProgressBar progressBar) {
+    return new ProgressOutputStream(out, new ByteCounter(progressBar, totalBytes));
+  }
+
+  /**
+   * Wraps a {@code ReadableByteChannel} so that bytes read from it update the given progress bar.
+   *
+   * <p>Prefer {@link #transferWithProgress transferWithProgress()} to copy from a
+   * {@code FileChannel}; wrapping a channel prevents {@link FileChannel#transferFrom} from avoiding
+   * copies.
+   *
+   * @param channel the channel to read from
+   * @param totalBytes the number of bytes expected to be read in total
+   * @param progressBar the progress bar to update
+   * @return a channel that reads from {@code channel} and updates {@code progressBar}
+   * @see #trackProgress(InputStream, long, ProgressBar)
+   */
+  public static ReadableByteChannel trackReads(
+      ReadableByteChannel channel, long totalBytes, ProgressBar progressBar) {
+    return new ProgressReadableChannel(channel, new ByteCounter(progressBar, totalBytes));
+  }
+
+  /**
+   * Wraps a {@code WritableByteChannel} so that bytes written to it update the given progress bar.
+   *
+   * <p>Prefer {@link #transferWithProgress transferWithProgress()} to copy from a
+   * {@code FileChannel}; wrapping a channel prevents {@link FileChannel#transferTo} from avoiding
+   * copies.
+   *
+   * @param channel the channel to write to
+   * @param totalBytes the number of bytes expected to be written in total
+   * @param progressBar the progress bar to update
+   * @return a channel that writes to {@code channel} and updates {@code progressBar}
+   * @see #trackProgress(InputStream, long, ProgressBar)
+   */
+  public static WritableByteChannel trackWrites(
+      WritableByteChannel channel, long totalBytes, ProgressBar progressBar) {
+    return new ProgressWritableChannel(channel, new ByteCounter(progressBar, totalBytes));
+  }
+
+  /**
+   * Copies the remaining contents of {@code source}, from its current position, to {@code target}
+   * and advances {@code source}'s position. Like {@link FileChannel#transferTo} this allows the OS
+   * to copy the data directly (e.g. via {@code sendfile()}) without passing it through the JVM;
+   * the transfer is simply split into chunks so the progress bar can be updated in between.
+   *
+   * <p>The progress bar is updated, but not {@linkplain ProgressBar#finish finished}.
+   *
+   * @param source the file to copy from
+   * @param target the channel to copy to
+   * @param progressBar the progress bar to update
+   * @return the number of bytes copied
+   * @throws IOException if the underlying transfer fails
+   */
+  public static long transferWithProgress(
+      FileChannel source, WritableByteChannel target, ProgressBar progressBar) throws IOException {
+    return ProgressStreams.transfer(source, target, progressBar);
+  }
+
+  /**
+   * Returns a {@link ConcurrentProgress} that lets many threads, such as fork-join subtasks or the
+   * splits of a parallel stream, report their progress to the given progress bar without
+   * contending on a shared counter.
+   *
+   * @param progressBar the progress bar to update
+   * @param totalSteps the total number of steps (e.g. elements) that will be completed
+   * @return a {@link ConcurrentProgress} that updates {@code progressBar}
+   */
+  public static ConcurrentProgress trackConcurrently(ProgressBar progressBar, long totalSteps) {
+    return new ConcurrentProgress(progressBar, totalSteps);
+  }
+
+  /**
+   * Removes any ANSI escape sequences from a string, leaving just the text and any control
+   * characters such as newlines.
+   *
+   * @param text the text to strip
+   * @return {@code text} without escape sequences
+   * @see #stripEscapes(OutputStream)
+   */
+  public static String stripEscapes(String text) {
+    return EscapeStripper.strip(text);
+  }
+
+  /**
+   * Removes any ANSI escape sequences from a range of bytes in an ASCII-compatible encoding such as
+   * UTF-8, in place. The remaining text is moved to the start of the range. This does not allocate
+   * (beyond a few objects), and is suitable for stripping very large amounts of output in bulk.
+   *
+   * <p>The range should contain complete sequences; an incomplete sequence at the end of the range
+   * is dropped. Use {@link #stripEscapes(OutputStream)} to strip a stream in chunks.
+   *
+   * @param bytes the array to strip
+   * @param offset the start of the range to strip
+   * @param length the length of the range to strip
+   * @return the length of the text remaining at the start of the range
+   */
+  public static int stripEscapes(byte[] bytes, int offset, int length) {
+    return EscapeStripper.stripInPlace(bytes, offset, length);
+  }
+
+  /**
+   * Wraps an {@code OutputStream} so that any ANSI escape sequences written to it are removed,
+   * leaving just the text and any control characters such as newlines. The bytes written must be in
+   * an ASCII-compatible encoding such as UTF-8. Sequences may be split across writes.
+   *
+   * <p>The wrapper scans for escape characters several bytes at a time and writes the text in
+   * between in bulk, so it adds little overhead compared to writing directly to {@code out}. Text
+   * is never buffered.
+   *
+   * <p>{@link Ansi#ansi} can also strip escape codes from output that's redirected to a file or
+   * pipe; see the {@code com.mwdiamond.fansi.redirected} property.
+   *
+   * @param out the stream to write to
+   * @return a stream that strips escape sequences and writes the text to {@code out}
+   */
+  public static OutputStream stripEscapes(OutputStream out) {
+    return new EscapeStripper.StrippingOutputStream(out);
+  }
+
+  /**
+   * Wraps a {@code Writer} so that any ANSI escape sequences written to it are removed, leaving
+   * just the text and any control characters such as newlines. Sequences may be split across
+   * writes.
+   *
+   * @param out the writer to write to
+   * @return a writer that strips escape sequences and writes the text to {@code out}
+   * @see #stripEscapes(OutputStream)
+   */
+  public static Writer stripEscapes(Writer out) {
+    return new EscapeStripper.StrippingWriter(out);
+  }
+
+  /**
+   * Wraps an {@code OutputStream} so that redundant SGR (color and style) sequences written to it
+   * are removed or merged, without changing how the output is rendered. This is useful for output
+   * that changes style frequently, such as syntax-highlighted text or images, especially when it's
+   * sent over a slow connection or recorded.
+   *
+   * <p>Style changes are written lazily, just before the next text, so the stream must be
+   * {@linkplain OutputStream#flush flushed} once output is complete.
+   *
+   * @param out the stream to write to
+   * @return a stream that writes the output to {@code out} with fewer escape sequences
+   * @see SgrOptimizer
+   */
+  public static SgrOptimizer optimizeSgr(OutputStream out) {
+    return new SgrOptimizer(out);
+  }
+
+  /**
+   * Wraps an {@code AnsiFactory} so that the {@link Ansi} instances it returns remove redundant SGR
+   * (color and style) sequences from their output, such as repeated or overridden colors.
+   *
+   * @param factory the factory to wrap
+   * @return a factory whose instances optimize their output
+   * @see #optimizeSgr(OutputStream)
+   */
+  public static SgrOptimizer.Factory optimizeSgr(AnsiFactory factory) {
+    return new SgrOptimizer.Factory(factory);
+  }
+
+  /**
+   * Opens a file of ANSI colored text, such as a build log, to be converted to HTML. The file is
+   * memory-mapped and converted in parallel chunks using a bounded amount of memory, so it can be
+   * much larger than the heap. The converter can also {@linkplain HtmlConverter#render render} any
+   * part of the file on demand.
+   *
+   * @param input the file to convert, in UTF-8 or another ASCII-compatible encoding
+   * @return a converter for {@code input}, which should be closed once it's no longer needed
+   * @throws IOException if the file can't be opened
+   * @see Ansi#htmlAnsi
+   */
+  public static HtmlConverter htmlConverter(Path input) throws IOException {
+    return new HtmlConverter(input);
+  }
+
+  /**
+   * Wraps an {@code AnsiFactory} so that everything written by the {@link Ansi} instances it
+   * returns is also recorded, with timings, to an asciicast v2 file. Recordings can be replayed
+   * with {@link #asciicastPlayer} or asciinema, e.g. to reproduce a bug report or demo a CLI.
+   * Each write is copied, the clock is read once per batch of up to 10 ms of output, and the
+   * recording is encoded and written by a background thread. For short log lines, this adds 2-7%
+   * to the CPU time of the thread writing them; on a single processor, where encoding the recording
+   * also competes with the application, output is written 5-30% slower.
+   *
+   * @param factory the factory to wrap
+   * @param recording the file to record to, which is replaced if it exists
+   * @return a factory whose instances' output is recorded; close it to finish the recording
+   * @throws IOException if the recording can't be created
+   */
+  public static AsciicastRecorder recordAsciicast(AnsiFactory factory, Path recording)
+      throws IOException {
+    return new AsciicastRecorder(factory,
+        new BufferedOutputStream(Files.newOutputStream(recording)));
+  }
+
+  /**
+   * Returns a builder that records the output written to the {@link Ansi} instances it provides as
+   * a {@link DisplayList}, rather than writing it. The list can then be rendered, as many times as
+   * needed, to any {@code Ansi} instance; e.g. to a terminal and to an HTML report.
+   *
+   * @return a new builder, which is also an {@link AnsiFactory}
+   */
+  public static DisplayList.Builder displayList() {
+    return new DisplayList.Builder();
+  }
+
+  /**
+   * Returns a factory whose {@link Ansi} instances encode their output in a compact binary format
+   * and write it to {@code out}, rather than rendering escape codes. Use a
+   * {@link #styledOutputReader} to render the output, e.g. in a parent process that relays the
+   * output of its workers to the terminal.
+   *
+   * @param out the stream to write to, such as a worker process's stdout
+   * @return a writer that encodes its instances' output; close it to close {@code out}
+   * @throws IOException if the format's header can't be written
+   */
+  public static StyledOutputWriter styledOutputWriter(OutputStream out) throws IOException {
+    return new StyledOutputWriter(out);
+  }
+
+  /**
+   * Returns a reader that renders output written by a {@link #styledOutputWriter} onto an
+   * {@link Ansi} instance.
+   *
+   * @return a new reader, for one stream of output
+   */
+  public static StyledOutputReader styledOutputReader() {
+    return new StyledOutputReader();
+  }
 }
@@ -0,0 +1,259 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Replays an <a href="https://docs.asciinema.org/manual/asciicast/v2/">asciicast v2</a>
+ * recording, such as one made by an {@link AsciicastRecorder}, to stdout. Obtain an instance via
+ * {@link AnsiUtils#asciicastPlayer} or {@link AnsiUtils#asciicastPlayerBuilder}.
+ *
+ * <p>Output events are written as they were recorded, at the time they're due relative to the
+ * start of playback. Playback can be sped up, and long pauses (e.g. while the recorded application
+ * waited for a server) can be capped so that replaying a recording doesn't take as long as making
+ * it. Other kinds of events, such as input and resizes, are skipped.
+ *
+ * <p>If output is not being displayed on an interactive terminal the output is written without
+ * delay.
+ */
+public final class AsciicastPlayer {
+  private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final Pattern HEADER = Pattern.compile("\\{.*\"version\"\\s*:\\s*2\\b.*\\}\\s*");
+
+  private final AnsiFactory factory;
+  private final double speed;
+  private final long maxIdleNanos;
+
+  private AsciicastPlayer(AnsiFactory factory, Builder builder) {
+    this.factory = checkNotNull(factory);
+    speed = builder.speed;
+    maxIdleNanos = builder.maxIdleNanos;
+  }
+
+  /**
+   * Plays a recording, blocking until all of its output has been written.
+   *
+   * @param recording the asciicast file to play
+   * @throws IOException if the recording can't be read, or isn't an asciicast v2 recording
+   * @throws InterruptedException if interrupted while waiting for an event to be due
+   */
+  public void play(Path recording) throws IOException, InterruptedException {
+    try (Reader reader = Files.newBufferedReader(recording, StandardCharsets.UTF_8)) {
+      play(reader);
+    }
+  }
+
+  /**
+   * Plays a recording, blocking until all of its output has been written.
+   *
+   * @param recording the asciicast recording to play, which is read but not closed
+   * @throws IOException if the recording can't be read, or isn't an asciicast v2 recording
+   * @throws InterruptedException if interrupted while waiting for an event to be due
+   */
+  public void play(Reader recording) throws IOException, InterruptedException {
+    BufferedReader reader = recording instanceof BufferedReader
+        ? (BufferedReader) recording : new BufferedReader(recording);
+    String header = reader.readLine();
+    if (header == null || !HEADER.matcher(header).matches()) {
+      throw new IOException("Not an asciicast v2 recording: " + header);
+    }
+    Ansi ansi = factory.ansi();
+    Clock clock = ansi.clock();
+    boolean interactive = ansi.interactive();
+    long start = clock.nanoTime();
+    long previous = 0;
+    long elapsed = 0;
+    Event event = new Event();
+    String line;
+    for (int number = 2; (line = reader.readLine()) != null; number++) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      if (!event.parse(line)) {
+        throw new IOException("Malformed asciicast event on line " + number + ": " + line);
+      }
+      // Pauses are capped in recording time, before the speed is applied
+      elapsed += Math.min(Math.max(event.nanos - previous, 0), maxIdleNanos);
+      previous = event.nanos;
+      if (!event.type.equals("o")) {
+        continue;
+      }
+      if (interactive) {
+        long wait = start + (long) (elapsed / speed) - clock.nanoTime();
+        if (wait > 0) {
+          clock.sleep((wait + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI); // round up
+        }
+      }
+      ansi.outRendered(event.data);
+      ansi.flush();
+    }
+  }
+
+  /**
+   * An event line, {@code [time, "type", "data"]}, parsed into reusable fields. This is a minimal
+   * JSON parser for just this array, since a general one isn't needed.
+   */
+  private static final class Event {
+    private final StringBuilder buffer = new StringBuilder();
+    private String text;
+    private int position;
+    long nanos;
+    String type;
+    String data;
+
+    /** Parses an event line, returning false if it's malformed. */
+    boolean parse(String line) {
+      text = line;
+      position = 0;
+      if (!consume('[')) {
+        return false;
+      }
+      skipWhitespace();
+      int numberStart = position;
+      while (position < text.length() && "0123456789.eE+-".indexOf(text.charAt(position)) >= 0) {
+        position++;
+      }
+      try {
+        nanos = (long) (Double.parseDouble(text.substring(numberStart, position)) * 1e9);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      if (!consume(',') || (type = string()) == null || !consume(',')
+          || (data = string()) == null || !consume(']')) {
+        return false;
+      }
+      skipWhitespace();
+      return position == text.length();
+    }
+
+    private void skipWhitespace() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    private boolean consume(char c) {
+      skipWhitespace();
+      if (position < text.length() && text.charAt(position) == c) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    /** Parses a JSON string, returning null if it's malformed. */
+    private String string() {
+      if (!consume('"')) {
+        return null;
+      }
+      buffer.setLength(0);
+      while (position < text.length()) {
+        char c = text.charAt(position++);
+        if (c == '"') {
+          return buffer.toString();
+        } else if (c != '\\') {
+          buffer.append(c);
+          continue;
+        } else if (position == text.length()) {
+          return null;
+        }
+        char escaped = text.charAt(position++);
+        switch (escaped) {
+          case '"':
+          case '\\':
+          case '/':
+            buffer.append(escaped);
+            break;
+          case 'b':
+            buffer.append('\b');
+            break;
+          case 'f':
+            buffer.append('\f');
+            break;
+          case 'n':
+            buffer.append('\n');
+            break;
+          case 'r':
+            buffer.append('\r');
+            break;
+          case 't':
+            buffer.append('\t');
+            break;
+          case 'u':
+            if (position + 4 > text.length()) {
+              return null;
+            }
+            try {
+              buffer.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+            } catch (NumberFormatException e) {
+              return null;
+            }
+            position += 4;
+            break;
+          default:
+            return null;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Builder for {@link AsciicastPlayer} instances. By default recordings are played at the speed
+   * they were recorded, including any pauses.
+   */
+  public static class Builder {
+    private final AnsiFactory factory;
+    private double speed = 1;
+    private long maxIdleNanos = Long.MAX_VALUE;
+
+    Builder(AnsiFactory factory) {
+      this.factory = checkNotNull(factory);
+    }
+
+    /**
+     * Plays recordings faster or slower than they were recorded, e.g. {@code 2} to play them in
+     * half the time.
+     *
+     * @param speed the multiple of the recorded speed to play at
+     * @return this builder
+     */
+    public Builder speed(double speed) {
+      checkArgument(speed > 0 && !Double.isInfinite(speed), "Invalid speed: %s", speed);
+      this.speed = speed;
+      return this;
+    }
+
+    /**
+     * Shortens any pause between events longer than the given duration to that duration. The limit
+     * applies to the recording, before it's {@linkplain #speed sped up}.
+     *
+     * @param duration the longest pause to play
+     * @param unit the unit of {@code duration}
+     * @return this builder
+     */
+    public Builder maxIdle(long duration, TimeUnit unit) {
+      checkArgument(duration >= 0, "Invalid duration: %s", duration);
+      maxIdleNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Constructs an {@link AsciicastPlayer} with the configured settings.
+     *
+     * @return a new player
+     */
+    public AsciicastPlayer build() {
+      return new AsciicastPlayer(factory, this);
+    }
+  }
+}
@@ -0,0 +1,391 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link AnsiFactory} that records everything its {@link Ansi} instances write, with timings,
+ * as an <a href="https://docs.asciinema.org/manual/asciicast/v2/">asciicast v2</a> recording.
+ * Recordings can be replayed with an {@link AsciicastPlayer} or with asciinema, e.g. to attach to a
+ * bug report or to demo a CLI. Obtain an instance via {@link AnsiUtils#recordAsciicast}.
+ *
+ * <p>Output is written to the wrapped factory's streams as usual, and each write (e.g. each
+ * {@code out()} call) is also recorded, timestamped with the {@code Ansi} instances' monotonic
+ * clock. Output to stdout and stderr is recorded alike, as a terminal would display both. Output
+ * printed directly to the streams, bypassing {@code Ansi}, isn't recorded.
+ *
+ * <p>Recording never waits for the recording to be written: each write just copies its text to the
+ * end of a buffer. A background daemon thread, woken when the buffer stops being empty, swaps in an
+ * empty buffer, and writes the text in the full one to the recording as a single output event; it
+ * then waits briefly (10 ms) for more output to accumulate, so that it wakes at most once per
+ * interval however often output is written, and sleeps while there's none. Reading the clock would
+ * be a large part of the cost of recording a write, so only the first write to an empty buffer
+ * reads it, and each event has that write's time; replayed output may therefore appear up to the
+ * interval early. The buffer is unbounded, so output that's written faster than it can be recorded
+ * for a long time will use more memory rather than slow down. {@linkplain #close Close} the
+ * recorder, e.g. before the application exits, to finish writing the recording. Output written
+ * once the recorder is closed is not recorded.
+ */
+public final class AsciicastRecorder implements AnsiFactory, Closeable {
+  /** How long the writer thread lets output accumulate after writing it. */
+  private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  /** How many encoded bytes the writer thread buffers before writing them to the recording. */
+  private static final int WRITE_SIZE = 64 * 1024;
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+  private static final byte[] EVENT_START = ascii(", \"o\", \"");
+  private static final byte[] EVENT_END = ascii("\"]\n");
+  private static final byte[] REPLACEMENT = "\uFFFD".getBytes(StandardCharsets.UTF_8);
+
+  private final AnsiFactory delegate;
+  private final OutputStream out;
+  private final Clock clock;
+  private final long startNanos;
+  private final Object lock = new Object();
+  private Events pending = new Events(); // guarded by lock
+  private volatile boolean closed; // written while holding lock
+  private final Thread writer;
+  private volatile IOException failure;
+  // Used only by the writer thread
+  private Events writing = new Events();
+  private final ByteOutput encoded = new ByteOutput();
+  private boolean partial;
+  private char partialChar;
+
+  AsciicastRecorder(AnsiFactory delegate, OutputStream out) throws IOException {
+    this.delegate = checkNotNull(delegate);
+    this.out = checkNotNull(out);
+    Ansi ansi = delegate.ansi();
+    clock = ansi.clock();
+    startNanos = clock.nanoTime();
+    out.write(ascii("{\"version\": 2, \"width\": " + ansi.columns() + ", \"height\": "
+        + ansi.rows() + ", \"timestamp\": "
+        + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + "}\n"));
+    writer = SystemInfo.threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        writeEvents();
+      }
+    });
+    writer.start();
+  }
+
+  @Override
+  public Ansi ansi() {
+    Ansi ansi = delegate.ansi();
+    return ansi.withSink(new RecordingSink(ansi.sink()));
+  }
+
+  /** Adds a write to the pending events, to be recorded by the writer thread. */
+  private void record(CharSequence rendered, boolean newLine) {
+    if ((rendered.length() == 0 && !newLine) || failure != null) {
+      return;
+    }
+    boolean wasEmpty;
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      wasEmpty = pending.length == 0;
+      if (wasEmpty) {
+        pending.nanos = clock.nanoTime() - startNanos;
+      }
+      pending.add(rendered, newLine ? LINE_SEPARATOR : "");
+    }
+    if (wasEmpty) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Finishes writing the recording, waiting for any pending events to be written, and closes it.
+   *
+   * @throws IOException if the recording couldn't be written, including by an earlier write
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while finishing the recording");
+    }
+    out.close();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /** Returns whether there are writes the writer thread hasn't taken yet. */
+  @VisibleForTesting
+  boolean hasPendingWrites() {
+    synchronized (lock) {
+      return pending.length > 0;
+    }
+  }
+
+  /** Runs on the writer thread, writing events until the recorder is closed. */
+  private void writeEvents() {
+    try {
+      while (true) {
+        boolean finished;
+        synchronized (lock) {
+          finished = closed;
+          Events full = pending;
+          pending = writing;
+          writing = full;
+        }
+        boolean wrote = writing.length > 0;
+        if (wrote) {
+          encode(writing.nanos, writing.chars, 0, writing.length, false);
+          writing.length = 0;
+        }
+        if (finished && partial) {
+          // An incomplete character at the end of the recording is written as a replacement
+          encode(clock.nanoTime() - startNanos, writing.chars, 0, 0, true);
+        }
+        encoded.writeTo(out);
+        if (finished) {
+          out.flush();
+          return;
+        }
+        if (wrote) {
+          out.flush();
+          long deadline = System.nanoTime() + BATCH_NANOS;
+          long remaining;
+          while (!closed && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+          }
+        } else {
+          // Until record() or close() unparks this thread
+          LockSupport.park(this);
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  /**
+   * Encodes an output event for the chars in {@code [start, end)}, after any partial character
+   * held back from the previous event. Unless this is the end of the recording, a high surrogate
+   * at the end of the chars is held back until the next event, as characters may be split across
+   * writes. Long events are written to the recording as they're encoded.
+   */
+  private void encode(long nanos, char[] chars, int start, int end, boolean last)
+      throws IOException {
+    long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+    int eventStart = encoded.length;
+    encoded.write('[');
+    encoded.writeDecimal(micros / 1000000, 1);
+    encoded.write('.');
+    encoded.writeDecimal(micros % 1000000, 6);
+    encoded.write(EVENT_START, 0, EVENT_START.length);
+    int textStart = encoded.length;
+    if (partial) {
+      if (start < end && Character.isLowSurrogate(chars[start])) {
+        encoded.writeCodePoint(Character.toCodePoint(partialChar, chars[start++]));
+      } else {
+        encoded.write(REPLACEMENT, 0, REPLACEMENT.length);
+      }
+      partial = false;
+    }
+    if (!last && end > start && Character.isHighSurrogate(chars[end - 1])) {
+      partial = true;
+      partialChar = chars[--end];
+    }
+    if (encoded.length == textStart && start == end) {
+      encoded.length = eventStart; // nothing to record yet
+      return;
+    }
+    while (start < end) {
+      int chunkEnd = Math.min(end, start + WRITE_SIZE);
+      if (chunkEnd < end && Character.isHighSurrogate(chars[chunkEnd - 1])) {
+        chunkEnd++; // keeps surrogate pairs together
+      }
+      appendJson(encoded, chars, start, chunkEnd);
+      start = chunkEnd;
+      if (encoded.length >= WRITE_SIZE) {
+        encoded.writeTo(out);
+      }
+    }
+    encoded.write(EVENT_END, 0, EVENT_END.length);
+  }
+
+  /**
+   * Appends text as the contents of a JSON string, encoded as UTF-8. Unpaired surrogates are
+   * replaced with U+FFFD, as JSON must be valid Unicode.
+   */
+  private static void appendJson(ByteOutput out, char[] chars, int start, int end) {
+    // Most text is printable ASCII, which is copied without checking the capacity for each byte
+    out.ensureCapacity(end - start);
+    for (int i = start; i < end; i++) {
+      char c = chars[i];
+      if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\') {
+        out.bytes[out.length++] = (byte) c;
+        continue;
+      }
+      switch (c) {
+        case '"':
+          out.writeAscii("\\\"");
+          break;
+        case '\\':
+          out.writeAscii("\\\\");
+          break;
+        case '\n':
+          out.writeAscii("\\n");
+          break;
+        case '\r':
+          out.writeAscii("\\r");
+          break;
+        case '\t':
+          out.writeAscii("\\t");
+          break;
+        default:
+          if (c < 0x80) {
+            out.writeAscii("\\u00");
+            out.write(Character.forDigit(c >> 4, 16));
+            out.write(Character.forDigit(c & 0xF, 16));
+          } else if (!Character.isSurrogate(c)) {
+            out.writeCodePoint(c);
+          } else if (Character.isHighSurrogate(c) && i + 1 < end
+              && Character.isLowSurrogate(chars[i + 1])) {
+            out.writeCodePoint(Character.toCodePoint(c, chars[++i]));
+          } else {
+            out.write(REPLACEMENT, 0, REPLACEMENT.length);
+          }
+      }
+      out.ensureCapacity(end - i - 1);
+    }
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * The text of the writes made since the writer thread last took them, which are recorded as one
+   * event. Their text is appended to a single array, so that recording a write doesn't usually
+   * allocate.
+   */
+  private static final class Events {
+    char[] chars = new char[8192];
+    int length;
+    /** When the first write was made, relative to the start of the recording. */
+    long nanos;
+
+    void add(CharSequence text, String suffix) {
+      int total = text.length() + suffix.length();
+      if (length + total > chars.length) {
+        chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + total));
+      }
+      if (text instanceof StringBuilder) {
+        ((StringBuilder) text).getChars(0, text.length(), chars, length);
+      } else {
+        text.toString().getChars(0, text.length(), chars, length);
+      }
+      suffix.getChars(0, suffix.length(), chars, length + text.length());
+      length += total;
+    }
+  }
+
+  /** A growable byte array, like {@code ByteArrayOutputStream} but without synchronization. */
+  private static final class ByteOutput {
+    private byte[] bytes = new byte[1024];
+    private int length;
+
+    void write(int b) {
+      ensureCapacity(1);
+      bytes[length++] = (byte) b;
+    }
+
+    void write(byte[] source, int offset, int count) {
+      ensureCapacity(count);
+      System.arraycopy(source, offset, bytes, length, count);
+      length += count;
+    }
+
+    void writeAscii(String text) {
+      ensureCapacity(text.length());
+      for (int i = 0; i < text.length(); i++) {
+        bytes[length++] = (byte) text.charAt(i);
+      }
+    }
+
+    /** Writes a non-negative number in decimal, padded with zeros to at least {@code digits}. */
+    void writeDecimal(long value, int digits) {
+      int count = 1;
+      for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+        count++;
+      }
+      count = Math.max(count, digits);
+      ensureCapacity(count);
+      for (int i = length + count - 1; i >= length; i--) {
+        bytes[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      length += count;
+    }
+
+    /** Writes a non-ASCII code point, which isn't a surrogate, as UTF-8. */
+    void writeCodePoint(int codePoint) {
+      ensureCapacity(4);
+      if (codePoint < 0x800) {
+        bytes[length++] = (byte) (0xC0 | codePoint >> 6);
+      } else {
+        if (codePoint < 0x10000) {
+          bytes[length++] = (byte) (0xE0 | codePoint >> 12);
+        } else {
+          bytes[length++] = (byte) (0xF0 | codePoint >> 18);
+          bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        }
+        bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+      }
+      bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+    }
+
+    void ensureCapacity(int count) {
+      if (length + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+      }
+    }
+
+    /** Writes the bytes to {@code out}, and clears them. */
+    void writeTo(OutputStream out) throws IOException {
+      if (length > 0) {
+        out.write(bytes, 0, length);
+        length = 0;
+      }
+    }
+  }
+
+  /** Passes output to the original sink, and records it. */
+  private final class RecordingSink implements Ansi.Sink {
+    private final Ansi.Sink sink;
+
+    RecordingSink(Ansi.Sink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(PrintStream out, boolean stderr, CharSequence rendered, boolean newLine) {
+      sink.write(out, stderr, rendered, newLine);
+      record(rendered, newLine);
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.mwdiamond.fansi;
+
+/**
+ * Source of elapsed time for time-sensitive output, such as throttled progress updates and
+ * animations. Obtained via {@link SystemInfo#clock} so it can be replaced in tests.
+ */
+abstract class Clock {
+  /** A clock backed by {@link System#nanoTime}. */
+  static final Clock SYSTEM = new Clock() {
+    @Override
+    long nanoTime() {
+      return System.nanoTime();
+    }
+
+    @Override
+    void sleep(long millis) throws InterruptedException {
+      Thread.sleep(millis);
+    }
+  };
+
+  /**
+   * Returns the current value of this clock in nanoseconds. Like {@link System#nanoTime} this is
+   * only meaningful when compared to other values returned by the same clock.
+   */
+  abstract long nanoTime();
+
+  /** Blocks the calling thread until this clock has advanced by the given number of millis. */
+  abstract void sleep(long millis) throws InterruptedException;
+}
@@ -1,16 +1,13 @@
 package com.mwdiamond.fansi;
 
-import static com.google.common.base.Preconditions.checkArgument;
-
-import com.google.common.base.Joiner;
-import com.google.common.collect.ImmutableList;
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
 
 import com.mwdiamond.fansi.Ansi.Color;
 import com.mwdiamond.fansi.Ansi.Font;
 import com.mwdiamond.fansi.Ansi.Style;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.mwdiamond.fansi.Terminfo.Capability;
+import java.util.Locale;
 
 /**
  * Direct implementation of the ANSI codes, as listed on
@@ -29,6 +26,7 @@ interface Codes {
   public final Codes REAL = AnsiCodes.real();
   public final Codes RAW = AnsiCodes.raw();
   public final Codes NO_OP = new NoOpCodes();
+  public final Codes HTML = new HtmlCodes(ColorDepth.TRUE_COLOR);
 
   String title(String text);
 
@@ -63,10 +61,30 @@ interface Codes {
 
   String color(ColorType color, ColorType background, Font font, Style... styles);
 
+  /**
+   * Appends the codes to set the given {@linkplain ColorType#packed packed} colors to {@code out},
+   * without allocating. Either color may be {@link ColorType#UNCHANGED}; if both are nothing is
+   * appended.
+   */
+  void appendColor(StringBuilder out, int color, int background);
+
   String clearFont();
 
   String clear();
 
+  /**
+   * Appends {@code text[start, end)} to {@code out}, escaped as necessary so that it's displayed
+   * as-is alongside these codes. Terminals display text unchanged.
+   */
+  void appendText(StringBuilder out, CharSequence text, int start, int end);
+
+  /**
+   * Returns true if these codes are interpreted by a terminal, which can move the cursor and keeps
+   * colors in effect until they're changed. Output to other destinations, such as HTML, can only
+   * be appended to.
+   */
+  boolean isTerminal();
+
   String getCursor();
 
   String saveCursor();
@@ -77,59 +95,140 @@ interface Codes {
 
   String showCursor();
 
+  /**
+   * Returns codes that render colors at the given depth, replacing any colors that can't be
+   * displayed at that depth with the closest color that can.
+   */
+  Codes withColorDepth(ColorDepth depth);
+
+  /** Returns the depth at which these codes render colors. */
+  ColorDepth colorDepth();
+
+  /**
+   * The range of colors a terminal can display. Colors beyond a terminal's depth are generally
+   * ignored or misrendered, so they need to be replaced with colors the terminal does support.
+   */
+  enum ColorDepth {
+    /** Any RGB color; the default. */
+    TRUE_COLOR,
+    /** The 256 color indexes. RGB colors are replaced by their closest color index. */
+    COLORS_256,
+    /** Only the 16 named colors. RGB colors and color indexes are replaced by a named color. */
+    COLORS_16;
+  }
+
+  /**
+   * A named color, color index, or RGB color. RGB colors are stored as {@code 0xRRGGBB} ints, so
+   * that {@code java.awt} is only loaded by callers that use AWT colors themselves.
+   *
+   * <p>Colors can also be {@linkplain #packed packed} into a single int, for callers that need to
+   * handle many colors without allocating, such as image rendering.
+   */
   static class ColorType {
     static ColorType DEFAULT = new ColorType(Color.DEFAULT);
 
-    private Color namedColor;
-    private Integer colorIndex;
-    private java.awt.Color javaColor;
+    /** A packed color that indicates the current color should not be changed. */
+    static final int UNCHANGED = -1;
 
-    ColorType(Color color) {
-      namedColor = color;
+    // Packed colors are 0x00RRGGBB, 0x010000II for color index II, or 0x020000NN for the named
+    // color with ordinal NN.
+    private static final int KIND_MASK = 0xFF000000;
+    private static final int RGB_KIND = 0;
+    private static final int INDEX_KIND = 0x01000000;
+    private static final int NAMED_KIND = 0x02000000;
+    private static final Color[] NAMED_COLORS = Color.values();
+
+    private final int packed;
+
+    private ColorType(int packed) {
+      this.packed = packed;
     }
 
-    ColorType(int color) {
-      checkArgument(color >= 0 && color <= 255,
-          "Must specify a color index within the range [0, 255], was: %s", color);
-      colorIndex = color;
+    ColorType(Color color) {
+      this(packNamed(color));
     }
 
     ColorType(java.awt.Color color) {
-      javaColor = color;
+      this(packRgb(color.getRGB()));
     }
 
-    Color namedColor() {
-      return namedColor;
+    /** Creates a color index, which must be in the range [0, 255]. */
+    static ColorType fromIndex(int colorIndex) {
+      return new ColorType(packIndex(colorIndex));
     }
 
-    Integer colorIndex() {
-      return colorIndex;
+    /** Creates an RGB color from an {@code 0xRRGGBB} value; any alpha component is ignored. */
+    static ColorType fromRgb(int rgb) {
+      return new ColorType(packRgb(rgb));
     }
 
-    java.awt.Color javaColor() {
-      return javaColor;
+    /** Creates a color from its packed form. */
+    static ColorType fromPacked(int packed) {
+      return new ColorType(packed);
     }
 
-    List<Object> getColorCodeParts() {
-      if (namedColor() != null) {
-        return ImmutableList.<Object>of(namedColor().color());
-      } else if (colorIndex() != null) {
-        return Color.extended(colorIndex(), false);
-      } else if (javaColor() != null) {
-        return Color.extended(javaColor(), false);
-      }
-      throw new IllegalArgumentException("Unexpected ColorType, " + this);
+    /** Packs an {@code 0xRRGGBB} color; any alpha component is ignored. */
+    static int packRgb(int rgb) {
+      return rgb & 0xFFFFFF;
     }
 
-    List<Object> getBackgroundCodeParts() {
-      if (namedColor() != null) {
-        return ImmutableList.<Object>of(namedColor().background());
-      } else if (colorIndex() != null) {
-        return Color.extended(colorIndex(), true);
-      } else if (javaColor() != null) {
-        return Color.extended(javaColor(), true);
+    /**
+     * Packs an {@code 0xRRGGBB} color as the closest color that can be displayed at the given
+     * depth, the same color {@link Codes#appendColor} would render it as. Callers that compare
+     * packed colors, e.g. to coalesce runs of the same color, should reduce them with this first.
+     */
+    static int packRgb(int rgb, ColorDepth depth) {
+      switch (depth) {
+        case COLORS_256:
+          return packIndex(Ansi.toColorIndex(rgb));
+        case COLORS_16:
+          return packNamed(Palette.ansi16().nearestColor(rgb));
+        default:
+          return packRgb(rgb);
       }
-      throw new IllegalArgumentException("Unexpected ColorType, " + this);
+    }
+
+    /** Packs a color index. */
+    static int packIndex(int colorIndex) {
+      checkArgument(colorIndex >= 0 && colorIndex <= 255,
+          "Must specify a color index within the range [0, 255], was: %s", colorIndex);
+      return INDEX_KIND | colorIndex;
+    }
+
+    /** Packs a named color. */
+    static int packNamed(Color color) {
+      return NAMED_KIND | color.ordinal();
+    }
+
+    /** Returns this color in packed form. */
+    int packed() {
+      return packed;
+    }
+
+    /** Returns the named color, or null if this is not a named color. */
+    Color namedColor() {
+      return isNamed(packed) ? namedColor(packed) : null;
+    }
+
+    static boolean isRgb(int packed) {
+      return (packed & KIND_MASK) == RGB_KIND;
+    }
+
+    static boolean isIndex(int packed) {
+      return (packed & KIND_MASK) == INDEX_KIND;
+    }
+
+    static boolean isNamed(int packed) {
+      return (packed & KIND_MASK) == NAMED_KIND;
+    }
+
+    /** Returns the RGB value, color index, or named color ordinal of a packed color. */
+    static int value(int packed) {
+      return packed & ~KIND_MASK;
+    }
+
+    static Color namedColor(int packed) {
+      return NAMED_COLORS[value(packed)];
     }
   }
 
@@ -176,25 +275,32 @@ interface Codes {
     private static final String DECTCEM_HIDE = "?25l";
     private static final String DECTCEM_SHOW = "?25h";
 
-    private static String SEPARATOR = ";";
-    private static Joiner SEPARATOR_JOINER = Joiner.on(SEPARATOR);
+    // SGR parameters
+    private static final int EXTENDED_COLOR = 38;
+    private static final int EXTENDED_BACKGROUND = 48;
+    private static final int EXTENDED_RGB = 2;
+    private static final int EXTENDED_INDEX = 5;
+
+    private static final char SEPARATOR = ';';
 
     private final String esc;
     private final String bell;
     private final String csi;
+    private final ColorDepth colorDepth;
 
-    private AnsiCodes(String esc, String bell) {
+    private AnsiCodes(String esc, String bell, ColorDepth colorDepth) {
       this.esc = esc;
       this.bell = bell;
       this.csi = esc + CSI_CHAR;
+      this.colorDepth = checkNotNull(colorDepth);
     }
 
     public static AnsiCodes real() {
-      return new AnsiCodes(ESC_REAL, BELL_REAL);
+      return new AnsiCodes(ESC_REAL, BELL_REAL, ColorDepth.TRUE_COLOR);
     }
 
     public static AnsiCodes raw() {
-      return new AnsiCodes(ESC_RAW, BELL_RAW);
+      return new AnsiCodes(ESC_RAW, BELL_RAW, ColorDepth.TRUE_COLOR);
     }
 
     @Override
@@ -292,23 +398,95 @@ interface Codes {
 
     @Override
     public String color(ColorType color, ColorType background, Font font, Style... styles) {
-      List<Object> parts = new ArrayList<>();
+      StringBuilder buffer = new StringBuilder(csi);
+      int start = buffer.length();
       for (Style s : styles) {
-        parts.add(s.code());
+        appendSeparator(buffer, start).append(s.code());
       }
       if (font != Font.DEFAULT) {
-        parts.add(font.code());
+        appendSeparator(buffer, start).append(font.code());
       }
       if (color.namedColor() != Color.DEFAULT) {
-        parts.addAll(color.getColorCodeParts());
+        appendColorParameters(buffer, start, color.packed(), false);
       }
       if (background.namedColor() != Color.DEFAULT) {
-        parts.addAll(background.getBackgroundCodeParts());
+        appendColorParameters(buffer, start, background.packed(), true);
       }
-      if (parts.isEmpty()) {
+      if (buffer.length() == start) {
         return "";
       }
-      return SEPARATOR_JOINER.appendTo(new StringBuilder(csi), parts).append(SGR).toString();
+      return buffer.append(SGR).toString();
+    }
+
+    @Override
+    public void appendColor(StringBuilder out, int color, int background) {
+      if (color == ColorType.UNCHANGED && background == ColorType.UNCHANGED) {
+        return;
+      }
+      out.append(csi);
+      int start = out.length();
+      if (color != ColorType.UNCHANGED) {
+        appendColorParameters(out, start, color, false);
+      }
+      if (background != ColorType.UNCHANGED) {
+        appendColorParameters(out, start, background, true);
+      }
+      out.append(SGR);
+    }
+
+    private static StringBuilder appendSeparator(StringBuilder buffer, int start) {
+      if (buffer.length() > start) {
+        buffer.append(SEPARATOR);
+      }
+      return buffer;
+    }
+
+    /**
+     * Appends the SGR parameters that select a packed color, replacing it with the closest
+     * supported color if it can't be displayed at this instance's color depth.
+     */
+    private void appendColorParameters(
+        StringBuilder buffer, int start, int packed, boolean background) {
+      appendSeparator(buffer, start);
+      if (ColorType.isRgb(packed)) {
+        int rgb = ColorType.value(packed);
+        switch (colorDepth) {
+          case TRUE_COLOR:
+            buffer.append(background ? EXTENDED_BACKGROUND : EXTENDED_COLOR).append(SEPARATOR)
+                .append(EXTENDED_RGB).append(SEPARATOR)
+                .append(rgb >> 16 & 0xFF).append(SEPARATOR)
+                .append(rgb >> 8 & 0xFF).append(SEPARATOR)
+                .append(rgb & 0xFF);
+            return;
+          case COLORS_256:
+            appendIndex(buffer, Ansi.toColorIndex(rgb), background);
+            return;
+          case COLORS_16:
+            appendNamed(buffer, Palette.ansi16().nearestColor(rgb), background);
+            return;
+          default:
+            throw new AssertionError(colorDepth);
+        }
+      } else if (ColorType.isIndex(packed)) {
+        int colorIndex = ColorType.value(packed);
+        if (colorDepth == ColorDepth.COLORS_16) {
+          appendNamed(buffer, Palette.namedColorForIndex(colorIndex), background);
+        } else {
+          appendIndex(buffer, colorIndex, background);
+        }
+      } else {
+        appendNamed(buffer, ColorType.namedColor(packed), background);
+      }
+    }
+
+    private static void appendIndex(StringBuilder buffer, int colorIndex, boolean background) {
+      buffer.append(background ? EXTENDED_BACKGROUND : EXTENDED_COLOR).append(SEPARATOR)
+          .append(EXTENDED_INDEX).append(SEPARATOR)
+          .append(colorIndex);
+    }
+
+    private static void appendNamed(StringBuilder buffer, Color color, boolean background) {
+      buffer.append(background ? color.background() : color.color());
     }
 
     @Override
@@ -321,6 +499,16 @@ interface Codes {
       return csi + SGR;
     }
 
+    @Override
+    public void appendText(StringBuilder out, CharSequence text, int start, int end) {
+      out.append(text, start, end);
+    }
+
+    @Override
+    public boolean isTerminal() {
+      return true;
+    }
+
     @Override
     public String getCursor() {
       return csi + DSR;
@@ -345,6 +533,34 @@ interface Codes {
     public String showCursor() {
       return csi + DECTCEM_SHOW;
     }
+
+    @Override
+    public Codes withColorDepth(ColorDepth depth) {
+      if (depth == colorDepth) {
+        return this;
+      }
+      return new AnsiCodes(esc, bell, depth);
+    }
+
+    @Override
+    public ColorDepth colorDepth() {
+      return colorDepth;
+    }
+
+    // Codes are compared, e.g. by DisplayList, to reuse output rendered with equivalent codes
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof AnsiCodes)) {
+        return false;
+      }
+      AnsiCodes that = (AnsiCodes) o;
+      return esc.equals(that.esc) && bell.equals(that.bell) && colorDepth == that.colorDepth;
+    }
+
+    @Override
+    public int hashCode() {
+      return (esc.hashCode() * 31 + bell.hashCode()) * 31 + colorDepth.hashCode();
+    }
   }
 
   class NoOpCodes implements Codes {
@@ -429,6 +645,9 @@ interface Codes {
       return "";
     }
 
+    @Override
+    public void appendColor(StringBuilder out, int color, int background) {}
+
     @Override
     public String clearFont() {
       return "";
@@ -439,6 +658,16 @@ interface Codes {
       return "";
     }
 
+    @Override
+    public void appendText(StringBuilder out, CharSequence text, int start, int end) {
+      out.append(text, start, end);
+    }
+
+    @Override
+    public boolean isTerminal() {
+      return false;
+    }
+
     @Override
     public String getCursor() {
       return "";
@@ -464,5 +693,582 @@ interface Codes {
       return "";
     }
 
+    @Override
+    public Codes withColorDepth(ColorDepth depth) {
+      return this;
+    }
+
+    @Override
+    public ColorDepth colorDepth() {
+      return ColorDepth.TRUE_COLOR;
+    }
+  }
+
+  /**
+   * Codes that render output as HTML, for web pages such as dashboards and CI reports. Text is
+   * escaped, and each {@link #color color()} call opens a {@code <span>} that {@link #clear}
+   * closes. The output is intended to be placed in a {@code <pre>} element, and styled with
+   * {@link #stylesheet}.
+   *
+   * <p>Named colors, color indexes and styles are rendered as a small set of CSS classes, e.g.
+   * {@code fansi-fg1} for red text and {@code fansi-bold}, whose names are precomputed. RGB colors
+   * are rendered as inline styles (unless reduced to a color index by
+   * {@link #withColorDepth}).
+   *
+   * <p>HTML can only be appended to, so {@link #isTerminal} is false: codes that move the cursor,
+   * clear the screen, or query the terminal are empty, except that {@link #downLine} starts a new
+   * line. Colors set by {@link #appendColor} replace the colors set by the previous call, so runs
+   * of colors must start with an empty {@code color()} call and end with {@code clear()}, which
+   * for terminals are empty and a reset respectively.
+   */
+  class HtmlCodes implements Codes {
+    private static final String PREFIX = "fansi-";
+    private static final String SPAN_END = "</span>";
+    /** The class for each color index, and therefore each named color, as a text color. */
+    private static final String[] COLOR_CLASSES = new String[256];
+    /** The class for each color index as a background color. */
+    private static final String[] BACKGROUND_CLASSES = new String[256];
+    private static final String[] STYLE_CLASSES = new String[Style.values().length];
+    private static final String[] FONT_CLASSES = new String[Font.values().length];
+
+    static {
+      for (int i = 0; i < COLOR_CLASSES.length; i++) {
+        COLOR_CLASSES[i] = PREFIX + "fg" + i;
+        BACKGROUND_CLASSES[i] = PREFIX + "bg" + i;
+      }
+      for (Style style : Style.values()) {
+        STYLE_CLASSES[style.ordinal()] = cssName(style.name());
+      }
+      for (Font font : Font.values()) {
+        FONT_CLASSES[font.ordinal()] = cssName(font.name());
+      }
+    }
+
+    private final ColorDepth colorDepth;
+
+    HtmlCodes(ColorDepth colorDepth) {
+      this.colorDepth = checkNotNull(colorDepth);
+    }
+
+    private static String cssName(String enumName) {
+      return PREFIX + enumName.toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    /** Returns CSS rules for the classes used by these codes. */
+    static String stylesheet() {
+      return Stylesheet.CSS;
+    }
+
+    /** Holds the stylesheet, so that it's only built if it's used. */
+    private static final class Stylesheet {
+      static final String CSS = buildStylesheet();
+    }
+
+    private static String buildStylesheet() {
+      StringBuilder css = new StringBuilder();
+      appendRule(css, Style.BOLD, "font-weight:bold");
+      appendRule(css, Style.DIM, "opacity:.5");
+      appendRule(css, Style.ITALIC, "font-style:italic");
+      appendRule(css, Style.BLINK, "animation:fansi-blink 1s step-end infinite");
+      appendRule(css, Style.BLINK_RAPID, "animation:fansi-blink .4s step-end infinite");
+      css.append("@keyframes fansi-blink{50%{visibility:hidden}}\n");
+      appendRule(css, Style.REVERSE, "filter:invert(100%)");
+      appendRule(css, Style.CONCEAL, "visibility:hidden");
+      appendRule(css, Style.FRAME, "outline:1px solid");
+      appendRule(css, Style.ENCIRCLE, "border:1px solid;border-radius:.6em");
+      // Each text-decoration replaces the others, so combinations need their own rules
+      Style[] lines = {Style.UNDERLINE, Style.STRIKETHROUGH, Style.OVERLINE};
+      String[] values = {"underline", "line-through", "overline"};
+      for (int set = 1; set < 1 << lines.length; set++) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+          if ((set & 1 << i) != 0) {
+            css.append('.').append(STYLE_CLASSES[lines[i].ordinal()]);
+            value.append(value.length() == 0 ? "" : " ").append(values[i]);
+          }
+        }
+        css.append("{text-decoration:").append(value).append("}\n");
+      }
+      css.append('.').append(FONT_CLASSES[Font.FRAKTUR.ordinal()])
+          .append("{font-family:fantasy}\n");
+      Palette palette = Palette.xterm256();
+      for (int i = 0; i < COLOR_CLASSES.length; i++) {
+        css.append('.').append(COLOR_CLASSES[i]).append("{color:");
+        appendHex(css, palette.rgb(i)).append("}\n");
+      }
+      for (int i = 0; i < BACKGROUND_CLASSES.length; i++) {
+        css.append('.').append(BACKGROUND_CLASSES[i]).append("{background-color:");
+        appendHex(css, palette.rgb(i)).append("}\n");
+      }
+      return css.toString();
+    }
+
+    private static void appendRule(StringBuilder css, Style style, String declarations) {
+      css.append('.').append(STYLE_CLASSES[style.ordinal()]).append('{').append(declarations)
+          .append("}\n");
+    }
+
+    private static StringBuilder appendHex(StringBuilder out, int rgb) {
+      out.append('#');
+      for (int shift = 20; shift >= 0; shift -= 4) {
+        out.append(Character.forDigit(rgb >> shift & 0xF, 16));
+      }
+      return out;
+    }
+
+    @Override
+    public String title(String text) {
+      return "";
+    }
+
+    @Override
+    public String promptQuote(String text) {
+      return text;
+    }
+
+    @Override
+    public String moveCursor(int lines, int columns) {
+      return "";
+    }
+
+    @Override
+    public String downLine(int lines) {
+      checkArgument(lines > 0, "Must specify a positive number of lines, was %s", lines);
+      StringBuilder buffer = new StringBuilder();
+      for (int i = 0; i < lines; i++) {
+        buffer.append(System.lineSeparator());
+      }
+      return buffer.toString();
+    }
+
+    @Override
+    public String upLine(int lines) {
+      return "";
+    }
+
+    @Override
+    public String positionCursor(int column) {
+      return "";
+    }
+
+    @Override
+    public String positionCursor(int row, int column) {
+      return "";
+    }
+
+    @Override
+    public String clearDisplay() {
+      return "";
+    }
+
+    @Override
+    public String clearDisplayForward() {
+      return "";
+    }
+
+    @Override
+    public String clearDisplayBackward() {
+      return "";
+    }
+
+    @Override
+    public String clearLine() {
+      return "";
+    }
+
+    @Override
+    public String clearLineForward() {
+      return "";
+    }
+
+    @Override
+    public String clearLineBackward() {
+      return "";
+    }
+
+    @Override
+    public String scrollUp(int lines) {
+      return "";
+    }
+
+    @Override
+    public String scrollDown(int lines) {
+      return "";
+    }
+
+    /** Returns a {@code <span>}, which is empty if nothing is set so that it matches clear(). */
+    @Override
+    public String color(ColorType color, ColorType background, Font font, Style... styles) {
+      StringBuilder buffer = new StringBuilder("<span");
+      int classes = buffer.length();
+      for (Style s : styles) {
+        appendClass(buffer, classes, STYLE_CLASSES[s.ordinal()]);
+      }
+      if (font != Font.DEFAULT) {
+        appendClass(buffer, classes, FONT_CLASSES[font.ordinal()]);
+      }
+      appendColors(buffer, classes, color.packed(), background.packed());
+      return buffer.append('>').toString();
+    }
+
+    @Override
+    public void appendColor(StringBuilder out, int color, int background) {
+      if (color == ColorType.UNCHANGED && background == ColorType.UNCHANGED) {
+        return;
+      }
+      out.append(SPAN_END).append("<span");
+      appendColors(out, out.length(), color, background);
+      out.append('>');
+    }
+
+    /**
+     * Appends the class and style attributes for the given packed colors, after any classes
+     * already appended since {@code classes}. Default and unchanged colors are omitted, so that
+     * the span inherits them.
+     */
+    private void appendColors(StringBuilder out, int classes, int color, int background) {
+      color = reduce(color);
+      background = reduce(background);
+      int colorIndex = classIndex(color);
+      int backgroundIndex = classIndex(background);
+      if (colorIndex >= 0) {
+        appendClass(out, classes, COLOR_CLASSES[colorIndex]);
+      }
+      if (backgroundIndex >= 0) {
+        appendClass(out, classes, BACKGROUND_CLASSES[backgroundIndex]);
+      }
+      if (out.length() > classes) {
+        out.append('"');
+      }
+      boolean rgb = color != ColorType.UNCHANGED && ColorType.isRgb(color);
+      boolean rgbBackground = background != ColorType.UNCHANGED && ColorType.isRgb(background);
+      if (rgb || rgbBackground) {
+        out.append(" style=\"");
+        if (rgb) {
+          appendHex(out.append("color:"), ColorType.value(color));
+        }
+        if (rgbBackground) {
+          appendHex(out.append(rgb ? ";background-color:" : "background-color:"),
+              ColorType.value(background));
+        }
+        out.append('"');
+      }
+    }
+
+    /** Appends a class, opening the class attribute if this is the first. */
+    private static void appendClass(StringBuilder out, int classes, String name) {
+      out.append(out.length() == classes ? " class=\"" : " ").append(name);
+    }
+
+    /** Replaces a packed color with the closest color that can be displayed at this depth. */
+    private int reduce(int packed) {
+      if (packed == ColorType.UNCHANGED) {
+        return packed;
+      } else if (ColorType.isRgb(packed)) {
+        return ColorType.packRgb(ColorType.value(packed), colorDepth);
+      } else if (ColorType.isIndex(packed) && colorDepth == ColorDepth.COLORS_16) {
+        return ColorType.packNamed(Palette.namedColorForIndex(ColorType.value(packed)));
+      }
+      return packed;
+    }
+
+    /**
+     * Returns the color index whose class displays a packed color, or -1 if the color is
+     * unchanged, the default, or RGB.
+     */
+    private static int classIndex(int packed) {
+      if (packed == ColorType.UNCHANGED || ColorType.isRgb(packed)) {
+        return -1;
+      } else if (ColorType.isIndex(packed)) {
+        return ColorType.value(packed);
+      }
+      int code = ColorType.namedColor(packed).color();
+      if (code == Color.DEFAULT.color()) {
+        return -1;
+      }
+      // 30-37 are indexes 0-7, and 90-97 are 8-15
+      return code >= Color.DARK_GREY.color() ? code - Color.DARK_GREY.color() + 8 : code - 30;
+    }
+
+    /** Returns empty, since the font is set by the same span that {@link #clear} closes. */
+    @Override
+    public String clearFont() {
+      return "";
+    }
+
+    @Override
+    public String clear() {
+      return SPAN_END;
+    }
+
+    @Override
+    public void appendText(StringBuilder out, CharSequence text, int start, int end) {
+      int from = start;
+      for (int i = start; i < end; i++) {
+        String entity;
+        switch (text.charAt(i)) {
+          case '&':
+            entity = "&amp;";
+            break;
+          case '<':
+            entity = "&lt;";
+            break;
+          case '>':
+            entity = "&gt;";
+            break;
+          default:
+            continue;
+        }
+        out.append(text, from, i).append(entity);
+        from = i + 1;
+      }
+      out.append(text, from, end);
+    }
+
+    @Override
+    public boolean isTerminal() {
+      return false;
+    }
+
+    @Override
+    public String getCursor() {
+      return "";
+    }
+
+    @Override
+    public String saveCursor() {
+      return "";
+    }
+
+    @Override
+    public String restoreCursor() {
+      return "";
+    }
+
+    @Override
+    public String hideCursor() {
+      return "";
+    }
+
+    @Override
+    public String showCursor() {
+      return "";
+    }
+
+    @Override
+    public Codes withColorDepth(ColorDepth depth) {
+      if (depth == colorDepth) {
+        return this;
+      }
+      return new HtmlCodes(depth);
+    }
+
+    @Override
+    public ColorDepth colorDepth() {
+      return colorDepth;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof HtmlCodes && colorDepth == ((HtmlCodes) o).colorDepth;
+    }
+
+    @Override
+    public int hashCode() {
+      return colorDepth.hashCode();
+    }
+  }
+
+  /**
+   * Codes for a terminal that only supports some capabilities, per its {@link Terminfo} entry.
+   * Codes the terminal doesn't support are replaced with empty strings, and colors are dropped
+   * (keeping any styles) if it doesn't support colors.
+   */
+  class CapabilityCodes implements Codes {
+    private final Codes delegate;
+    private final Terminfo terminfo;
+    private final boolean cursorAddress;
+    private final boolean attributes;
+    private final boolean colors;
+
+    CapabilityCodes(Codes delegate, Terminfo terminfo) {
+      this.delegate = checkNotNull(delegate);
+      this.terminfo = checkNotNull(terminfo);
+      cursorAddress = terminfo.has(Capability.CURSOR_ADDRESS);
+      attributes = terminfo.has(Capability.EXIT_ATTRIBUTE_MODE);
+      colors = attributes && terminfo.has(Capability.SET_A_FOREGROUND);
+    }
+
+    private String ifSupported(Capability capability, String code) {
+      return terminfo.has(capability) ? code : "";
+    }
+
+    @Override
+    public String title(String text) {
+      return delegate.title(text);
+    }
+
+    @Override
+    public String promptQuote(String text) {
+      return delegate.promptQuote(text);
+    }
+
+    @Override
+    public String moveCursor(int lines, int columns) {
+      return cursorAddress ? delegate.moveCursor(lines, columns) : "";
+    }
+
+    @Override
+    public String downLine(int lines) {
+      return cursorAddress ? delegate.downLine(lines) : "";
+    }
+
+    @Override
+    public String upLine(int lines) {
+      return cursorAddress ? delegate.upLine(lines) : "";
+    }
+
+    @Override
+    public String positionCursor(int column) {
+      return cursorAddress ? delegate.positionCursor(column) : "";
+    }
+
+    @Override
+    public String positionCursor(int row, int column) {
+      return cursorAddress ? delegate.positionCursor(row, column) : "";
+    }
+
+    @Override
+    public String clearDisplay() {
+      return ifSupported(Capability.CLEAR_SCREEN, delegate.clearDisplay());
+    }
+
+    @Override
+    public String clearDisplayForward() {
+      return ifSupported(Capability.CLR_EOS, delegate.clearDisplayForward());
+    }
+
+    @Override
+    public String clearDisplayBackward() {
+      return ifSupported(Capability.CLR_EOS, delegate.clearDisplayBackward());
+    }
+
+    @Override
+    public String clearLine() {
+      return ifSupported(Capability.CLR_EOL, delegate.clearLine());
+    }
+
+    @Override
+    public String clearLineForward() {
+      return ifSupported(Capability.CLR_EOL, delegate.clearLineForward());
+    }
+
+    @Override
+    public String clearLineBackward() {
+      return ifSupported(Capability.CLR_EOL, delegate.clearLineBackward());
+    }
+
+    @Override
+    public String scrollUp(int lines) {
+      return ifSupported(Capability.PARM_INDEX, delegate.scrollUp(lines));
+    }
+
+    @Override
+    public String scrollDown(int lines) {
+      return ifSupported(Capability.PARM_RINDEX, delegate.scrollDown(lines));
+    }
+
+    @Override
+    public String color(ColorType color, ColorType background, Font font, Style... styles) {
+      if (!attributes) {
+        return "";
+      }
+      if (!colors) {
+        return delegate.color(ColorType.DEFAULT, ColorType.DEFAULT, font, styles);
+      }
+      return delegate.color(color, background, font, styles);
+    }
+
+    @Override
+    public void appendColor(StringBuilder out, int color, int background) {
+      if (colors) {
+        delegate.appendColor(out, color, background);
+      }
+    }
+
+    @Override
+    public String clearFont() {
+      return attributes ? delegate.clearFont() : "";
+    }
+
+    @Override
+    public String clear() {
+      return attributes ? delegate.clear() : "";
+    }
+
+    @Override
+    public void appendText(StringBuilder out, CharSequence text, int start, int end) {
+      delegate.appendText(out, text, start, end);
+    }
+
+    @Override
+    public boolean isTerminal() {
+      return delegate.isTerminal();
+    }
+
+    @Override
+    public String getCursor() {
+      return cursorAddress ? delegate.getCursor() : "";
+    }
+
+    @Override
+    public String saveCursor() {
+      return ifSupported(Capability.SAVE_CURSOR, delegate.saveCursor());
+    }
+
+    @Override
+    public String restoreCursor() {
+      return ifSupported(Capability.RESTORE_CURSOR, delegate.restoreCursor());
+    }
+
+    @Override
+    public String hideCursor() {
+      return ifSupported(Capability.CURSOR_INVISIBLE, delegate.hideCursor());
+    }
+
+    @Override
+    public String showCursor() {
+      return ifSupported(Capability.CURSOR_NORMAL, delegate.showCursor());
+    }
+
+    @Override
+    public Codes withColorDepth(ColorDepth depth) {
+      Codes withDepth = delegate.withColorDepth(depth);
+      return withDepth == delegate ? this : new CapabilityCodes(withDepth, terminfo);
+    }
+
+    @Override
+    public ColorDepth colorDepth() {
+      return delegate.colorDepth();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CapabilityCodes)) {
+        return false;
+      }
+      CapabilityCodes that = (CapabilityCodes) o;
+      return delegate.equals(that.delegate) && terminfo == that.terminfo;
+    }
+
+    @Override
+    public int hashCode() {
+      return delegate.hashCode() * 31 + System.identityHashCode(terminfo);
+    }
+
+    @Override
+    public String toString() {
+      return delegate + " restricted to " + terminfo.name();
+    }
   }
 }
@@ -0,0 +1,154 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import com.mwdiamond.fansi.AnsiUtils.ProgressBar;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reports the progress of work spread across many threads, such as a
+ * {@link java.util.concurrent.ForkJoinPool ForkJoinPool} task or a parallel stream, to a single
+ * {@link ProgressBar}. Obtain an instance via {@link AnsiUtils#trackConcurrently}.
+ *
+ * <p>Incrementing a shared counter for every element would serialize the workers on that
+ * counter's cache line, so instead each unit of work (e.g. each fork-join subtask or each split of
+ * a {@link java.util.Spliterator Spliterator}) should obtain its own {@link Counter} via
+ * {@link #newCounter}. Counters are not thread-safe and only publish their count to this instance
+ * in batches. The progress bar is in turn only rendered when the published count has advanced
+ * enough to visibly change it, by whichever worker happens to cross that threshold; workers never
+ * wait on one another to render.
+ *
+ * <p>For example:
+ *
+ * <pre>{@code ConcurrentProgress progress =
+ *     AnsiUtils.trackConcurrently(ansiUtils.percentProgressBar(), items.size());
+ * // in each subtask:
+ * ConcurrentProgress.Counter counter = progress.newCounter();
+ * for (Item item : subtaskItems) {
+ *   process(item);
+ *   counter.increment();
+ * }
+ * counter.flush();
+ * // once all subtasks have completed:
+ * progress.publish();}</pre>
+ */
+public final class ConcurrentProgress {
+  private static final int RESOLUTION = 1000;
+
+  private final ProgressBar progressBar;
+  private final long totalSteps;
+  private final long granularity;
+  private final long batchSize;
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong nextRender = new AtomicLong();
+  private final ReentrantLock renderLock = new ReentrantLock();
+
+  ConcurrentProgress(ProgressBar progressBar, long totalSteps) {
+    this(progressBar, totalSteps, Runtime.getRuntime().availableProcessors());
+  }
+
+  ConcurrentProgress(ProgressBar progressBar, long totalSteps, int processors) {
+    checkArgument(totalSteps >= 0, "Invalid totalSteps: %s", totalSteps);
+    this.progressBar = checkNotNull(progressBar);
+    this.totalSteps = totalSteps;
+    granularity = Math.max(1, totalSteps / RESOLUTION);
+    // Ensures the bar still moves smoothly when all workers are holding partial batches
+    batchSize = Math.max(1, granularity / processors);
+  }
+
+  /**
+   * Returns a new counter that should be used by a single thread (typically a single subtask) to
+   * record its progress. Remember to call {@link Counter#flush} when the subtask completes.
+   *
+   * @return a new thread-local counter
+   */
+  public Counter newCounter() {
+    return new Counter();
+  }
+
+  /**
+   * Returns the number of steps that have been published by all counters so far. Steps that are
+   * still batched in unflushed counters are not included.
+   *
+   * @return the number of steps published so far
+   */
+  public long completed() {
+    return completed.get();
+  }
+
+  /**
+   * Renders the progress bar with the current published count, waiting for any other thread that
+   * is rendering it. Call this once all counters have been flushed to ensure the final state is
+   * shown.
+   */
+  public void publish() {
+    renderLock.lock();
+    try {
+      render();
+    } finally {
+      renderLock.unlock();
+    }
+  }
+
+  private void add(long steps) {
+    long done = completed.addAndGet(steps);
+    if (done >= nextRender.get() && renderLock.tryLock()) {
+      try {
+        render();
+      } finally {
+        renderLock.unlock();
+      }
+    }
+  }
+
+  // Must hold renderLock
+  private void render() {
+    long done = completed.get();
+    long total = Math.max(done, totalSteps);
+    if (total == 0) {
+      return; // nothing to show yet
+    }
+    progressBar.updateScaledSteps(done, total);
+    nextRender.set(done + granularity);
+  }
+
+  /**
+   * A counter owned by a single thread or subtask, which publishes its progress to the enclosing
+   * {@code ConcurrentProgress} in batches. Not thread-safe.
+   */
+  public final class Counter {
+    private long pending;
+
+    private Counter() {}
+
+    /** Records that one step has been completed. */
+    public void increment() {
+      add(1);
+    }
+
+    /**
+     * Records that a number of steps have been completed.
+     *
+     * @param steps the number of newly completed steps
+     */
+    public void add(long steps) {
+      pending += steps;
+      if (pending >= batchSize) {
+        flush();
+      }
+    }
+
+    /**
+     * Publishes any steps recorded by this counter that haven't been published yet. Call this when
+     * the owning subtask completes.
+     */
+    public void flush() {
+      if (pending > 0) {
+        ConcurrentProgress.this.add(pending);
+        pending = 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,594 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.Codes.ColorType;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Output recorded as a list of operations (colors, text, cursor movements, clearing, etc.) rather
+ * than as escape codes, so that it can be built once and rendered to several destinations with
+ * different capabilities, e.g. to a terminal and to an HTML report. Obtain a
+ * {@link DisplayList.Builder} via {@link AnsiUtils#displayList}, write to the {@link Ansi}
+ * instances it provides, and then {@link DisplayList.Builder#build build} the list:
+ *
+ * <pre>{@code
+ * DisplayList.Builder builder = AnsiUtils.displayList();
+ * builder.ansi().color(GREEN).out("[ OK ]").outln(" Build complete");
+ * DisplayList list = builder.build();
+ * list.render(Ansi.ansi());
+ * list.render(Ansi.htmlAnsi(report));
+ * }</pre>
+ *
+ * <p>Operations are stored in a compact array of ints, with their text in a single string. Each
+ * list caches its output for the last few sets of codes it was rendered with, so rendering the
+ * same list repeatedly, e.g. to redraw a screen, just writes the cached output.
+ *
+ * <p>Display lists are immutable and thread-safe.
+ */
+public final class DisplayList {
+  // Opcodes, stored in the low byte of each operation's first int. The remaining bytes hold the
+  // number of int arguments that follow it. Also used by StyledOutputWriter and Reader.
+  static final int WRITE = 0; // stderr, newline
+  static final int TEXT = 1; // start, end
+  static final int RENDERED = 2; // start, end
+  static final int TITLE = 3; // start, end
+  static final int PROMPT_QUOTE = 4; // start, end
+  static final int MOVE_CURSOR = 5; // lines, columns
+  static final int DOWN_LINE = 6; // lines
+  static final int UP_LINE = 7; // lines
+  static final int POSITION_COLUMN = 8; // column
+  static final int POSITION_CURSOR = 9; // row, column
+  static final int CLEAR_DISPLAY = 10;
+  static final int CLEAR_DISPLAY_FORWARD = 11;
+  static final int CLEAR_DISPLAY_BACKWARD = 12;
+  static final int CLEAR_LINE = 13;
+  static final int CLEAR_LINE_FORWARD = 14;
+  static final int CLEAR_LINE_BACKWARD = 15;
+  static final int SCROLL_UP = 16; // lines
+  static final int SCROLL_DOWN = 17; // lines
+  static final int COLOR = 18; // color, background, font, styles...
+  static final int SET_COLORS = 19; // color, background
+  static final int CLEAR_FONT = 20;
+  static final int CLEAR = 21;
+  static final int SAVE_CURSOR = 22;
+  static final int RESTORE_CURSOR = 23;
+  static final int HIDE_CURSOR = 24;
+  static final int SHOW_CURSOR = 25;
+
+  static final int OPCODE_MASK = 0xFF;
+  static final int ARGUMENTS_SHIFT = 8;
+
+  /** How many renderings each list keeps; there are rarely more than a couple of destinations. */
+  private static final int CACHED_RENDERINGS = 4;
+
+  private static final Font[] FONTS = Font.values();
+  private static final Style[] STYLES = Style.values();
+
+  private final int[] ops;
+  private final String text;
+  private final int writes;
+  // guarded by itself
+  private final Map<Codes, String[]> renderings = new Renderings();
+
+  private DisplayList(int[] ops, String text, int writes) {
+    this.ops = ops;
+    this.text = text;
+    this.writes = writes;
+  }
+
+  /**
+   * Writes this list's output to {@code ansi}'s stdout and stderr, rendered with the codes it
+   * uses for each stream. Output for a destination that isn't a terminal, such as HTML, omits
+   * operations that only a terminal can perform, as {@code ansi} itself would.
+   *
+   * @param ansi the instance to write output to
+   */
+  public void render(Ansi ansi) {
+    checkNotNull(ansi);
+    String[] stdout = rendered(ansi.codes());
+    String[] stderr = rendered(ansi.stderrCodes());
+    int write = 0;
+    for (int i = 0; i < ops.length; i += 1 + (ops[i] >>> ARGUMENTS_SHIFT)) {
+      if ((ops[i] & OPCODE_MASK) != WRITE) {
+        continue;
+      }
+      boolean isStderr = ops[i + 1] != 0;
+      ansi.writeRendered(isStderr, (isStderr ? stderr : stdout)[write++], ops[i + 2] != 0);
+    }
+  }
+
+  /** Returns the output of each write, rendered with the given codes. */
+  private String[] rendered(Codes codes) {
+    synchronized (renderings) {
+      String[] rendered = renderings.get(codes);
+      if (rendered == null) {
+        rendered = renderWrites(codes);
+        renderings.put(codes, rendered);
+      }
+      return rendered;
+    }
+  }
+
+  private String[] renderWrites(Codes codes) {
+    String[] rendered = new String[writes];
+    int write = 0;
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < ops.length; i += 1 + (ops[i] >>> ARGUMENTS_SHIFT)) {
+      if ((ops[i] & OPCODE_MASK) == WRITE) {
+        rendered[write++] = out.toString();
+        out.setLength(0);
+      } else {
+        appendOperation(codes, out, ops, i, text);
+      }
+    }
+    return rendered;
+  }
+
+  /**
+   * Appends the operation at {@code ops[i]}, other than a write, to {@code out} rendered with the
+   * given codes. Text operations refer to ranges of {@code text}.
+   */
+  static void appendOperation(Codes codes, StringBuilder out, int[] ops, int i,
+      CharSequence text) {
+    switch (ops[i] & OPCODE_MASK) {
+      case TEXT:
+        codes.appendText(out, text, ops[i + 1], ops[i + 2]);
+        break;
+      case RENDERED:
+        out.append(text, ops[i + 1], ops[i + 2]);
+        break;
+      case TITLE:
+        out.append(codes.title(text.subSequence(ops[i + 1], ops[i + 2]).toString()));
+        break;
+      case PROMPT_QUOTE:
+        out.append(codes.promptQuote(text.subSequence(ops[i + 1], ops[i + 2]).toString()));
+        break;
+      case MOVE_CURSOR:
+        out.append(codes.moveCursor(ops[i + 1], ops[i + 2]));
+        break;
+      case DOWN_LINE:
+        out.append(codes.downLine(ops[i + 1]));
+        break;
+      case UP_LINE:
+        out.append(codes.upLine(ops[i + 1]));
+        break;
+      case POSITION_COLUMN:
+        out.append(codes.positionCursor(ops[i + 1]));
+        break;
+      case POSITION_CURSOR:
+        out.append(codes.positionCursor(ops[i + 1], ops[i + 2]));
+        break;
+      case CLEAR_DISPLAY:
+        out.append(codes.clearDisplay());
+        break;
+      case CLEAR_DISPLAY_FORWARD:
+        out.append(codes.clearDisplayForward());
+        break;
+      case CLEAR_DISPLAY_BACKWARD:
+        out.append(codes.clearDisplayBackward());
+        break;
+      case CLEAR_LINE:
+        out.append(codes.clearLine());
+        break;
+      case CLEAR_LINE_FORWARD:
+        out.append(codes.clearLineForward());
+        break;
+      case CLEAR_LINE_BACKWARD:
+        out.append(codes.clearLineBackward());
+        break;
+      case SCROLL_UP:
+        out.append(codes.scrollUp(ops[i + 1]));
+        break;
+      case SCROLL_DOWN:
+        out.append(codes.scrollDown(ops[i + 1]));
+        break;
+      case COLOR:
+        Style[] styles = new Style[(ops[i] >>> ARGUMENTS_SHIFT) - 3];
+        for (int s = 0; s < styles.length; s++) {
+          styles[s] = STYLES[ops[i + 4 + s]];
+        }
+        out.append(codes.color(ColorType.fromPacked(ops[i + 1]),
+            ColorType.fromPacked(ops[i + 2]), FONTS[ops[i + 3]], styles));
+        break;
+      case SET_COLORS:
+        codes.appendColor(out, ops[i + 1], ops[i + 2]);
+        break;
+      case CLEAR_FONT:
+        out.append(codes.clearFont());
+        break;
+      case CLEAR:
+        out.append(codes.clear());
+        break;
+      case SAVE_CURSOR:
+        out.append(codes.saveCursor());
+        break;
+      case RESTORE_CURSOR:
+        out.append(codes.restoreCursor());
+        break;
+      case HIDE_CURSOR:
+        out.append(codes.hideCursor());
+        break;
+      case SHOW_CURSOR:
+        out.append(codes.showCursor());
+        break;
+      default:
+        throw new AssertionError(ops[i]);
+    }
+  }
+
+  /**
+   * Records output written to the {@link Ansi} instances it {@linkplain #ansi provides}, to be
+   * {@linkplain #build built} into a {@link DisplayList}. Instances are thread-safe, though output
+   * written concurrently is interleaved.
+   *
+   * <p>Recorded output isn't displayed on a terminal, so these {@code Ansi} instances are never
+   * interactive; utilities such as progress bars record their output as they would if it were
+   * redirected to a file. Colors are recorded as given, and reduced to each destination's color
+   * depth as they're rendered. Only output written through the {@code Ansi} methods is recorded.
+   */
+  public static final class Builder implements AnsiFactory {
+    // guarded by recorder
+    private int[] ops = new int[64];
+    private int length;
+    private final StringBuilder text = new StringBuilder();
+    private int writes;
+
+    private final Recorder recorder = new Recorder() {
+      @Override
+      void text(int opcode, CharSequence rendered, int start, int end) {
+        int at = add(opcode, 2);
+        ops[at] = text.length();
+        text.append(rendered, start, end);
+        ops[at + 1] = text.length();
+      }
+
+      @Override
+      void operation(int opcode, int[] arguments, int count) {
+        int at = add(opcode, count);
+        System.arraycopy(arguments, 0, ops, at, count);
+      }
+
+      @Override
+      void endWrite(boolean stderr, boolean newLine) {
+        int at = add(WRITE, 2);
+        ops[at] = stderr ? 1 : 0;
+        ops[at + 1] = newLine ? 1 : 0;
+        writes++;
+      }
+    };
+
+    Builder() {}
+
+    /**
+     * Returns an {@code Ansi} instance whose output is added to this builder.
+     *
+     * @return an Ansi instance that records its output
+     */
+    @Override
+    public Ansi ansi() {
+      return recorder.ansi();
+    }
+
+    /**
+     * Constructs a {@link DisplayList} of the output recorded so far. The builder can continue to
+     * be used, e.g. to build a longer list.
+     *
+     * @return a new display list
+     */
+    public DisplayList build() {
+      synchronized (recorder) {
+        return new DisplayList(Arrays.copyOf(ops, length), text.toString(), writes);
+      }
+    }
+
+    /** Adds an operation, returning the index its arguments should be stored at. */
+    private int add(int opcode, int arguments) {
+      if (length + 1 + arguments > ops.length) {
+        ops = Arrays.copyOf(ops, Math.max(ops.length * 2, length + 1 + arguments));
+      }
+      ops[length] = arguments << ARGUMENTS_SHIFT | opcode;
+      length += 1 + arguments;
+      return length - arguments;
+    }
+  }
+
+  /** The renderings cached by a list, evicting the least recently used. */
+  private static final class Renderings extends LinkedHashMap<Codes, String[]> {
+    private static final long serialVersionUID = 1L;
+
+    Renderings() {
+      super(CACHED_RENDERINGS * 2, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Codes, String[]> eldest) {
+      return size() > CACHED_RENDERINGS;
+    }
+  }
+
+  /**
+   * Receives the operations written by the {@link Ansi} instances it {@linkplain #ansi provides},
+   * one write at a time. Writes are serialized, so subclasses needn't be thread-safe.
+   */
+  abstract static class Recorder implements Ansi.Sink {
+    private int[] arguments = new int[8];
+
+    /** Returns an {@code Ansi} instance whose writes are passed to this recorder. */
+    final Ansi ansi() {
+      return new Ansi(System.out, System.err, RecordingCodes.INSTANCE, SystemInfo.get())
+          .withSink(this);
+    }
+
+    /**
+     * Records one write by an {@code Ansi} instance, which was rendered with {@link RecordingCodes}
+     * and so consists of encoded operations, interspersed with any text that was appended without
+     * using the codes. The stream isn't written to.
+     */
+    @Override
+    public final synchronized void write(PrintStream out, boolean stderr, CharSequence rendered,
+        boolean newLine) {
+      int position = 0;
+      while (position < rendered.length()) {
+        if (rendered.charAt(position) != RecordingCodes.MARKER) {
+          int end = position + 1;
+          while (end < rendered.length() && rendered.charAt(end) != RecordingCodes.MARKER) {
+            end++;
+          }
+          text(RENDERED, rendered, position, end);
+          position = end;
+          continue;
+        }
+        int opcode = rendered.charAt(position + 1);
+        int count = rendered.charAt(position + 2);
+        position += 3;
+        if (RecordingCodes.hasText(opcode)) {
+          int start = position + 2;
+          int end = start + RecordingCodes.decode(rendered, position);
+          text(opcode, rendered, start, end);
+          position = end;
+          continue;
+        }
+        if (count > arguments.length) {
+          arguments = new int[count];
+        }
+        for (int i = 0; i < count; i++, position += 2) {
+          arguments[i] = RecordingCodes.decode(rendered, position);
+        }
+        operation(opcode, arguments, count);
+      }
+      endWrite(stderr, newLine);
+    }
+
+    /** Records a text operation, with the text in {@code rendered[start, end)}. */
+    abstract void text(int opcode, CharSequence rendered, int start, int end);
+
+    /** Records any other operation, with the first {@code count} of {@code arguments}. */
+    abstract void operation(int opcode, int[] arguments, int count);
+
+    /** Records the end of a write, to the given stream. */
+    abstract void endWrite(boolean stderr, boolean newLine);
+  }
+
+  /**
+   * Codes that encode each operation as a short token instead of an escape code. {@link Ansi}
+   * concatenates them with the text it writes as usual, and passes the result to its sink, a
+   * {@link Recorder}, rather than to a stream, where they're decoded into operations.
+   *
+   * <p>A token is {@link #MARKER} followed by the opcode and the number of int arguments, and then
+   * the arguments, each encoded as two chars. Text and titles are encoded as their length
+   * followed by the text. The marker is a Unicode noncharacter, which shouldn't appear in text.
+   */
+  static final class RecordingCodes implements Codes {
+    static final char MARKER = '\uFFFF';
+    static final RecordingCodes INSTANCE = new RecordingCodes();
+
+    private RecordingCodes() {}
+
+    static boolean hasText(int opcode) {
+      return opcode == TEXT || opcode == TITLE || opcode == PROMPT_QUOTE;
+    }
+
+    /** Decodes the int encoded at {@code position}. */
+    static int decode(CharSequence rendered, int position) {
+      return rendered.charAt(position) << 16 | rendered.charAt(position + 1);
+    }
+
+    private static StringBuilder encode(StringBuilder out, int value) {
+      return out.append((char) (value >>> 16)).append((char) value);
+    }
+
+    private static StringBuilder start(StringBuilder out, int opcode, int arguments) {
+      return out.append(MARKER).append((char) opcode).append((char) arguments);
+    }
+
+    private static String token(int opcode, int... arguments) {
+      StringBuilder out = start(new StringBuilder(3 + arguments.length * 2), opcode,
+          arguments.length);
+      for (int argument : arguments) {
+        encode(out, argument);
+      }
+      return out.toString();
+    }
+
+    private static void appendText(StringBuilder out, int opcode, CharSequence text, int start,
+        int end) {
+      encode(start(out, opcode, 1), end - start).append(text, start, end);
+    }
+
+    private static String text(int opcode, String text) {
+      StringBuilder out = new StringBuilder(text.length() + 5);
+      appendText(out, opcode, text, 0, text.length());
+      return out.toString();
+    }
+
+    private static int checkLines(int lines) {
+      checkArgument(lines > 0, "Must specify a positive number of lines, was %s", lines);
+      return lines;
+    }
+
+    private static int checkColumn(int column) {
+      checkArgument(column > 0, "Must specify a positive column, was %s", column);
+      return column;
+    }
+
+    @Override
+    public String title(String text) {
+      return text(TITLE, text);
+    }
+
+    @Override
+    public String promptQuote(String text) {
+      return text(PROMPT_QUOTE, text);
+    }
+
+    @Override
+    public String moveCursor(int lines, int columns) {
+      return token(MOVE_CURSOR, lines, columns);
+    }
+
+    @Override
+    public String downLine(int lines) {
+      return token(DOWN_LINE, checkLines(lines));
+    }
+
+    @Override
+    public String upLine(int lines) {
+      return token(UP_LINE, checkLines(lines));
+    }
+
+    @Override
+    public String positionCursor(int column) {
+      return token(POSITION_COLUMN, checkColumn(column));
+    }
+
+    @Override
+    public String positionCursor(int row, int column) {
+      checkArgument(row > 0, "Must specify a positive row, was %s", row);
+      return token(POSITION_CURSOR, row, checkColumn(column));
+    }
+
+    @Override
+    public String clearDisplay() {
+      return token(CLEAR_DISPLAY);
+    }
+
+    @Override
+    public String clearDisplayForward() {
+      return token(CLEAR_DISPLAY_FORWARD);
+    }
+
+    @Override
+    public String clearDisplayBackward() {
+      return token(CLEAR_DISPLAY_BACKWARD);
+    }
+
+    @Override
+    public String clearLine() {
+      return token(CLEAR_LINE);
+    }
+
+    @Override
+    public String clearLineForward() {
+      return token(CLEAR_LINE_FORWARD);
+    }
+
+    @Override
+    public String clearLineBackward() {
+      return token(CLEAR_LINE_BACKWARD);
+    }
+
+    @Override
+    public String scrollUp(int lines) {
+      return token(SCROLL_UP, checkLines(lines));
+    }
+
+    @Override
+    public String scrollDown(int lines) {
+      return token(SCROLL_DOWN, checkLines(lines));
+    }
+
+    @Override
+    public String color(ColorType color, ColorType background, Font font, Style... styles) {
+      StringBuilder out = start(new StringBuilder(), COLOR, 3 + styles.length);
+      encode(encode(encode(out, color.packed()), background.packed()), font.ordinal());
+      for (Style style : styles) {
+        encode(out, style.ordinal());
+      }
+      return out.toString();
+    }
+
+    @Override
+    public void appendColor(StringBuilder out, int color, int background) {
+      if (color != ColorType.UNCHANGED || background != ColorType.UNCHANGED) {
+        encode(encode(start(out, SET_COLORS, 2), color), background);
+      }
+    }
+
+    @Override
+    public String clearFont() {
+      return token(CLEAR_FONT);
+    }
+
+    @Override
+    public String clear() {
+      return token(CLEAR);
+    }
+
+    @Override
+    public void appendText(StringBuilder out, CharSequence text, int start, int end) {
+      if (start < end) {
+        appendText(out, TEXT, text, start, end);
+      }
+    }
+
+    /** Returns false; recorded output isn't displayed, so there's no terminal to update. */
+    @Override
+    public boolean isTerminal() {
+      return false;
+    }
+
+    /** Returns empty, since the terminal can't be queried while recording. */
+    @Override
+    public String getCursor() {
+      return "";
+    }
+
+    @Override
+    public String saveCursor() {
+      return token(SAVE_CURSOR);
+    }
+
+    @Override
+    public String restoreCursor() {
+      return token(RESTORE_CURSOR);
+    }
+
+    @Override
+    public String hideCursor() {
+      return token(HIDE_CURSOR);
+    }
+
+    @Override
+    public String showCursor() {
+      return token(SHOW_CURSOR);
+    }
+
+    /** Returns this; colors are reduced to the destination's depth when they're rendered. */
+    @Override
+    public Codes withColorDepth(ColorDepth depth) {
+      return this;
+    }
+
+    @Override
+    public ColorDepth colorDepth() {
+      return ColorDepth.TRUE_COLOR;
+    }
+  }
+}
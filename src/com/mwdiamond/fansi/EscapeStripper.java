@@ -0,0 +1,304 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+import static com.mwdiamond.fansi.Preconditions.checkPositionIndexes;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Removes ANSI escape sequences from text, leaving just the text and any control characters such
+ * as newlines. See the {@code AnsiUtils.stripEscapes()} methods.
+ *
+ * <p>Escape sequences are rare relative to text, so the stripper scans for ESC characters in bulk
+ * (eight bytes at a time, for byte input) and copies the clean spans in between as a whole. Only
+ * the characters of the sequences themselves go through the state machine, which consumes CSI
+ * sequences, OSC and other strings terminated by BEL or ST, and other escape sequences, the same
+ * way {@link AnsiParser} does. The single-character C1 forms of CSI and OSC (e.g. U+009B) are
+ * rarely used, and are left as-is.
+ *
+ * <p>A sequence may be split across calls; the stripper remembers where it is in the sequence.
+ * Text is never buffered, since only the bytes of sequences are held back, and those are dropped.
+ */
+final class EscapeStripper {
+  private static final int BEL = 0x07;
+  private static final int CAN = 0x18;
+  private static final int SUB = 0x1A;
+  private static final int ESC = 0x1B;
+
+  // States
+  private static final int TEXT = 0;
+  private static final int ESCAPE = 1;
+  private static final int ESCAPE_INTERMEDIATE = 2;
+  private static final int CSI = 3;
+  private static final int OSC = 4;
+  private static final int STRING = 5;
+  private static final int STRING_END = 6;
+  /** Set in the result of {@link #next} if the character should be kept. */
+  private static final int KEEP = 0x100;
+
+  /** Spans shorter than this are scanned a byte at a time. */
+  private static final int SWAR_THRESHOLD = 32;
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+  private static final long ESCAPES = ESC * ONES;
+
+  private int state = TEXT;
+
+  /** Returns whether the stripper is in the middle of an escape sequence. */
+  boolean inSequence() {
+    return state != TEXT;
+  }
+
+  /**
+   * Strips a chunk of bytes, writing the remaining spans of text to {@code out}. Any ASCII
+   * compatible encoding, such as UTF-8, can be stripped.
+   */
+  void strip(byte[] bytes, int offset, int length, OutputStream out) throws IOException {
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      if (state == TEXT) {
+        int escape = indexOfEscape(bytes, i, end);
+        if (escape > i) {
+          out.write(bytes, i, escape - i);
+        }
+        if (escape == end) {
+          return;
+        }
+        state = ESCAPE;
+        i = escape + 1;
+        continue;
+      }
+      int next = next(state, bytes[i] & 0xFF);
+      if ((next & KEEP) != 0) {
+        out.write(bytes[i]);
+      }
+      state = next & ~KEEP;
+      i++;
+    }
+  }
+
+  /** Strips a single byte, writing it to {@code out} unless it's part of an escape sequence. */
+  void strip(int b, OutputStream out) throws IOException {
+    int next = next(state, b & 0xFF);
+    if ((next & KEEP) != 0) {
+      out.write(b);
+    }
+    state = next & ~KEEP;
+  }
+
+  /** Strips a chunk of chars, writing the remaining spans of text to {@code out}. */
+  void strip(char[] chars, int offset, int length, Writer out) throws IOException {
+    checkPositionIndexes(offset, offset + length, chars.length);
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      if (state == TEXT) {
+        int escape = i;
+        while (escape < end && chars[escape] != ESC) {
+          escape++;
+        }
+        if (escape > i) {
+          out.write(chars, i, escape - i);
+        }
+        if (escape == end) {
+          return;
+        }
+        state = ESCAPE;
+        i = escape + 1;
+        continue;
+      }
+      int next = next(state, chars[i]);
+      if ((next & KEEP) != 0) {
+        out.write(chars[i]);
+      }
+      state = next & ~KEEP;
+      i++;
+    }
+  }
+
+  /**
+   * Returns the state after the given character, with {@link #KEEP} set if the character should be
+   * written. Control characters within a sequence are kept, as a terminal would act on them, except
+   * for CAN and SUB which abort the sequence.
+   */
+  private static int next(int state, int c) {
+    switch (state) {
+      case TEXT:
+        return c == ESC ? ESCAPE : TEXT | KEEP;
+      case ESCAPE:
+        if (c == '[') {
+          return CSI;
+        } else if (c == ']') {
+          return OSC;
+        } else if (c == 'P' || c == 'X' || c == '^' || c == '_') {
+          return STRING;
+        } else if (c >= 0x20 && c <= 0x2F) {
+          return ESCAPE_INTERMEDIATE;
+        } else if (c >= 0x30 && c < 0x7F) {
+          return TEXT;
+        }
+        return control(ESCAPE, c);
+      case ESCAPE_INTERMEDIATE:
+        if (c >= 0x30 && c < 0x7F) {
+          return TEXT;
+        }
+        return control(ESCAPE_INTERMEDIATE, c);
+      case CSI:
+        if (c >= 0x40 && c < 0x7F) {
+          return TEXT;
+        }
+        return control(CSI, c);
+      case OSC:
+        if (c == BEL) {
+          return TEXT;
+        }
+        return c == ESC ? STRING_END : c == CAN || c == SUB ? TEXT : OSC;
+      case STRING:
+        return c == ESC ? STRING_END : c == CAN || c == SUB ? TEXT : STRING;
+      case STRING_END:
+        return c == '\\' ? TEXT : next(ESCAPE, c);
+      default:
+        throw new AssertionError(state);
+    }
+  }
+
+  /** Handles a character that doesn't advance a sequence, which may be a control character. */
+  private static int control(int state, int c) {
+    if (c == ESC) {
+      return ESCAPE;
+    } else if (c == CAN || c == SUB) {
+      return TEXT;
+    } else if (c < 0x20) {
+      return state | KEEP;
+    }
+    return state; // ignored
+  }
+
+  /** Returns the index of the first ESC byte in the range, or {@code end} if there is none. */
+  static int indexOfEscape(byte[] bytes, int start, int end) {
+    int i = start;
+    if (end - start >= SWAR_THRESHOLD) {
+      // Check eight bytes at a time: XORing with ESCAPES zeroes any ESC bytes, and
+      // (x - ONES) & ~x & HIGHS sets the high bit of the lowest zero byte. Higher bits may be
+      // spuriously set by the borrow, but the lowest set bit is always exact.
+      ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      for (; i <= end - 8; i += 8) {
+        long x = buffer.getLong(i) ^ ESCAPES;
+        long found = (x - ONES) & ~x & HIGHS;
+        if (found != 0) {
+          return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+      }
+    }
+    for (; i < end; i++) {
+      if (bytes[i] == ESC) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Strips a complete chunk of bytes in place, moving the remaining text to the front of the range
+   * and returning its length. A trailing incomplete sequence is dropped.
+   */
+  static int stripInPlace(byte[] bytes, int offset, int length) {
+    Compactor compactor = new Compactor(bytes, offset);
+    try {
+      new EscapeStripper().strip(bytes, offset, length, compactor);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return compactor.position - offset;
+  }
+
+  /** Strips a complete string. A trailing incomplete sequence is dropped. */
+  static String strip(String text) {
+    if (text.indexOf(ESC) < 0) {
+      return text;
+    }
+    StringWriter out = new StringWriter(text.length());
+    try {
+      new EscapeStripper().strip(text.toCharArray(), 0, text.length(), out);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return out.toString();
+  }
+
+  /** Moves spans of text towards the front of the array they came from. */
+  private static final class Compactor extends OutputStream {
+    private final byte[] target;
+    private int position;
+
+    Compactor(byte[] target, int position) {
+      this.target = target;
+      this.position = position;
+    }
+
+    @Override
+    public void write(int b) {
+      target[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      // arraycopy handles overlapping ranges within the same array
+      System.arraycopy(bytes, offset, target, position, length);
+      position += length;
+    }
+  }
+
+  /** An {@code OutputStream} that strips escape sequences from the bytes written to it. */
+  static final class StrippingOutputStream extends FilterOutputStream {
+    private final EscapeStripper stripper = new EscapeStripper();
+
+    StrippingOutputStream(OutputStream out) {
+      super(checkNotNull(out));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      stripper.strip(b, out);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      stripper.strip(bytes, offset, length, out);
+    }
+  }
+
+  /** A {@code Writer} that strips escape sequences from the text written to it. */
+  static final class StrippingWriter extends Writer {
+    private final EscapeStripper stripper = new EscapeStripper();
+    private final Writer out;
+
+    StrippingWriter(Writer out) {
+      super(checkNotNull(out));
+      this.out = out;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+      stripper.strip(chars, offset, length, out);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import com.mwdiamond.fansi.ImageRenderer.CellWriter;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a sequence of frames, such as the frames of an animated GIF or a generated animation, in
+ * place at a fixed frame rate. Obtain an instance via {@link ImageRenderer#framePlayer}; frames are
+ * scaled and colored according to that renderer's settings.
+ *
+ * <p>The first frame is rendered in full, like {@link ImageRenderer#print(int[], int, int)}. Each
+ * subsequent frame is compared to the previous one cell by cell, and only the cells that changed
+ * are redrawn: the cursor moves up to the first changed line, jumps between changed cells (or, if
+ * it's shorter, simply redraws a few unchanged cells in between), and finally returns to the line
+ * below the image. Animations where little changes from frame to frame therefore cost a small
+ * fraction of a full frame each. Frames should fit on the screen, as lines that have scrolled off
+ * the top can't be updated.
+ *
+ * <p>Each frame is due a fixed period after the previous one. A frame that isn't ready until a full
+ * period after it was due, e.g. because it took too long to generate or because writing the
+ * previous frames blocked on a slow terminal, is dropped rather than shown late, so that playback
+ * keeps up with the intended frame rate. The first and last frames are always shown. See
+ * {@link Stats} for how many frames were dropped and how much output was written.
+ *
+ * <p>If output is not being displayed on an interactive terminal only the last frame is printed.
+ */
+public final class FramePlayer {
+  private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final AnsiFactory factory;
+  private final ImageRenderer renderer;
+  private final long periodNanos;
+
+  FramePlayer(AnsiFactory factory, ImageRenderer renderer, int framesPerSecond) {
+    checkArgument(framesPerSecond > 0, "Invalid framesPerSecond: %s", framesPerSecond);
+    this.factory = checkNotNull(factory);
+    this.renderer = checkNotNull(renderer);
+    periodNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+  }
+
+  /**
+   * Plays frames, given as arrays of ARGB pixels in row-major order, blocking until the last frame
+   * has been shown.
+   *
+   * @param frames the frames to play, which are requested as they are due
+   * @param width the width of every frame in pixels
+   * @param height the height of every frame in pixels
+   * @return statistics about the frames played
+   * @throws InterruptedException if interrupted while waiting for a frame to be due
+   */
+  public Stats play(Iterator<int[]> frames, int width, int height) throws InterruptedException {
+    checkArgument(width > 0 && height > 0, "Invalid dimensions: %sx%s", width, height);
+    Ansi ansi = factory.ansi();
+    Codes codes = ansi.codes();
+    Clock clock = ansi.clock();
+    int columns = renderer.columns(width, ansi);
+    int rows = ImageRenderer.rows(width, height, columns);
+    Stats stats = new Stats();
+
+    if (!ansi.interactive()) {
+      int[] last = null;
+      while (frames.hasNext()) {
+        if (last != null) {
+          stats.framesDropped++;
+        }
+        last = checkFrame(frames.next(), width, height);
+      }
+      if (last != null) {
+        int[] colors = renderer.toColors(last, width, height, columns, rows, codes.colorDepth());
+        show(ansi, ImageRenderer.encode(colors, columns, rows, codes), stats);
+      }
+      return stats;
+    }
+
+    int[] previous = null;
+    long start = clock.nanoTime();
+    for (long index = 0; frames.hasNext(); index++) {
+      int[] frame = checkFrame(frames.next(), width, height);
+      long lateness = clock.nanoTime() - (start + index * periodNanos);
+      if (previous != null && lateness >= periodNanos && frames.hasNext()) {
+        stats.framesDropped++;
+        continue;
+      }
+      if (lateness < 0) {
+        clock.sleep((-lateness + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI); // round up
+      }
+
+      int[] colors = renderer.toColors(frame, width, height, columns, rows, codes.colorDepth());
+      show(ansi, previous == null
+          ? ImageRenderer.encode(colors, columns, rows, codes)
+          : delta(previous, colors, columns, rows, codes), stats);
+      previous = colors;
+    }
+    return stats;
+  }
+
+  private static int[] checkFrame(int[] frame, int width, int height) {
+    checkArgument(frame.length >= width * height,
+        "Expected at least %s pixels, got %s", width * height, frame.length);
+    return frame;
+  }
+
+  private static void show(Ansi ansi, String output, Stats stats) {
+    ansi.outRendered(output);
+    ansi.flush();
+    stats.framesShown++;
+    stats.bytes += utf8Length(output);
+  }
+
+  /**
+   * Encodes the cells that differ between two frames. The cursor is expected to start, and is left,
+   * at the start of the line below the image.
+   */
+  static String delta(int[] previous, int[] colors, int columns, int rows, Codes codes) {
+    int lines = (rows + 1) / 2;
+    StringBuilder buffer = new StringBuilder();
+    CellWriter writer = new CellWriter(codes, buffer);
+    int cursorLine = lines;
+    int cursorColumn = 0;
+    for (int line = 0; line < lines; line++) {
+      for (int x = 0; x < columns; x++) {
+        int upper = ImageRenderer.upperPixel(colors, columns, line, x);
+        int lower = ImageRenderer.lowerPixel(colors, columns, rows, line, x);
+        if (upper == ImageRenderer.upperPixel(previous, columns, line, x)
+            && lower == ImageRenderer.lowerPixel(previous, columns, rows, line, x)) {
+          continue;
+        }
+
+        if (line != cursorLine) {
+          // Both move to the first column
+          buffer.append(line < cursorLine
+              ? codes.upLine(cursorLine - line) : codes.downLine(line - cursorLine));
+          cursorLine = line;
+          cursorColumn = 0;
+        }
+        if (x > cursorColumn) {
+          String jump = codes.moveCursor(0, x - cursorColumn);
+          if (x - cursorColumn < jump.length()
+              && isCurrent(writer, colors, columns, rows, line, cursorColumn, x)) {
+            for (int unchanged = cursorColumn; unchanged < x; unchanged++) {
+              writer.write(ImageRenderer.upperPixel(colors, columns, line, unchanged),
+                  ImageRenderer.lowerPixel(colors, columns, rows, line, unchanged));
+            }
+          } else {
+            buffer.append(jump);
+          }
+        }
+        writer.write(upper, lower);
+        cursorColumn = x + 1;
+      }
+    }
+
+    if (buffer.length() == 0) {
+      return "";
+    }
+    return buffer.append(codes.clear()).append(codes.downLine(lines - cursorLine)).toString();
+  }
+
+  /** Returns true if cells {@code [from, to)} can be redrawn without writing any codes. */
+  private static boolean isCurrent(
+      CellWriter writer, int[] colors, int columns, int rows, int line, int from, int to) {
+    for (int x = from; x < to; x++) {
+      if (!writer.isCurrent(ImageRenderer.upperPixel(colors, columns, line, x),
+          ImageRenderer.lowerPixel(colors, columns, rows, line, x))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long utf8Length(String output) {
+    long bytes = 0;
+    for (int i = 0; i < output.length(); i++) {
+      char c = output.charAt(i);
+      if (c < 0x80) {
+        bytes += 1;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else {
+        bytes += 3; // surrogate pairs are counted as 6 bytes rather than 4, but aren't used here
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Statistics about the frames played by {@link FramePlayer#play}.
+   */
+  public static final class Stats {
+    private int framesShown;
+    private int framesDropped;
+    private long bytes;
+
+    private Stats() {}
+
+    /**
+     * Returns the number of frames that were written.
+     *
+     * @return the number of frames shown
+     */
+    public int framesShown() {
+      return framesShown;
+    }
+
+    /**
+     * Returns the number of frames that were skipped because they weren't ready until after the
+     * next frame was due.
+     *
+     * @return the number of frames dropped
+     */
+    public int framesDropped() {
+      return framesDropped;
+    }
+
+    /**
+     * Returns the total size of the output, in UTF-8 encoded bytes.
+     *
+     * @return the number of bytes written
+     */
+    public long bytes() {
+      return bytes;
+    }
+
+    /**
+     * Returns the average size of the frames that were shown, in UTF-8 encoded bytes.
+     *
+     * @return the number of bytes written per frame shown
+     */
+    public long bytesPerFrame() {
+      return framesShown == 0 ? 0 : bytes / framesShown;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d frames shown, %d dropped, %d bytes (%d bytes/frame)",
+          framesShown, framesDropped, bytes, bytesPerFrame());
+    }
+  }
+}
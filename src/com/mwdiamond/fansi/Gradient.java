@@ -0,0 +1,253 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import com.mwdiamond.fansi.Codes.ColorType;
+
+/**
+ * Colors text with a gradient, such as a rainbow, by giving each character a color interpolated
+ * between a series of color stops. Obtain an instance via {@link AnsiUtils#gradient} or
+ * {@link AnsiUtils#gradientBuilder}.
+ *
+ * <p>The first character is colored with the first stop and the last character with the last
+ * stop, with the stops spaced evenly in between. Colors are interpolated in the configured
+ * {@link ColorSpace} and then reduced to the terminal's {@linkplain Ansi#ansi() detected color
+ * depth}. Adjacent characters that end up with the same color, which is common on terminals that
+ * don't support true color, share a single escape code, and whitespace (which displays no
+ * foreground color) never changes the color.
+ *
+ * <p>Unlike coloring each character with its own {@link Ansi} instance, rendering a line builds
+ * the whole output in one buffer and writes it at once, allocating nothing per character; the
+ * buffer grows geometrically, as each color change adds an escape code. Callers that color many
+ * lines can {@linkplain #appendTo reuse a single buffer}, which then stops growing.
+ *
+ * <p>The rendered text ends by {@linkplain Ansi#clear() clearing} all colors and styles. Instances
+ * are immutable and thread-safe.
+ */
+public final class Gradient {
+  /** Red, yellow, green, cyan, blue, magenta. */
+  private static final int[] RAINBOW =
+      {0xFF0000, 0xFFFF00, 0x00FF00, 0x00FFFF, 0x0000FF, 0xFF00FF};
+  /** The color state at the start of the text, which never matches a packed color. */
+  private static final int UNKNOWN = -2;
+
+  /**
+   * The color space to interpolate between color stops in, which determines the intermediate
+   * colors of a gradient.
+   */
+  public enum ColorSpace {
+    /**
+     * Interpolates sRGB components directly. This is what most other tools do, but mixes of
+     * saturated colors tend to look muddy, e.g. the middle of a red-green gradient is a dark
+     * olive.
+     */
+    SRGB,
+    /**
+     * Interpolates in linear light, i.e. mixes colors as light would. Gradients are brighter than
+     * in sRGB, but appear to change quickly near dark stops and slowly near light ones.
+     */
+    LINEAR_RGB,
+    /**
+     * Interpolates in <a href="https://bottosson.github.io/posts/oklab/">OKLab</a>, so that
+     * lightness and hue change at a perceptually even rate; the default.
+     */
+    OKLAB;
+  }
+
+  private final AnsiFactory factory;
+  private final ColorSpace colorSpace;
+  /** The stops in {@link #colorSpace}, as consecutive triples. */
+  private final double[] stops;
+  private final int stopCount;
+
+  private Gradient(AnsiFactory factory, Builder builder) {
+    this.factory = checkNotNull(factory);
+    colorSpace = builder.colorSpace;
+    stopCount = builder.stops.length;
+    stops = new double[stopCount * 3];
+    double[] coordinates = new double[3];
+    for (int i = 0; i < stopCount; i++) {
+      toColorSpace(builder.stops[i], coordinates);
+      System.arraycopy(coordinates, 0, stops, i * 3, 3);
+    }
+  }
+
+  /**
+   * Writes text colored with this gradient to stdout.
+   *
+   * @param text the text to color
+   */
+  public void print(CharSequence text) {
+    Ansi ansi = factory.ansi();
+    ansi.outRendered(render(text, ansi.codes()));
+  }
+
+  /**
+   * Writes text colored with this gradient, followed by a line separator, to stdout.
+   *
+   * @param text the text to color
+   */
+  public void println(CharSequence text) {
+    Ansi ansi = factory.ansi();
+    ansi.outlnRendered(render(text, ansi.codes()));
+  }
+
+  /**
+   * Returns text colored with this gradient.
+   *
+   * @param text the text to color
+   * @return the colored text
+   */
+  public String render(CharSequence text) {
+    return render(text, factory.ansi().codes());
+  }
+
+  /**
+   * Appends text colored with this gradient to {@code out}. Beyond growing {@code out} if it
+   * doesn't have the capacity for the colored text, nothing is allocated per character.
+   *
+   * @param out the buffer to append to
+   * @param text the text to color
+   * @return {@code out}
+   */
+  public StringBuilder appendTo(StringBuilder out, CharSequence text) {
+    Codes codes = factory.ansi().codes();
+    append(out, text, codes, codes.colorDepth());
+    return out;
+  }
+
+  private String render(CharSequence text, Codes codes) {
+    StringBuilder out = new StringBuilder(text.length());
+    append(out, text, codes, codes.colorDepth());
+    return out.toString();
+  }
+
+  private void append(StringBuilder out, CharSequence text, Codes codes, ColorDepth depth) {
+    int length = text.length();
+    int last = Character.codePointCount(text, 0, length) - 1;
+    int current = UNKNOWN;
+    boolean colored = false;
+    int index = 0;
+    for (int i = 0; i < length; index++) {
+      char c = text.charAt(i);
+      int charCount = Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(text.charAt(i + 1)) ? 2 : 1;
+      if (!Character.isWhitespace(c)) {
+        int packed = ColorType.packRgb(colorAt(index, last), depth);
+        if (packed != current) {
+          current = packed;
+          if (!colored) {
+            out.append(codes.color(ColorType.DEFAULT, ColorType.DEFAULT, Font.DEFAULT));
+            colored = true;
+          }
+          codes.appendColor(out, packed, ColorType.UNCHANGED);
+        }
+      }
+      codes.appendText(out, text, i, i + charCount);
+      i += charCount;
+    }
+    if (colored) {
+      out.append(codes.clear());
+    }
+  }
+
+  /** Returns the {@code 0xRRGGBB} color of the character at {@code index} of {@code [0, last]}. */
+  int colorAt(int index, int last) {
+    if (stopCount == 1 || last <= 0) {
+      return fromColorSpace(stops, 0);
+    }
+    double position = (double) index * (stopCount - 1) / last;
+    int segment = Math.min((int) position, stopCount - 2);
+    double fraction = position - segment;
+    int from = segment * 3;
+    int to = from + 3;
+    double x = stops[from] + (stops[to] - stops[from]) * fraction;
+    double y = stops[from + 1] + (stops[to + 1] - stops[from + 1]) * fraction;
+    double z = stops[from + 2] + (stops[to + 2] - stops[from + 2]) * fraction;
+    return fromColorSpace(x, y, z);
+  }
+
+  private void toColorSpace(int rgb, double[] coordinates) {
+    switch (colorSpace) {
+      case OKLAB:
+        Palette.toOkLab(rgb, coordinates);
+        break;
+      case LINEAR_RGB:
+        coordinates[0] = Palette.toLinear(rgb >> 16 & 0xFF);
+        coordinates[1] = Palette.toLinear(rgb >> 8 & 0xFF);
+        coordinates[2] = Palette.toLinear(rgb & 0xFF);
+        break;
+      default:
+        coordinates[0] = rgb >> 16 & 0xFF;
+        coordinates[1] = rgb >> 8 & 0xFF;
+        coordinates[2] = rgb & 0xFF;
+    }
+  }
+
+  private int fromColorSpace(double[] coordinates, int offset) {
+    return fromColorSpace(coordinates[offset], coordinates[offset + 1], coordinates[offset + 2]);
+  }
+
+  private int fromColorSpace(double x, double y, double z) {
+    switch (colorSpace) {
+      case OKLAB:
+        return Palette.fromOkLab(x, y, z);
+      case LINEAR_RGB:
+        return Palette.fromLinear(x, y, z);
+      default:
+        return (int) Math.round(x) << 16 | (int) Math.round(y) << 8 | (int) Math.round(z);
+    }
+  }
+
+  /**
+   * Builder for custom {@link Gradient} instances.
+   */
+  public static class Builder {
+    private final AnsiFactory factory;
+    private int[] stops = RAINBOW;
+    private ColorSpace colorSpace = ColorSpace.OKLAB;
+
+    Builder(AnsiFactory factory) {
+      this.factory = checkNotNull(factory);
+    }
+
+    /**
+     * Sets the colors of the gradient, which are spaced evenly across the text; by default the
+     * gradient is a rainbow.
+     *
+     * @param rgb one or more colors in the form {@code 0xRRGGBB}; any alpha component is ignored
+     * @return this builder
+     */
+    public Builder stops(int... rgb) {
+      checkArgument(rgb.length > 0, "Must specify at least one color stop");
+      stops = new int[rgb.length];
+      for (int i = 0; i < rgb.length; i++) {
+        stops[i] = rgb[i] & 0xFFFFFF;
+      }
+      return this;
+    }
+
+    /**
+     * Sets the color space to interpolate in; by default {@link ColorSpace#OKLAB}.
+     *
+     * @param colorSpace the color space to interpolate in
+     * @return this builder
+     */
+    public Builder colorSpace(ColorSpace colorSpace) {
+      this.colorSpace = checkNotNull(colorSpace);
+      return this;
+    }
+
+    /**
+     * Constructs a {@link Gradient} with the configured settings.
+     *
+     * @return a new gradient
+     */
+    public Gradient build() {
+      return new Gradient(factory, this);
+    }
+  }
+}
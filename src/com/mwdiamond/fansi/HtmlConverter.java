@@ -0,0 +1,597 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.Codes.ColorType;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Converts a file of ANSI colored text, such as a build log, to HTML. Obtain an instance via
+ * {@link AnsiUtils#htmlConverter}. Colors and styles are rendered as {@code <span>} elements using
+ * the same CSS classes as {@link Ansi#htmlAnsi}, text is escaped, and other escape sequences (e.g.
+ * cursor movements) are dropped.
+ *
+ * <p>The file is memory-mapped and converted in chunks of about a megabyte, which end at line
+ * breaks where possible. Chunks are converted in parallel, so the colors in effect at the start of
+ * each chunk are found first: each chunk's SGR sequences are examined in parallel to find how they
+ * change the colors, and the changes are then combined in order. The colors at the start of each
+ * chunk are kept as an index, which also lets {@link #render} convert any part of the file on
+ * demand, e.g. to page through a log that's too large to convert up front.
+ *
+ * <p>Only a bounded number of chunks are held in memory at once, so converting a file takes about
+ * the same amount of heap regardless of its size. The input should be UTF-8, or another
+ * ASCII-compatible encoding; the output is in the same encoding.
+ *
+ * <p>SGR sequences with colon-separated sub-parameters aren't recognized, and are ignored. Instances
+ * are thread-safe, but the file shouldn't be modified while it's being converted.
+ */
+public final class HtmlConverter implements Closeable {
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+  /** The size of the buffer mapped bytes are copied to, and of the window searched for breaks. */
+  private static final int BUFFER_SIZE = 1 << 16;
+  /** Renditions' spans are cached, unless there are more than this many (e.g. in a gradient). */
+  private static final int MAX_CACHED_SPANS = 4096;
+  private static final byte ESC = 0x1B;
+  private static final byte[] SPAN_END = ascii("</span>");
+  private static final byte[] AMP = ascii("&amp;");
+  private static final byte[] LT = ascii("&lt;");
+  private static final byte[] GT = ascii("&gt;");
+
+  private static final class PoolHolder {
+    // ForkJoinPool worker threads are daemon threads, so this pool won't block JVM exit
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+
+  private final FileChannel channel;
+  private final long size;
+  private final int chunkSize;
+  // Built by index()
+  private long[] chunkStarts;
+  private Rendition[] chunkRenditions;
+
+  HtmlConverter(Path input, int chunkSize) throws IOException {
+    checkArgument(chunkSize >= BUFFER_SIZE, "Chunks must be at least %s bytes, was %s",
+        BUFFER_SIZE, chunkSize);
+    this.chunkSize = chunkSize;
+    channel = FileChannel.open(input, StandardOpenOption.READ);
+    size = channel.size();
+  }
+
+  HtmlConverter(Path input) throws IOException {
+    this(input, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Returns the size of the file being converted, in bytes.
+   *
+   * @return the size of the input
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Converts the whole file to an HTML document, including the stylesheet it needs.
+   *
+   * @param output the file to write, which is replaced if it exists
+   * @throws IOException if either file can't be read or written
+   */
+  public void convert(Path output) throws IOException {
+    index();
+    try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      writeFully(out, ByteBuffer.wrap(("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n"
+          + "<style>\n" + Ansi.htmlStylesheet() + "</style>\n</head>\n<body>\n<pre>")
+          .getBytes(StandardCharsets.UTF_8)));
+      // Chunks are converted in parallel, but only a few more than can be converted at once are
+      // queued, so finished chunks don't pile up in memory while waiting to be written
+      int window = PoolHolder.POOL.getParallelism() * 2;
+      Deque<Future<byte[]>> pending = new ArrayDeque<>();
+      try {
+        for (int chunk = 0; chunk < chunkRenditions.length; chunk++) {
+          final int c = chunk;
+          pending.add(PoolHolder.POOL.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+              return renderChunk(c);
+            }
+          }));
+          if (pending.size() >= window) {
+            writeFully(out, ByteBuffer.wrap(get(pending.remove())));
+          }
+        }
+        while (!pending.isEmpty()) {
+          writeFully(out, ByteBuffer.wrap(get(pending.remove())));
+        }
+      } finally {
+        for (Future<byte[]> future : pending) {
+          future.cancel(false);
+        }
+      }
+      writeFully(out, ByteBuffer.wrap(ascii("</pre>\n</body>\n</html>\n")));
+    }
+  }
+
+  /**
+   * Converts part of the file to an HTML fragment, which can be placed in a {@code <pre>} element
+   * in a page that uses {@link Ansi#htmlStylesheet}. The range is extended to whole lines, and
+   * rendered with the colors in effect at the start of the first line. Every {@code <span>} in the
+   * fragment is closed, so fragments can be concatenated, e.g. as a viewer pages through a file.
+   *
+   * <p>The first call converts nothing, but examines the SGR sequences in the whole file to index
+   * it; subsequent calls only read about as much of the file as they render.
+   *
+   * @param start the first byte to render
+   * @param end the byte after the last byte to render
+   * @param out the stream to write HTML to
+   * @return the position after the last byte rendered, i.e. the start of the next line
+   * @throws IOException if the file can't be read, or {@code out} can't be written
+   */
+  public long render(long start, long end, OutputStream out) throws IOException {
+    checkArgument(start >= 0 && start <= end && end <= size,
+        "Invalid range [%s, %s) of a %s byte file", start, end, size);
+    if (start == end) {
+      return start;
+    }
+    index();
+    int chunk = Arrays.binarySearch(chunkStarts, 0, chunkRenditions.length, start);
+    if (chunk < 0) {
+      chunk = -chunk - 2;
+    }
+    long chunkStart = chunkStarts[chunk];
+    long lineStart = lastLineBreak(chunkStart, start);
+    // Find the colors at the start of the line
+    ChunkParser parser = new ChunkParser(chunkRenditions[chunk], false);
+    parse(chunkStart, lineStart, parser);
+    long lineEnd = nextLineBreak(end - 1);
+    ChunkParser renderer = new ChunkParser(parser.rendition, true);
+    for (long position = lineStart; position < lineEnd; position += chunkSize) {
+      parse(position, Math.min(position + chunkSize, lineEnd), renderer);
+      renderer.output.writeTo(out);
+    }
+    renderer.finish();
+    renderer.output.writeTo(out);
+    return lineEnd;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** Finds the chunks and the rendition at the start of each, if that hasn't been done. */
+  private synchronized void index() throws IOException {
+    if (chunkRenditions != null) {
+      return;
+    }
+    List<Long> starts = new ArrayList<>();
+    for (long position = 0; position < size; position = chunkEnd(position)) {
+      starts.add(position);
+    }
+    final long[] bounds = new long[starts.size() + 1];
+    List<Callable<Rendition>> tasks = new ArrayList<>();
+    for (int i = 0; i < starts.size(); i++) {
+      bounds[i] = starts.get(i);
+      final int chunk = i;
+      tasks.add(new Callable<Rendition>() {
+        @Override
+        public Rendition call() throws IOException {
+          Rendition change = new Rendition();
+          change.clearDefined();
+          ChunkParser parser = new ChunkParser(change, false);
+          parse(bounds[chunk], bounds[chunk + 1], parser);
+          return parser.rendition;
+        }
+      });
+    }
+    bounds[starts.size()] = size;
+    List<Future<Rendition>> changes = PoolHolder.POOL.invokeAll(tasks);
+    Rendition[] renditions = new Rendition[starts.size()];
+    Rendition rendition = new Rendition();
+    for (int i = 0; i < renditions.length; i++) {
+      renditions[i] = new Rendition();
+      renditions[i].copyFrom(rendition);
+      get(changes.get(i)).applyTo(rendition);
+    }
+    chunkStarts = bounds;
+    chunkRenditions = renditions;
+  }
+
+  /**
+   * Returns where a chunk starting at {@code start} should end: after the last line break in the
+   * last part of the chunk, or failing that before an escape sequence or at a UTF-8 character
+   * boundary.
+   */
+  private long chunkEnd(long start) throws IOException {
+    long limit = start + chunkSize;
+    if (limit >= size) {
+      return size;
+    }
+    long from = Math.max(start + 1, limit - BUFFER_SIZE);
+    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, from, limit - from);
+    int length = window.limit();
+    for (int i = length - 1; i >= 0; i--) {
+      if (window.get(i) == '\n') {
+        return from + i + 1;
+      }
+    }
+    for (int i = length - 1; i >= 0; i--) {
+      if (window.get(i) == ESC) {
+        return from + i;
+      }
+    }
+    for (int i = length - 1; i >= 0; i--) {
+      if ((window.get(i) & 0xC0) != 0x80) {
+        return from + i;
+      }
+    }
+    return limit;
+  }
+
+  /** Returns the position after the last line break in {@code [floor, position)}, or floor. */
+  private long lastLineBreak(long floor, long position) throws IOException {
+    for (long to = position; to > floor; to -= BUFFER_SIZE) {
+      long from = Math.max(floor, to - BUFFER_SIZE);
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+      for (int i = window.limit() - 1; i >= 0; i--) {
+        if (window.get(i) == '\n') {
+          return from + i + 1;
+        }
+      }
+    }
+    return floor;
+  }
+
+  /** Returns the position after the first line break at or after {@code position}, or the end. */
+  private long nextLineBreak(long position) throws IOException {
+    for (long from = position; from < size; from += BUFFER_SIZE) {
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, from,
+          Math.min(BUFFER_SIZE, size - from));
+      for (int i = 0; i < window.limit(); i++) {
+        if (window.get(i) == '\n') {
+          return from + i + 1;
+        }
+      }
+    }
+    return size;
+  }
+
+  private byte[] renderChunk(int chunk) throws IOException {
+    ChunkParser parser = new ChunkParser(chunkRenditions[chunk], true);
+    parse(chunkStarts[chunk], chunkStarts[chunk + 1], parser);
+    parser.finish();
+    return parser.output.toByteArray();
+  }
+
+  /** Maps a range of at most {@link #chunkSize} bytes, and passes it to the parser. */
+  private void parse(long start, long end, ChunkParser parser) throws IOException {
+    if (start == end) {
+      return;
+    }
+    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    byte[] buffer = new byte[Math.min(BUFFER_SIZE, mapped.remaining())];
+    while (mapped.hasRemaining()) {
+      int length = Math.min(buffer.length, mapped.remaining());
+      mapped.get(buffer, 0, length);
+      parser.parse(buffer, 0, length);
+    }
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      out.write(bytes);
+    }
+  }
+
+  private static <T> T get(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while converting to HTML");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Follows the escape sequences in part of the file, applying SGR sequences to a rendition and,
+   * if rendering, writing the text in between as HTML. Sequences are consumed the same way
+   * {@link EscapeStripper} does, and may be split across calls to {@link #parse}.
+   */
+  private static final class ChunkParser {
+    private static final int MAX_SEQUENCE = 64;
+    private static final int BEL = 0x07;
+    private static final int CAN = 0x18;
+    private static final int SUB = 0x1A;
+
+    // States
+    private static final int TEXT = 0;
+    private static final int ESCAPE = 1;
+    private static final int ESCAPE_INTERMEDIATE = 2;
+    private static final int CSI = 3;
+    private static final int OSC = 4;
+    private static final int STRING = 5;
+    private static final int STRING_END = 6;
+
+    private static final Color[] NAMED_COLORS = new Color[108];
+    private static final Font[] FONTS = new Font[21];
+
+    static {
+      for (Color color : Color.values()) {
+        // Some colors have two names; either renders the same
+        if (NAMED_COLORS[color.color()] == null) {
+          NAMED_COLORS[color.color()] = color;
+        }
+      }
+      for (Font font : Font.values()) {
+        FONTS[font.code()] = font;
+      }
+    }
+
+    final Rendition rendition = new Rendition();
+    final ByteOutput output = new ByteOutput();
+    private final boolean render;
+    private final byte[] sequence = new byte[MAX_SEQUENCE];
+    private final int[] params = new int[Rendition.MAX_PARAMS];
+    /** The rendition of the open span, which is the default rendition if there isn't one. */
+    private final Rendition open = new Rendition();
+    private final Map<Rendition, byte[]> spans = new HashMap<>();
+    private int sequenceLength;
+    private int state = TEXT;
+
+    ChunkParser(Rendition start, boolean render) {
+      rendition.copyFrom(start);
+      this.render = render;
+    }
+
+    void parse(byte[] bytes, int offset, int end) {
+      int i = offset;
+      while (i < end) {
+        if (state == TEXT) {
+          int escape = EscapeStripper.indexOfEscape(bytes, i, end);
+          if (render && escape > i) {
+            writeText(bytes, i, escape);
+          }
+          if (escape < end) {
+            state = ESCAPE;
+            escape++;
+          }
+          i = escape;
+          continue;
+        }
+        int c = bytes[i++] & 0xFF;
+        switch (state) {
+          case ESCAPE:
+            if (c == '[') {
+              sequenceLength = 0;
+              state = CSI;
+            } else if (c == ']') {
+              state = OSC;
+            } else if (c == 'P' || c == 'X' || c == '^' || c == '_') {
+              state = STRING;
+            } else if (c >= 0x20 && c <= 0x2F) {
+              state = ESCAPE_INTERMEDIATE;
+            } else if (c >= 0x30 && c < 0x7F) {
+              state = TEXT;
+            } else {
+              control(c);
+            }
+            break;
+          case ESCAPE_INTERMEDIATE:
+            if (c >= 0x30 && c < 0x7F) {
+              state = TEXT;
+            } else {
+              control(c);
+            }
+            break;
+          case CSI:
+            if (c >= 0x40 && c < 0x7F) {
+              if (c == 'm' && sequenceLength <= MAX_SEQUENCE) {
+                applySgr();
+              }
+              state = TEXT;
+            } else if (c >= 0x20 && c < 0x40) {
+              if (sequenceLength < MAX_SEQUENCE) {
+                sequence[sequenceLength] = (byte) c;
+              }
+              // Overlong sequences are consumed, but not examined
+              sequenceLength = Math.min(sequenceLength + 1, MAX_SEQUENCE + 1);
+            } else {
+              control(c);
+            }
+            break;
+          case OSC:
+          case STRING:
+            if (c == ESC) {
+              state = STRING_END;
+            } else if (c == CAN || c == SUB || c == BEL && state == OSC) {
+              state = TEXT;
+            }
+            break;
+          case STRING_END:
+            if (c == '\\') {
+              state = TEXT;
+            } else {
+              // Not a string terminator, so the string was interrupted by a new sequence
+              state = ESCAPE;
+              i--;
+            }
+            break;
+          default:
+            throw new AssertionError(state);
+        }
+      }
+    }
+
+    /** Handles a character that doesn't advance a sequence, which may be a control character. */
+    private void control(int c) {
+      if (c == ESC) {
+        state = ESCAPE;
+      } else if (c == CAN || c == SUB) {
+        state = TEXT;
+      } else if (render && (c == '\n' || c == '\t' || c == '\r')) {
+        // A terminal would act on these, and finish the sequence afterwards
+        output.write(c);
+      }
+    }
+
+    private void applySgr() {
+      if (!Rendition.isSgr(sequence, sequenceLength)) {
+        return;
+      }
+      int count = Rendition.parseParams(sequence, sequenceLength, params);
+      if (count >= 0) {
+        // Unrecognized parameters are ignored
+        rendition.apply(params, count);
+      }
+    }
+
+    /** Writes text, escaping it for HTML and dropping control characters browsers won't show. */
+    private void writeText(byte[] bytes, int start, int end) {
+      if (!rendition.equals(open)) {
+        if (!open.isDefault()) {
+          output.write(SPAN_END, 0, SPAN_END.length);
+        }
+        if (!rendition.isDefault()) {
+          byte[] span = span(rendition);
+          output.write(span, 0, span.length);
+        }
+        open.copyFrom(rendition);
+      }
+      int from = start;
+      for (int i = start; i < end; i++) {
+        byte b = bytes[i];
+        if (b != '&' && b != '<' && b != '>'
+            && (b < 0 || b >= ' ' || b == '\n' || b == '\t' || b == '\r')) {
+          continue;
+        }
+        output.write(bytes, from, i - from);
+        from = i + 1;
+        if (b == '&') {
+          output.write(AMP, 0, AMP.length);
+        } else if (b == '<') {
+          output.write(LT, 0, LT.length);
+        } else if (b == '>') {
+          output.write(GT, 0, GT.length);
+        }
+      }
+      output.write(bytes, from, end - from);
+    }
+
+    /** Closes the open span, if any. */
+    void finish() {
+      if (!open.isDefault()) {
+        output.write(SPAN_END, 0, SPAN_END.length);
+        open.reset();
+      }
+    }
+
+    private byte[] span(Rendition rendition) {
+      byte[] span = spans.get(rendition);
+      if (span == null) {
+        List<Style> styles = new ArrayList<>();
+        Style[] flagStyles = {Style.BOLD, Style.DIM, Style.ITALIC, Style.UNDERLINE, Style.REVERSE,
+            Style.CONCEAL, Style.STRIKETHROUGH, Style.OVERLINE};
+        for (int i = 0; i < flagStyles.length; i++) {
+          if ((rendition.flags & 1 << i) != 0) {
+            styles.add(flagStyles[i]);
+          }
+        }
+        if (rendition.blink != 0) {
+          styles.add(rendition.blink == 5 ? Style.BLINK : Style.BLINK_RAPID);
+        }
+        if (rendition.frame != 0) {
+          styles.add(rendition.frame == 51 ? Style.FRAME : Style.ENCIRCLE);
+        }
+        span = Codes.HTML.color(colorType(rendition.color, 0), colorType(rendition.background, 10),
+            FONTS[rendition.font], styles.toArray(new Style[styles.size()]))
+            .getBytes(StandardCharsets.UTF_8);
+        if (spans.size() >= MAX_CACHED_SPANS) {
+          spans.clear();
+        }
+        Rendition key = new Rendition();
+        key.copyFrom(rendition);
+        spans.put(key, span);
+      }
+      return span;
+    }
+
+    /** Converts a rendition's color, with named colors offset by {@code offset} from 30 - 37. */
+    private static ColorType colorType(int color, int offset) {
+      if (color == Rendition.DEFAULT_COLOR) {
+        return ColorType.DEFAULT;
+      } else if ((color & Rendition.INDEX) != 0) {
+        return ColorType.fromIndex(color & 0xFF);
+      } else if ((color & Rendition.RGB) != 0) {
+        return ColorType.fromRgb(color);
+      }
+      return new ColorType(NAMED_COLORS[color - offset]);
+    }
+  }
+
+  /** A growable byte array, like {@code ByteArrayOutputStream} but without synchronization. */
+  private static final class ByteOutput {
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    private int length;
+
+    void write(int b) {
+      ensureCapacity(1);
+      bytes[length++] = (byte) b;
+    }
+
+    void write(byte[] source, int offset, int count) {
+      ensureCapacity(count);
+      System.arraycopy(source, offset, bytes, length, count);
+      length += count;
+    }
+
+    private void ensureCapacity(int count) {
+      if (length + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, length);
+    }
+
+    /** Writes the bytes to {@code out}, and empties this buffer. */
+    void writeTo(OutputStream out) throws IOException {
+      out.write(bytes, 0, length);
+      length = 0;
+    }
+  }
+}
@@ -0,0 +1,478 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import com.mwdiamond.fansi.Codes.ColorType;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders images as colored text, such as thumbnails or charts in a terminal dashboard. Obtain an
+ * instance via {@link AnsiUtils#imageRenderer} or {@link AnsiUtils#imageRendererBuilder}.
+ *
+ * <p>Each character cell displays two vertically-stacked pixels, by drawing an upper half block
+ * ({@code ▀}) in the top pixel's color over a background of the bottom pixel's color. Since cells
+ * are roughly twice as tall as they are wide this gives approximately square pixels.
+ *
+ * <p>Images are scaled to the configured width (by default the width of the terminal, if the
+ * image is wider) by averaging the pixels covered by each output pixel. Colors are reduced to the
+ * terminal's {@linkplain Ansi#ansi() detected color depth}, or to a specific {@link Palette}, and
+ * can optionally be dithered. Escape codes are only written when a cell's colors differ from the
+ * previous cell's, so images with areas of flat color produce much less output than images with
+ * noisy detail.
+ *
+ * <p>Scaling, color reduction, and encoding are each split across rows and run in parallel on a
+ * shared {@link ForkJoinPool}. Dithering diffuses each row's error into the next, and so runs on
+ * the calling thread. Small images are rendered entirely on the calling thread.
+ *
+ * <p>Use a {@linkplain #framePlayer frame player} to play animations.
+ *
+ * <p>Alpha components are ignored; composite transparent images onto a background before
+ * rendering them. Instances are immutable and thread-safe.
+ */
+public final class ImageRenderer {
+  private static final char UPPER_HALF_BLOCK = '▀';
+  /** The number of rows processed by each parallel task. */
+  private static final int ROWS_PER_TASK = 16;
+  /** The color state at the start of a line, which never matches a packed color. */
+  private static final int UNKNOWN = -2;
+  private static final int DEFAULT_BACKGROUND = ColorType.packNamed(Ansi.Color.DEFAULT);
+
+  private static final class PoolHolder {
+    // ForkJoinPool worker threads are daemon threads, so this pool won't block JVM exit
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+
+  private final AnsiFactory factory;
+  private final int width;
+  private final boolean dither;
+  private final Palette palette;
+
+  private ImageRenderer(AnsiFactory factory, Builder builder) {
+    this.factory = checkNotNull(factory);
+    width = builder.width;
+    dither = builder.dither;
+    palette = builder.palette;
+  }
+
+  /**
+   * Renders an image and writes it to stdout.
+   *
+   * @param image the image to render
+   */
+  public void print(BufferedImage image) {
+    factory.ansi().outRendered(render(image));
+  }
+
+  /**
+   * Renders an image, given as an array of ARGB pixels in row-major order, and writes it to
+   * stdout.
+   *
+   * @param argb the image's pixels, e.g. as returned by {@link BufferedImage#getRGB(int, int, int,
+   *     int, int[], int, int)}
+   * @param width the width of the image in pixels
+   * @param height the height of the image in pixels
+   */
+  public void print(int[] argb, int width, int height) {
+    factory.ansi().outRendered(render(argb, width, height));
+  }
+
+  /**
+   * Renders an image as a string, with a line separator after each line.
+   *
+   * @param image the image to render
+   * @return the rendered image
+   */
+  public String render(BufferedImage image) {
+    int imageWidth = image.getWidth();
+    int imageHeight = image.getHeight();
+    return render(image.getRGB(0, 0, imageWidth, imageHeight, null, 0, imageWidth),
+        imageWidth, imageHeight);
+  }
+
+  /**
+   * Renders an image, given as an array of ARGB pixels in row-major order, as a string with a line
+   * separator after each line.
+   *
+   * @param argb the image's pixels, e.g. as returned by {@link BufferedImage#getRGB(int, int, int,
+   *     int, int[], int, int)}
+   * @param width the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @return the rendered image
+   */
+  public String render(int[] argb, int width, int height) {
+    checkArgument(width > 0 && height > 0, "Invalid dimensions: %sx%s", width, height);
+    checkArgument(argb.length >= width * height,
+        "Expected at least %s pixels, got %s", width * height, argb.length);
+    Ansi ansi = factory.ansi();
+    Codes codes = ansi.codes();
+
+    int columns = columns(width, ansi);
+    int rows = rows(width, height, columns);
+    return encode(toColors(argb, width, height, columns, rows, codes.colorDepth()),
+        columns, rows, codes);
+  }
+
+  /**
+   * Returns a player that renders sequences of frames with this renderer's settings.
+   *
+   * @param framesPerSecond the rate to play frames at
+   * @return a new frame player
+   */
+  public FramePlayer framePlayer(int framesPerSecond) {
+    return new FramePlayer(factory, this, framesPerSecond);
+  }
+
+  /** Returns the number of columns to render an image of the given width with. */
+  int columns(int imageWidth, Ansi ansi) {
+    return width > 0 ? width : Math.min(imageWidth, ansi.columns());
+  }
+
+  /** Returns the number of pixel rows to render an image with, preserving its aspect ratio. */
+  static int rows(int imageWidth, int imageHeight, int columns) {
+    return (int) Math.max(1, Math.round((double) imageHeight * columns / imageWidth));
+  }
+
+  /**
+   * Scales an image to {@code columns} by {@code rows} pixels and reduces it to packed colors that
+   * can be displayed at the given depth.
+   */
+  int[] toColors(int[] argb, int width, int height, int columns, int rows, ColorDepth depth) {
+    int[] pixels = columns == width && rows == height
+        ? argb : scale(argb, width, height, columns, rows);
+    return reduce(pixels, columns, rows, depth);
+  }
+
+  /** Scales an image by averaging the source pixels covered by each destination pixel. */
+  private static int[] scale(final int[] source, final int sourceWidth, final int sourceHeight,
+      final int width, final int height) {
+    final int[] scaled = new int[width * height];
+    inParallel(height, new RowTask() {
+      @Override
+      public void run(int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+          int y0 = (int) ((long) y * sourceHeight / height);
+          int y1 = Math.max(y0 + 1, (int) ((long) (y + 1) * sourceHeight / height));
+          for (int x = 0; x < width; x++) {
+            int x0 = (int) ((long) x * sourceWidth / width);
+            int x1 = Math.max(x0 + 1, (int) ((long) (x + 1) * sourceWidth / width));
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int sy = y0; sy < y1; sy++) {
+              for (int sx = x0; sx < x1; sx++) {
+                int pixel = source[sy * sourceWidth + sx];
+                red += pixel >> 16 & 0xFF;
+                green += pixel >> 8 & 0xFF;
+                blue += pixel & 0xFF;
+              }
+            }
+            long count = (long) (y1 - y0) * (x1 - x0);
+            scaled[y * width + x] =
+                (int) ((red / count) << 16 | (green / count) << 8 | blue / count);
+          }
+        }
+      }
+    });
+    return scaled;
+  }
+
+  /** Reduces pixels to packed colors that can be displayed at the given depth. */
+  private int[] reduce(final int[] pixels, final int width, int height, final ColorDepth depth) {
+    final int[] colors = new int[width * height];
+    Palette target = palette;
+    if (target == null && dither && depth != ColorDepth.TRUE_COLOR) {
+      target = depth == ColorDepth.COLORS_16 ? Palette.ansi16() : Palette.xterm256();
+    }
+    final Palette reduceTo = target;
+
+    if (reduceTo != null && dither) {
+      floydSteinberg(pixels, colors, width, height, reduceTo);
+      return colors;
+    }
+    inParallel(height, new RowTask() {
+      @Override
+      public void run(int fromRow, int toRow) {
+        for (int i = fromRow * width; i < toRow * width; i++) {
+          int rgb = pixels[i] & 0xFFFFFF;
+          // Matches the codes' own reduction, but lets encode() coalesce on the result
+          colors[i] = reduceTo != null
+              ? pack(reduceTo, reduceTo.nearestIndex(rgb)) : ColorType.packRgb(rgb, depth);
+        }
+      }
+    });
+    return colors;
+  }
+
+  /**
+   * Reduces pixels to a palette using Floyd-Steinberg dithering, which diffuses each pixel's
+   * difference from its palette color into its unprocessed neighbors.
+   */
+  private static void floydSteinberg(
+      int[] pixels, int[] colors, int width, int height, Palette palette) {
+    // Errors are tracked in 16ths, with a column of padding on either side
+    int[] errors = new int[(width + 2) * 3];
+    int[] nextErrors = new int[(width + 2) * 3];
+    int[] target = new int[3];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int pixel = pixels[y * width + x];
+        int e = (x + 1) * 3;
+        target[0] = ((pixel >> 16 & 0xFF) << 4) + errors[e];
+        target[1] = ((pixel >> 8 & 0xFF) << 4) + errors[e + 1];
+        target[2] = ((pixel & 0xFF) << 4) + errors[e + 2];
+
+        int index = palette.nearestIndex(
+            clamp(target[0]) << 16 | clamp(target[1]) << 8 | clamp(target[2]));
+        colors[y * width + x] = pack(palette, index);
+        int chosen = palette.rgb(index);
+        diffuse(errors, nextErrors, e, target[0] - ((chosen >> 16 & 0xFF) << 4));
+        diffuse(errors, nextErrors, e + 1, target[1] - ((chosen >> 8 & 0xFF) << 4));
+        diffuse(errors, nextErrors, e + 2, target[2] - ((chosen & 0xFF) << 4));
+      }
+      int[] swap = errors;
+      errors = nextErrors;
+      nextErrors = swap;
+      Arrays.fill(nextErrors, 0);
+    }
+  }
+
+  private static void diffuse(int[] errors, int[] nextErrors, int e, int error) {
+    errors[e + 3] += error * 7 / 16;
+    nextErrors[e - 3] += error * 3 / 16;
+    nextErrors[e] += error * 5 / 16;
+    nextErrors[e + 3] += error / 16;
+  }
+
+  /** Rounds a component in 16ths to the nearest valid component value. */
+  private static int clamp(int sixteenths) {
+    return Math.max(0, Math.min(255, (sixteenths + 8) >> 4));
+  }
+
+  /** Packs a palette color, as a named color for 16-color palettes and a color index otherwise. */
+  private static int pack(Palette palette, int index) {
+    if (palette.size() == 16) {
+      return ColorType.packNamed(Palette.namedColor(index));
+    }
+    return ColorType.packIndex(index);
+  }
+
+  /** Encodes packed colors as lines of half blocks, two rows of pixels per line. */
+  static String encode(
+      final int[] colors, final int width, final int height, final Codes codes) {
+    final int lines = (height + 1) / 2;
+    final String[] encoded = new String[lines];
+    final String lineEnd = codes.clear() + System.lineSeparator();
+    inParallel(lines, new RowTask() {
+      @Override
+      public void run(int fromLine, int toLine) {
+        StringBuilder buffer = new StringBuilder();
+        CellWriter writer = new CellWriter(codes, buffer);
+        for (int line = fromLine; line < toLine; line++) {
+          buffer.setLength(0);
+          writer.reset();
+          for (int x = 0; x < width; x++) {
+            writer.write(upperPixel(colors, width, line, x),
+                lowerPixel(colors, width, height, line, x));
+          }
+          encoded[line] = buffer.append(lineEnd).toString();
+        }
+      }
+    });
+
+    int length = 0;
+    for (String line : encoded) {
+      length += line.length();
+    }
+    StringBuilder result = new StringBuilder(length);
+    for (String line : encoded) {
+      result.append(line);
+    }
+    return result.toString();
+  }
+
+  /** Returns the color of the upper pixel of a cell. */
+  static int upperPixel(int[] colors, int width, int line, int x) {
+    return colors[line * 2 * width + x];
+  }
+
+  /**
+   * Returns the color of the lower pixel of a cell, which is the default background if the image
+   * has an odd number of rows and this is the last line.
+   */
+  static int lowerPixel(int[] colors, int width, int height, int line, int x) {
+    int row = line * 2 + 1;
+    return row < height ? colors[row * width + x] : DEFAULT_BACKGROUND;
+  }
+
+  /**
+   * Writes cells to a buffer, only writing codes for colors that differ from the colors set by
+   * previously-written cells. Cursor movements don't affect the current colors, so cells need not
+   * be adjacent.
+   */
+  static final class CellWriter {
+    private final Codes codes;
+    private final StringBuilder buffer;
+    /** False if each color change must specify both colors, e.g. for HTML. */
+    private final boolean keepsColors;
+    private int foreground = UNKNOWN;
+    private int background = UNKNOWN;
+
+    CellWriter(Codes codes, StringBuilder buffer) {
+      this.codes = codes;
+      this.buffer = buffer;
+      keepsColors = codes.isTerminal();
+    }
+
+    /** Writes a cell displaying the given packed colors. */
+    void write(int upper, int lower) {
+      if (!keepsColors) {
+        if (foreground == UNKNOWN && background == UNKNOWN) {
+          buffer.append(codes.color(ColorType.DEFAULT, ColorType.DEFAULT, Font.DEFAULT));
+        }
+        if (upper != foreground || lower != background) {
+          codes.appendColor(buffer, upper, lower);
+        }
+        foreground = upper;
+        background = lower;
+        buffer.append(upper == lower ? ' ' : UPPER_HALF_BLOCK);
+        return;
+      }
+      if (upper == lower) {
+        // A space only displays the background, so the foreground can be left as-is
+        codes.appendColor(buffer, ColorType.UNCHANGED,
+            lower == background ? ColorType.UNCHANGED : lower);
+        background = lower;
+        buffer.append(' ');
+      } else {
+        codes.appendColor(buffer,
+            upper == foreground ? ColorType.UNCHANGED : upper,
+            lower == background ? ColorType.UNCHANGED : lower);
+        foreground = upper;
+        background = lower;
+        buffer.append(UPPER_HALF_BLOCK);
+      }
+    }
+
+    /** Returns true if writing the given cell would not require any codes. */
+    boolean isCurrent(int upper, int lower) {
+      return lower == background && (upper == lower || upper == foreground);
+    }
+
+    /** Forgets the current colors, e.g. because they've been cleared. */
+    void reset() {
+      foreground = UNKNOWN;
+      background = UNKNOWN;
+    }
+  }
+
+  /** Work that can be split into independent ranges of rows. */
+  private interface RowTask {
+    void run(int fromRow, int toRow);
+  }
+
+  /**
+   * Runs {@code task} over {@code rows} rows, splitting them across the shared pool unless there
+   * are too few to be worth it.
+   */
+  private static void inParallel(int rows, RowTask task) {
+    if (rows <= ROWS_PER_TASK) {
+      task.run(0, rows);
+      return;
+    }
+    PoolHolder.POOL.invoke(new RowAction(task, 0, rows));
+  }
+
+  private static final class RowAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final RowTask task;
+    private final int fromRow;
+    private final int toRow;
+
+    RowAction(RowTask task, int fromRow, int toRow) {
+      this.task = task;
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+    }
+
+    @Override
+    protected void compute() {
+      if (toRow - fromRow <= ROWS_PER_TASK) {
+        task.run(fromRow, toRow);
+        return;
+      }
+      int middle = (fromRow + toRow) >>> 1;
+      invokeAll(new RowAction(task, fromRow, middle), new RowAction(task, middle, toRow));
+    }
+  }
+
+  /**
+   * Builder for custom {@link ImageRenderer} instances.
+   */
+  public static class Builder {
+    private final AnsiFactory factory;
+    private int width = 0;
+    private boolean dither = false;
+    private Palette palette = null;
+
+    Builder(AnsiFactory factory) {
+      this.factory = checkNotNull(factory);
+    }
+
+    /**
+     * Scales images to the given number of columns; by default images are only scaled down if
+     * they are wider than the terminal. Images keep their aspect ratio, so this also determines
+     * the number of lines rendered.
+     *
+     * @param columns the width to render images at
+     * @return this builder
+     */
+    public Builder width(int columns) {
+      checkArgument(columns > 0, "Must specify a positive number of columns, was %s", columns);
+      width = columns;
+      return this;
+    }
+
+    /**
+     * Enables Floyd-Steinberg dithering when reducing colors to the terminal's color depth or to a
+     * {@linkplain #palette palette}, which better represents gradients and photographs at the cost
+     * of a noisier (and therefore larger) output. Dithering has no effect on true color
+     * terminals unless a palette is set.
+     *
+     * @param dither whether to dither
+     * @return this builder
+     */
+    public Builder dither(boolean dither) {
+      this.dither = dither;
+      return this;
+    }
+
+    /**
+     * Reduces images to the colors of the given palette, rather than the terminal's color depth.
+     * Use a themed palette (see {@link Palette#ansi16(int...)}) to more accurately reproduce
+     * images on terminals that only support the named colors.
+     *
+     * @param palette the palette to render images with
+     * @return this builder
+     */
+    public Builder palette(Palette palette) {
+      this.palette = checkNotNull(palette);
+      return this;
+    }
+
+    /**
+     * Constructs an {@link ImageRenderer} with the configured settings.
+     *
+     * @return a new image renderer
+     */
+    public ImageRenderer build() {
+      return new ImageRenderer(factory, this);
+    }
+  }
+}
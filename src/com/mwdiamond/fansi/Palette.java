@@ -0,0 +1,345 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkElementIndex;
+import static com.mwdiamond.fansi.Preconditions.checkState;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import java.util.Arrays;
+
+/**
+ * A set of colors a terminal can display, such as the 16 {@linkplain Color named colors} or the
+ * 256 color indexes, which can be used to find the closest displayable color to an arbitrary RGB
+ * color.
+ *
+ * <p>Closeness is measured in the <a href="https://bottosson.github.io/posts/oklab/">OKLab</a>
+ * color space, which is designed so that distances correspond to perceived differences. This gives
+ * noticeably better results than comparing RGB components, particularly for dark colors and for
+ * the small set of named colors.
+ *
+ * <p>Terminals render the named colors (and therefore color indexes 0-15) differently depending on
+ * their theme. The default palettes use xterm's colors; pass your terminal's colors to
+ * {@link #ansi16(int...)} or {@link #xterm256(int...)} for more accurate results.
+ *
+ * <p>Lookups are cached in a table quantized to 5 bits per channel (i.e. colors whose components
+ * differ by less than 8 share a result), so after the first lookup in a region of the color space
+ * each lookup is a single array access, regardless of the palette's size. Colors in the palette
+ * always map to themselves (or, if the palette repeats a color, its lowest index). Palettes are
+ * immutable and thread-safe.
+ */
+public final class Palette {
+  /** xterm's default RGB values for color indexes 0-15. */
+  private static final int[] XTERM_16 = {
+    0x000000, 0xCD0000, 0x00CD00, 0xCDCD00, 0x0000EE, 0xCD00CD, 0x00CDCD, 0xE5E5E5,
+    0x7F7F7F, 0xFF0000, 0x00FF00, 0xFFFF00, 0x5C5CFF, 0xFF00FF, 0x00FFFF, 0xFFFFFF,
+  };
+
+  /** The named colors, in color index order. */
+  private static final Color[] NAMED_COLORS = {
+    Color.BLACK, Color.RED, Color.GREEN, Color.YELLOW,
+    Color.BLUE, Color.MAGENTA, Color.CYAN, Color.GREY,
+    Color.DARK_GREY, Color.LIGHT_RED, Color.LIGHT_GREEN, Color.LIGHT_YELLOW,
+    Color.LIGHT_BLUE, Color.LIGHT_MAGENTA, Color.LIGHT_CYAN, Color.WHITE,
+  };
+
+  private static final int[] CUBE_LEVELS = {0x00, 0x5F, 0x87, 0xAF, 0xD7, 0xFF};
+
+  private static final int QUANTIZED_BITS = 5;
+  private static final int QUANTIZED_SHIFT = 8 - QUANTIZED_BITS;
+  private static final int UNCACHED = -1;
+
+  /** sRGB components mapped to linear light, shared by all palettes. */
+  private static final double[] LINEAR = new double[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      double c = i / 255.0;
+      LINEAR[i] = c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+  }
+
+  /** The number of steps in {@link #ENCODE}. */
+  private static final int ENCODE_STEPS = 4096;
+  /** Linear light, in steps of {@code 1 / (ENCODE_STEPS - 1)}, mapped to sRGB components. */
+  private static final byte[] ENCODE = new byte[ENCODE_STEPS];
+
+  static {
+    for (int i = 0; i < ENCODE_STEPS; i++) {
+      double c = i / (double) (ENCODE_STEPS - 1);
+      double srgb = c <= 0.0031308 ? c * 12.92 : 1.055 * Math.pow(c, 1 / 2.4) - 0.055;
+      ENCODE[i] = (byte) Math.round(srgb * 255);
+    }
+  }
+
+  // Must be initialized after LINEAR
+  private static final Palette ANSI_16 = new Palette(XTERM_16);
+  private static final Palette XTERM_256 = new Palette(xterm256Colors(XTERM_16));
+
+  /** The closest named color to each color index; indexes 0-15 are the named colors. */
+  private static final byte[] INDEX_TO_16 = new byte[256];
+
+  static {
+    for (int i = 0; i < INDEX_TO_16.length; i++) {
+      INDEX_TO_16[i] = (byte) (i < 16 ? i : ANSI_16.search(XTERM_256.colors[i]));
+    }
+  }
+
+  private final int[] colors;
+  /** OKLab coordinates of each color, as consecutive (L, a, b) triples. */
+  private final double[] labs;
+  /** Cached nearest indexes, keyed by quantized RGB. Racy but benign; entries are idempotent. */
+  private final short[] cache;
+  /** A bit per quantized RGB key, set if the palette has a color in that bucket. */
+  private final long[] entryBuckets;
+  /** The palette's distinct colors in ascending order, each shifted left 8 bits above its index. */
+  private final long[] sortedEntries;
+
+  private Palette(int[] colors) {
+    this.colors = colors;
+    labs = new double[colors.length * 3];
+    double[] lab = new double[3];
+    for (int i = 0; i < colors.length; i++) {
+      toOkLab(colors[i], lab);
+      System.arraycopy(lab, 0, labs, i * 3, 3);
+    }
+    cache = new short[1 << (QUANTIZED_BITS * 3)];
+    Arrays.fill(cache, (short) UNCACHED);
+
+    entryBuckets = new long[cache.length / Long.SIZE];
+    long[] entries = new long[colors.length];
+    for (int i = 0; i < colors.length; i++) {
+      int key = quantize(colors[i]);
+      entryBuckets[key >>> 6] |= 1L << key;
+      entries[i] = (long) colors[i] << 8 | i;
+    }
+    Arrays.sort(entries);
+    // Keep the lowest index of any repeated color, to match search()
+    int distinct = 0;
+    for (int i = 0; i < entries.length; i++) {
+      if (i == 0 || entries[i] >>> 8 != entries[i - 1] >>> 8) {
+        entries[distinct++] = entries[i];
+      }
+    }
+    sortedEntries = Arrays.copyOf(entries, distinct);
+  }
+
+  /**
+   * Returns a palette of the 16 named colors, using xterm's default colors.
+   *
+   * @return the default 16-color palette
+   */
+  public static Palette ansi16() {
+    return ANSI_16;
+  }
+
+  /**
+   * Returns a palette of the 16 named colors, as rendered by a particular terminal theme.
+   *
+   * @param themeRgb the 16 colors of the theme, as {@code 0xRRGGBB} values in color index order
+   *     (black, red, green, yellow, blue, magenta, cyan, grey, then their light variants)
+   * @return a 16-color palette using the given colors
+   */
+  public static Palette ansi16(int... themeRgb) {
+    return new Palette(checkTheme(themeRgb));
+  }
+
+  /**
+   * Returns a palette of the 256 color indexes, using xterm's default colors for indexes 0-15.
+   *
+   * @return the default 256-color palette
+   */
+  public static Palette xterm256() {
+    return XTERM_256;
+  }
+
+  /**
+   * Returns a palette of the 256 color indexes, using the given theme for indexes 0-15. Indexes
+   * 16-255 are not generally themed.
+   *
+   * @param themeRgb the 16 colors of the theme, as {@code 0xRRGGBB} values in color index order
+   * @return a 256-color palette using the given colors for the first 16 indexes
+   */
+  public static Palette xterm256(int... themeRgb) {
+    return new Palette(xterm256Colors(checkTheme(themeRgb)));
+  }
+
+  private static int[] checkTheme(int[] themeRgb) {
+    checkArgument(themeRgb.length == 16, "Expected 16 theme colors, got %s", themeRgb.length);
+    int[] colors = new int[16];
+    for (int i = 0; i < colors.length; i++) {
+      colors[i] = themeRgb[i] & 0xFFFFFF;
+    }
+    return colors;
+  }
+
+  private static int[] xterm256Colors(int[] theme) {
+    int[] colors = Arrays.copyOf(theme, 256);
+    for (int r = 0; r < 6; r++) {
+      for (int g = 0; g < 6; g++) {
+        for (int b = 0; b < 6; b++) {
+          colors[16 + 36 * r + 6 * g + b] =
+              CUBE_LEVELS[r] << 16 | CUBE_LEVELS[g] << 8 | CUBE_LEVELS[b];
+        }
+      }
+    }
+    for (int i = 0; i < 24; i++) {
+      int level = 8 + 10 * i;
+      colors[232 + i] = level << 16 | level << 8 | level;
+    }
+    return colors;
+  }
+
+  /**
+   * Returns the number of colors in this palette, either 16 or 256.
+   *
+   * @return the size of this palette
+   */
+  public int size() {
+    return colors.length;
+  }
+
+  /**
+   * Returns the RGB value of a color in this palette.
+   *
+   * @param index the color index
+   * @return the color, as an {@code 0xRRGGBB} value
+   */
+  public int rgb(int index) {
+    checkElementIndex(index, colors.length);
+    return colors[index];
+  }
+
+  /**
+   * Returns the index of the color in this palette that is perceptually closest to {@code rgb}.
+   *
+   * @param rgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @return the index of the closest color, which for 256-color palettes is a color index usable
+   *     with {@link Ansi#color(int, Ansi.Style...)}
+   */
+  public int nearestIndex(int rgb) {
+    int key = quantize(rgb);
+    if ((entryBuckets[key >>> 6] & 1L << key) != 0) {
+      // The bucket's cached result is for its center, which may be closer to another color
+      int entry = Arrays.binarySearch(sortedEntries, (long) (rgb & 0xFFFFFF) << 8);
+      if (entry < 0) {
+        entry = -entry - 1; // the insertion point, before any entry with this color
+      }
+      if (entry < sortedEntries.length && sortedEntries[entry] >>> 8 == (rgb & 0xFFFFFF)) {
+        return (int) sortedEntries[entry] & 0xFF;
+      }
+    }
+    int index = cache[key];
+    if (index == UNCACHED) {
+      index = search(dequantize(key));
+      cache[key] = (short) index;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the named color that is perceptually closest to {@code rgb}. Only supported by
+   * 16-color palettes.
+   *
+   * @param rgb a color in the form {@code 0xRRGGBB}; any alpha component is ignored
+   * @return the closest named color
+   * @throws IllegalStateException if this is not a 16-color palette
+   */
+  public Color nearestColor(int rgb) {
+    checkState(colors.length == NAMED_COLORS.length,
+        "Only 16-color palettes contain named colors, this palette has %s", colors.length);
+    return NAMED_COLORS[nearestIndex(rgb)];
+  }
+
+  /** Returns the named color corresponding to a color index in the range [0, 15]. */
+  static Color namedColor(int index) {
+    return NAMED_COLORS[index];
+  }
+
+  /**
+   * Returns the named color that is perceptually closest to a color index, using xterm's default
+   * colors. Color indexes 0-15 are mapped to the corresponding named color.
+   */
+  static Color namedColorForIndex(int colorIndex) {
+    return NAMED_COLORS[INDEX_TO_16[colorIndex]];
+  }
+
+  private static int quantize(int rgb) {
+    return ((rgb >> 16 & 0xFF) >> QUANTIZED_SHIFT) << (QUANTIZED_BITS * 2)
+        | ((rgb >> 8 & 0xFF) >> QUANTIZED_SHIFT) << QUANTIZED_BITS
+        | (rgb & 0xFF) >> QUANTIZED_SHIFT;
+  }
+
+  /** Returns the color at the center of a quantized bucket. */
+  private static int dequantize(int key) {
+    int mask = (1 << QUANTIZED_BITS) - 1;
+    int half = 1 << (QUANTIZED_SHIFT - 1);
+    int r = (key >> (QUANTIZED_BITS * 2) & mask) << QUANTIZED_SHIFT | half;
+    int g = (key >> QUANTIZED_BITS & mask) << QUANTIZED_SHIFT | half;
+    int b = (key & mask) << QUANTIZED_SHIFT | half;
+    return r << 16 | g << 8 | b;
+  }
+
+  /** Linear search for the closest color; lowest index wins ties. */
+  private int search(int rgb) {
+    double[] lab = new double[3];
+    toOkLab(rgb, lab);
+    int best = 0;
+    double bestDistance = Double.MAX_VALUE;
+    for (int i = 0; i < colors.length; i++) {
+      double dl = labs[i * 3] - lab[0];
+      double da = labs[i * 3 + 1] - lab[1];
+      double db = labs[i * 3 + 2] - lab[2];
+      double distance = dl * dl + da * da + db * db;
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  /** Returns an sRGB component in linear light, in the range [0, 1]. */
+  static double toLinear(int component) {
+    return LINEAR[component];
+  }
+
+  /** Converts linear light components to an {@code 0xRRGGBB} color, clamping out-of-gamut ones. */
+  static int fromLinear(double r, double g, double b) {
+    return encode(r) << 16 | encode(g) << 8 | encode(b);
+  }
+
+  private static int encode(double linear) {
+    int step = (int) Math.round(linear * (ENCODE_STEPS - 1));
+    return ENCODE[Math.max(0, Math.min(ENCODE_STEPS - 1, step))] & 0xFF;
+  }
+
+  /** Converts an sRGB color to OKLab, writing L, a, and b into {@code lab}. */
+  static void toOkLab(int rgb, double[] lab) {
+    double r = LINEAR[rgb >> 16 & 0xFF];
+    double g = LINEAR[rgb >> 8 & 0xFF];
+    double b = LINEAR[rgb & 0xFF];
+
+    double l = Math.cbrt(0.4122214708 * r + 0.5363325363 * g + 0.0514459929 * b);
+    double m = Math.cbrt(0.2119034982 * r + 0.6806995451 * g + 0.1073969566 * b);
+    double s = Math.cbrt(0.0883024619 * r + 0.2817188376 * g + 0.6299787005 * b);
+
+    lab[0] = 0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s;
+    lab[1] = 1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s;
+    lab[2] = 0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s;
+  }
+
+  /** Converts OKLab coordinates to an {@code 0xRRGGBB} color, clamping out-of-gamut values. */
+  static int fromOkLab(double lightness, double a, double b) {
+    double l = lightness + 0.3963377774 * a + 0.2158037573 * b;
+    double m = lightness - 0.1055613458 * a - 0.0638541728 * b;
+    double s = lightness - 0.0894841775 * a - 1.2914855480 * b;
+    l = l * l * l;
+    m = m * m * m;
+    s = s * s * s;
+
+    return fromLinear(
+        4.0767416621 * l - 3.3077115913 * m + 0.2309699292 * s,
+        -1.2684380046 * l + 2.6097574011 * m - 0.3413193965 * s,
+        -0.0041960863 * l - 0.7034186147 * m + 1.7076147010 * s);
+  }
+}
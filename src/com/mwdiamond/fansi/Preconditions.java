@@ -0,0 +1,120 @@
+package com.mwdiamond.fansi;
+
+/**
+ * Argument and state checks, equivalent to the subset of Guava's
+ * {@code com.google.common.base.Preconditions} this library uses, so that the library has no
+ * runtime dependencies. Loading Guava's utilities initializes a surprising amount of the JDK
+ * (e.g. {@code java.util.logging}), which is a significant fraction of the startup time of a
+ * short-lived command line tool.
+ *
+ * <p>Like Guava, error messages are only formatted if a check fails, and only {@code %s}
+ * placeholders are supported; excess arguments are appended in square brackets. Overloads taking
+ * {@code long} arguments avoid boxing in the common case of reporting an invalid number.
+ */
+final class Preconditions {
+  private Preconditions() {}
+
+  static void checkArgument(boolean expression) {
+    if (!expression) {
+      throw new IllegalArgumentException();
+    }
+  }
+
+  static void checkArgument(boolean expression, Object errorMessage) {
+    if (!expression) {
+      throw new IllegalArgumentException(String.valueOf(errorMessage));
+    }
+  }
+
+  static void checkArgument(boolean expression, String template, long p1) {
+    if (!expression) {
+      throw new IllegalArgumentException(format(template, p1));
+    }
+  }
+
+  static void checkArgument(boolean expression, String template, long p1, long p2) {
+    if (!expression) {
+      throw new IllegalArgumentException(format(template, p1, p2));
+    }
+  }
+
+  static void checkArgument(boolean expression, String template, Object... args) {
+    if (!expression) {
+      throw new IllegalArgumentException(format(template, args));
+    }
+  }
+
+  static void checkState(boolean expression) {
+    if (!expression) {
+      throw new IllegalStateException();
+    }
+  }
+
+  static void checkState(boolean expression, Object errorMessage) {
+    if (!expression) {
+      throw new IllegalStateException(String.valueOf(errorMessage));
+    }
+  }
+
+  static void checkState(boolean expression, String template, Object... args) {
+    if (!expression) {
+      throw new IllegalStateException(format(template, args));
+    }
+  }
+
+  static <T> T checkNotNull(T reference) {
+    if (reference == null) {
+      throw new NullPointerException();
+    }
+    return reference;
+  }
+
+  static <T> T checkNotNull(T reference, Object errorMessage) {
+    if (reference == null) {
+      throw new NullPointerException(String.valueOf(errorMessage));
+    }
+    return reference;
+  }
+
+  static int checkElementIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(index < 0
+          ? format("index (%s) must not be negative", index)
+          : format("index (%s) must be less than size (%s)", index, size));
+    }
+    return index;
+  }
+
+  static void checkPositionIndexes(int start, int end, int size) {
+    if (start < 0 || end < start || end > size) {
+      throw new IndexOutOfBoundsException(
+          format("range [%s, %s) is not within [0, %s)", start, end, size));
+    }
+  }
+
+  /** Substitutes each {@code %s} in {@code template} with the next argument. */
+  static String format(String template, Object... args) {
+    template = String.valueOf(template);
+    StringBuilder builder = new StringBuilder(template.length() + 16 * args.length);
+    int templateStart = 0;
+    int i = 0;
+    while (i < args.length) {
+      int placeholderStart = template.indexOf("%s", templateStart);
+      if (placeholderStart == -1) {
+        break;
+      }
+      builder.append(template, templateStart, placeholderStart).append(args[i++]);
+      templateStart = placeholderStart + 2;
+    }
+    builder.append(template, templateStart, template.length());
+
+    if (i < args.length) {
+      builder.append(" [").append(args[i++]);
+      while (i < args.length) {
+        builder.append(", ").append(args[i++]);
+      }
+      builder.append(']');
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,237 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import com.mwdiamond.fansi.AnsiUtils.ProgressBar;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stream and channel wrappers that report the number of bytes transferred to a
+ * {@link ProgressBar}. See the {@code AnsiUtils.track*()} factories.
+ *
+ * <p>Rendering a progress bar is far more expensive than a typical read or write, so the wrappers
+ * only count bytes locally and update the bar once enough bytes have been transferred to visibly
+ * move it (roughly {@value ByteCounter#RESOLUTION} times over the course of a transfer). The
+ * per-call overhead is a single addition and comparison.
+ */
+final class ProgressStreams {
+  private ProgressStreams() {}
+
+  /** Counts transferred bytes and maps them onto a {@link ProgressBar}'s steps. */
+  static final class ByteCounter {
+    static final int RESOLUTION = 1000;
+
+    private final ProgressBar progressBar;
+    private final long totalBytes;
+    private final long granularity;
+    private long bytes;
+    private long nextUpdate;
+
+    ByteCounter(ProgressBar progressBar, long totalBytes) {
+      checkArgument(totalBytes >= 0, "Invalid totalBytes: %s", totalBytes);
+      this.progressBar = checkNotNull(progressBar);
+      this.totalBytes = totalBytes;
+      granularity = Math.max(1, totalBytes / RESOLUTION);
+      nextUpdate = 0;
+    }
+
+    long granularity() {
+      return granularity;
+    }
+
+    void add(long count) {
+      bytes += count;
+      if (bytes >= nextUpdate) {
+        publish();
+      }
+    }
+
+    /** Updates the progress bar with the current byte count, regardless of the granularity. */
+    void publish() {
+      long total = Math.max(bytes, totalBytes);
+      if (total == 0) {
+        return; // nothing to show yet
+      }
+      progressBar.updateScaledSteps(bytes, total);
+      nextUpdate = bytes + granularity;
+    }
+  }
+
+  static final class ProgressInputStream extends FilterInputStream {
+    private final ByteCounter counter;
+
+    ProgressInputStream(InputStream in, ByteCounter counter) {
+      super(checkNotNull(in));
+      this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b < 0) {
+        counter.publish();
+      } else {
+        counter.add(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read < 0) {
+        counter.publish();
+      } else {
+        counter.add(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      counter.add(skipped);
+      return skipped;
+    }
+
+    // Rewinding would cause bytes to be double-counted
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {}
+
+    @Override
+    public void reset() throws IOException {
+      throw new IOException("mark/reset not supported");
+    }
+  }
+
+  static final class ProgressOutputStream extends FilterOutputStream {
+    private final ByteCounter counter;
+
+    ProgressOutputStream(OutputStream out, ByteCounter counter) {
+      super(checkNotNull(out));
+      this.counter = counter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      counter.add(1);
+    }
+
+    // FilterOutputStream's implementation writes one byte at a time
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      counter.add(len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      super.flush();
+      counter.publish();
+    }
+  }
+
+  static final class ProgressReadableChannel implements ReadableByteChannel {
+    private final ReadableByteChannel channel;
+    private final ByteCounter counter;
+
+    ProgressReadableChannel(ReadableByteChannel channel, ByteCounter counter) {
+      this.channel = checkNotNull(channel);
+      this.counter = counter;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int read = channel.read(dst);
+      if (read < 0) {
+        counter.publish();
+      } else {
+        counter.add(read);
+      }
+      return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  static final class ProgressWritableChannel implements WritableByteChannel {
+    private final WritableByteChannel channel;
+    private final ByteCounter counter;
+
+    ProgressWritableChannel(WritableByteChannel channel, ByteCounter counter) {
+      this.channel = checkNotNull(channel);
+      this.counter = counter;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int written = channel.write(src);
+      counter.add(written);
+      return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      counter.publish();
+      channel.close();
+    }
+  }
+
+  /** The minimum number of bytes handed to each {@link FileChannel#transferTo} call. */
+  private static final long MIN_TRANSFER_CHUNK = 1 << 20;
+
+  /**
+   * Copies the remainder of {@code source}, starting at its current position, to {@code target}
+   * via {@link FileChannel#transferTo}, so the OS can avoid copying through the JVM's heap. The
+   * transfer is split into chunks in order to update the progress bar between them.
+   */
+  static long transfer(FileChannel source, WritableByteChannel target, ProgressBar progressBar)
+      throws IOException {
+    checkNotNull(target);
+    long start = source.position();
+    long end = source.size();
+    ByteCounter counter = new ByteCounter(progressBar, end - start);
+    long chunk = Math.max(MIN_TRANSFER_CHUNK, counter.granularity());
+
+    long position = start;
+    while (position < end) {
+      long transferred = source.transferTo(position, Math.min(chunk, end - position), target);
+      if (transferred <= 0) {
+        break; // source was truncated, or target can't accept any more bytes
+      }
+      position += transferred;
+      counter.add(transferred);
+    }
+    counter.publish();
+    source.position(position);
+    return position - start;
+  }
+}
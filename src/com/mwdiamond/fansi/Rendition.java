@@ -0,0 +1,404 @@
+package com.mwdiamond.fansi;
+
+/**
+ * The attributes set by SGR sequences, as tracked by {@link SgrOptimizer} and
+ * {@link HtmlConverter}. Colors are encoded as -1 for the default color, the SGR code of a named
+ * color, or an index or RGB color tagged with {@link #INDEX} or {@link #RGB}.
+ *
+ * <p>A rendition can also be the <i>change</i> made by a run of sequences whose starting rendition
+ * isn't known yet: after {@link #clearDefined}, only the attributes the sequences set are
+ * {@linkplain #defined defined}, and {@link #applyTo} later applies them to the actual starting
+ * rendition. This lets a long run of output be split up and examined in parallel.
+ */
+final class Rendition {
+  static final Rendition DEFAULT = new Rendition();
+
+  /** SGR sequences with more parameters than this aren't examined. */
+  static final int MAX_PARAMS = 32;
+
+  static final int BOLD = 1;
+  static final int DIM = 1 << 1;
+  static final int ITALIC = 1 << 2;
+  static final int UNDERLINE = 1 << 3;
+  static final int REVERSE = 1 << 4;
+  static final int CONCEAL = 1 << 5;
+  static final int STRIKETHROUGH = 1 << 6;
+  static final int OVERLINE = 1 << 7;
+
+  // Bits of defined, after those of the flags
+  private static final int FLAGS = (1 << 8) - 1;
+  private static final int BLINK_DEFINED = 1 << 8;
+  private static final int FRAME_DEFINED = 1 << 9;
+  private static final int FONT_DEFINED = 1 << 10;
+  private static final int COLOR_DEFINED = 1 << 11;
+  private static final int BACKGROUND_DEFINED = 1 << 12;
+  private static final int ALL_DEFINED = (1 << 13) - 1;
+  /** Set if italics were turned off but the font isn't defined, which also ends Fraktur. */
+  private static final int ENDS_FRAKTUR = 1 << 13;
+
+  static final int DEFAULT_COLOR = -1;
+  static final int INDEX = 0x1000000;
+  static final int RGB = 0x2000000;
+  static final int DEFAULT_FONT = 10;
+  static final int FRAKTUR = 20;
+
+  /** False if SGR sequences the optimizer doesn't understand have been written. */
+  boolean known = true;
+  /** The attributes that have been set, if this is a change; all of them otherwise. */
+  int defined = ALL_DEFINED;
+  int flags;
+  int blink;
+  int frame;
+  int font = DEFAULT_FONT;
+  int color = DEFAULT_COLOR;
+  int background = DEFAULT_COLOR;
+
+  void reset() {
+    known = true;
+    defined = ALL_DEFINED;
+    flags = 0;
+    blink = 0;
+    frame = 0;
+    font = DEFAULT_FONT;
+    color = DEFAULT_COLOR;
+    background = DEFAULT_COLOR;
+  }
+
+  void setUnknown() {
+    reset();
+    known = false;
+  }
+
+  /** Makes this an empty change, that leaves any rendition it's applied to as-is. */
+  void clearDefined() {
+    reset();
+    defined = 0;
+  }
+
+  void copyFrom(Rendition other) {
+    known = other.known;
+    defined = other.defined;
+    flags = other.flags;
+    blink = other.blink;
+    frame = other.frame;
+    font = other.font;
+    color = other.color;
+    background = other.background;
+  }
+
+  /** Applies the attributes this change defines to {@code target}. */
+  void applyTo(Rendition target) {
+    target.flags = target.flags & ~(defined & FLAGS) | flags;
+    if ((defined & BLINK_DEFINED) != 0) {
+      target.blink = blink;
+    }
+    if ((defined & FRAME_DEFINED) != 0) {
+      target.frame = frame;
+    }
+    if ((defined & FONT_DEFINED) != 0) {
+      target.font = font;
+    } else if ((defined & ENDS_FRAKTUR) != 0 && target.font == FRAKTUR) {
+      target.font = DEFAULT_FONT;
+    }
+    if ((defined & COLOR_DEFINED) != 0) {
+      target.color = color;
+    }
+    if ((defined & BACKGROUND_DEFINED) != 0) {
+      target.background = background;
+    }
+  }
+
+  boolean isDefault() {
+    return equals(DEFAULT);
+  }
+
+  /**
+   * Applies SGR parameters to this rendition, returning false if any aren't recognized. Unknown
+   * parameters are skipped, except for malformed extended colors, after which the remaining
+   * parameters can't be interpreted and are ignored.
+   */
+  boolean apply(int[] params, int count) {
+    if (count == 0) {
+      reset();
+      return true;
+    }
+    boolean recognized = true;
+    for (int i = 0; i < count; i++) {
+      int p = params[i];
+      if (p >= 30 && p <= 37 || p >= 90 && p <= 97) {
+        color = p;
+        defined |= COLOR_DEFINED;
+      } else if (p >= 40 && p <= 47 || p >= 100 && p <= 107) {
+        background = p;
+        defined |= BACKGROUND_DEFINED;
+      } else if (p >= 10 && p <= 20) {
+        font = p;
+        defined |= FONT_DEFINED;
+      } else if (p == 38 || p == 48) {
+        int extended = parseExtended(params, i + 1, count);
+        if (extended == DEFAULT_COLOR) {
+          return false;
+        }
+        if (p == 38) {
+          color = extended;
+          defined |= COLOR_DEFINED;
+        } else {
+          background = extended;
+          defined |= BACKGROUND_DEFINED;
+        }
+        i += (extended & RGB) != 0 ? 4 : 2;
+      } else if (!applyAttribute(p)) {
+        recognized = false;
+      }
+    }
+    return recognized;
+  }
+
+  /** Parses the rest of a 38 or 48 parameter, returning {@link #DEFAULT_COLOR} if invalid. */
+  private static int parseExtended(int[] params, int start, int count) {
+    if (start < count && params[start] == 5 && start + 1 < count && params[start + 1] <= 255) {
+      return INDEX | params[start + 1];
+    }
+    if (start < count && params[start] == 2 && start + 3 < count) {
+      int red = params[start + 1];
+      int green = params[start + 2];
+      int blue = params[start + 3];
+      if (red <= 255 && green <= 255 && blue <= 255) {
+        return RGB | red << 16 | green << 8 | blue;
+      }
+    }
+    return DEFAULT_COLOR;
+  }
+
+  private boolean applyAttribute(int p) {
+    switch (p) {
+      case 0:
+        reset();
+        return true;
+      case 1:
+        setFlag(BOLD);
+        return true;
+      case 2:
+        setFlag(DIM);
+        return true;
+      case 3:
+        setFlag(ITALIC);
+        return true;
+      case 4:
+        setFlag(UNDERLINE);
+        return true;
+      case 5:
+      case 6:
+        blink = p;
+        defined |= BLINK_DEFINED;
+        return true;
+      case 7:
+        setFlag(REVERSE);
+        return true;
+      case 8:
+        setFlag(CONCEAL);
+        return true;
+      case 9:
+        setFlag(STRIKETHROUGH);
+        return true;
+      case 22:
+        clearFlag(BOLD | DIM);
+        return true;
+      case 23:
+        // Also ends Fraktur, per ECMA-48
+        clearFlag(ITALIC);
+        if ((defined & FONT_DEFINED) == 0) {
+          defined |= ENDS_FRAKTUR;
+        } else if (font == FRAKTUR) {
+          font = DEFAULT_FONT;
+        }
+        return true;
+      case 24:
+        clearFlag(UNDERLINE);
+        return true;
+      case 25:
+        blink = 0;
+        defined |= BLINK_DEFINED;
+        return true;
+      case 27:
+        clearFlag(REVERSE);
+        return true;
+      case 28:
+        clearFlag(CONCEAL);
+        return true;
+      case 29:
+        clearFlag(STRIKETHROUGH);
+        return true;
+      case 39:
+        color = DEFAULT_COLOR;
+        defined |= COLOR_DEFINED;
+        return true;
+      case 49:
+        background = DEFAULT_COLOR;
+        defined |= BACKGROUND_DEFINED;
+        return true;
+      case 51:
+      case 52:
+        frame = p;
+        defined |= FRAME_DEFINED;
+        return true;
+      case 53:
+        setFlag(OVERLINE);
+        return true;
+      case 54:
+        frame = 0;
+        defined |= FRAME_DEFINED;
+        return true;
+      case 55:
+        clearFlag(OVERLINE);
+        return true;
+      default:
+        // e.g. 21, which is double underline in some terminals and "not bold" in others
+        return false;
+    }
+  }
+
+  private void setFlag(int flag) {
+    flags |= flag;
+    defined |= flag;
+  }
+
+  private void clearFlag(int flag) {
+    flags &= ~flag;
+    defined |= flag;
+  }
+
+  /** Appends the parameters that change {@code from} into this rendition. */
+  void appendChanges(Rendition from, StringBuilder out) {
+    int removed = from.flags & ~flags;
+    int added = flags & ~from.flags;
+    if ((removed & (BOLD | DIM)) != 0) {
+      append(out, 22);
+      added |= flags & (BOLD | DIM);
+    }
+    appendIf(out, added, BOLD, 1);
+    appendIf(out, added, DIM, 2);
+    int fontAfter = from.font;
+    if ((removed & ITALIC) != 0) {
+      append(out, 23);
+      if (fontAfter == FRAKTUR) {
+        fontAfter = DEFAULT_FONT;
+      }
+    }
+    appendIf(out, added, ITALIC, 3);
+    appendIf(out, added, UNDERLINE, 4);
+    appendIf(out, removed, UNDERLINE, 24);
+    if (blink != from.blink) {
+      append(out, blink == 0 ? 25 : blink);
+    }
+    appendIf(out, added, REVERSE, 7);
+    appendIf(out, removed, REVERSE, 27);
+    appendIf(out, added, CONCEAL, 8);
+    appendIf(out, removed, CONCEAL, 28);
+    appendIf(out, added, STRIKETHROUGH, 9);
+    appendIf(out, removed, STRIKETHROUGH, 29);
+    if (font != fontAfter) {
+      append(out, font);
+    }
+    if (frame != from.frame) {
+      append(out, frame == 0 ? 54 : frame);
+    }
+    appendIf(out, added, OVERLINE, 53);
+    appendIf(out, removed, OVERLINE, 55);
+    if (color != from.color) {
+      appendColor(out, color, 39, 38);
+    }
+    if (background != from.background) {
+      appendColor(out, background, 49, 48);
+    }
+  }
+
+  private static void appendIf(StringBuilder out, int flags, int flag, int code) {
+    if ((flags & flag) != 0) {
+      append(out, code);
+    }
+  }
+
+  private static void appendColor(StringBuilder out, int color, int reset, int extended) {
+    if (color == DEFAULT_COLOR) {
+      append(out, reset);
+    } else if ((color & INDEX) != 0) {
+      append(out, extended);
+      out.append(";5;").append(color & 0xFF);
+    } else if ((color & RGB) != 0) {
+      append(out, extended);
+      out.append(";2;").append(color >> 16 & 0xFF).append(';').append(color >> 8 & 0xFF)
+          .append(';').append(color & 0xFF);
+    } else {
+      append(out, color);
+    }
+  }
+
+  private static void append(StringBuilder out, int code) {
+    if (out.length() > 0) {
+      out.append(';');
+    }
+    out.append(code);
+  }
+
+  /**
+   * Returns true if the parameters of a CSI sequence ending in {@code m} have no private marker or
+   * intermediate characters, i.e. it's an SGR sequence.
+   */
+  static boolean isSgr(byte[] sequence, int length) {
+    for (int i = 0; i < length; i++) {
+      byte c = sequence[i];
+      if (c < '0' || c > ';') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the parameters of an SGR sequence, returning how many there are, or -1 if there are
+   * too many or they aren't just digits and semicolons (e.g. colon-separated sub-parameters).
+   */
+  static int parseParams(byte[] sequence, int length, int[] params) {
+    if (length == 0) {
+      return 0;
+    }
+    int count = 0;
+    int value = 0;
+    for (int i = 0; i < length; i++) {
+      byte c = sequence[i];
+      if (c == ';') {
+        if (count == MAX_PARAMS) {
+          return -1;
+        }
+        params[count++] = value;
+        value = 0;
+      } else if (c >= '0' && c <= '9') {
+        value = Math.min(value * 10 + (c - '0'), 1000);
+      } else {
+        return -1;
+      }
+    }
+    if (count == MAX_PARAMS) {
+      return -1;
+    }
+    params[count++] = value;
+    return count;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Rendition)) {
+      return false;
+    }
+    Rendition that = (Rendition) o;
+    return known == that.known && defined == that.defined && flags == that.flags
+        && blink == that.blink && frame == that.frame && font == that.font
+        && color == that.color && background == that.background;
+  }
+
+  @Override
+  public int hashCode() {
+    return ((((flags * 31 + blink) * 31 + frame) * 31 + font) * 31 + color) * 31 + background;
+  }
+}
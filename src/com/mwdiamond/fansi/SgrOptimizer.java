@@ -0,0 +1,297 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+import static com.mwdiamond.fansi.Preconditions.checkPositionIndexes;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@code OutputStream} that removes redundant SGR (color and style) sequences from the ANSI
+ * output written to it, without changing how it's rendered. Obtain an instance via
+ * {@link AnsiUtils#optimizeSgr(OutputStream)}, or optimize the output of every {@link Ansi} from a
+ * factory with {@link AnsiUtils#optimizeSgr(AnsiFactory)}.
+ *
+ * <p>SGR sequences aren't written as they arrive. Instead the optimizer tracks the rendition they
+ * ask for, and just before anything else is written (text, a control character, or another escape
+ * sequence) writes the shortest sequence that changes the rendition last written to the one now
+ * in effect; either the individual changes, or a reset followed by every attribute. This removes,
+ * for example:
+ *
+ * <ul>
+ *   <li>a reset followed by new colors, which are merged into one sequence</li>
+ *   <li>repeated or overridden sequences, e.g. a color that's changed before any text is written
+ *   </li>
+ *   <li>resets of attributes that were never set, such as {@link Ansi.Font#DEFAULT} after a color
+ *   </li>
+ * </ul>
+ *
+ * <p>Pending changes are written when the stream is {@linkplain #flush flushed}, so other output
+ * to the same terminal (e.g. a shell prompt) isn't affected by them; flush before writing to the
+ * terminal some other way. Sequences with parameters the optimizer doesn't recognize, such as
+ * colon-separated sub-parameters, are passed through unchanged.
+ *
+ * <p>The bytes written must be in an ASCII-compatible encoding such as UTF-8. Sequences may be
+ * split across writes. Like other streams, this class is not thread-safe.
+ */
+public final class SgrOptimizer extends FilterOutputStream {
+  /** CSI sequences longer than this are passed through without being examined. */
+  private static final int MAX_SEQUENCE = 64;
+  private static final byte ESC = 0x1B;
+
+  // States
+  private static final int TEXT = 0;
+  private static final int ESCAPE = 1;
+  private static final int CSI = 2;
+  /** A CSI sequence that's being passed through. */
+  private static final int CSI_PASS = 3;
+
+  private final byte[] sequence = new byte[MAX_SEQUENCE];
+  private final int[] params = new int[Rendition.MAX_PARAMS];
+  private final Rendition emitted = new Rendition();
+  private final Rendition desired = new Rendition();
+  private final Rendition scratch = new Rendition();
+  private final StringBuilder diff = new StringBuilder();
+  private final byte[] single = new byte[1];
+  private byte[] encoded = new byte[MAX_SEQUENCE + 3];
+  private int sequenceLength;
+  private int state = TEXT;
+  private long bytesIn;
+  private long bytesOut;
+
+  SgrOptimizer(OutputStream out) {
+    super(checkNotNull(out));
+  }
+
+  /** Returns the number of bytes written to this stream. */
+  public long bytesIn() {
+    return bytesIn;
+  }
+
+  /** Returns the number of bytes this stream has written to the underlying stream. */
+  public long bytesOut() {
+    return bytesOut;
+  }
+
+  /**
+   * Returns the number of bytes removed by this stream. Pending changes not yet written are
+   * counted as saved until they are.
+   */
+  public long bytesSaved() {
+    return bytesIn - bytesOut;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    bytesIn += length;
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      switch (state) {
+        case TEXT: {
+          int escape = EscapeStripper.indexOfEscape(bytes, i, end);
+          if (escape > i) {
+            sync();
+            writeOut(bytes, i, escape - i);
+          }
+          if (escape < end) {
+            state = ESCAPE;
+            escape++;
+          }
+          i = escape;
+          break;
+        }
+        case ESCAPE:
+          if (bytes[i] == '[') {
+            sequenceLength = 0;
+            state = CSI;
+            i++;
+          } else {
+            // Some other sequence or string, which can't contain an SGR; pass it through as text
+            sync();
+            writeOut(ESC);
+            state = TEXT;
+          }
+          break;
+        case CSI: {
+          int c = bytes[i] & 0xFF;
+          if (c >= 0x40 && c < 0x7F) {
+            finishCsi(c);
+            state = TEXT;
+            i++;
+          } else if (c >= 0x20 && c < 0x40 && sequenceLength < MAX_SEQUENCE) {
+            sequence[sequenceLength++] = (byte) c;
+            i++;
+          } else {
+            // A control character, overlong or malformed sequence; pass it through as-is
+            sync();
+            writeOut(ESC);
+            writeOut('[');
+            writeOut(sequence, 0, sequenceLength);
+            state = CSI_PASS;
+          }
+          break;
+        }
+        case CSI_PASS: {
+          int start = i;
+          while (i < end && bytes[i] != ESC) {
+            int c = bytes[i++] & 0xFF;
+            if (c >= 0x40 && c < 0x7F) {
+              state = TEXT;
+              break;
+            }
+          }
+          if (i < end && bytes[i] == ESC) {
+            state = TEXT;
+          }
+          writeOut(bytes, start, i - start);
+          break;
+        }
+        default:
+          throw new AssertionError(state);
+      }
+    }
+  }
+
+  /** Writes any pending change in rendition, and flushes the underlying stream. */
+  @Override
+  public void flush() throws IOException {
+    sync();
+    out.flush();
+  }
+
+  private void writeOut(int b) throws IOException {
+    out.write(b);
+    bytesOut++;
+  }
+
+  private void writeOut(byte[] bytes, int offset, int length) throws IOException {
+    out.write(bytes, offset, length);
+    bytesOut += length;
+  }
+
+  private void writeSequence(int finalChar) throws IOException {
+    if (encoded.length < sequenceLength + 3) {
+      encoded = new byte[sequenceLength + 3];
+    }
+    encoded[0] = ESC;
+    encoded[1] = '[';
+    System.arraycopy(sequence, 0, encoded, 2, sequenceLength);
+    encoded[sequenceLength + 2] = (byte) finalChar;
+    writeOut(encoded, 0, sequenceLength + 3);
+  }
+
+  private void finishCsi(int finalChar) throws IOException {
+    if (finalChar == 'm' && Rendition.isSgr(sequence, sequenceLength)) {
+      int count = Rendition.parseParams(sequence, sequenceLength, params);
+      if (count >= 0) {
+        scratch.copyFrom(desired);
+        if (scratch.apply(params, count) && scratch.known) {
+          desired.copyFrom(scratch); // written lazily, by sync()
+          return;
+        }
+      }
+      // Pass sequences we can't model through unchanged; the rendition is then unknown until
+      // the next reset
+      sync();
+      writeSequence(finalChar);
+      emitted.setUnknown();
+      desired.setUnknown();
+      return;
+    }
+    sync();
+    writeSequence(finalChar);
+  }
+
+  /** Writes the shortest sequence that changes the emitted rendition to the desired one. */
+  private void sync() throws IOException {
+    if (desired.equals(emitted)) {
+      return;
+    }
+    diff.setLength(0);
+    // An empty sequence is a reset, which is always shortest if that's all that's needed
+    if (!desired.isDefault()) {
+      if (emitted.known) {
+        desired.appendChanges(emitted, diff);
+      }
+      int changes = diff.length();
+      // Compare to a reset followed by every attribute
+      diff.append('0');
+      desired.appendChanges(Rendition.DEFAULT, diff);
+      int reset = diff.length() - changes;
+      if (emitted.known && changes <= reset) {
+        diff.setLength(changes);
+      } else {
+        diff.delete(0, changes);
+      }
+    }
+    int length = diff.length() + 3;
+    if (encoded.length < length) {
+      encoded = new byte[length];
+    }
+    encoded[0] = ESC;
+    encoded[1] = '[';
+    for (int i = 0; i < diff.length(); i++) {
+      encoded[i + 2] = (byte) diff.charAt(i);
+    }
+    encoded[length - 1] = 'm';
+    writeOut(encoded, 0, length);
+    emitted.copyFrom(desired);
+  }
+
+  /**
+   * An {@link AnsiFactory} whose {@code Ansi} instances write through an {@link SgrOptimizer}.
+   * Instances writing to the same stream share an optimizer. Since {@code Ansi} flushes its
+   * streams after each call, codes are removed within the output of each call, which is where
+   * applications that write heavily styled text (e.g. with many {@code color()} calls, or
+   * {@link AnsiUtils#gradient gradients}) repeat themselves.
+   */
+  public static final class Factory implements AnsiFactory {
+    private final AnsiFactory delegate;
+    private final Map<PrintStream, PrintStream> streams = new IdentityHashMap<>();
+    private final List<SgrOptimizer> optimizers = new ArrayList<>();
+
+    Factory(AnsiFactory delegate) {
+      this.delegate = checkNotNull(delegate);
+    }
+
+    @Override
+    public Ansi ansi() {
+      Ansi ansi = delegate.ansi();
+      return ansi.withStreams(optimized(ansi.stdout()), optimized(ansi.stderr()));
+    }
+
+    private synchronized PrintStream optimized(PrintStream stream) {
+      PrintStream optimized = streams.get(stream);
+      if (optimized == null) {
+        SgrOptimizer optimizer = new SgrOptimizer(stream);
+        optimizers.add(optimizer);
+        optimized = new PrintStream(optimizer, true);
+        streams.put(stream, optimized);
+      }
+      return optimized;
+    }
+
+    /** Returns the number of bytes removed from the output of this factory's instances. */
+    public synchronized long bytesSaved() {
+      long saved = 0;
+      for (SgrOptimizer optimizer : optimizers) {
+        saved += optimizer.bytesSaved();
+      }
+      return saved;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.mwdiamond.fansi;
+
+/**
+ * String utilities, equivalent to the few methods of Guava's {@code Strings} and {@code Ints} this
+ * library uses. See {@link Preconditions} for why the library doesn't use Guava directly.
+ */
+final class StringUtils {
+  private StringUtils() {}
+
+  static boolean isNullOrEmpty(String string) {
+    return string == null || string.isEmpty();
+  }
+
+  static String nullToEmpty(String string) {
+    return string == null ? "" : string;
+  }
+
+  /** Returns {@code string} repeated {@code count} times; {@code count} may be zero. */
+  static String repeat(String string, int count) {
+    Preconditions.checkArgument(count >= 0, "Invalid count: %s", count);
+    StringBuilder builder = new StringBuilder(string.length() * count);
+    for (int i = 0; i < count; i++) {
+      builder.append(string);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Parses a decimal integer, optionally preceded by a {@code -}, returning null rather than
+   * throwing if it's invalid or out of range.
+   */
+  static Integer tryParseInt(String string) {
+    if (string.isEmpty() || string.length() > 11) {
+      return null;
+    }
+    boolean negative = string.charAt(0) == '-';
+    int start = negative ? 1 : 0;
+    if (start == string.length()) {
+      return null;
+    }
+    long value = 0;
+    for (int i = start; i < string.length(); i++) {
+      int digit = string.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return null;
+      }
+      value = value * 10 + digit;
+    }
+    value = negative ? -value : value;
+    return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? null : (int) value;
+  }
+}
@@ -0,0 +1,291 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Renders output encoded by a {@link StyledOutputWriter}, e.g. in a worker process, onto an
+ * {@link Ansi} instance, with the codes that instance uses. Obtain an instance via
+ * {@link AnsiUtils#styledOutputReader}.
+ *
+ * <p>Output is decoded directly from the buffer it's read into, and each of the writer's writes is
+ * rendered and written in one piece, so output read from several workers can be interleaved
+ * safely as it arrives. Decoding doesn't parse escape codes, so the parent can render its
+ * workers' output to a different destination than a terminal, such as HTML.
+ *
+ * <p>A reader decodes one stream, and isn't thread-safe; use a reader per stream.
+ */
+public final class StyledOutputReader {
+  private static final int BUFFER_SIZE = 8192;
+  /** The longest record accepted, which is far longer than any reasonable write. */
+  private static final int MAX_RECORD = 64 * 1024 * 1024;
+
+  private static final Ansi.Color[] COLORS = Ansi.Color.values();
+  private static final int FONTS = Ansi.Font.values().length;
+  private static final int STYLES = Ansi.Style.values().length;
+
+  private boolean headerRead;
+  private final StringBuilder out = new StringBuilder();
+  private final StringBuilder text = new StringBuilder();
+  private int[] op = new int[8];
+  private int position;
+
+  StyledOutputReader() {}
+
+  /**
+   * Reads a stream until it ends, rendering its output onto {@code ansi} as it's read.
+   *
+   * @param input the stream to read, which is not closed
+   * @param ansi the instance to write output to
+   * @throws IOException if the stream can't be read, or its contents weren't written by a
+   *     {@code StyledOutputWriter}
+   */
+  public void render(InputStream input, Ansi ansi) throws IOException {
+    checkNotNull(ansi);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    int read;
+    while ((read = input.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+      buffer.position(buffer.position() + read);
+      buffer.flip();
+      render(buffer, ansi);
+      ansi.flush();
+      buffer.compact();
+      if (!buffer.hasRemaining()) {
+        if (buffer.capacity() >= MAX_RECORD) {
+          throw new IOException("Record too long");
+        }
+        int position = buffer.position();
+        buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.capacity() * 2));
+        buffer.position(position);
+      }
+    }
+    if (buffer.position() > 0) {
+      throw new IOException("Truncated output");
+    }
+  }
+
+  /**
+   * Renders each complete write in {@code input} onto {@code ansi}, leaving any incomplete write
+   * at the end of the buffer to be rendered once the rest of it has been read. The buffer's
+   * position is advanced past the writes that were rendered.
+   *
+   * @param input the output to render
+   * @param ansi the instance to write output to
+   * @throws IOException if the output wasn't written by a {@code StyledOutputWriter}
+   */
+  public void render(ByteBuffer input, Ansi ansi) throws IOException {
+    checkNotNull(ansi);
+    if (!headerRead) {
+      if (input.remaining() < StyledOutputWriter.HEADER.length) {
+        return;
+      }
+      for (byte b : StyledOutputWriter.HEADER) {
+        if (input.get() != b) {
+          throw new IOException("Not written by a StyledOutputWriter");
+        }
+      }
+      headerRead = true;
+    }
+    while (input.hasRemaining()) {
+      position = input.position();
+      long header = varint(input, input.limit());
+      if (header < 0) {
+        return; // the length is incomplete
+      }
+      long length = header >>> StyledOutputWriter.FLAG_BITS;
+      if (length > MAX_RECORD) {
+        throw new IOException("Invalid record length: " + length);
+      } else if (input.limit() - position < length) {
+        return;
+      }
+      renderRecord(input, position + (int) length,
+          (int) header & (1 << StyledOutputWriter.FLAG_BITS) - 1, ansi);
+      input.position(position);
+    }
+  }
+
+  private void renderRecord(ByteBuffer input, int end, int flags, Ansi ansi) throws IOException {
+    boolean stderr = (flags & StyledOutputWriter.STDERR) != 0;
+    Codes codes = stderr ? ansi.stderrCodes() : ansi.codes();
+    out.setLength(0);
+    text.setLength(0);
+    while (position < end) {
+      int opcode = input.get(position++) & 0xFF;
+      int count;
+      int bytes = -1;
+      int named = -1;
+      if (opcode >= StyledOutputWriter.SHORT_TEXT) {
+        bytes = opcode & ~StyledOutputWriter.SHORT_TEXT;
+        opcode = DisplayList.TEXT;
+      } else if (opcode >= StyledOutputWriter.NAMED_FOREGROUND) {
+        named = opcode - StyledOutputWriter.NAMED_FOREGROUND;
+        opcode = StyledOutputWriter.NAMED_FOREGROUND;
+      }
+      switch (opcode) {
+        case StyledOutputWriter.NAMED_FOREGROUND:
+        case StyledOutputWriter.FOREGROUND:
+          if (named >= COLORS.length) {
+            throw new IOException("Invalid color: " + named);
+          }
+          count = 3;
+          op[1] = named >= 0
+              ? Codes.ColorType.packNamed(COLORS[named])
+              : StyledOutputWriter.packedColor(checkedVarint(input, end));
+          op[2] = StyledOutputWriter.DEFAULT_COLOR;
+          op[3] = StyledOutputWriter.DEFAULT_FONT;
+          opcode = DisplayList.COLOR;
+          break;
+        case StyledOutputWriter.SET_FOREGROUND:
+          count = 2;
+          op[1] = StyledOutputWriter.packedColor(checkedVarint(input, end));
+          op[2] = Codes.ColorType.UNCHANGED;
+          opcode = DisplayList.SET_COLORS;
+          break;
+        case DisplayList.TEXT:
+        case DisplayList.RENDERED:
+        case DisplayList.TITLE:
+        case DisplayList.PROMPT_QUOTE:
+          count = 2;
+          op[1] = text.length();
+          if (bytes < 0) {
+            bytes = checkedVarint(input, end);
+          }
+          decodeUtf8(input, position + bytes, end);
+          op[2] = text.length();
+          break;
+        case DisplayList.COLOR:
+          int fields = checkedVarint(input, end);
+          op[1] = (fields & StyledOutputWriter.COLOR_FIELD) != 0
+              ? StyledOutputWriter.packedColor(checkedVarint(input, end))
+              : StyledOutputWriter.DEFAULT_COLOR;
+          op[2] = (fields & StyledOutputWriter.BACKGROUND_FIELD) != 0
+              ? StyledOutputWriter.packedColor(checkedVarint(input, end))
+              : StyledOutputWriter.DEFAULT_COLOR;
+          op[3] = (fields & StyledOutputWriter.FONT_FIELD) != 0
+              ? checkedVarint(input, end)
+              : StyledOutputWriter.DEFAULT_FONT;
+          int styles = fields >>> 3;
+          if (op[3] < 0 || op[3] >= FONTS || styles < 0 || styles > STYLES * 4) {
+            throw new IOException("Invalid color");
+          }
+          count = 3 + styles;
+          if (count >= op.length) {
+            op = Arrays.copyOf(op, count + 1);
+          }
+          for (int i = 4; i <= count; i++) {
+            op[i] = checkedVarint(input, end);
+            if (op[i] < 0 || op[i] >= STYLES) {
+              throw new IOException("Invalid style: " + op[i]);
+            }
+          }
+          break;
+        case DisplayList.SET_COLORS:
+          count = 2;
+          op[1] = StyledOutputWriter.packedColor(checkedVarint(input, end));
+          op[2] = StyledOutputWriter.packedColor(checkedVarint(input, end));
+          break;
+        default:
+          if (opcode <= DisplayList.WRITE || opcode > DisplayList.SHOW_CURSOR) {
+            throw new IOException("Invalid opcode: " + opcode);
+          }
+          count = StyledOutputWriter.arguments(opcode);
+          for (int i = 1; i <= count; i++) {
+            int zigzag = checkedVarint(input, end);
+            op[i] = zigzag >>> 1 ^ -(zigzag & 1);
+          }
+      }
+      op[0] = count << DisplayList.ARGUMENTS_SHIFT | opcode;
+      try {
+        DisplayList.appendOperation(codes, out, op, 0, text);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid operation", e);
+      }
+    }
+    if (position != end) {
+      throw new IOException("Record overran its length");
+    }
+    if ((flags & StyledOutputWriter.CLEARED) != 0) {
+      op[0] = DisplayList.CLEAR;
+      DisplayList.appendOperation(codes, out, op, 0, text);
+    }
+    ansi.writeRendered(stderr, out, (flags & StyledOutputWriter.NEW_LINE) != 0);
+  }
+
+  /**
+   * Decodes an unsigned varint at {@link #position}, returning -1 if it extends past {@code end}
+   * (or is longer than five bytes).
+   */
+  private long varint(ByteBuffer input, int end) {
+    int value = 0;
+    for (int shift = 0; shift < 35 && position < end; shift += 7) {
+      byte b = input.get(position++);
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value & 0xFFFFFFFFL;
+      }
+    }
+    return -1;
+  }
+
+  private int checkedVarint(ByteBuffer input, int end) throws IOException {
+    long value = varint(input, end);
+    if (value < 0) {
+      throw new IOException("Truncated operation");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Decodes UTF-8 from {@link #position} to {@code textEnd} into {@link #text}, replacing invalid
+   * sequences with U+FFFD.
+   */
+  private void decodeUtf8(ByteBuffer input, int textEnd, int end) throws IOException {
+    if (textEnd > end || textEnd < position) {
+      throw new IOException("Truncated text");
+    }
+    while (position < textEnd) {
+      int b = input.get(position++);
+      if (b >= 0) {
+        text.append((char) b);
+        continue;
+      }
+      int continuations;
+      int codePoint;
+      int min;
+      if ((b & 0xE0) == 0xC0) {
+        continuations = 1;
+        codePoint = b & 0x1F;
+        min = 0x80;
+      } else if ((b & 0xF0) == 0xE0) {
+        continuations = 2;
+        codePoint = b & 0x0F;
+        min = 0x800;
+      } else if ((b & 0xF8) == 0xF0) {
+        continuations = 3;
+        codePoint = b & 0x07;
+        min = 0x10000;
+      } else {
+        text.append('\uFFFD');
+        continue;
+      }
+      int i = 0;
+      for (; i < continuations && position < textEnd; i++, position++) {
+        int next = input.get(position);
+        if ((next & 0xC0) != 0x80) {
+          break;
+        }
+        codePoint = codePoint << 6 | next & 0x3F;
+      }
+      if (i < continuations || codePoint < min || codePoint > Character.MAX_CODE_POINT
+          || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+        text.append('\uFFFD');
+      } else {
+        text.appendCodePoint(codePoint);
+      }
+    }
+  }
+}
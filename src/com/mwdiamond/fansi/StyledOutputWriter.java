@@ -0,0 +1,322 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link AnsiFactory} whose {@link Ansi} instances encode their output in a compact binary
+ * format and write it to a stream, rather than rendering escape codes. A {@link StyledOutputReader}
+ * in another process can then render the output with its own {@code Ansi} instance, e.g. so that
+ * a parent process that owns the terminal can relay the colored output of its workers without
+ * parsing escape codes. Obtain an instance via {@link AnsiUtils#styledOutputWriter}.
+ *
+ * <p>The stream starts with a four byte header, followed by a record for each write (e.g. each
+ * {@code out()} or {@code outln()} call). A record is its length, with flags in the low bits for
+ * whether the write was to stderr, whether it ended with a newline, and whether it ended by
+ * clearing its formatting, followed by the write's other operations: an opcode byte followed by its
+ * arguments as varints, or for text its length in bytes and its UTF-8 encoding. Colors are encoded
+ * with their kind in the low bits, so named colors take one byte and color indexes two, and default
+ * colors and fonts are omitted. Common operations have shorter forms: short text runs store their
+ * length in the opcode byte, as foreground-only named colors store the color, and other
+ * foreground-only colors, e.g. each character of a gradient, need only an opcode and the color.
+ * Since records are written whole, output from several writers can be interleaved a write at a
+ * time.
+ *
+ * <p>Records are written as soon as they're complete, and the stream is flushed after each write
+ * that ends with a newline. {@code Ansi} methods can't throw {@code IOException}s, so any failure
+ * to write is reported by {@link #flush} or {@link #close}, and later output is discarded.
+ *
+ * <p>Like a {@link DisplayList.Builder}, these {@code Ansi} instances are never interactive, and
+ * colors are encoded as given, to be reduced to the reader's color depth as they're rendered.
+ */
+public final class StyledOutputWriter implements AnsiFactory, Flushable, Closeable {
+  static final byte[] HEADER = {(byte) 0xFA, 'N', 'S', 1};
+
+  // Record flags, in the low bits of each record's length
+  static final int STDERR = 1;
+  static final int NEW_LINE = 2;
+  /** The write ends by clearing its formatting, i.e. with a {@link DisplayList#CLEAR}. */
+  static final int CLEARED = 4;
+  static final int FLAG_BITS = 3;
+
+  // Short forms of common operations, with opcodes that don't clash with DisplayList's
+  /** A color operation that only sets the foreground color, followed by the color. */
+  static final int FOREGROUND = 0x20;
+  /** A set colors operation that leaves the background unchanged, followed by the color. */
+  static final int SET_FOREGROUND = 0x21;
+  /** Marks a foreground operation with a named color, with its ordinal in the low bits. */
+  static final int NAMED_FOREGROUND = 0x40;
+  /** Marks a text operation with its length in the low bits of the opcode byte. */
+  static final int SHORT_TEXT = 0x80;
+
+  // Fields of a color operation that aren't the default, in the low bits of its style count
+  static final int COLOR_FIELD = 1;
+  static final int BACKGROUND_FIELD = 2;
+  static final int FONT_FIELD = 4;
+  static final int DEFAULT_COLOR = Codes.ColorType.packNamed(Ansi.Color.DEFAULT);
+  static final int DEFAULT_FONT = Ansi.Font.DEFAULT.ordinal();
+
+  /** Space before each record for its length, which is at most a five byte varint. */
+  private static final int LENGTH_SPACE = 5;
+
+  private final OutputStream out;
+  // guarded by recorder
+  private byte[] buffer = new byte[256];
+  private int length;
+  private int clearAt = -1;
+  private IOException failure;
+
+  private final DisplayList.Recorder recorder = new DisplayList.Recorder() {
+    @Override
+    void text(int opcode, CharSequence rendered, int start, int end) {
+      int bytes = utf8Length(rendered, start, end);
+      if (opcode == DisplayList.TEXT && bytes < SHORT_TEXT) {
+        writeByte(SHORT_TEXT | bytes);
+      } else {
+        writeByte(opcode);
+        writeVarint(bytes);
+      }
+      writeUtf8(rendered, start, end);
+    }
+
+    @Override
+    void operation(int opcode, int[] arguments, int count) {
+      if (opcode == DisplayList.COLOR && count == 3 && arguments[1] == DEFAULT_COLOR
+          && arguments[2] == DEFAULT_FONT) {
+        if (Codes.ColorType.isNamed(arguments[0])) {
+          writeByte(NAMED_FOREGROUND | Codes.ColorType.namedColor(arguments[0]).ordinal());
+        } else {
+          writeByte(FOREGROUND);
+          writeVarint(color(arguments[0]));
+        }
+        return;
+      } else if (opcode == DisplayList.SET_COLORS
+          && arguments[1] == Codes.ColorType.UNCHANGED) {
+        writeByte(SET_FOREGROUND);
+        writeVarint(color(arguments[0]));
+        return;
+      } else if (opcode == DisplayList.CLEAR) {
+        clearAt = length;
+      }
+      writeByte(opcode);
+      if (opcode == DisplayList.COLOR) {
+        int fields = (count - 3) << 3
+            | (arguments[0] != DEFAULT_COLOR ? COLOR_FIELD : 0)
+            | (arguments[1] != DEFAULT_COLOR ? BACKGROUND_FIELD : 0)
+            | (arguments[2] != DEFAULT_FONT ? FONT_FIELD : 0);
+        writeVarint(fields);
+        if ((fields & COLOR_FIELD) != 0) {
+          writeVarint(color(arguments[0]));
+        }
+        if ((fields & BACKGROUND_FIELD) != 0) {
+          writeVarint(color(arguments[1]));
+        }
+        if ((fields & FONT_FIELD) != 0) {
+          writeVarint(arguments[2]);
+        }
+        for (int i = 3; i < count; i++) {
+          writeVarint(arguments[i]);
+        }
+      } else if (opcode == DisplayList.SET_COLORS) {
+        writeVarint(color(arguments[0]));
+        writeVarint(color(arguments[1]));
+      } else {
+        for (int i = 0; i < count; i++) {
+          writeVarint(arguments[i] << 1 ^ arguments[i] >> 31); // zigzag
+        }
+      }
+    }
+
+    @Override
+    void endWrite(boolean stderr, boolean newLine) {
+      boolean cleared = clearAt == length - 1;
+      if (cleared) {
+        length = clearAt;
+      }
+      clearAt = -1;
+      int recordLength = length - LENGTH_SPACE;
+      int header = recordLength << FLAG_BITS | (stderr ? STDERR : 0) | (newLine ? NEW_LINE : 0)
+          | (cleared ? CLEARED : 0);
+      int start = LENGTH_SPACE - varintLength(header);
+      length = start;
+      writeVarint(header);
+      if (failure == null) {
+        try {
+          out.write(buffer, start, LENGTH_SPACE + recordLength - start);
+          if (newLine) {
+            out.flush();
+          }
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      length = LENGTH_SPACE;
+    }
+  };
+
+  StyledOutputWriter(OutputStream out) throws IOException {
+    this.out = checkNotNull(out);
+    out.write(HEADER);
+    length = LENGTH_SPACE;
+  }
+
+  /**
+   * Returns an {@code Ansi} instance whose output is encoded and written to this writer's stream.
+   *
+   * @return an Ansi instance that writes to this writer
+   */
+  @Override
+  public Ansi ansi() {
+    return recorder.ansi();
+  }
+
+  /**
+   * Flushes the stream, e.g. after writing part of a line that should be displayed immediately.
+   *
+   * @throws IOException if the stream can't be flushed, or any output couldn't be written
+   */
+  @Override
+  public void flush() throws IOException {
+    synchronized (recorder) {
+      checkFailure();
+      out.flush();
+    }
+  }
+
+  /**
+   * Closes the stream.
+   *
+   * @throws IOException if the stream can't be closed, or any output couldn't be written
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (recorder) {
+      try {
+        out.close();
+      } finally {
+        checkFailure();
+      }
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("Failed to write output", failure);
+    }
+  }
+
+  /**
+   * Encodes a {@linkplain Codes.ColorType#packed packed} color as its value followed by its kind,
+   * which is 3 for {@link Codes.ColorType#UNCHANGED}.
+   */
+  static int color(int packed) {
+    return packed == Codes.ColorType.UNCHANGED ? 3 : (packed & 0xFFFFFF) << 2 | packed >>> 24;
+  }
+
+  /** Decodes a color encoded by {@link #color}. */
+  static int packedColor(int color) {
+    return (color & 3) == 3 ? Codes.ColorType.UNCHANGED : (color & 3) << 24 | color >>> 2;
+  }
+
+  /** Returns the number of int arguments the given opcode takes, other than colors and text. */
+  static int arguments(int opcode) {
+    switch (opcode) {
+      case DisplayList.MOVE_CURSOR:
+      case DisplayList.POSITION_CURSOR:
+        return 2;
+      case DisplayList.DOWN_LINE:
+      case DisplayList.UP_LINE:
+      case DisplayList.POSITION_COLUMN:
+      case DisplayList.SCROLL_UP:
+      case DisplayList.SCROLL_DOWN:
+        return 1;
+      default:
+        return 0;
+    }
+  }
+
+  private static int varintLength(int value) {
+    int bytes = 1;
+    while ((value >>>= 7) != 0) {
+      bytes++;
+    }
+    return bytes;
+  }
+
+  /** Returns the length of {@code text[start, end)} in UTF-8. */
+  private static int utf8Length(CharSequence text, int start, int end) {
+    int bytes = end - start;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c >= 0x800) {
+        // Surrogate pairs are four bytes, two per char; unpaired surrogates are replaced by '?'
+        bytes += Character.isSurrogate(c) ? (isPaired(text, i, end) ? 1 : 0) : 2;
+      } else if (c >= 0x80) {
+        bytes++;
+      }
+    }
+    return bytes;
+  }
+
+  /** Returns true if the surrogate at {@code text[i]} is half of a valid pair. */
+  private static boolean isPaired(CharSequence text, int i, int end) {
+    char c = text.charAt(i);
+    return Character.isHighSurrogate(c)
+        ? i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))
+        : i > 0 && Character.isHighSurrogate(text.charAt(i - 1));
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (length + bytes > buffer.length) {
+      byte[] expanded = new byte[Math.max(buffer.length * 2, length + bytes)];
+      System.arraycopy(buffer, 0, expanded, 0, length);
+      buffer = expanded;
+    }
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) value;
+  }
+
+  private void writeVarint(int value) {
+    ensureCapacity(5);
+    while ((value & ~0x7F) != 0) {
+      buffer[length++] = (byte) (value & 0x7F | 0x80);
+      value >>>= 7;
+    }
+    buffer[length++] = (byte) value;
+  }
+
+  private void writeUtf8(CharSequence text, int start, int end) {
+    ensureCapacity((end - start) * 3);
+    byte[] buffer = this.buffer;
+    int length = this.length;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[length++] = (byte) (0xC0 | c >> 6);
+        buffer[length++] = (byte) (0x80 | c & 0x3F);
+      } else if (!Character.isSurrogate(c)) {
+        buffer[length++] = (byte) (0xE0 | c >> 12);
+        buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+        buffer[length++] = (byte) (0x80 | c & 0x3F);
+      } else if (Character.isHighSurrogate(c) && isPaired(text, i, end)) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+        buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+      } else {
+        buffer[length++] = '?';
+      }
+    }
+    this.length = length;
+  }
+}
@@ -1,18 +1,25 @@
 package com.mwdiamond.fansi;
 
-import static com.google.common.base.Preconditions.checkState;
+import static com.mwdiamond.fansi.Preconditions.checkState;
 
-import com.google.common.base.Strings;
-import com.google.common.io.CharStreams;
-import com.google.common.primitives.Ints;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.google.common.util.concurrent.Uninterruptibles;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import java.io.ByteArrayOutputStream;
+import java.io.Console;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Compartmentalizes work done to inspect the OS and environment being used.
@@ -21,7 +28,10 @@ import java.util.concurrent.TimeUnit;
 abstract class SystemInfo {
   private static final String PROPERTY_PREFIX = "com.mwdiamond.fansi.";
   private static final String ANSI_PROPERTY = PROPERTY_PREFIX + "ansi";
+  private static final String COLORS_PROPERTY = PROPERTY_PREFIX + "colors";
+  private static final String REDIRECTED_PROPERTY = PROPERTY_PREFIX + "redirected";
   private static final String DEBUG_PROPERTY = PROPERTY_PREFIX + "debug";
+  static final File TTY = new File("/dev/tty");
 
   private static final SystemInfo INSTANCE = new SystemInfo() {
     @Override
@@ -30,11 +40,42 @@ abstract class SystemInfo {
     }
 
     @Override
-    Integer systemColumns() {
-        return systemColumns;
+    Boolean systemInteractive() {
+      return systemInteractive;
+    }
+
+    @Override
+    ColorDepth systemColorDepth() {
+      return systemColorDepth;
+    }
+
+    @Override
+    Boolean systemEscapes(Stream stream) {
+      return stream == Stream.STDOUT ? systemStdoutEscapes : systemStderrEscapes;
+    }
+
+    @Override
+    Boolean systemStripRedirected() {
+      return systemStripRedirected;
     }
   };
 
+  /** The standard output streams, which may each be redirected independently of the other. */
+  enum Stream {
+    STDOUT(1),
+    STDERR(2);
+
+    final int fd;
+
+    Stream(int fd) {
+      this.fd = fd;
+    }
+  }
+
+  private volatile TerminalQueries.Replies colors;
+  private final PrintStream[] unstripped = new PrintStream[Stream.values().length];
+  private final PrintStream[] stripped = new PrintStream[Stream.values().length];
+
   static SystemInfo get() {
     return INSTANCE;
   }
@@ -52,38 +93,203 @@ abstract class SystemInfo {
 
   abstract Codes systemCodes();
 
+  /**
+   * Returns whether escape codes should be written to the given stream, which they shouldn't be if
+   * it's (believed to be) redirected to a file or pipe, unless the application asked for them with
+   * the {@code com.mwdiamond.fansi.ansi} property.
+   */
+  final boolean escapes(Stream stream, boolean defaultEscapes) {
+    Boolean fromSystem = systemEscapes(stream);
+    if (fromSystem != null) {
+      return fromSystem;
+    }
+    return defaultEscapes;
+  }
+
+  abstract Boolean systemEscapes(Stream stream);
+
+  /**
+   * Returns whether escape sequences should be stripped from all text written to a stream escape
+   * codes aren't written to, rather than just leaving out the codes {@link Ansi} itself adds. This
+   * is useful when the text may itself contain escape codes, e.g. relayed from a subprocess.
+   */
+  final boolean stripRedirected(boolean defaultStrip) {
+    Boolean fromSystem = systemStripRedirected();
+    if (fromSystem != null) {
+      return fromSystem;
+    }
+    return defaultStrip;
+  }
+
+  abstract Boolean systemStripRedirected();
+
+  /**
+   * Returns the stream output to the given standard stream should be written to, given that escape
+   * codes aren't written to it. That's the stream itself unless escape sequences should be
+   * {@linkplain #stripRedirected stripped}, in which case it's a stream that strips them. The
+   * stripping stream is reused as long as the application doesn't replace the standard stream.
+   */
+  final synchronized PrintStream redirected(Stream stream, PrintStream out) {
+    if (!stripRedirected(false)) {
+      return out;
+    }
+    int index = stream.ordinal();
+    if (unstripped[index] != out) {
+      unstripped[index] = out;
+      // Like the standard streams, flush whenever a line is written
+      stripped[index] = new PrintStream(new EscapeStripper.StrippingOutputStream(out), true);
+    }
+    return stripped[index];
+  }
+
   /**
    * Returns the known number of columns of the running terminal. This result may change over time,
    * so it should not be assumed to be constant or cached anywhere.
    */
   final int columns(int defaultColumns) {
-    Integer fromSystem = systemColumns();
+    Integer fromSystem = sizeMonitor().size().columns;
     if (fromSystem != null) {
       return fromSystem;
     }
     return defaultColumns;
   }
 
-  abstract Integer systemColumns();
+  /**
+   * Returns the known number of rows of the running terminal. Like {@link #columns}, this result
+   * may change over time.
+   */
+  final int rows(int defaultRows) {
+    Integer fromSystem = sizeMonitor().size().rows;
+    if (fromSystem != null) {
+      return fromSystem;
+    }
+    return defaultRows;
+  }
 
-  private static final ThreadFactory threadFactory = new ThreadFactoryBuilder()
-      .setNameFormat("F-ANSI-%d")
-      .setPriority(Thread.MIN_PRIORITY)
-      .setDaemon(true)
-      .build();
+  /**
+   * Returns the monitor tracking the size of the running terminal. The system monitor detects the
+   * size the first time this method is called, and then watches for the terminal being resized if
+   * there is one.
+   */
+  TerminalSizeMonitor sizeMonitor() {
+    return SizeMonitorHolder.MONITOR;
+  }
+
+  /**
+   * Returns whether output is (believed to be) written to an interactive terminal, as opposed to
+   * a file or pipe.
+   */
+  final boolean interactive(boolean defaultInteractive) {
+    Boolean fromSystem = systemInteractive();
+    if (fromSystem != null) {
+      return fromSystem;
+    }
+    return defaultInteractive;
+  }
+
+  abstract Boolean systemInteractive();
+
+  /**
+   * Returns the range of colors the running terminal is (believed to be) able to display.
+   */
+  final ColorDepth colorDepth(ColorDepth defaultColorDepth) {
+    ColorDepth fromSystem = systemColorDepth();
+    if (fromSystem != null) {
+      return fromSystem;
+    }
+    return defaultColorDepth;
+  }
+
+  abstract ColorDepth systemColorDepth();
+
+  /**
+   * Returns the means of querying the running terminal. The system instance queries the controlling
+   * terminal, if there is one and output is interactive.
+   */
+  TerminalQueries queries() {
+    return QueriesHolder.QUERIES;
+  }
+
+  /**
+   * Returns the terminal's default foreground and background colors, which are queried the first
+   * time this method is called.
+   */
+  final TerminalQueries.Replies colors() {
+    TerminalQueries.Replies replies = colors;
+    if (replies == null) {
+      synchronized (this) {
+        replies = colors;
+        if (replies == null) {
+          replies = queries().query(EnumSet.of(
+              TerminalQueries.Query.FOREGROUND_COLOR, TerminalQueries.Query.BACKGROUND_COLOR));
+          colors = replies;
+        }
+      }
+    }
+    return replies;
+  }
+
+  /** Returns the clock to use for time-sensitive output. */
+  Clock clock() {
+    return Clock.SYSTEM;
+  }
+
+  /**
+   * Returns the scheduler to use for animated output. The system scheduler runs on a single
+   * daemon thread that is started the first time this method is called.
+   */
+  AnimationScheduler scheduler() {
+    return AnimationScheduler.shared();
+  }
+
+  static final ThreadFactory threadFactory = new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "F-ANSI-" + count.getAndIncrement());
+      thread.setPriority(Thread.MIN_PRIORITY);
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
 
   //
   // Static values set when this class is first loaded
   //
 
   private static final boolean debugOutput = getDebugStatusFromProperty();
-  private static final Codes systemCodes = getCodesFromProperty();
+  private static final Terminfo systemTerminfo = Terminfo.forTerm(System.getenv("TERM"));
+  private static final String codesProperty = System.getProperty(ANSI_PROPERTY);
+  private static final Codes systemCodes = getCodes(getCodesFromProperty(), systemTerminfo);
+  private static final Boolean stdoutTerminal = isTerminal(Stream.STDOUT);
+  private static final Boolean systemInteractive =
+      stdoutTerminal != null ? stdoutTerminal : ConsoleHolder.TERMINAL;
+  // Where file descriptors can't be inspected (e.g. macOS and Windows) System.console() still
+  // indicates whether stdout is a terminal, but nothing indicates whether stderr is
+  private static final Boolean systemStdoutEscapes = getEscapes(codesProperty, systemInteractive);
+  private static final Boolean systemStderrEscapes =
+      getEscapes(codesProperty, isTerminal(Stream.STDERR));
+  private static final Boolean systemStripRedirected =
+      getStripRedirected(System.getProperty(REDIRECTED_PROPERTY));
+  private static final ColorDepth systemColorDepth = getColorDepth(
+      System.getProperty(COLORS_PROPERTY), System.getenv("COLORTERM"), System.getenv("TERM"),
+      systemTerminfo);
 
-  /*
-   * This <i>may</i> be lazily updated with a column count from the system - see static {} block
-   * at bottom.
-   */
-  private static volatile Integer systemColumns = getColumnsFromEnvironment();
+  private static final class SizeMonitorHolder {
+    static final TerminalSizeMonitor MONITOR = createSizeMonitor();
+  }
+
+  private static final class ConsoleHolder {
+    static final boolean TERMINAL = consoleIsTerminal();
+  }
+
+  private static final class QueriesHolder {
+    static final TerminalQueries QUERIES = systemInteractive
+        ? TerminalQueries.tty(Clock.SYSTEM, TerminalQueries.DEFAULT_TIMEOUT_MILLIS,
+            TimeUnit.MILLISECONDS)
+        : TerminalQueries.NONE;
+  }
 
   //
   // Static utilities
@@ -98,7 +304,6 @@ abstract class SystemInfo {
   }
 
   private static Codes getCodesFromProperty() {
-    String codesProperty = System.getProperty(ANSI_PROPERTY);
     if (codesProperty == null) {
       return null;
     }
@@ -110,80 +315,374 @@ abstract class SystemInfo {
       case "OFF":
         return Codes.NO_OP;
       case "CONSOLE":
-        return System.console() != null ? Codes.REAL : Codes.NO_OP;
+        // Whether escapes are written to each stream is decided separately, by getEscapes()
+        return Codes.REAL;
       default:
         throw new IllegalStateException(
             "Invalid value " + codesProperty + " for property " + ANSI_PROPERTY);
     }
   }
 
-  private static Integer getColumnsFromEnvironment() {
-    return Ints.tryParse(Strings.nullToEmpty(System.getenv("COLUMNS")));
+  /**
+   * Returns the codes set by the {@code com.mwdiamond.fansi.ansi} property if any, otherwise the
+   * real codes restricted to the terminal's terminfo capabilities, or null if neither is available.
+   */
+  @VisibleForTesting
+  static Codes getCodes(Codes fromProperty, Terminfo terminfo) {
+    if (fromProperty != null) {
+      return fromProperty;
+    }
+    return terminfo != null ? terminfo.restrict(Codes.REAL) : null;
   }
 
   /**
-   * Attempts to determine the number of columns in the terminal by making system calls, updating
-   * the {@link #systemColumns} field if successful.
-   *
-   * <p>See https://stackoverflow.com/a/18883172/113632 for more.
+   * Determines whether escape codes should be written to a stream, given whether it's attached to
+   * a terminal (null if unknown). Escapes are always written, or never written, if the
+   * {@code com.mwdiamond.fansi.ansi} property says so; otherwise they're only written to terminals.
+   * Returns null if there's no indication either way, in which case escapes are written, unless
+   * the property is {@code CONSOLE}, which then falls back to {@link System#console}.
    */
-  private static void lookupColumnsFromSystem() {
-    if (systemColumns != null) {
-      return;
+  @VisibleForTesting
+  static Boolean getEscapes(String codesProperty, Boolean terminal) {
+    if (codesProperty == null) {
+      return terminal;
+    }
+    if (codesProperty.equalsIgnoreCase("CONSOLE")) {
+      return terminal != null ? terminal : ConsoleHolder.TERMINAL;
     }
+    return null;
+  }
 
-    Thread t = threadFactory.newThread(new Runnable() {
+  /**
+   * Determines whether escape sequences should be stripped from output that escape codes aren't
+   * written to, per the {@code com.mwdiamond.fansi.redirected} property: <b>STRIP</b> to strip
+   * them, or <b>PLAIN</b> (the default) to only leave out {@link Ansi}'s own codes. Returns null if
+   * the property isn't set.
+   */
+  @VisibleForTesting
+  static Boolean getStripRedirected(String property) {
+    if (property == null) {
+      return null;
+    }
+    switch (property.toUpperCase(Locale.ROOT)) {
+      case "STRIP":
+        return true;
+      case "PLAIN":
+        return false;
+      default:
+        throw new IllegalStateException(
+            "Invalid value " + property + " for property " + REDIRECTED_PROPERTY);
+    }
+  }
+
+  /**
+   * Returns whether the given stream is attached to a terminal, or null if that can't be
+   * determined. On Linux {@code /proc/self/fd} links each of the process's file descriptors to
+   * the file it's open on, so no process needs to be started; elsewhere this returns null, and
+   * stdout falls back to {@link System#console}.
+   */
+  private static Boolean isTerminal(Stream stream) {
+    File fd = new File("/proc/self/fd/" + stream.fd);
+    try {
+      return fd.exists() ? isTerminalPath(fd.getCanonicalPath()) : null;
+    } catch (IOException | SecurityException e) {
+      if (debugOutput) {
+        System.err.println("Couldn't resolve " + fd + ": " + e.getMessage());
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether a path a file descriptor is open on is a terminal, e.g. {@code /dev/pts/3}.
+   * Pipes and sockets don't resolve to a path at all, and are left in {@code /proc}.
+   */
+  @VisibleForTesting
+  static boolean isTerminalPath(String path) {
+    return path.startsWith("/dev/pts/") || path.startsWith("/dev/tty")
+        || path.equals("/dev/console");
+  }
+
+  /**
+   * Returns whether {@link System#console} is attached to a terminal, which only says whether
+   * stdin and stdout <i>both</i> are. On JDK 22+ {@code System.console()} may return a console
+   * even when they aren't, so {@code Console.isTerminal()} is checked too, if it exists.
+   */
+  private static boolean consoleIsTerminal() {
+    Console console = System.console();
+    if (console == null) {
+      return false;
+    }
+    try {
+      return (Boolean) Console.class.getMethod("isTerminal").invoke(console);
+    } catch (NoSuchMethodException e) {
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      if (debugOutput) {
+        e.printStackTrace(System.err);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Determines the terminal's color depth from the {@code com.mwdiamond.fansi.colors} property if
+   * set, otherwise from the {@code COLORTERM} and {@code TERM} environment variables, following the
+   * conventions described at https://github.com/termstandard/colors. Returns null if there's no
+   * indication either way, e.g. on Windows or in IDE consoles.
+   */
+  @VisibleForTesting
+  static ColorDepth getColorDepth(String property, String colorterm, String term) {
+    return getColorDepth(property, colorterm, term, null);
+  }
+
+  /**
+   * Like {@link #getColorDepth(String, String, String)}, but prefers the number of colors in the
+   * terminal's terminfo entry, if it has one, over guessing from the name of the terminal.
+   */
+  @VisibleForTesting
+  static ColorDepth getColorDepth(
+      String property, String colorterm, String term, Terminfo terminfo) {
+    if (property != null) {
+      switch (property.toUpperCase(Locale.ROOT)) {
+        case "TRUECOLOR":
+        case "24BIT":
+          return ColorDepth.TRUE_COLOR;
+        case "256":
+          return ColorDepth.COLORS_256;
+        case "16":
+          return ColorDepth.COLORS_16;
+        default:
+          throw new IllegalStateException(
+              "Invalid value " + property + " for property " + COLORS_PROPERTY);
+      }
+    }
+
+    colorterm = StringUtils.nullToEmpty(colorterm).toLowerCase(Locale.ROOT);
+    if (colorterm.equals("truecolor") || colorterm.equals("24bit")) {
+      return ColorDepth.TRUE_COLOR;
+    }
+    if (terminfo != null) {
+      ColorDepth fromTerminfo = terminfo.colorDepth();
+      // Monochrome terminals get no colors at all, via their restricted codes
+      return fromTerminfo != null ? fromTerminfo : ColorDepth.COLORS_16;
+    }
+    if (StringUtils.isNullOrEmpty(term)) {
+      return null;
+    }
+    term = term.toLowerCase(Locale.ROOT);
+    if (term.endsWith("-direct") || term.endsWith("-truecolor")) {
+      return ColorDepth.TRUE_COLOR;
+    }
+    if (term.endsWith("-256color")) {
+      return ColorDepth.COLORS_256;
+    }
+    return ColorDepth.COLORS_16;
+  }
+
+  /**
+   * The dimensions of a terminal, either of which may be null if unknown.
+   */
+  static final class TerminalSize {
+    static final TerminalSize UNKNOWN = new TerminalSize(null, null);
+
+    final Integer columns;
+    final Integer rows;
+
+    TerminalSize(Integer columns, Integer rows) {
+      this.columns = columns;
+      this.rows = rows;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TerminalSize)) {
+        return false;
+      }
+      TerminalSize that = (TerminalSize) o;
+      return Objects.equals(columns, that.columns) && Objects.equals(rows, that.rows);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(columns, rows);
+    }
+
+    @Override
+    public String toString() {
+      return columns + "x" + rows;
+    }
+  }
+
+  /**
+   * Detects the size of the terminal, and if there is a controlling terminal watches it for
+   * changes. Applications that never need the size don't pay for any of this.
+   */
+  private static TerminalSizeMonitor createSizeMonitor() {
+    SttySize stty = new SttySize() {
       @Override
-      public void run() {
-        try {
-          // It's not sufficient to just let this fail on Windows; if WSL is installed the "bash"
-          // command will actually succeed and report the width of *that* terminal, not this one.
-          if (System.getProperty("os.name").startsWith("Windows")) {
-            return;
-          }
-
-          ProcessBuilder pb = new ProcessBuilder().command("bash", "-c", "tput cols 2> /dev/tty")
-              .redirectOutput(ProcessBuilder.Redirect.PIPE)
-              .redirectError(ProcessBuilder.Redirect.PIPE);
-          Process p = pb.start();
-          if (p.waitFor() != 0) {
-            if (debugOutput) {
-              System.err.println(pb.command() + " failed with exit code " + p.exitValue());
-              System.err.println("STDOUT: " + inputStreamToString(p.getInputStream()));
-              System.err.println("STDERR: " + inputStreamToString(p.getErrorStream()));
-            }
-            return; // no need to attempt to read if the command failed
-          }
-          String output = inputStreamToString(p.getInputStream());
-          systemColumns = Integer.parseInt(output.trim());
-        } catch (IOException | RuntimeException e) {
-          // nothing to do, will fall-back to regular behavior
-          if (debugOutput) {
-            System.err.println("Unexpected exception while getting column count");
-            e.printStackTrace(System.err);
-          }
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
+      public String get() {
+        return runSttySize();
+      }
+    };
+    TerminalSizeMonitor monitor = new TerminalSizeMonitor(
+        getSize(System.getenv("COLUMNS"), System.getenv("LINES"), stty), stty);
+    if (hasControllingTerminal()) {
+      monitor.watch(AnimationScheduler.shared());
+    }
+    return monitor;
+  }
+
+  /**
+   * Determines the terminal's size from the {@code COLUMNS} and {@code LINES} environment variables
+   * if they're both set, as many shells do for interactive sessions. Otherwise falls back to the
+   * output of {@code stty size}, which is only invoked if needed and may return null.
+   */
+  @VisibleForTesting
+  static TerminalSize getSize(String columns, String lines, SttySize sttySize) {
+    Integer columnsFromEnvironment = parseDimension(columns);
+    Integer rowsFromEnvironment = parseDimension(lines);
+    if (columnsFromEnvironment != null && rowsFromEnvironment != null) {
+      return new TerminalSize(columnsFromEnvironment, rowsFromEnvironment);
+    }
+
+    String stty = sttySize.get();
+    if (stty != null) {
+      // "rows columns"
+      String[] parts = stty.trim().split("\\s+");
+      if (parts.length == 2) {
+        Integer rows = parseDimension(parts[0]);
+        Integer cols = parseDimension(parts[1]);
+        if (rows != null && cols != null) {
+          return new TerminalSize(
+              columnsFromEnvironment != null ? columnsFromEnvironment : cols,
+              rowsFromEnvironment != null ? rowsFromEnvironment : rows);
         }
       }
-    });
-    t.start();
+    }
+    return new TerminalSize(columnsFromEnvironment, rowsFromEnvironment);
   }
 
-  private static String inputStreamToString(InputStream stream) throws IOException {
-    return CharStreams.toString(new InputStreamReader(stream, StandardCharsets.UTF_8));
+  /** Source of the output of {@code stty size}, so that it's only run if needed. */
+  @VisibleForTesting
+  interface SttySize {
+    /** Returns the output of {@code stty size}, or null if it isn't available. */
+    String get();
+  }
+
+  /** Parses a positive dimension, returning null if it's missing or invalid. */
+  private static Integer parseDimension(String value) {
+    Integer dimension = StringUtils.tryParseInt(StringUtils.nullToEmpty(value).trim());
+    return dimension != null && dimension > 0 ? dimension : null;
+  }
+
+  /**
+   * Returns true if this process has a controlling terminal, which can be checked without forking.
+   * Always false on Windows, where {@code /dev/tty} may exist under WSL but belongs to a different
+   * terminal.
+   */
+  static boolean hasControllingTerminal() {
+    if (System.getProperty("os.name").startsWith("Windows")) {
+      return false;
+    }
+    try {
+      new FileInputStream(TTY).close();
+      return true;
+    } catch (IOException e) {
+      if (debugOutput) {
+        System.err.println("No controlling terminal: " + e.getMessage());
+      }
+      return false;
+    }
   }
 
-  static {
-    lookupColumnsFromSystem();
+  /**
+   * Runs {@code stty size} against the controlling terminal, returning its output or null if it
+   * fails. This doesn't involve a shell, and the process isn't started at all if there is no
+   * controlling terminal, e.g. in a container or under a build tool.
+   *
+   * <p>See https://stackoverflow.com/a/18883172/113632 for more.
+   */
+  private static String runSttySize() {
+    if (!hasControllingTerminal()) {
+      return null;
+    }
+    return runStty("size");
+  }
+
+  /**
+   * Runs {@code stty} with the given arguments against the controlling terminal, returning its
+   * output or null if it fails.
+   */
+  static String runStty(String... args) {
+    List<String> command = new ArrayList<>();
+    command.add("stty");
+    Collections.addAll(command, args);
+    try {
+      ProcessBuilder pb = new ProcessBuilder().command(command)
+          .redirectInput(ProcessBuilder.Redirect.from(TTY))
+          .redirectOutput(ProcessBuilder.Redirect.PIPE)
+          .redirectError(ProcessBuilder.Redirect.PIPE);
+      Process p = pb.start();
+      String output = inputStreamToString(p.getInputStream());
+      if (p.waitFor() != 0) {
+        if (debugOutput) {
+          System.err.println(pb.command() + " failed with exit code " + p.exitValue());
+          System.err.println("STDOUT: " + output);
+          System.err.println("STDERR: " + inputStreamToString(p.getErrorStream()));
+        }
+        return null;
+      }
+      return output;
+    } catch (IOException | RuntimeException e) {
+      // nothing to do, will fall-back to regular behavior
+      if (debugOutput) {
+        System.err.println("Unexpected exception while running " + command);
+        e.printStackTrace(System.err);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  private static String inputStreamToString(InputStream stream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[256];
+    for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+      bytes.write(buffer, 0, read);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
   }
 
   /** Diagnostic utility. */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     System.out.println("Debug Mode?: " + debugOutput);
+    System.out.println("Terminfo: " + systemTerminfo);
+    String term = System.getenv("TERM");
+    if (!StringUtils.isNullOrEmpty(term)) {
+      long start = System.nanoTime();
+      File file = Terminfo.find(term, Terminfo.searchPath());
+      if (file != null) {
+        Terminfo.read(file);
+      }
+      System.out.println("Terminfo lookup (warm): "
+          + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + "us");
+    }
     System.out.println("System Codes: " + systemCodes);
-    System.out.println("System Columns: " + systemColumns);
-    Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
-    System.out.println("Delayed System Columns: " + systemColumns);
+    System.out.println("Interactive?: " + systemInteractive);
+    System.out.println("Escapes on stdout/stderr?: " + systemStdoutEscapes + "/"
+        + systemStderrEscapes);
+    System.out.println("Strip Redirected Output?: " + systemStripRedirected);
+    System.out.println("System Color Depth: " + systemColorDepth);
+    long start = System.nanoTime();
+    TerminalQueries.Replies replies = QueriesHolder.QUERIES.query(EnumSet.allOf(
+        TerminalQueries.Query.class));
+    System.out.println("Terminal Replies: " + replies + " (queried in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms)");
+    start = System.nanoTime();
+    TerminalSize size = SizeMonitorHolder.MONITOR.size();
+    System.out.println("System Size: " + size + " (detected in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms)");
   }
 }
@@ -0,0 +1,380 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks the terminal about itself, e.g. where the cursor is or what its background color is, by
+ * writing query sequences and parsing the terminal's replies from its input.
+ *
+ * <p>All the queries in a request are written at once, followed by a Primary Device Attributes
+ * ({@code DA1}) query. Terminals reply to queries in order, and every terminal emulator in common
+ * use replies to {@code DA1}, so once its reply arrives every other query has either been answered
+ * or isn't supported. A request therefore costs a single round trip to the terminal, however many
+ * queries it contains, and unsupported queries don't have to wait for a timeout. The timeout only
+ * applies if nothing replies at all, e.g. because output isn't really going to a terminal.
+ *
+ * <p>Replies arrive on the terminal's input, so {@linkplain #tty the controlling terminal} is
+ * briefly switched out of canonical mode, with echo disabled, while a request is in progress. Any
+ * input the user types while the request is in progress is discarded. Applications that read from
+ * the terminal themselves should avoid doing so concurrently with a request.
+ */
+abstract class TerminalQueries {
+  /** How long to wait for the terminal to reply before concluding it never will. */
+  static final long DEFAULT_TIMEOUT_MILLIS = 250;
+  /** How long to wait between attempts to read a reply, when none is available yet. */
+  private static final long POLL_MILLIS = 10;
+
+  private static final char ESC = '\u001B';
+  private static final char BEL = '\u0007';
+  private static final String DEVICE_ATTRIBUTES = ESC + "[c";
+  /** Replies longer than this aren't anything we asked for, so are ignored. */
+  private static final int MAX_REPLY_LENGTH = 256;
+
+  /** Queries that never reach a terminal, so never get any replies. */
+  static final TerminalQueries NONE = new TerminalQueries() {
+    @Override
+    Replies query(Set<Query> queries) {
+      return Replies.NONE;
+    }
+
+    @Override
+    public String toString() {
+      return "TerminalQueries.NONE";
+    }
+  };
+
+  /**
+   * The queries that can be sent to the terminal.
+   */
+  enum Query {
+    /** Device Status Report ({@code DSR}), answered with {@code CSI row ; column R}. */
+    CURSOR_POSITION(ESC + "[6n"),
+    /** {@code OSC 10}, answered with {@code OSC 10 ; rgb:RRRR/GGGG/BBBB ST}. */
+    FOREGROUND_COLOR(ESC + "]10;?" + ESC + "\\"),
+    /** {@code OSC 11}, answered with {@code OSC 11 ; rgb:RRRR/GGGG/BBBB ST}. */
+    BACKGROUND_COLOR(ESC + "]11;?" + ESC + "\\");
+
+    private final String request;
+
+    Query(String request) {
+      this.request = request;
+    }
+  }
+
+  /**
+   * Returns the replies to the given queries, blocking for up to a round trip to the terminal.
+   * Queries the terminal doesn't support, or doesn't answer in time, have no reply.
+   */
+  abstract Replies query(Set<Query> queries);
+
+  /**
+   * Returns queries sent to the controlling terminal, i.e. {@code /dev/tty}, regardless of where
+   * stdin and stdout are redirected.
+   */
+  static TerminalQueries tty(final Clock clock, final long timeout, final TimeUnit unit) {
+    checkNotNull(clock);
+    checkNotNull(unit);
+    return new TerminalQueries() {
+      @Override
+      Replies query(Set<Query> queries) {
+        synchronized (TerminalQueries.class) {
+          return queryTty(queries, clock, unit.toNanos(timeout));
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "TerminalQueries(" + SystemInfo.TTY + ")";
+      }
+    };
+  }
+
+  /**
+   * Returns queries written to {@code out} whose replies are read from {@code in}, such as the two
+   * ends of a pseudo-terminal. {@code in} should not block indefinitely when no input is available,
+   * or the timeout can't be enforced.
+   */
+  static TerminalQueries streams(final OutputStream out, final InputStream in, final Clock clock,
+      final long timeout, final TimeUnit unit) {
+    checkNotNull(out);
+    checkNotNull(in);
+    checkNotNull(clock);
+    checkNotNull(unit);
+    return new TerminalQueries() {
+      @Override
+      synchronized Replies query(Set<Query> queries) {
+        try {
+          return exchange(queries, out, in, clock, unit.toNanos(timeout));
+        } catch (IOException e) {
+          return Replies.NONE;
+        }
+      }
+    };
+  }
+
+  private static Replies queryTty(Set<Query> queries, Clock clock, long timeoutNanos) {
+    if (queries.isEmpty() || !SystemInfo.hasControllingTerminal()) {
+      return Replies.NONE;
+    }
+    String saved = SystemInfo.runStty("-g");
+    if (saved == null) {
+      return Replies.NONE;
+    }
+    try {
+      // Reads return as soon as any input arrives, or after 0.1s without any
+      if (SystemInfo.runStty("-icanon", "-echo", "min", "0", "time", "1") == null) {
+        return Replies.NONE;
+      }
+      try (OutputStream out = new FileOutputStream(SystemInfo.TTY);
+          InputStream in = new FileInputStream(SystemInfo.TTY)) {
+        return exchange(queries, out, in, clock, timeoutNanos);
+      }
+    } catch (IOException e) {
+      return Replies.NONE;
+    } finally {
+      SystemInfo.runStty(saved.trim());
+    }
+  }
+
+  /**
+   * Writes the queries, followed by a {@code DA1} query, and parses replies until the reply to
+   * {@code DA1} arrives or the timeout expires.
+   */
+  @VisibleForTesting
+  static Replies exchange(Set<Query> queries, OutputStream out, InputStream in, Clock clock,
+      long timeoutNanos) throws IOException {
+    checkArgument(timeoutNanos >= 0, "Invalid timeout: %s", timeoutNanos);
+    StringBuilder requests = new StringBuilder();
+    for (Query query : queries) {
+      requests.append(query.request);
+    }
+    out.write(requests.append(DEVICE_ATTRIBUTES).toString().getBytes(StandardCharsets.US_ASCII));
+    out.flush();
+
+    ReplyParser parser = new ReplyParser();
+    long deadline = clock.nanoTime() + timeoutNanos;
+    byte[] buffer = new byte[MAX_REPLY_LENGTH];
+    while (!parser.replies.answered) {
+      int read = in.read(buffer);
+      if (read > 0) {
+        for (int i = 0; i < read && !parser.replies.answered; i++) {
+          parser.accept((char) (buffer[i] & 0xFF));
+        }
+      } else if (clock.nanoTime() - deadline >= 0) {
+        break;
+      } else {
+        try {
+          clock.sleep(POLL_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    return parser.replies;
+  }
+
+  /**
+   * Parses escape sequences out of the terminal's input one character at a time, ignoring anything
+   * else. Input from the user, such as keypresses, may be interleaved with replies.
+   */
+  private static final class ReplyParser {
+    private enum State { GROUND, ESCAPE, CSI, OSC, OSC_ESCAPE }
+
+    final Replies replies = new Replies();
+    private final StringBuilder sequence = new StringBuilder();
+    private State state = State.GROUND;
+
+    void accept(char c) {
+      switch (state) {
+        case GROUND:
+          if (c == ESC) {
+            state = State.ESCAPE;
+          }
+          return;
+        case ESCAPE:
+          sequence.setLength(0);
+          state = c == '[' ? State.CSI : c == ']' ? State.OSC : c == ESC ? State.ESCAPE
+              : State.GROUND;
+          return;
+        case CSI:
+          if (c >= 0x40 && c <= 0x7E) {
+            csi(sequence.toString(), c);
+            state = State.GROUND;
+          } else {
+            append(c);
+          }
+          return;
+        case OSC:
+          if (c == BEL) {
+            osc(sequence.toString());
+            state = State.GROUND;
+          } else if (c == ESC) {
+            state = State.OSC_ESCAPE;
+          } else {
+            append(c);
+          }
+          return;
+        case OSC_ESCAPE:
+          if (c == '\\') {
+            osc(sequence.toString());
+            state = State.GROUND;
+          } else {
+            // An unterminated OSC followed by some other sequence
+            state = State.ESCAPE;
+            accept(c);
+          }
+          return;
+        default:
+          throw new AssertionError(state);
+      }
+    }
+
+    private void append(char c) {
+      if (sequence.length() < MAX_REPLY_LENGTH) {
+        sequence.append(c);
+      } else {
+        state = State.GROUND;
+      }
+    }
+
+    private void csi(String parameters, char command) {
+      if (command == 'R') {
+        int[] position = parseParameters(parameters);
+        if (position != null && position.length == 2) {
+          replies.cursorRow = position[0];
+          replies.cursorColumn = position[1];
+        }
+      } else if (command == 'c' && parameters.startsWith("?")) {
+        int[] attributes = parseParameters(parameters.substring(1));
+        replies.deviceAttributes = attributes != null ? attributes : new int[0];
+        replies.answered = true;
+      }
+    }
+
+    private void osc(String contents) {
+      if (contents.startsWith("10;")) {
+        replies.foreground = parseColor(contents.substring(3));
+      } else if (contents.startsWith("11;")) {
+        replies.background = parseColor(contents.substring(3));
+      }
+    }
+  }
+
+  /** Parses semicolon-separated non-negative integers, returning null if any are invalid. */
+  private static int[] parseParameters(String parameters) {
+    String[] parts = parameters.split(";", -1);
+    int[] values = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      Integer value = StringUtils.tryParseInt(parts[i]);
+      if (value == null || value < 0) {
+        return null;
+      }
+      values[i] = value;
+    }
+    return values;
+  }
+
+  /**
+   * Parses an X11 color specification of the form {@code rgb:R/G/B}, where each component has one
+   * to four hex digits, into a {@code 0xRRGGBB} color. Returns null if it's in any other form.
+   */
+  @VisibleForTesting
+  static Integer parseColor(String spec) {
+    if (!spec.startsWith("rgb:")) {
+      return null;
+    }
+    String[] components = spec.substring(4).split("/", -1);
+    if (components.length != 3) {
+      return null;
+    }
+    int rgb = 0;
+    for (String component : components) {
+      if (component.isEmpty() || component.length() > 4) {
+        return null;
+      }
+      int value;
+      try {
+        value = Integer.parseInt(component, 16);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      // Scale e.g. 0xFFFF or 0xF to 0xFF
+      int max = (1 << (4 * component.length())) - 1;
+      rgb = rgb << 8 | (value * 255 + max / 2) / max;
+    }
+    return rgb;
+  }
+
+  /**
+   * The terminal's replies to a set of queries. Values are null if the corresponding query wasn't
+   * made, wasn't supported, or wasn't answered in time.
+   */
+  static final class Replies {
+    static final Replies NONE = new Replies();
+
+    private boolean answered;
+    private int[] deviceAttributes;
+    private Integer cursorRow;
+    private Integer cursorColumn;
+    private Integer foreground;
+    private Integer background;
+
+    private Replies() {}
+
+    /** Returns true if the terminal replied at all, i.e. if it's really a terminal. */
+    boolean answered() {
+      return answered;
+    }
+
+    /**
+     * Returns the parameters of the terminal's {@code DA1} reply, e.g. {@code [62, 22]} for a VT220
+     * supporting ANSI color, or null if it didn't answer.
+     */
+    int[] deviceAttributes() {
+      return deviceAttributes == null ? null : deviceAttributes.clone();
+    }
+
+    /** Returns the 1-based row the cursor is on. */
+    Integer cursorRow() {
+      return cursorRow;
+    }
+
+    /** Returns the 1-based column the cursor is in. */
+    Integer cursorColumn() {
+      return cursorColumn;
+    }
+
+    /** Returns the default foreground color, as {@code 0xRRGGBB}. */
+    Integer foreground() {
+      return foreground;
+    }
+
+    /** Returns the default background color, as {@code 0xRRGGBB}. */
+    Integer background() {
+      return background;
+    }
+
+    @Override
+    public String toString() {
+      if (!answered) {
+        return "no reply";
+      }
+      return "DA1 " + Arrays.toString(deviceAttributes)
+          + (cursorRow != null ? ", cursor at " + cursorRow + "," + cursorColumn : "")
+          + (foreground != null ? String.format(", foreground #%06X", foreground) : "")
+          + (background != null ? String.format(", background #%06X", background) : "");
+    }
+  }
+}
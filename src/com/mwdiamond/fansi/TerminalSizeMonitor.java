@@ -0,0 +1,163 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkNotNull;
+
+import com.mwdiamond.fansi.AnsiUtils.ResizeListener;
+import com.mwdiamond.fansi.SystemInfo.SttySize;
+import com.mwdiamond.fansi.SystemInfo.TerminalSize;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the size of the terminal as it's resized, and notifies {@link ResizeListener}s of each
+ * change. The current size is a single immutable {@link TerminalSize}, so readers always see a
+ * consistent pair of columns and rows, and reading it is just a volatile read.
+ *
+ * <p>Once {@linkplain #watch watching}, the size is re-read whenever the JVM receives
+ * {@code SIGWINCH}, which terminals send to the foreground process whenever they're resized. The
+ * signal is handled via {@code sun.misc.Signal}, accessed reflectively since it isn't available on
+ * every JVM; if it can't be used (e.g. on Windows) the size is instead polled at a low frequency on
+ * the {@linkplain AnimationScheduler#shared shared scheduler}.
+ *
+ * <p>Listeners are called on the thread that noticed the change, so they should be quick and
+ * thread-safe.
+ */
+final class TerminalSizeMonitor {
+  private static final long POLL_PERIOD_SECONDS = 2;
+
+  private final SttySize stty;
+  private final CopyOnWriteArrayList<ResizeListener> listeners = new CopyOnWriteArrayList<>();
+  /** Counts refreshes requested while one is running, so bursts of signals are coalesced. */
+  private final AtomicInteger refreshRequests = new AtomicInteger();
+  private volatile TerminalSize size;
+
+  /**
+   * Creates a monitor starting at {@code initialSize}, which re-reads the size from {@code stty}
+   * when refreshed.
+   */
+  TerminalSizeMonitor(TerminalSize initialSize, SttySize stty) {
+    size = checkNotNull(initialSize);
+    this.stty = checkNotNull(stty);
+  }
+
+  /** Returns the most recently detected size. */
+  TerminalSize size() {
+    return size;
+  }
+
+  void addListener(ResizeListener listener) {
+    listeners.add(checkNotNull(listener));
+  }
+
+  void removeListener(ResizeListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Records a new size, notifying listeners if it differs from the previous size. Dimensions that
+   * are unknown in {@code newSize} keep their previous value.
+   */
+  void update(TerminalSize newSize) {
+    TerminalSize merged;
+    synchronized (this) {
+      TerminalSize previous = size;
+      merged = new TerminalSize(
+          newSize.columns != null ? newSize.columns : previous.columns,
+          newSize.rows != null ? newSize.rows : previous.rows);
+      if (merged.equals(previous)) {
+        return;
+      }
+      size = merged;
+    }
+    for (ResizeListener listener : listeners) {
+      try {
+        listener.resized(
+            merged.columns != null ? merged.columns : Ansi.DEFAULT_COLUMNS,
+            merged.rows != null ? merged.rows : Ansi.DEFAULT_ROWS);
+      } catch (RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+
+  /**
+   * Re-reads the size of the terminal. If called again while a refresh is in progress, e.g. by
+   * another signal, the size is read once more after the current refresh finishes rather than
+   * concurrently.
+   */
+  void refresh() {
+    if (refreshRequests.getAndIncrement() != 0) {
+      return; // the running refresh will go around again
+    }
+    do {
+      refreshRequests.set(1);
+      update(SystemInfo.getSize(null, null, stty));
+    } while (!refreshRequests.compareAndSet(1, 0));
+  }
+
+  /** Starts refreshing the size whenever the terminal is resized. */
+  void watch(AnimationScheduler scheduler) {
+    if (!handleSigwinch()) {
+      poll(scheduler, POLL_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  /** Refreshes the size periodically on {@code scheduler}. */
+  AnimationScheduler.Task poll(AnimationScheduler scheduler, long period, TimeUnit unit) {
+    return scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, period, period, unit);
+  }
+
+  /**
+   * Installs a {@code SIGWINCH} handler that refreshes the size, returning false if signals can't
+   * be handled on this JVM or platform. Any previously-installed handler is still called.
+   */
+  private boolean handleSigwinch() {
+    try {
+      final Class<?> signalClass = Class.forName("sun.misc.Signal");
+      final Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+      final Method handle = handlerClass.getMethod("handle", signalClass);
+      final Object defaultHandler = handlerClass.getField("SIG_DFL").get(null);
+      final Object ignoreHandler = handlerClass.getField("SIG_IGN").get(null);
+      final Object[] previous = new Object[1];
+
+      Object handler = Proxy.newProxyInstance(handlerClass.getClassLoader(),
+          new Class<?>[] {handlerClass}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+              switch (method.getName()) {
+                case "handle":
+                  refresh();
+                  Object chained = previous[0];
+                  if (chained != null && chained != defaultHandler && chained != ignoreHandler) {
+                    handle.invoke(chained, args);
+                  }
+                  return null;
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                default:
+                  return "SIGWINCH handler for " + TerminalSizeMonitor.this;
+              }
+            }
+          });
+      Object winch = signalClass.getConstructor(String.class).newInstance("WINCH");
+      previous[0] = signalClass.getMethod("handle", signalClass, handlerClass)
+          .invoke(null, winch, handler);
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      // Unknown signal (e.g. on Windows), signal already reserved by the JVM, or no sun.misc
+      return false;
+    }
+  }
+}
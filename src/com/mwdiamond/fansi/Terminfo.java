@@ -0,0 +1,368 @@
+package com.mwdiamond.fansi;
+
+import static com.mwdiamond.fansi.Preconditions.checkArgument;
+
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The capabilities of a terminal, read from its compiled
+ * <a href="https://man7.org/linux/man-pages/man5/term.5.html">terminfo</a> entry, e.g.
+ * {@code /usr/share/terminfo/x/xterm-256color}.
+ *
+ * <p>Only the capabilities that {@link Codes} depend on are read: the number of colors, whether
+ * true color is supported, and the presence of the string capabilities listed in
+ * {@link Capability}. Both the legacy format and the format with 32-bit numbers (used by ncurses
+ * 6.1+ for e.g. {@code colors#0x1000000}) are supported, as is the extended section used for the
+ * {@code Tc} and {@code RGB} true color flags.
+ *
+ * <p>Entries are a few kilobytes, so they're read with a single {@link FileInputStream#read(byte[],
+ * int, int) read} rather than memory-mapped, which would load dozens of NIO classes and add several
+ * milliseconds to startup. Entries are cached per {@code TERM} value, and instances are immutable.
+ */
+final class Terminfo {
+  private static final int MAGIC = 0432;
+  private static final int MAGIC_32BIT_NUMBERS = 01036;
+  private static final int HEADER_LENGTH = 12;
+  private static final int EXTENDED_HEADER_LENGTH = 10;
+
+  /** The index of {@code colors} (max_colors) among the numeric capabilities. */
+  private static final int MAX_COLORS = 13;
+  private static final int TRUE_COLOR_COLORS = 1 << 24;
+  /** Compiled entries are limited to 4096 bytes, or 32768 with 32-bit numbers. */
+  private static final int MAX_ENTRY_SIZE = 32768;
+
+  /** Cached entries by {@code TERM}; terminals without an entry map to {@link #MISSING}. */
+  private static final ConcurrentMap<String, Terminfo> CACHE = new ConcurrentHashMap<>();
+  private static final Terminfo MISSING =
+      new Terminfo("", -1, false, EnumSet.noneOf(Capability.class));
+
+  /**
+   * String capabilities that {@link Codes} methods rely on, with their indexes in the order
+   * defined by ncurses' {@code term.h} and their short names.
+   */
+  enum Capability {
+    CLEAR_SCREEN(5), // clear
+    CLR_EOL(6), // el
+    CLR_EOS(7), // ed
+    CURSOR_ADDRESS(10), // cup
+    CURSOR_INVISIBLE(13), // civis
+    CURSOR_NORMAL(16), // cnorm
+    EXIT_ATTRIBUTE_MODE(39), // sgr0
+    PARM_INDEX(109), // indn
+    PARM_RINDEX(113), // rin
+    RESTORE_CURSOR(126), // rc
+    SAVE_CURSOR(128), // sc
+    SET_A_FOREGROUND(359); // setaf
+
+    private final int index;
+
+    Capability(int index) {
+      this.index = index;
+    }
+
+    int index() {
+      return index;
+    }
+  }
+
+  private final String name;
+  private final int colors;
+  private final boolean trueColor;
+  private final Set<Capability> capabilities;
+
+  private Terminfo(String name, int colors, boolean trueColor, Set<Capability> capabilities) {
+    this.name = name;
+    this.colors = colors;
+    this.trueColor = trueColor;
+    this.capabilities = capabilities;
+  }
+
+  /**
+   * Returns the entry for the given {@code TERM}, or null if it's unset or has no readable entry.
+   * Each {@code TERM} is looked up at most once.
+   */
+  static Terminfo forTerm(String term) {
+    if (StringUtils.isNullOrEmpty(term) || term.contains("/") || term.startsWith(".")) {
+      return null;
+    }
+    Terminfo terminfo = CACHE.get(term);
+    if (terminfo == null) {
+      terminfo = MISSING;
+      File file = find(term, searchPath());
+      if (file != null) {
+        try {
+          terminfo = read(file);
+        } catch (IOException | RuntimeException e) {
+          // Unreadable or corrupt; behave as if there's no entry
+        }
+      }
+      CACHE.putIfAbsent(term, terminfo);
+    }
+    return terminfo == MISSING ? null : terminfo;
+  }
+
+  /**
+   * Returns the directories to search for entries, in the order ncurses searches them:
+   * {@code $TERMINFO}, {@code ~/.terminfo}, {@code $TERMINFO_DIRS}, then the system directories.
+   */
+  static List<File> searchPath() {
+    List<File> directories = new ArrayList<>();
+    String terminfo = System.getenv("TERMINFO");
+    if (!StringUtils.isNullOrEmpty(terminfo)) {
+      directories.add(new File(terminfo));
+    }
+    directories.add(new File(System.getProperty("user.home"), ".terminfo"));
+    String terminfoDirs = System.getenv("TERMINFO_DIRS");
+    if (!StringUtils.isNullOrEmpty(terminfoDirs)) {
+      for (String directory : terminfoDirs.split(File.pathSeparator)) {
+        // An empty entry means the system default
+        directories.add(new File(directory.isEmpty() ? "/usr/share/terminfo" : directory));
+      }
+    }
+    directories.add(new File("/etc/terminfo"));
+    directories.add(new File("/lib/terminfo"));
+    directories.add(new File("/usr/share/terminfo"));
+    return directories;
+  }
+
+  /**
+   * Finds the entry for {@code term} in the first directory that has one. Entries are stored in a
+   * subdirectory named either for their first character (e.g. {@code x/xterm}) or, on macOS, for
+   * its hex code (e.g. {@code 78/xterm}).
+   */
+  @VisibleForTesting
+  static File find(String term, List<File> directories) {
+    char first = term.charAt(0);
+    for (File directory : directories) {
+      File file = new File(new File(directory, String.valueOf(first)), term);
+      if (file.isFile()) {
+        return file;
+      }
+      file = new File(new File(directory, Integer.toHexString(first)), term);
+      if (file.isFile()) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /** Reads and parses a compiled entry. */
+  static Terminfo read(File file) throws IOException {
+    try (FileInputStream in = new FileInputStream(file)) {
+      byte[] bytes = new byte[(int) Math.min(file.length(), MAX_ENTRY_SIZE)];
+      int length = 0;
+      while (length < bytes.length) {
+        int read = in.read(bytes, length, bytes.length - length);
+        if (read == -1) {
+          break;
+        }
+        length += read;
+      }
+      return parse(ByteBuffer.wrap(bytes, 0, length));
+    }
+  }
+
+  /**
+   * Parses a compiled entry, reading only the capabilities of interest.
+   *
+   * @throws IllegalArgumentException if the buffer doesn't contain a compiled entry
+   * @throws IndexOutOfBoundsException if the entry is truncated
+   */
+  @VisibleForTesting
+  static Terminfo parse(ByteBuffer buffer) {
+    buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int magic = buffer.getShort(0);
+    checkArgument(magic == MAGIC || magic == MAGIC_32BIT_NUMBERS,
+        "Not a compiled terminfo entry, magic number was %s", Integer.toOctalString(magic));
+    int numberSize = magic == MAGIC_32BIT_NUMBERS ? 4 : 2;
+    int namesSize = checkedShort(buffer, 2);
+    int booleanCount = checkedShort(buffer, 4);
+    int numberCount = checkedShort(buffer, 6);
+    int stringCount = checkedShort(buffer, 8);
+    int stringTableSize = checkedShort(buffer, 10);
+
+    String name = readName(buffer, HEADER_LENGTH, namesSize);
+    int numbers = even(HEADER_LENGTH + namesSize + booleanCount);
+    int colors = numberCount > MAX_COLORS ? number(buffer, numbers, MAX_COLORS, numberSize) : -1;
+
+    int offsets = numbers + numberCount * numberSize;
+    Set<Capability> capabilities = EnumSet.noneOf(Capability.class);
+    for (Capability capability : Capability.values()) {
+      if (capability.index() < stringCount
+          && buffer.getShort(offsets + capability.index() * 2) >= 0) {
+        capabilities.add(capability);
+      }
+    }
+
+    int extended = even(offsets + stringCount * 2 + stringTableSize);
+    boolean trueColor = colors >= TRUE_COLOR_COLORS
+        || (buffer.limit() >= extended + EXTENDED_HEADER_LENGTH
+            && hasExtendedTrueColor(buffer, extended, numberSize));
+    return new Terminfo(name, colors, trueColor, capabilities);
+  }
+
+  /**
+   * Returns true if the extended section declares true color support, via the {@code Tc} flag
+   * used by tmux or the {@code RGB} capability standardized by ncurses, which may be a boolean,
+   * number, or string.
+   */
+  private static boolean hasExtendedTrueColor(ByteBuffer buffer, int start, int numberSize) {
+    int booleanCount = checkedShort(buffer, start);
+    int numberCount = checkedShort(buffer, start + 2);
+    int stringCount = checkedShort(buffer, start + 4);
+    int itemCount = checkedShort(buffer, start + 6);
+
+    int booleans = start + EXTENDED_HEADER_LENGTH;
+    int numbers = even(booleans + booleanCount);
+    int offsets = numbers + numberCount * numberSize;
+    int nameOffsets = offsets + stringCount * 2;
+    int table = offsets + itemCount * 2;
+
+    // The string table holds the string values, followed by the names of every capability
+    int lastValue = -1;
+    for (int i = 0; i < stringCount; i++) {
+      lastValue = Math.max(lastValue, buffer.getShort(offsets + i * 2));
+    }
+    int namesStart =
+        lastValue < 0 ? table : table + lastValue + length(buffer, table + lastValue) + 1;
+
+    for (int i = 0; i < booleanCount + numberCount + stringCount; i++) {
+      int nameStart = namesStart + buffer.getShort(nameOffsets + i * 2);
+      boolean tc = nameEquals(buffer, nameStart, "Tc");
+      if (!tc && !nameEquals(buffer, nameStart, "RGB")) {
+        continue;
+      }
+      if (i < booleanCount) {
+        if (buffer.get(booleans + i) == 1) {
+          return true;
+        }
+      } else if (i < booleanCount + numberCount) {
+        if (!tc && number(buffer, numbers, i - booleanCount, numberSize) >= 0) {
+          return true;
+        }
+      } else if (!tc) {
+        if (buffer.getShort(offsets + (i - booleanCount - numberCount) * 2) >= 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static int checkedShort(ByteBuffer buffer, int index) {
+    int value = buffer.getShort(index);
+    checkArgument(value >= 0, "Invalid terminfo header value at %s: %s", index, value);
+    return value;
+  }
+
+  /** Reads a numeric capability; negative values mean absent or cancelled. */
+  private static int number(ByteBuffer buffer, int start, int index, int numberSize) {
+    return numberSize == 4
+        ? buffer.getInt(start + index * 4) : buffer.getShort(start + index * 2);
+  }
+
+  private static int even(int position) {
+    return position + (position & 1);
+  }
+
+  /** Returns the length of the NUL-terminated string at {@code start}. */
+  private static int length(ByteBuffer buffer, int start) {
+    int end = start;
+    while (buffer.get(end) != 0) {
+      end++;
+    }
+    return end - start;
+  }
+
+  /** Compares a NUL-terminated ASCII string in the buffer to {@code name}, without allocating. */
+  private static boolean nameEquals(ByteBuffer buffer, int start, String name) {
+    for (int i = 0; i < name.length(); i++) {
+      if (buffer.get(start + i) != name.charAt(i)) {
+        return false;
+      }
+    }
+    return buffer.get(start + name.length()) == 0;
+  }
+
+  /** Reads the primary name, i.e. up to the first {@code |} of the names section. */
+  private static String readName(ByteBuffer buffer, int start, int size) {
+    StringBuilder name = new StringBuilder();
+    for (int i = start; i < start + size; i++) {
+      char c = (char) (buffer.get(i) & 0xFF);
+      if (c == '|' || c == 0) {
+        break;
+      }
+      name.append(c);
+    }
+    return name.toString();
+  }
+
+  /** Returns the terminal's primary name, e.g. {@code xterm-256color}. */
+  String name() {
+    return name;
+  }
+
+  /** Returns the number of colors the terminal supports, or -1 if it doesn't support colors. */
+  int colors() {
+    return colors;
+  }
+
+  /** Returns true if the terminal supports RGB colors. */
+  boolean trueColor() {
+    return trueColor;
+  }
+
+  boolean has(Capability capability) {
+    return capabilities.contains(capability);
+  }
+
+  /**
+   * Returns the color depth the terminal supports, or null if it doesn't support colors. Terminals
+   * that declare 8 colors generally support the bright variants as well, so are treated as
+   * supporting all 16 named colors.
+   */
+  ColorDepth colorDepth() {
+    if (trueColor) {
+      return ColorDepth.TRUE_COLOR;
+    }
+    if (colors >= 256) {
+      return ColorDepth.COLORS_256;
+    }
+    if (colors >= 8) {
+      return ColorDepth.COLORS_16;
+    }
+    return null;
+  }
+
+  /**
+   * Restricts {@code codes} to the capabilities of this terminal, so that sequences it doesn't
+   * support are never written. Terminals without cursor addressing or attributes, such as
+   * {@code dumb}, get no codes at all.
+   */
+  Codes restrict(Codes codes) {
+    if (!has(Capability.CURSOR_ADDRESS) && !has(Capability.EXIT_ATTRIBUTE_MODE)) {
+      return Codes.NO_OP;
+    }
+    if (capabilities.size() == Capability.values().length) {
+      return codes;
+    }
+    return new Codes.CapabilityCodes(codes, this);
+  }
+
+  @Override
+  public String toString() {
+    return name + " (colors: " + colors + (trueColor ? ", true color" : "")
+        + ", capabilities: " + capabilities + ")";
+  }
+}
@@ -0,0 +1,13 @@
+package com.mwdiamond.fansi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Indicates that a member is more visible than it otherwise needs to be, so that it can be used by
+ * tests. Equivalent to Guava's annotation of the same name, which this library doesn't depend on.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@interface VisibleForTesting {}
@@ -0,0 +1,111 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AnimationScheduler}.
+ */
+public class AnimationSchedulerTest {
+  private AnsiForTests.FakeClock clock;
+  private AnimationScheduler scheduler;
+  private List<String> events;
+
+  @BeforeMethod
+  private void setUp() {
+    clock = new AnsiForTests.FakeClock();
+    scheduler = new AnimationScheduler(clock);
+    events = new ArrayList<>();
+  }
+
+  private Runnable record(final String name) {
+    return () -> events.add(name + "@" + TimeUnit.NANOSECONDS.toMillis(clock.nanoTime()));
+  }
+
+  @Test
+  public void noTasks() {
+    assertThat(scheduler.runDue()).isEqualTo(-1);
+  }
+
+  @Test
+  public void runsTasksInDeadlineOrder() {
+    scheduler.schedule(record("slow"), 0, 300, TimeUnit.MILLISECONDS);
+    scheduler.schedule(record("fast"), 100, 100, TimeUnit.MILLISECONDS);
+
+    for (int i = 0; i < 4; i++) {
+      scheduler.runDue();
+      clock.advance(100, TimeUnit.MILLISECONDS);
+    }
+
+    assertThat(events)
+        .containsExactly("slow@0", "fast@100", "fast@200", "slow@300", "fast@300")
+        .inOrder();
+  }
+
+  @Test
+  public void returnsDelayUntilNextTask() {
+    scheduler.schedule(record("a"), 50, 100, TimeUnit.MILLISECONDS);
+    assertThat(scheduler.runDue()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    clock.advance(50, TimeUnit.MILLISECONDS);
+    assertThat(scheduler.runDue()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    assertThat(events).containsExactly("a@50");
+  }
+
+  @Test
+  public void skipsMissedFrames() {
+    scheduler.schedule(record("a"), 0, 100, TimeUnit.MILLISECONDS);
+    scheduler.runDue();
+    clock.advance(1, TimeUnit.SECONDS);
+    scheduler.runDue();
+    clock.advance(100, TimeUnit.MILLISECONDS);
+    scheduler.runDue();
+
+    assertThat(events).containsExactly("a@0", "a@1000", "a@1100").inOrder();
+  }
+
+  @Test
+  public void cancel() {
+    AnimationScheduler.Task task = scheduler.schedule(record("a"), 0, 100, TimeUnit.MILLISECONDS);
+    scheduler.runDue();
+    task.cancel();
+    clock.advance(1, TimeUnit.SECONDS);
+
+    assertThat(scheduler.runDue()).isEqualTo(-1);
+    assertThat(events).containsExactly("a@0");
+  }
+
+  @Test
+  public void failingTaskIsCancelled() {
+    scheduler.schedule(() -> {
+      throw new IllegalStateException("expected");
+    }, 0, 100, TimeUnit.MILLISECONDS);
+    Thread.UncaughtExceptionHandler handler = Thread.currentThread().getUncaughtExceptionHandler();
+    Thread.currentThread().setUncaughtExceptionHandler((t, e) -> events.add(e.getMessage()));
+    try {
+      scheduler.runDue();
+    } finally {
+      Thread.currentThread().setUncaughtExceptionHandler(handler);
+    }
+
+    assertThat(scheduler.runDue()).isEqualTo(-1);
+    assertThat(events).containsExactly("expected");
+  }
+
+  @Test
+  public void sharedSchedulerRunsTasks() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(3);
+    AnimationScheduler.Task task =
+        AnimationScheduler.shared().schedule(latch::countDown, 0, 1, TimeUnit.MILLISECONDS);
+    try {
+      assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      task.cancel();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.AnsiParser.Params;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AnsiParser}.
+ */
+public class AnsiParserTest {
+  /** Records each event as a bracketed token, and text as-is. */
+  private static class Recorder extends AnsiParser.Visitor {
+    final StringBuilder events = new StringBuilder();
+
+    @Override
+    public void text(char[] chars, int offset, int length) {
+      events.append(chars, offset, length);
+    }
+
+    @Override
+    public void control(char control) {
+      events.append("[C").append((int) control).append(']');
+    }
+
+    @Override
+    public void escape(char intermediate, char finalChar) {
+      events.append("[ESC");
+      if (intermediate != 0) {
+        events.append(intermediate);
+      }
+      events.append(finalChar).append(']');
+    }
+
+    @Override
+    public void csi(Params params, char finalChar) {
+      events.append("[CSI").append(params).append(finalChar).append(']');
+    }
+
+    @Override
+    public void sgr(Params params) {
+      events.append("[SGR").append(params).append(']');
+    }
+
+    @Override
+    public void osc(int command, char[] chars, int offset, int length) {
+      events.append("[OSC").append(command).append(':').append(chars, offset, length).append(']');
+    }
+  }
+
+  private Recorder recorder;
+  private AnsiParser parser;
+
+  @BeforeMethod
+  private void reset() {
+    recorder = new Recorder();
+    parser = new AnsiParser(recorder);
+  }
+
+  private String parse(String input) {
+    parser.parse(CharBuffer.wrap(input.toCharArray()));
+    return recorder.events.toString();
+  }
+
+  /** Parses the input as UTF-8, a byte at a time. */
+  private String parseBytewise(String input) {
+    byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < bytes.length; i++) {
+      parser.parse(bytes, i, 1);
+    }
+    parser.finish();
+    return recorder.events.toString();
+  }
+
+  @Test
+  public void text() {
+    assertThat(parse("Hello World")).isEqualTo("Hello World");
+  }
+
+  @Test
+  public void controls() {
+    assertThat(parse("a\tb\r\nc\u007F")).isEqualTo("a[C9]b[C13][C10]c[C127]");
+  }
+
+  @Test
+  public void sgr() {
+    assertThat(parse("\u001B[1;31mred\u001B[m")).isEqualTo("[SGR1;31]red[SGR]");
+    assertThat(parse("\u001B[38;2;255;0;0m")).endsWith("[SGR38;2;255;0;0]");
+  }
+
+  @Test
+  public void sgrParams() {
+    final StringBuilder values = new StringBuilder();
+    parser = new AnsiParser(new AnsiParser.Visitor() {
+      @Override
+      public void sgr(Params params) {
+        for (int i = 0; i < params.size(); i++) {
+          values.append(params.get(i, 0)).append(params.isSubParameter(i) ? "s " : " ");
+        }
+      }
+    });
+    parse("\u001B[;1;38:2::10:20:30m");
+    assertThat(values.toString()).isEqualTo("0 1 38 2s 0s 10s 20s 30s ");
+  }
+
+  @Test
+  public void csi() {
+    assertThat(parse("\u001B[2J\u001B[12;40H\u001B[?25l\u001B[1 q"))
+        .isEqualTo("[CSI2J][CSI12;40H][CSI?25l][CSI1 q]");
+  }
+
+  @Test
+  public void csiWithPrivateMarkerIsNotSgr() {
+    assertThat(parse("\u001B[>4;2m")).isEqualTo("[CSI>4;2m]");
+  }
+
+  @Test
+  public void malformedCsiIgnored() {
+    assertThat(parse("\u001B[1?2Hok")).isEqualTo("ok");
+  }
+
+  @Test
+  public void controlsInsideCsi() {
+    assertThat(parse("\u001B[1\n2H")).isEqualTo("[C10][CSI12H]");
+  }
+
+  @Test
+  public void escapes() {
+    assertThat(parse("\u001B7\u001B(B\u001B8")).isEqualTo("[ESC7][ESC(B][ESC8]");
+  }
+
+  @Test
+  public void osc() {
+    assertThat(parse("\u001B]2;title\u0007\u001B]8;;http://example.com\u001B\\link"))
+        .isEqualTo("[OSC2:title][OSC8:;http://example.com]link");
+  }
+
+  @Test
+  public void oscWithoutCommand() {
+    assertThat(parse("\u001B]title\u0007")).isEqualTo("[OSC-1:title]");
+  }
+
+  @Test
+  public void oscEndedByEscape() {
+    assertThat(parse("\u001B]2;title\u001B[1m")).isEqualTo("[OSC2:title][SGR1]");
+  }
+
+  @Test
+  public void stringsSkipped() {
+    assertThat(parse("a\u001BPq#0;2;0;0;0\u001B\\b\u001B_apc\u009Cc")).isEqualTo("abc");
+  }
+
+  @Test
+  public void c1Controls() {
+    assertThat(parse("\u009B1m\u009D0;t\u009C\u0085")).isEqualTo("[SGR1][OSC0:t][C133]");
+  }
+
+  @Test
+  public void cancel() {
+    assertThat(parse("\u001B[12\u0018x")).isEqualTo("[C24]x");
+  }
+
+  @Test
+  public void splitAcrossChunks() {
+    parse("\u001B[3");
+    parse("1;");
+    parse("1mre");
+    assertThat(parse("d\u001B]2;ti")).isEqualTo("[SGR31;1]red");
+    assertThat(parse("tle\u0007")).isEqualTo("[SGR31;1]red[OSC2:title]");
+  }
+
+  @Test
+  public void utf8SplitAcrossChunks() {
+    assertThat(parseBytewise("\u001B[1mé€😀\u001B[m"))
+        .isEqualTo("[SGR1]é€😀[SGR]");
+  }
+
+  @Test
+  public void malformedUtf8() {
+    byte[] bytes = {'a', (byte) 0xC3, 'b', (byte) 0x80, (byte) 0xC0, (byte) 0xAF, (byte) 0xE2};
+    parser.parse(bytes, 0, bytes.length);
+    assertThat(parser.inSequence()).isTrue();
+    parser.finish();
+    assertThat(parser.inSequence()).isFalse();
+    assertThat(recorder.events.toString()).isEqualTo("a\uFFFDb\uFFFD\uFFFD\uFFFD\uFFFD");
+  }
+
+  @Test
+  public void tooManyParams() {
+    StringBuilder input = new StringBuilder("\u001B[");
+    for (int i = 0; i < AnsiParser.MAX_PARAMS + 5; i++) {
+      input.append(i % 10).append(';');
+    }
+    input.append("99999999m");
+    final int[] size = new int[1];
+    parser = new AnsiParser(new AnsiParser.Visitor() {
+      @Override
+      public void sgr(Params params) {
+        size[0] = params.size();
+      }
+    });
+    parse(input.toString());
+    assertThat(size[0]).isEqualTo(AnsiParser.MAX_PARAMS);
+  }
+
+  @Test
+  public void longOscTruncated() {
+    StringBuilder input = new StringBuilder("\u001B]2;");
+    for (int i = 0; i < AnsiParser.MAX_OSC_LENGTH; i++) {
+      input.append('x');
+    }
+    final int[] length = new int[1];
+    parser = new AnsiParser(new AnsiParser.Visitor() {
+      @Override
+      public void osc(int command, char[] chars, int offset, int oscLength) {
+        length[0] = oscLength;
+      }
+    });
+    parse(input.append("\u0007").toString());
+    assertThat(length[0]).isEqualTo(AnsiParser.MAX_OSC_LENGTH - 2);
+  }
+
+  @Test
+  public void sgrDefaultsToCsi() {
+    final StringBuilder finals = new StringBuilder();
+    parser = new AnsiParser(new AnsiParser.Visitor() {
+      @Override
+      public void csi(Params params, char finalChar) {
+        finals.append(finalChar);
+      }
+    });
+    parse("\u001B[1m\u001B[2K");
+    assertThat(finals.toString()).isEqualTo("mK");
+  }
+}
@@ -4,12 +4,15 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
 
 import com.mwdiamond.fansi.Ansi.Color;
 import com.mwdiamond.fansi.Ansi.Font;
 import com.mwdiamond.fansi.Ansi.Style;
 
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -86,6 +89,97 @@ public class AnsiTest {
     }
   }
 
+  /** The original, allocating implementation of {@link Ansi#toColorIndex}. */
+  private static int referenceColorIndex(int red, int green, int blue) {
+    int[] indicies = {toCode(red), toCode(green), toCode(blue)};
+    if (ImmutableSet.copyOf(Ints.asList(indicies)).size() > 1) {
+      return 0x10 + 0x24 * indicies[0] + 0x06 * indicies[1] + indicies[2];
+    }
+    int average = (red + green + blue) / 3;
+    int greycode = (average - 0x08) / 0x0A;
+    if (greycode <= 0) {
+      return 0x10;
+    } else if (greycode > 23) {
+      return 0xE7;
+    }
+    return 0xE8 + greycode;
+  }
+
+  private static int toCode(int component) {
+    return Math.max(0, (component - 55) / 40);
+  }
+
+  @Test
+  public void toColorIndex_matchesReference() {
+    for (int rgb = 0; rgb <= 0xFFFFFF; rgb++) {
+      int expected = referenceColorIndex((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+      if (Ansi.toColorIndex(rgb) != expected) {
+        assertWithMessage("RGB %s", Integer.toHexString(rgb))
+            .that(Ansi.toColorIndex(rgb)).isEqualTo(expected);
+      }
+    }
+  }
+
+  @Test
+  public void toColorIndex_ignoresAlpha() {
+    assertThat(Ansi.toColorIndex(0x80FF0000)).isEqualTo(Ansi.toColorIndex(0xFF0000));
+    assertThat(Ansi.toColorIndex(new java.awt.Color(255, 0, 0, 10))).isEqualTo(0xC4);
+  }
+
+  @Test
+  public void delay() {
+    long start = System.nanoTime();
+    ansi().out("a").delay(TimeUnit.HOURS.toMillis(1)).out("b");
+    assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(1L);
+    assertThat(ansiForTests.getStdout()).isEqualTo("ab");
+  }
+
+  @Test
+  public void redirectedStdout() {
+    AnsiForTests.SystemInfoForTests systemInfo = new AnsiForTests.SystemInfoForTests();
+    systemInfo.setEscapes(false, true);
+    ansiForTests = new AnsiForTests(Codes.RAW, systemInfo);
+    ansi().color(Color.RED).outln(HELLO).color(Color.RED).errln(HELLO).title(HELLO);
+    assertThat(ansiForTests.getStdout()).isEqualTo(HELLO + LN);
+    assertThat(ansiForTests.getStderr()).isEqualTo("\\e[31m" + HELLO + "\\e[m" + LN);
+    assertThat(ansi().codes()).isSameAs(Codes.NO_OP);
+    assertThat(ansi().interactive()).isFalse();
+  }
+
+  @Test
+  public void redirectedStdout_strip() {
+    AnsiForTests.SystemInfoForTests systemInfo = new AnsiForTests.SystemInfoForTests();
+    systemInfo.setEscapes(false, true);
+    systemInfo.setStripRedirected(true);
+    ansiForTests = new AnsiForTests(Codes.REAL, systemInfo);
+    ansi().color(Color.RED).out("\u001B[1m" + HELLO).out("\u001B]2;title\u0007").outln();
+    ansi().err("\u001B[1m" + HELLO);
+    assertThat(ansiForTests.getStdout()).isEqualTo(HELLO + LN);
+    assertThat(ansiForTests.getStderr()).isEqualTo("\u001B[1m" + HELLO);
+  }
+
+  @Test
+  public void html() {
+    ansiForTests = new AnsiForTests(Codes.HTML, new AnsiForTests.SystemInfoForTests());
+    ansi().color(Color.RED, Font.F2).background(Color.BLUE).out("<b>")
+        .overwriteThisLine().outln("&").err("%s", "<");
+    assertThat(ansiForTests.getStdout()).isEqualTo("<span class=\"fansi-f2 fansi-fg1\">"
+        + "<span class=\"fansi-bg4\">&lt;b&gt;</span></span>&amp;" + LN);
+    assertThat(ansiForTests.getStderr()).isEqualTo("&lt;");
+    assertThat(ansi().interactive()).isFalse();
+  }
+
+  @Test
+  public void redirectedStderr() {
+    AnsiForTests.SystemInfoForTests systemInfo = new AnsiForTests.SystemInfoForTests();
+    systemInfo.setEscapes(null, false);
+    ansiForTests = new AnsiForTests(Codes.RAW, systemInfo);
+    ansi().color(Color.RED).out(HELLO).color(Color.RED).err(HELLO);
+    assertThat(ansiForTests.getStdout()).isEqualTo("\\e[31m" + HELLO + "\\e[m");
+    assertThat(ansiForTests.getStderr()).isEqualTo(HELLO);
+    assertThat(ansi().codes()).isSameAs(Codes.RAW);
+  }
+
   @Test
   @ChangeDetector(timesUpdated = 1)
   public void setTitle() {
@@ -150,6 +244,26 @@ public class AnsiTest {
         .isEqualTo("\\e[38;2;255;0;0;48;2;0;0;255m" + HELLO + "\\e[m");
   }
 
+  @Test
+  @ChangeDetector(timesUpdated = 0)
+  public void colorRgb() {
+    ansi().colorRgb(0xFF0000, 0x0000FF).out(HELLO);
+    assertThat(ansiForTests.getStdout())
+        .isEqualTo("\\e[38;2;255;0;0;48;2;0;0;255m" + HELLO + "\\e[m");
+  }
+
+  @Test
+  public void colorRgb_ignoresAlpha() {
+    ansi().colorRgb(0x80102030).out(HELLO);
+    assertThat(ansiForTests.getStdout()).isEqualTo("\\e[38;2;16;32;48m" + HELLO + "\\e[m");
+  }
+
+  @Test
+  public void backgroundRgb() {
+    ansi().backgroundRgb(0x00FF00, Style.BOLD).out(HELLO);
+    assertThat(ansiForTests.getStdout()).isEqualTo("\\e[1;48;2;0;255;0m" + HELLO + "\\e[m");
+  }
+
   @Test
   @ChangeDetector(timesUpdated = 0)
   public void moveCursor() {
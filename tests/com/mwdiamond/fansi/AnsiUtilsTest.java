@@ -3,7 +3,26 @@ package com.mwdiamond.fansi;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -113,6 +132,80 @@ public class AnsiUtilsTest {
         .isEqualTo(CL + "[======================            ] 67%");
   }
 
+  @Test
+  public void progressBar_resized() {
+    ansiForTests = new AnsiForTests(
+        Codes.RAW, new AnsiForTests.SystemInfoForTests(null, 40));
+    ansiUtils = AnsiUtils.create(ansiForTests);
+
+    AnsiUtils.ProgressBar progressBar = ansiUtils.percentProgressBar();
+    ansiForTests.resize(20, 10);
+    progressBar.updateSteps(10, 15);
+
+    assertThat(ansiForTests.getStdout()).isEqualTo(CL + "[=========     ] 67%");
+  }
+
+  @Test
+  public void resizeListener() {
+    final List<String> sizes = new ArrayList<>();
+    AnsiUtils.ResizeListener listener = new AnsiUtils.ResizeListener() {
+      @Override
+      public void resized(int columns, int rows) {
+        sizes.add(columns + "x" + rows);
+      }
+    };
+    ansiUtils.addResizeListener(listener);
+    ansiForTests.resize(100, 30);
+    ansiForTests.resize(100, 30);
+    ansiForTests.resize(120, 30);
+    ansiUtils.removeResizeListener(listener);
+    ansiForTests.resize(80, 24);
+
+    assertThat(sizes).containsExactly("100x30", "120x30").inOrder();
+  }
+
+  @Test
+  public void terminalColors() {
+    AnsiForTests.SystemInfoForTests systemInfo = new AnsiForTests.SystemInfoForTests();
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    systemInfo.setQueries(TerminalQueries.streams(sent, new ByteArrayInputStream(
+        "\u001B]11;rgb:0000/0000/0000\u001B\\\u001B[?1;2c".getBytes(StandardCharsets.US_ASCII)),
+        new AnsiForTests.FakeClock(), 1, TimeUnit.SECONDS));
+    ansiUtils = AnsiUtils.create(new AnsiForTests(Codes.RAW, systemInfo));
+
+    assertThat(ansiUtils.backgroundColor()).isEqualTo(0x000000);
+    assertThat(ansiUtils.foregroundColor()).isNull();
+    // Only queried once
+    assertThat(sent.toString()).isEqualTo("\u001B]10;?\u001B\\\u001B]11;?\u001B\\\u001B[c");
+  }
+
+  @Test
+  public void terminalColors_noOpCodes() {
+    AnsiForTests.SystemInfoForTests systemInfo = new AnsiForTests.SystemInfoForTests();
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    systemInfo.setQueries(TerminalQueries.streams(sent, new ByteArrayInputStream(new byte[0]),
+        new AnsiForTests.FakeClock(), 1, TimeUnit.SECONDS));
+    ansiUtils = AnsiUtils.create(new AnsiForTests(Codes.NO_OP, systemInfo));
+
+    assertThat(ansiUtils.backgroundColor()).isNull();
+    assertThat(ansiUtils.cursorPosition()).isNull();
+    assertThat(sent.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void cursorPosition() {
+    AnsiForTests.SystemInfoForTests systemInfo = new AnsiForTests.SystemInfoForTests();
+    systemInfo.setQueries(TerminalQueries.streams(new ByteArrayOutputStream(),
+        new ByteArrayInputStream("\u001B[24;80R\u001B[?1;2c".getBytes(StandardCharsets.US_ASCII)),
+        new AnsiForTests.FakeClock(), 1, TimeUnit.SECONDS));
+    ansiUtils = AnsiUtils.create(new AnsiForTests(Codes.RAW, systemInfo));
+
+    AnsiUtils.CursorPosition position = ansiUtils.cursorPosition();
+    assertThat(position.row()).isEqualTo(24);
+    assertThat(position.column()).isEqualTo(80);
+    assertThat(ansiUtils.cursorPosition()).isNull(); // no more replies
+  }
+
   @Test
   public void progressBar_remove() {
     AnsiUtils.ProgressBar progressBar = ansiUtils.percentProgressBar();
@@ -205,4 +298,219 @@ public class AnsiUtilsTest {
 
     progressBar.finish();
   }
+
+  @Test
+  public void progressBar_logMode_autoDetected() {
+    ansiForTests = new AnsiForTests(Codes.RAW, new AnsiForTests.SystemInfoForTests(
+        null, 40, false, new AnsiForTests.FakeClock()));
+    ansiUtils = AnsiUtils.create(ansiForTests);
+
+    AnsiUtils.ProgressBar progressBar = ansiUtils.percentProgressBar();
+    for (int i = 0; i <= 100; i++) {
+      progressBar.updateProgress(i);
+    }
+    progressBar.finish();
+
+    String out = ansiForTests.getStdout();
+    assertThat(out).doesNotContain("\\e");
+    assertThat(out.split(LN)).hasLength(11); // 0%, 10%, ... 100%
+    assertThat(out).endsWith("[=================================] 100%" + LN);
+  }
+
+  @Test
+  public void progressBar_logMode_noOpCodes() {
+    ansiForTests = new AnsiForTests(Codes.NO_OP, new AnsiForTests.SystemInfoForTests());
+    ansiUtils = AnsiUtils.create(ansiForTests);
+
+    AnsiUtils.ProgressBar progressBar = ansiUtils.counterProgressBar(1000);
+    for (int i = 1; i <= 1000; i++) {
+      progressBar.updateProgress(i);
+    }
+    progressBar.finish();
+    assertThat(ansiForTests.getStdout().split(LN)).hasLength(11); // 1, 100, 200, ... 1000
+  }
+
+  @Test
+  public void progressBar_logMode_milestonesAndInterval() {
+    AnsiForTests.FakeClock clock = new AnsiForTests.FakeClock();
+    ansiForTests = new AnsiForTests(
+        Codes.RAW, new AnsiForTests.SystemInfoForTests(null, 40, null, clock));
+    ansiUtils = AnsiUtils.create(ansiForTests);
+
+    AnsiUtils.ProgressBar progressBar = ansiUtils.progressBarBuilder()
+        .mode(AnsiUtils.ProgressBar.Mode.LOG)
+        .logMilestones(50)
+        .logInterval(1, TimeUnit.MINUTES)
+        .usingCounter(100);
+    progressBar.updateProgress(1);
+    progressBar.updateProgress(2);
+    clock.advance(59, TimeUnit.SECONDS);
+    progressBar.updateProgress(3);
+    clock.advance(1, TimeUnit.SECONDS);
+    progressBar.updateProgress(4);
+    clock.advance(1, TimeUnit.MINUTES);
+    progressBar.updateProgress(4); // unchanged, not logged again
+    progressBar.updateProgress(50);
+    progressBar.updateProgress(51);
+    progressBar.remove();
+
+    assertThat(ansiForTests.getStdout()).isEqualTo(
+        "[                                ] 1/100" + LN
+        + "[=                               ] 4/100" + LN
+        + "[===============                ] 50/100" + LN);
+  }
+
+  @Test
+  public void progressBar_interactiveModeForced() {
+    ansiForTests = new AnsiForTests(Codes.RAW, new AnsiForTests.SystemInfoForTests(
+        null, 40, false, new AnsiForTests.FakeClock()));
+    ansiUtils = AnsiUtils.create(ansiForTests);
+
+    AnsiUtils.ProgressBar progressBar = ansiUtils.progressBarBuilder()
+        .mode(AnsiUtils.ProgressBar.Mode.INTERACTIVE)
+        .usingPercent();
+    progressBar.updateSteps(10, 15);
+
+    assertThat(ansiForTests.getStdout())
+        .isEqualTo(CL + "[======================            ] 67%");
+  }
+
+  @Test
+  public void spinner() {
+    AnsiUtils.Spinner spinner = ansiUtils.spinner("Working on %s", "it");
+    ansiForTests.advanceTime(100, TimeUnit.MILLISECONDS);
+    ansiForTests.advanceTime(50, TimeUnit.MILLISECONDS); // no new frame
+    ansiForTests.advanceTime(50, TimeUnit.MILLISECONDS);
+    ansiForTests.advanceTime(1, TimeUnit.SECONDS);
+    spinner.updateMessage("Still working");
+    spinner.finish();
+    ansiForTests.advanceTime(1, TimeUnit.SECONDS); // no longer animated
+
+    assertThat(ansiForTests.getStdout()).isEqualTo(
+        CL + "| Working on it"
+        + CL + "/ Working on it"
+        + CL + "- Working on it"
+        + CL + "\\ Working on it (1s)"
+        + CL + "\\ Still working (1s)"
+        + CL + "Still working (1s)" + LN);
+  }
+
+  @Test
+  public void spinner_remove() {
+    AnsiUtils.Spinner spinner = ansiUtils.spinner("Working");
+    ansiForTests.advanceTime(100, TimeUnit.MILLISECONDS);
+    spinner.remove();
+
+    assertThat(ansiForTests.getStdout()).isEqualTo(CL + "| Working" + CL + "/ Working" + CL);
+    IllegalStateException e =
+        Assert.expectThrows(IllegalStateException.class, () -> spinner.updateMessage("foo"));
+    assertThat(e).hasMessageThat().contains("can no longer be updated");
+  }
+
+  @Test
+  public void spinner_notInteractive() {
+    ansiForTests = new AnsiForTests(Codes.NO_OP, new AnsiForTests.SystemInfoForTests());
+    ansiUtils = AnsiUtils.create(ansiForTests);
+
+    AnsiUtils.Spinner spinner = ansiUtils.spinner("Working");
+    ansiForTests.advanceTime(90, TimeUnit.SECONDS);
+    spinner.finish();
+
+    assertThat(ansiForTests.getStdout()).isEqualTo("Working" + LN + "Working (1m30s)" + LN);
+  }
+
+  private int renderCount() {
+    return ansiForTests.getStdout().split(Pattern.quote(CL), -1).length - 1;
+  }
+
+  @Test
+  public void trackProgress_inputStream() throws Exception {
+    byte[] data = new byte[100_000];
+    AnsiUtils.ProgressBar progressBar = ansiUtils.percentProgressBar();
+    try (InputStream in =
+        AnsiUtils.trackProgress(new ByteArrayInputStream(data), data.length, progressBar)) {
+      assertThat(ByteStreams.toByteArray(in)).hasLength(data.length);
+    }
+
+    assertThat(ansiForTests.getStdout()).endsWith("] 100%");
+    assertThat(renderCount()).isLessThan(1500); // rendered in batches, not per read() call
+  }
+
+  @Test
+  public void trackProgress_inputStream_singleBytes() throws Exception {
+    AnsiUtils.ProgressBar progressBar = ansiUtils.counterProgressBar(1);
+    InputStream in = AnsiUtils.trackProgress(new ByteArrayInputStream(new byte[5]), 5, progressBar);
+    while (in.read() >= 0) {}
+
+    assertThat(ansiForTests.getStdout()).endsWith("] 5/5");
+    assertThat(in.markSupported()).isFalse();
+  }
+
+  @Test
+  public void trackProgress_outputStream() throws Exception {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    AnsiUtils.ProgressBar progressBar = ansiUtils.counterProgressBar(1);
+    try (OutputStream out = AnsiUtils.trackProgress(sink, 10, progressBar)) {
+      out.write(new byte[4]);
+      out.write(1);
+      out.write(new byte[10], 0, 5);
+    }
+
+    assertThat(sink.size()).isEqualTo(10);
+    assertThat(ansiForTests.getStdout()).endsWith("] 10/10");
+  }
+
+  @Test
+  public void trackProgress_channels() throws Exception {
+    byte[] data = new byte[50_000];
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    AnsiUtils.ProgressBar reads = ansiUtils.percentProgressBar();
+    AnsiUtils.ProgressBar writes = ansiUtils.percentProgressBar();
+    try (ReadableByteChannel in = AnsiUtils.trackReads(
+            Channels.newChannel(new ByteArrayInputStream(data)), data.length, reads);
+        WritableByteChannel out =
+            AnsiUtils.trackWrites(Channels.newChannel(sink), data.length, writes)) {
+      ByteBuffer buffer = ByteBuffer.allocate(4096);
+      while (in.read(buffer) >= 0) {
+        buffer.flip();
+        out.write(buffer);
+        buffer.clear();
+      }
+    }
+
+    assertThat(sink.size()).isEqualTo(data.length);
+    assertThat(ansiForTests.getStdout()).endsWith("] 100%" + CL + "[" + Strings.repeat("=", 73)
+        + "] 100%");
+  }
+
+  @Test
+  public void trackProgress_overflowsInt() {
+    AnsiUtils.ProgressBar progressBar = ansiUtils.percentProgressBar();
+    long total = 10L * Integer.MAX_VALUE;
+    new ProgressStreams.ByteCounter(progressBar, total).add(total / 2);
+
+    assertThat(ansiForTests.getStdout()).endsWith("] 50%");
+  }
+
+  @Test
+  public void transferWithProgress() throws Exception {
+    File source = File.createTempFile("fansi", ".src");
+    File target = File.createTempFile("fansi", ".dst");
+    source.deleteOnExit();
+    target.deleteOnExit();
+    byte[] data = new byte[3 << 20];
+    data[data.length - 1] = 42;
+    Files.write(source.toPath(), data);
+
+    AnsiUtils.ProgressBar progressBar = ansiUtils.percentProgressBar();
+    try (FileChannel in = new RandomAccessFile(source, "r").getChannel();
+        FileChannel out = new RandomAccessFile(target, "rw").getChannel()) {
+      assertThat(AnsiUtils.transferWithProgress(in, out, progressBar)).isEqualTo(data.length);
+      assertThat(in.position()).isEqualTo(data.length);
+    }
+
+    assertThat(Files.readAllBytes(target.toPath())).isEqualTo(data);
+    assertThat(renderCount()).isEqualTo(4); // one per 1MB chunk, and a final update
+    assertThat(ansiForTests.getStdout()).endsWith("] 100%");
+  }
 }
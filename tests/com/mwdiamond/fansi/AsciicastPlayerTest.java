@@ -0,0 +1,112 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.testng.Assert.fail;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.AnsiForTests.FakeClock;
+import com.mwdiamond.fansi.AnsiForTests.SystemInfoForTests;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AsciicastPlayer}.
+ */
+public class AsciicastPlayerTest {
+  private static final String RECORDING = "{\"version\": 2, \"width\": 80, \"height\": 24}\n"
+      + "[0.25, \"o\", \"\\u001b[1mbold\\u001b[m \"]\n"
+      + "[1.0, \"i\", \"q\"]\n"
+      + "[1.25, \"o\", \"\\\"a\\\\b\\\"\\r\\n\"]\n"
+      + "\n"
+      + "[11.25, \"o\", \"done\"]\n";
+
+  private FakeClock clock;
+  private AnsiForTests ansiForTests;
+
+  @BeforeMethod
+  private void setUp() {
+    clock = new FakeClock();
+    setUp(true);
+  }
+
+  private void setUp(Boolean interactive) {
+    ansiForTests =
+        new AnsiForTests(Codes.RAW, new SystemInfoForTests(null, 80, interactive, clock));
+  }
+
+  private AsciicastPlayer.Builder builder() {
+    return AnsiUtils.create(ansiForTests).asciicastPlayerBuilder();
+  }
+
+  @Test
+  public void recordedSpeed() throws IOException, InterruptedException {
+    AnsiUtils.create(ansiForTests).asciicastPlayer().play(new StringReader(RECORDING));
+    assertThat(ansiForTests.getStdout()).isEqualTo("\u001B[1mbold\u001B[m \"a\\b\"\r\ndone");
+    assertThat(clock.nanoTime()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(11250));
+  }
+
+  @Test
+  public void fasterWithIdleCapped() throws IOException, InterruptedException {
+    builder().speed(2).maxIdle(2, TimeUnit.SECONDS).build().play(new StringReader(RECORDING));
+    assertThat(ansiForTests.getStdout()).endsWith("done");
+    // 0.25s, 1s, and a 10s pause capped to 2s, at double speed
+    assertThat(clock.nanoTime()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1625));
+  }
+
+  @Test
+  public void notInteractive() throws IOException, InterruptedException {
+    setUp(false);
+    AnsiUtils.create(ansiForTests).asciicastPlayer().play(new StringReader(RECORDING));
+    assertThat(ansiForTests.getStdout()).endsWith("done");
+    assertThat(clock.nanoTime()).isEqualTo(0);
+  }
+
+  @Test
+  public void malformedRecordings() throws InterruptedException {
+    String[] recordings = {
+      "",
+      "{\"version\": 1}\n",
+      "{\"version\": 2}\n[0.5, \"o\"]\n",
+      "{\"version\": 2}\n[x, \"o\", \"a\"]\n",
+      "{\"version\": 2}\n[0.5, \"o\", \"\\q\"]\n",
+      "{\"version\": 2}\n[0.5, \"o\", \"a\"] extra\n",
+    };
+    for (String recording : recordings) {
+      try {
+        builder().build().play(new StringReader(recording));
+        fail(recording);
+      } catch (IOException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void replaysRecording() throws IOException, InterruptedException {
+    AnsiForTests recorded =
+        new AnsiForTests(Codes.RAW, new SystemInfoForTests(null, 80, true, new FakeClock()));
+    ByteArrayOutputStream recording = new ByteArrayOutputStream();
+    AsciicastRecorder recorder = new AsciicastRecorder(recorded, recording);
+    recorder.ansi().color(Color.GREEN).out("first");
+    // Writes made before the recorder takes them share the first one's timestamp
+    while (recorder.hasPendingWrites()) {
+      Thread.sleep(1);
+    }
+    recorded.advanceTime(3, TimeUnit.SECONDS);
+    recorder.ansi().outln(" second");
+    recorder.close();
+
+    AnsiUtils.create(ansiForTests).asciicastPlayer()
+        .play(new StringReader(recording.toString("UTF-8")));
+    assertThat(ansiForTests.getStdout()).isEqualTo(recorded.getStdout());
+    assertThat(clock.nanoTime()).isEqualTo(TimeUnit.SECONDS.toNanos(3));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidSpeed() {
+    builder().speed(0);
+  }
+}
@@ -0,0 +1,187 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.testng.Assert.fail;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.AnsiForTests.FakeClock;
+import com.mwdiamond.fansi.AnsiForTests.SystemInfoForTests;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AsciicastRecorder}.
+ */
+public class AsciicastRecorderTest {
+  private static final String NL = System.lineSeparator();
+
+  private AnsiForTests ansiForTests;
+  private ByteArrayOutputStream recording;
+  private AsciicastRecorder recorder;
+
+  @BeforeMethod
+  private void setUp() throws IOException {
+    ansiForTests =
+        new AnsiForTests(Codes.RAW, new SystemInfoForTests(null, 100, null, new FakeClock()));
+    recording = new ByteArrayOutputStream();
+    recorder = new AsciicastRecorder(ansiForTests, recording);
+  }
+
+  /** Closes the recorder, and returns the lines of the recording. */
+  private List<String> finish() throws IOException {
+    recorder.close();
+    String text = recording.toString("UTF-8");
+    assertThat(text).endsWith("\n");
+    return Splitter.on('\n').splitToList(text.substring(0, text.length() - 1));
+  }
+
+  /**
+   * Waits for the recorder to take the pending writes, so that the next write starts a new event
+   * with its own timestamp. Writes made before then share an event.
+   */
+  private void awaitEvent() throws InterruptedException {
+    while (recorder.hasPendingWrites()) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void recordsOutput() throws Exception {
+    recorder.ansi().color(Color.RED).out("red");
+    awaitEvent();
+    ansiForTests.advanceTime(1500, TimeUnit.MILLISECONDS);
+    recorder.ansi().err("\"quoted\" \\ \t");
+    awaitEvent();
+    ansiForTests.advanceTime(2, TimeUnit.SECONDS);
+    recorder.ansi().outln();
+
+    // Output is still written as usual
+    assertThat(ansiForTests.getStdout()).isEqualTo("\\e[31mred\\e[m" + NL);
+    assertThat(ansiForTests.getStderr()).isEqualTo("\"quoted\" \\ \t");
+    List<String> lines = finish();
+    assertThat(lines.get(0))
+        .matches("\\{\"version\": 2, \"width\": 100, \"height\": 24, \"timestamp\": \\d+\\}");
+    assertThat(lines.subList(1, lines.size())).containsExactly(
+        "[0.000000, \"o\", \"\\\\e[31mred\\\\e[m\"]",
+        "[1.500000, \"o\", \"\\\"quoted\\\" \\\\ \\t\"]",
+        "[3.500000, \"o\", \"" + NL.replace("\r", "\\r").replace("\n", "\\n") + "\"]").inOrder();
+  }
+
+  @Test
+  public void escapesControlCharacters() throws IOException {
+    recorder.ansi().writeRendered(false, "\u001B[1m\u0007\u007F", false);
+    assertThat(finish().get(1)).isEqualTo("[0.000000, \"o\", \"\\u001b[1m\\u0007\\u007f\"]");
+  }
+
+  @Test
+  public void charactersSplitAcrossWrites() throws Exception {
+    Ansi ansi = recorder.ansi();
+    ansi.writeRendered(false, "é\uD83D", false);
+    awaitEvent();
+    ansiForTests.advanceTime(1, TimeUnit.SECONDS);
+    ansi.writeRendered(false, "\uDE00€\uD83D", false);
+    awaitEvent();
+    ansiForTests.advanceTime(1, TimeUnit.SECONDS);
+    ansi.writeRendered(false, "\uDE00", false);
+    assertThat(finish().subList(1, 4)).containsExactly(
+        "[0.000000, \"o\", \"é\"]", "[1.000000, \"o\", \"\uD83D\uDE00€\"]",
+        "[2.000000, \"o\", \"\uD83D\uDE00\"]").inOrder();
+  }
+
+  @Test
+  public void unpairedSurrogatesReplaced() throws Exception {
+    Ansi ansi = recorder.ansi();
+    ansi.writeRendered(false, "a\uDE00b\uD83D", false);
+    awaitEvent();
+    ansi.writeRendered(false, "c", false);
+    awaitEvent();
+    ansi.writeRendered(false, "\uD83D", false);
+    assertThat(finish().subList(1, 4)).containsExactly(
+        "[0.000000, \"o\", \"a\uFFFDb\"]", "[0.000000, \"o\", \"\uFFFDc\"]",
+        "[0.000000, \"o\", \"\uFFFD\"]").inOrder();
+  }
+
+  @Test
+  public void writesShareEvents() throws Exception {
+    Ansi ansi = recorder.ansi();
+    ansi.writeRendered(false, "a", false);
+    awaitEvent();
+    ansiForTests.advanceTime(1, TimeUnit.SECONDS);
+    // However these are batched, none of them is timestamped before the previous event
+    for (int i = 0; i < 100; i++) {
+      ansi.writeRendered(false, "b", false);
+      ansiForTests.advanceTime(1, TimeUnit.MILLISECONDS);
+    }
+    List<String> lines = finish();
+    List<String> events = lines.subList(1, lines.size());
+    assertThat(events.get(0)).isEqualTo("[0.000000, \"o\", \"a\"]");
+    StringBuilder text = new StringBuilder();
+    for (String event : events.subList(1, events.size())) {
+      assertThat(event).matches("\\[1\\.0\\d\\d000, \"o\", \"b+\"\\]");
+      text.append(event, event.indexOf("\"b") + 1, event.length() - 2);
+    }
+    assertThat(text.toString()).isEqualTo(Strings.repeat("b", 100));
+  }
+
+  @Test
+  public void directWritesNotRecorded() throws IOException {
+    recorder.ansi().stdout().print("direct");
+    assertThat(ansiForTests.getStdout()).isEqualTo("direct");
+    assertThat(finish()).hasSize(1);
+  }
+
+  @Test
+  public void displayListsRecorded() throws IOException {
+    DisplayList.Builder builder = AnsiUtils.displayList();
+    builder.ansi().color(Color.RED).outln("red");
+    builder.build().render(recorder.ansi());
+    assertThat(finish().get(1)).isEqualTo(
+        "[0.000000, \"o\", \"\\\\e[31mred\\\\e[m" + NL.replace("\r", "\\r").replace("\n", "\\n")
+            + "\"]");
+  }
+
+  @Test
+  public void notRecordedAfterClose() throws IOException {
+    Ansi ansi = recorder.ansi();
+    List<String> lines = finish();
+    ansi.out("late");
+    assertThat(ansiForTests.getStdout()).isEqualTo("late");
+    assertThat(lines).hasSize(1);
+    recorder.close(); // no-op
+  }
+
+  @Test
+  public void writeFailureReportedOnClose() throws IOException {
+    recorder = new AsciicastRecorder(ansiForTests, new OutputStream() {
+      private boolean headerWritten;
+
+      @Override
+      public void write(int b) throws IOException {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (headerWritten) {
+          throw new IOException("disk full");
+        }
+        headerWritten = true;
+      }
+    });
+    recorder.ansi().out("text");
+    try {
+      recorder.close();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().isEqualTo("disk full");
+    }
+    assertThat(ansiForTests.getStdout()).isEqualTo("text");
+  }
+}
@@ -2,6 +2,11 @@ package com.mwdiamond.fansi;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import com.mwdiamond.fansi.Codes.ColorType;
 import org.testng.annotations.Test;
 
 /**
@@ -10,6 +15,8 @@ import org.testng.annotations.Test;
  * <p>Generally just test the static instances behave as expected.
  */
 public class CodesTest {
+  private static final ColorType RGB_RED = new ColorType(new java.awt.Color(0xFF0000));
+
   @Test
   public void realCodes() {
     assertThat(Codes.REAL.moveCursor(1, 1)).startsWith("\u001B");
@@ -24,4 +31,92 @@ public class CodesTest {
   public void noOpCodes() {
     assertThat(Codes.NO_OP.moveCursor(1, 1)).isEmpty();
   }
+
+  @Test
+  public void trueColor() {
+    Codes codes = Codes.RAW.withColorDepth(ColorDepth.TRUE_COLOR);
+    assertThat(codes).isSameAs(Codes.RAW);
+    assertThat(codes.color(RGB_RED, ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[38;2;255;0;0m");
+  }
+
+  @Test
+  public void colors256() {
+    Codes codes = Codes.RAW.withColorDepth(ColorDepth.COLORS_256);
+    assertThat(codes.color(RGB_RED, RGB_RED, Font.DEFAULT)).isEqualTo("\\e[38;5;196;48;5;196m");
+    assertThat(codes.color(ColorType.fromIndex(100), ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[38;5;100m");
+    assertThat(codes.color(new ColorType(Color.RED), ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[31m");
+  }
+
+  @Test
+  public void colors16() {
+    Codes codes = Codes.RAW.withColorDepth(ColorDepth.COLORS_16);
+    assertThat(codes.color(RGB_RED, RGB_RED, Font.DEFAULT)).isEqualTo("\\e[91;101m");
+    assertThat(codes.color(ColorType.fromIndex(196), ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[91m");
+    assertThat(codes.color(ColorType.fromIndex(3), ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[33m");
+    assertThat(codes.color(ColorType.fromIndex(232), ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[30m");
+    assertThat(codes.color(new ColorType(Color.CYAN), ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[36m");
+  }
+
+  @Test
+  public void noOpColorDepth() {
+    assertThat(Codes.NO_OP.withColorDepth(ColorDepth.COLORS_16)).isSameAs(Codes.NO_OP);
+  }
+
+  @Test
+  public void htmlColors() {
+    assertThat(Codes.HTML.color(new ColorType(Color.RED), new ColorType(Color.WHITE), Font.DEFAULT,
+        Style.BOLD)).isEqualTo("<span class=\"fansi-bold fansi-fg1 fansi-bg15\">");
+    assertThat(Codes.HTML.color(ColorType.fromIndex(100), RGB_RED, Font.FRAKTUR))
+        .isEqualTo("<span class=\"fansi-fraktur fansi-fg100\" style=\"background-color:#ff0000\">");
+    assertThat(Codes.HTML.color(ColorType.DEFAULT, ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("<span>");
+    assertThat(Codes.HTML.clear()).isEqualTo("</span>");
+  }
+
+  @Test
+  public void htmlColorDepth() {
+    Codes codes = Codes.HTML.withColorDepth(ColorDepth.COLORS_16);
+    assertThat(codes.color(RGB_RED, ColorType.fromIndex(232), Font.DEFAULT))
+        .isEqualTo("<span class=\"fansi-fg9 fansi-bg0\">");
+  }
+
+  @Test
+  public void htmlAppendColor() {
+    StringBuilder out = new StringBuilder();
+    Codes.HTML.appendColor(out, ColorType.packRgb(0x123456), ColorType.UNCHANGED);
+    Codes.HTML.appendColor(out, ColorType.UNCHANGED, ColorType.UNCHANGED);
+    assertThat(out.toString()).isEqualTo("</span><span style=\"color:#123456\">");
+  }
+
+  @Test
+  public void htmlText() {
+    StringBuilder out = new StringBuilder();
+    Codes.HTML.appendText(out, "x<a href='y'>&amp;</a>", 1, 22);
+    assertThat(out.toString()).isEqualTo("&lt;a href='y'&gt;&amp;amp;&lt;/a&gt;");
+  }
+
+  @Test
+  public void htmlCursorMovement() {
+    assertThat(Codes.HTML.isTerminal()).isFalse();
+    assertThat(Codes.HTML.moveCursor(1, 1)).isEmpty();
+    assertThat(Codes.HTML.clearLine()).isEmpty();
+    assertThat(Codes.HTML.downLine(2)).isEqualTo(System.lineSeparator() + System.lineSeparator());
+  }
+
+  @Test
+  public void htmlStylesheet() {
+    String css = Ansi.htmlStylesheet();
+    assertThat(css).contains(".fansi-bold{font-weight:bold}");
+    assertThat(css).contains(".fansi-fg1{color:#cd0000}");
+    assertThat(css).contains(".fansi-bg255{background-color:#eeeeee}");
+    assertThat(css)
+        .contains(".fansi-underline.fansi-strikethrough{text-decoration:underline line-through}");
+  }
 }
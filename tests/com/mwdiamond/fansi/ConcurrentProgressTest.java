@@ -0,0 +1,109 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ConcurrentProgress}.
+ */
+public class ConcurrentProgressTest {
+  /** Clear line, position cursor at start of line. */
+  private static final String CL = "\\e[2K\\e[1G";
+
+  private AnsiForTests ansiForTests;
+  private AnsiUtils ansiUtils;
+
+  @BeforeMethod
+  private void flushAnsi() {
+    ansiForTests = new AnsiForTests();
+    ansiUtils = AnsiUtils.create(ansiForTests);
+  }
+
+  private int renderCount() {
+    return ansiForTests.getStdout().split(Pattern.quote(CL), -1).length - 1;
+  }
+
+  @Test
+  public void singleCounter() {
+    ConcurrentProgress progress =
+        AnsiUtils.trackConcurrently(ansiUtils.counterProgressBar(1), 10);
+    ConcurrentProgress.Counter counter = progress.newCounter();
+    for (int i = 0; i < 10; i++) {
+      counter.increment();
+    }
+    counter.flush();
+
+    assertThat(progress.completed()).isEqualTo(10);
+    assertThat(ansiForTests.getStdout()).endsWith("] 10/10");
+  }
+
+  @Test
+  public void batchesUpdates() {
+    ConcurrentProgress progress =
+        AnsiUtils.trackConcurrently(ansiUtils.percentProgressBar(), 1_000_000);
+    ConcurrentProgress.Counter counter = progress.newCounter();
+    for (int i = 0; i < 1_000_000; i++) {
+      counter.increment();
+    }
+    counter.flush();
+
+    assertThat(progress.completed()).isEqualTo(1_000_000);
+    assertThat(renderCount()).isAtMost(1001);
+    assertThat(ansiForTests.getStdout()).endsWith("] 100%");
+  }
+
+  @Test
+  public void unflushedStepsNotPublished() {
+    // With one processor, counters publish in batches of 1,000 steps
+    ConcurrentProgress progress =
+        new ConcurrentProgress(ansiUtils.percentProgressBar(), 1_000_000, 1);
+    progress.newCounter().add(999);
+
+    assertThat(progress.completed()).isEqualTo(0);
+    assertThat(ansiForTests.getStdout()).isEmpty();
+  }
+
+  @Test
+  public void forkJoin() {
+    final int size = 100_000;
+    final ConcurrentProgress progress =
+        AnsiUtils.trackConcurrently(ansiUtils.percentProgressBar(), size);
+
+    class Task extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final int start;
+      private final int end;
+
+      Task(int start, int end) {
+        this.start = start;
+        this.end = end;
+      }
+
+      @Override
+      protected void compute() {
+        if (end - start > 1000) {
+          int mid = (start + end) >>> 1;
+          invokeAll(new Task(start, mid), new Task(mid, end));
+          return;
+        }
+        ConcurrentProgress.Counter counter = progress.newCounter();
+        for (int i = start; i < end; i++) {
+          counter.increment();
+        }
+        counter.flush();
+      }
+    }
+
+    new ForkJoinPool(4).invoke(new Task(0, size));
+    progress.publish();
+
+    assertThat(progress.completed()).isEqualTo(size);
+    assertThat(ansiForTests.getStdout()).endsWith("] 100%");
+  }
+}
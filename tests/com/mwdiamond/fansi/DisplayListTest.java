@@ -0,0 +1,131 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.testng.Assert.fail;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.AnsiForTests.SystemInfoForTests;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import java.util.EnumSet;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link DisplayList}.
+ */
+public class DisplayListTest {
+  /** Writes the same output to any factory. */
+  private static void write(AnsiFactory factory) {
+    factory.ansi().color(Color.RED, Style.BOLD, Style.UNDERLINE).out("Hello <%s>", "World");
+    factory.ansi().outln();
+    factory.ansi().color(Color.GREEN, Color.BLUE, Font.FRAKTUR).errln("error & more");
+    factory.ansi().colorRgb(0xFF8000).background(17).outln("rgb and index");
+    factory.ansi().moveCursor(-2).moveCursor(1, -3).overwriteThisLine().out("moved");
+    factory.ansi().fixed(3, 4).overwriteLastLine().outln("fixed");
+    factory.ansi().title("a title");
+    factory.ansi().saveCursor();
+    factory.ansi().restoreCursor();
+    factory.ansi().style(Style.ITALIC).out("");
+    factory.ansi().out("é\u001B[0m\n");
+  }
+
+  @DataProvider
+  public static Object[][] codes() {
+    return new Object[][] {{Codes.RAW}, {Codes.REAL}, {Codes.REAL.withColorDepth(
+        ColorDepth.COLORS_16)}, {Codes.NO_OP}, {Codes.HTML}};
+  }
+
+  @Test(dataProvider = "codes")
+  public void rendersLikeAnsi(Codes codes) {
+    AnsiForTests expected = new AnsiForTests(codes, new SystemInfoForTests());
+    write(expected);
+
+    DisplayList.Builder builder = AnsiUtils.displayList();
+    write(builder);
+    DisplayList list = builder.build();
+    AnsiForTests actual = new AnsiForTests(codes, new SystemInfoForTests());
+    list.render(actual.ansi());
+    assertThat(actual.getStdout()).isEqualTo(expected.getStdout());
+    assertThat(actual.getStderr()).isEqualTo(expected.getStderr());
+
+    // Rendered again from the cache
+    actual.clearStdout();
+    actual.clearStderr();
+    list.render(actual.ansi());
+    assertThat(actual.getStdout()).isEqualTo(expected.getStdout());
+    assertThat(actual.getStderr()).isEqualTo(expected.getStderr());
+  }
+
+  @Test
+  public void rendersToSeveralDestinations() {
+    DisplayList.Builder builder = AnsiUtils.displayList();
+    builder.ansi().color(Color.RED).outln("<red>");
+    DisplayList list = builder.build();
+
+    AnsiForTests raw = new AnsiForTests();
+    AnsiForTests html = new AnsiForTests(Codes.HTML, new SystemInfoForTests());
+    list.render(raw.ansi());
+    list.render(html.ansi());
+    list.render(raw.ansi());
+    String line = "\\e[31m<red>\\e[m" + System.lineSeparator();
+    assertThat(raw.getStdout()).isEqualTo(line + line);
+    assertThat(html.getStdout())
+        .isEqualTo("<span class=\"fansi-fg1\">&lt;red&gt;</span>" + System.lineSeparator());
+  }
+
+  @Test
+  public void utilitiesRecorded() {
+    AnsiForTests expected = new AnsiForTests(Codes.REAL, new SystemInfoForTests());
+    AnsiUtils.create(expected).gradient(0xFF0000, 0x0000FF).println("gradient");
+    DisplayList.Builder builder = AnsiUtils.displayList();
+    AnsiUtils.create(builder).gradient(0xFF0000, 0x0000FF).println("gradient");
+
+    AnsiForTests actual = new AnsiForTests(Codes.REAL, new SystemInfoForTests());
+    builder.build().render(actual.ansi());
+    assertThat(actual.getStdout()).isEqualTo(expected.getStdout());
+  }
+
+  @Test
+  public void builderContinues() {
+    DisplayList.Builder builder = AnsiUtils.displayList();
+    builder.ansi().out("one");
+    DisplayList first = builder.build();
+    builder.ansi().err("two");
+    DisplayList second = builder.build();
+
+    AnsiForTests output = new AnsiForTests();
+    first.render(output.ansi());
+    assertThat(output.getStdout()).isEqualTo("one");
+    assertThat(output.getStderr()).isEmpty();
+    output.clearStdout();
+    output.clearStderr();
+    second.render(output.ansi());
+    assertThat(output.getStdout()).isEqualTo("one");
+    assertThat(output.getStderr()).isEqualTo("two");
+  }
+
+  @Test
+  public void notInteractive() {
+    Ansi ansi = AnsiUtils.displayList().ansi();
+    assertThat(ansi.interactive()).isFalse();
+    assertThat(ansi.query(EnumSet.allOf(TerminalQueries.Query.class)))
+        .isSameAs(TerminalQueries.Replies.NONE);
+  }
+
+  @Test
+  public void invalidArgumentsRejected() {
+    Ansi ansi = AnsiUtils.displayList().ansi();
+    try {
+      ansi.moveCursor(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      ansi.fixed(0, 1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link EscapeStripper}, via the {@code AnsiUtils.stripEscapes()} methods.
+ */
+public class EscapeStripperTest {
+  private static final String COLORED =
+      "\u001B[1;31mred\u001B[m and \u001B[38;2;0;128;255mblue\u001B[m\n"
+      + "\u001B]2;title\u0007\u001B]8;;http://example.com\u001B\\link\u001B]8;;\u001B\\ "
+      + "\u001B7saved\u001B8 \u001B(Bcharset\u001BPdcs\u001B\\ é€\r\n";
+  private static final String PLAIN = "red and blue\nlink saved charset é€\r\n";
+
+  @Test
+  public void string() {
+    assertThat(AnsiUtils.stripEscapes(COLORED)).isEqualTo(PLAIN);
+    assertThat(AnsiUtils.stripEscapes(PLAIN)).isSameAs(PLAIN);
+  }
+
+  @Test
+  public void controlsKept() {
+    assertThat(AnsiUtils.stripEscapes("a\tb\u0007c\u001B[1\n2Hd")).isEqualTo("a\tb\u0007c\nd");
+  }
+
+  @Test
+  public void cancel() {
+    assertThat(AnsiUtils.stripEscapes("\u001B[12\u0018x\u001B]2;t\u001Ay")).isEqualTo("xy");
+  }
+
+  @Test
+  public void bytesInPlace() {
+    byte[] bytes = ("prefix" + COLORED).getBytes(StandardCharsets.UTF_8);
+    int length = AnsiUtils.stripEscapes(bytes, 6, bytes.length - 6);
+    assertThat(new String(bytes, 0, 6 + length, StandardCharsets.UTF_8))
+        .isEqualTo("prefix" + PLAIN);
+  }
+
+  @Test
+  public void bytesInPlace_longSpans() {
+    // Exercises the word-at-a-time scan, with escapes at every alignment
+    StringBuilder colored = new StringBuilder();
+    StringBuilder plain = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      char[] text = new char[i];
+      Arrays.fill(text, (char) ('a' + i % 26));
+      colored.append(text).append("\u001B[").append(i).append('m');
+      plain.append(text);
+    }
+    byte[] bytes = colored.toString().getBytes(StandardCharsets.UTF_8);
+    int length = AnsiUtils.stripEscapes(bytes, 0, bytes.length);
+    assertThat(new String(bytes, 0, length, StandardCharsets.UTF_8)).isEqualTo(plain.toString());
+  }
+
+  @Test
+  public void outputStream_splitSequences() throws IOException {
+    byte[] bytes = COLORED.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    try (OutputStream out = AnsiUtils.stripEscapes(sink)) {
+      // Every possible split into two writes
+      for (int split = 0; split <= bytes.length; split++) {
+        sink.reset();
+        out.write(bytes, 0, split);
+        out.write(bytes, split, bytes.length - split);
+        assertThat(new String(sink.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(PLAIN);
+      }
+    }
+  }
+
+  @Test
+  public void outputStream_singleBytes() throws IOException {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    OutputStream out = AnsiUtils.stripEscapes(sink);
+    for (byte b : COLORED.getBytes(StandardCharsets.UTF_8)) {
+      out.write(b);
+    }
+    assertThat(new String(sink.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(PLAIN);
+  }
+
+  @Test
+  public void writer_splitSequences() throws IOException {
+    StringWriter sink = new StringWriter();
+    Writer out = AnsiUtils.stripEscapes(sink);
+    for (int split = 0; split <= COLORED.length(); split++) {
+      sink.getBuffer().setLength(0);
+      out.write(COLORED, 0, split);
+      out.write(COLORED.substring(split));
+      assertThat(sink.toString()).isEqualTo(PLAIN);
+    }
+  }
+
+  @Test
+  public void indexOfEscape() {
+    byte[] bytes = new byte[100];
+    assertThat(EscapeStripper.indexOfEscape(bytes, 0, bytes.length)).isEqualTo(100);
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = 0x1B;
+      assertThat(EscapeStripper.indexOfEscape(bytes, 0, bytes.length)).isEqualTo(i);
+      // a byte just above ESC must not be mistaken for one by the borrow
+      bytes[i] = 0x1C;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.mwdiamond.fansi.AnsiForTests.FakeClock;
+import com.mwdiamond.fansi.AnsiForTests.SystemInfoForTests;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link FramePlayer}.
+ *
+ * <p>Frames are vertically uniform, so that cells are rendered as spaces rather than half blocks,
+ * which the default charset used by {@link AnsiForTests} may not be able to encode.
+ */
+public class FramePlayerTest {
+  private static final String NL = System.lineSeparator();
+  private static final int RED = 0xFF0000;
+  private static final int BLUE = 0x0000FF;
+
+  private FakeClock clock;
+  private AnsiForTests ansiForTests;
+  private FramePlayer player;
+
+  @BeforeMethod
+  private void flushAnsi() {
+    clock = new FakeClock();
+    setUp(null);
+  }
+
+  private void setUp(Boolean interactive) {
+    ansiForTests =
+        new AnsiForTests(Codes.RAW, new SystemInfoForTests(null, 80, interactive, clock));
+    player = AnsiUtils.create(ansiForTests).imageRenderer().framePlayer(10);
+  }
+
+  /** Returns a 3x2 frame with the given colors in each column. */
+  private static int[] frame(int first, int second, int third) {
+    return new int[] {
+      first, second, third,
+      first, second, third,
+    };
+  }
+
+  @Test
+  public void firstFrameInFull() throws InterruptedException {
+    FramePlayer.Stats stats = player.play(ImmutableList.of(frame(RED, RED, BLUE)).iterator(), 3, 2);
+
+    assertThat(ansiForTests.getStdout())
+        .isEqualTo("\\e[48;2;255;0;0m  \\e[48;2;0;0;255m \\e[m" + NL);
+    assertThat(stats.framesShown()).isEqualTo(1);
+    assertThat(stats.framesDropped()).isEqualTo(0);
+    assertThat(stats.bytes()).isEqualTo(ansiForTests.getStdout().length());
+  }
+
+  @Test
+  public void onlyChangedCells() throws InterruptedException {
+    List<int[]> frames = ImmutableList.of(
+        frame(RED, RED, BLUE), frame(RED, RED, BLUE), frame(RED, RED, RED));
+    FramePlayer.Stats stats = player.play(frames.iterator(), 3, 2);
+
+    assertThat(ansiForTests.getStdout()).isEqualTo(
+        "\\e[48;2;255;0;0m  \\e[48;2;0;0;255m \\e[m" + NL
+        // second frame is unchanged, third only changes the last cell
+        + "\\e[1F\\e[2C\\e[48;2;255;0;0m \\e[m\\e[1E");
+    assertThat(stats.framesShown()).isEqualTo(3);
+    assertThat(stats.bytesPerFrame()).isEqualTo(stats.bytes() / 3);
+  }
+
+  @Test
+  public void redrawsShortGaps() {
+    int[] previous = {RED, BLUE, RED, RED};
+    int[] next = {BLUE, BLUE, BLUE, RED};
+    // The unchanged cell has the current colors, so redrawing it is shorter than skipping it
+    assertThat(FramePlayer.delta(previous, next, 4, 1, Codes.RAW))
+        .isEqualTo("\\e[1F\\e[38;2;0;0;255;49m▀▀▀\\e[m\\e[1E");
+
+    previous = new int[] {RED, RED, RED, RED};
+    next = new int[] {BLUE, RED, BLUE, RED};
+    assertThat(FramePlayer.delta(previous, next, 4, 1, Codes.RAW))
+        .isEqualTo("\\e[1F\\e[38;2;0;0;255;49m▀\\e[1C▀\\e[m\\e[1E");
+  }
+
+  @Test
+  public void jumpsBetweenLines() {
+    int[] previous = new int[] {
+      RED, RED,
+      RED, RED,
+      RED, RED,
+      RED, RED,
+    };
+    int[] next = new int[] {
+      RED, RED,
+      RED, BLUE,
+      RED, RED,
+      RED, RED,
+    };
+    assertThat(FramePlayer.delta(previous, next, 2, 4, Codes.RAW))
+        .isEqualTo("\\e[2F\\e[1C\\e[38;2;255;0;0;48;2;0;0;255m▀\\e[m\\e[2E");
+    assertThat(FramePlayer.delta(previous, previous, 2, 4, Codes.RAW)).isEmpty();
+  }
+
+  @Test
+  public void keepsFrameRate() throws InterruptedException {
+    player.play(ImmutableList.of(frame(RED, RED, RED), frame(RED, RED, BLUE),
+        frame(RED, BLUE, BLUE)).iterator(), 3, 2);
+
+    assertThat(clock.nanoTime()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  @Test
+  public void dropsLateFrames() throws InterruptedException {
+    // Each frame takes 250ms to produce, so at 10 FPS only every other frame can be shown
+    Iterator<int[]> slowFrames = new Iterator<int[]>() {
+      private int remaining = 6;
+
+      @Override
+      public boolean hasNext() {
+        return remaining > 0;
+      }
+
+      @Override
+      public int[] next() {
+        clock.advance(250, TimeUnit.MILLISECONDS);
+        return frame(RED, RED, --remaining % 2 == 0 ? RED : BLUE);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    FramePlayer.Stats stats = player.play(slowFrames, 3, 2);
+
+    assertThat(stats.framesShown() + stats.framesDropped()).isEqualTo(6);
+    assertThat(stats.framesDropped()).isAtLeast(3);
+    // The last frame is always shown
+    assertThat(ansiForTests.getStdout()).endsWith("\\e[48;2;255;0;0m \\e[m\\e[1E");
+  }
+
+  @Test
+  public void notInteractive() throws InterruptedException {
+    setUp(false);
+    FramePlayer.Stats stats = player.play(ImmutableList.of(
+        frame(RED, RED, RED), frame(BLUE, BLUE, BLUE)).iterator(), 3, 2);
+
+    assertThat(ansiForTests.getStdout()).isEqualTo("\\e[48;2;0;0;255m   \\e[m" + NL);
+    assertThat(stats.framesShown()).isEqualTo(1);
+    assertThat(stats.framesDropped()).isEqualTo(1);
+    assertThat(clock.nanoTime()).isEqualTo(0);
+  }
+}
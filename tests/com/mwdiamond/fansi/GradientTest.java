@@ -0,0 +1,139 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.AnsiForTests.SystemInfoForTests;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import com.mwdiamond.fansi.Gradient.ColorSpace;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link Gradient}.
+ */
+public class GradientTest {
+  private AnsiForTests ansiForTests;
+  private AnsiUtils ansiUtils;
+
+  @BeforeMethod
+  private void flushAnsi() {
+    ansiForTests = new AnsiForTests();
+    ansiUtils = AnsiUtils.create(ansiForTests);
+  }
+
+  private static AnsiUtils withDepth(ColorDepth depth) {
+    return AnsiUtils.create(
+        new AnsiForTests(Codes.RAW.withColorDepth(depth), new SystemInfoForTests()));
+  }
+
+  @Test
+  public void endpoints() {
+    assertThat(ansiUtils.gradient(0xFF0000, 0x0000FF).render("ab"))
+        .isEqualTo("\\e[38;2;255;0;0ma\\e[38;2;0;0;255mb\\e[m");
+  }
+
+  @Test
+  public void html() {
+    AnsiForTests html = new AnsiForTests(Codes.HTML, new SystemInfoForTests());
+    AnsiUtils.create(html).gradient(0xFF0000, 0x0000FF).print("<>");
+    assertThat(html.getStdout()).isEqualTo("<span></span><span style=\"color:#ff0000\">&lt;"
+        + "</span><span style=\"color:#0000ff\">&gt;</span>");
+  }
+
+  @Test
+  public void interpolatesSrgb() {
+    Gradient gradient = ansiUtils.gradientBuilder()
+        .stops(0x000000, 0xFF0000, 0xFFFFFF).colorSpace(ColorSpace.SRGB).build();
+    assertThat(gradient.colorAt(0, 4)).isEqualTo(0x000000);
+    assertThat(gradient.colorAt(1, 4)).isEqualTo(0x800000);
+    assertThat(gradient.colorAt(2, 4)).isEqualTo(0xFF0000);
+    assertThat(gradient.colorAt(3, 4)).isEqualTo(0xFF8080);
+    assertThat(gradient.colorAt(4, 4)).isEqualTo(0xFFFFFF);
+  }
+
+  @Test
+  public void interpolatesLinearRgb() {
+    Gradient gradient = ansiUtils.gradientBuilder()
+        .stops(0x000000, 0xFFFFFF).colorSpace(ColorSpace.LINEAR_RGB).build();
+    // Half the light of white is much brighter than sRGB's 0x80
+    assertThat(gradient.colorAt(1, 2)).isEqualTo(0xBCBCBC);
+  }
+
+  @Test
+  public void interpolatesOkLab() {
+    Gradient gradient = ansiUtils.gradient(0xFF0000, 0x00FF00);
+    assertThat(gradient.colorAt(0, 2)).isEqualTo(0xFF0000);
+    assertThat(gradient.colorAt(2, 2)).isEqualTo(0x00FF00);
+    // Brighter than sRGB's muddy 0x808000
+    int middle = gradient.colorAt(1, 2);
+    assertThat(middle >> 16 & 0xFF).isGreaterThan(0x80);
+    assertThat(middle >> 8 & 0xFF).isGreaterThan(0x80);
+  }
+
+  @Test
+  public void singleStop() {
+    assertThat(ansiUtils.gradient(0x00FF00).render("ab")).isEqualTo("\\e[38;2;0;255;0mab\\e[m");
+  }
+
+  @Test
+  public void coalescesRuns() {
+    Gradient gradient = withDepth(ColorDepth.COLORS_16).gradient(0xFF0000, 0xFF1010);
+    assertThat(gradient.render("Hello")).isEqualTo("\\e[91mHello\\e[m");
+  }
+
+  @Test
+  public void whitespaceKeepsColor() {
+    Gradient gradient = ansiUtils.gradientBuilder()
+        .stops(0x000000, 0x0000FF, 0x000000).colorSpace(ColorSpace.SRGB).build();
+    // The space would be blue, but that wouldn't be visible
+    assertThat(gradient.render("a b")).isEqualTo("\\e[38;2;0;0;0ma b\\e[m");
+  }
+
+  @Test
+  public void surrogatePairs() {
+    String rendered = ansiUtils.gradientBuilder()
+        .stops(0xFF0000, 0x0000FF).colorSpace(ColorSpace.SRGB).build().render("\uD83D\uDE00a");
+    assertThat(rendered).isEqualTo("\\e[38;2;255;0;0m\uD83D\uDE00\\e[38;2;0;0;255ma\\e[m");
+  }
+
+  @Test
+  public void empty() {
+    assertThat(ansiUtils.gradient(0xFF0000, 0x0000FF).render("")).isEmpty();
+    assertThat(ansiUtils.gradient(0xFF0000, 0x0000FF).render("  ")).isEqualTo("  ");
+  }
+
+  @Test
+  public void appendTo() {
+    StringBuilder out = new StringBuilder("> ");
+    ansiUtils.gradient(0xFF0000).appendTo(out, "a");
+    assertThat(out.toString()).isEqualTo("> \\e[38;2;255;0;0ma\\e[m");
+  }
+
+  @Test
+  public void println() {
+    ansiUtils.gradient(0xFF0000).println("a");
+    assertThat(ansiForTests.getStdout())
+        .isEqualTo("\\e[38;2;255;0;0ma\\e[m" + System.lineSeparator());
+  }
+
+  @Test
+  public void rainbowByDefault() {
+    Gradient rainbow = ansiUtils.gradientBuilder().build();
+    assertThat(rainbow.colorAt(0, 5)).isEqualTo(0xFF0000);
+    assertThat(rainbow.colorAt(5, 5)).isEqualTo(0xFF00FF);
+  }
+
+  @Test
+  public void longLine() {
+    String text = new String(new char[10000]).replace('\0', 'x');
+    String rendered = withDepth(ColorDepth.COLORS_256).gradientBuilder().build().render(text);
+    assertThat(rendered.replaceAll("\\\\e\\[[0-9;]*m", "")).isEqualTo(text);
+    // Many adjacent characters share a color index
+    assertThat(rendered.length()).isLessThan(text.length() * 2);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void noStops() {
+    ansiUtils.gradient();
+  }
+}
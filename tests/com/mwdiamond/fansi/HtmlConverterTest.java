@@ -0,0 +1,192 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link HtmlConverter}.
+ */
+public class HtmlConverterTest {
+  private static final int SMALL_CHUNKS = 1 << 16;
+  private static final Pattern TAG = Pattern.compile("<(/?)span([^>]*)>");
+
+  private static Path write(String text) throws IOException {
+    Path file = Files.createTempFile("fansi", ".log");
+    file.toFile().deleteOnExit();
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static String convert(HtmlConverter converter) throws IOException {
+    Path output = Files.createTempFile("fansi", ".html");
+    output.toFile().deleteOnExit();
+    converter.convert(output);
+    return new String(Files.readAllBytes(output), StandardCharsets.UTF_8);
+  }
+
+  private static String render(HtmlConverter converter, long start, long end) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    converter.render(start, end, out);
+    return out.toString("UTF-8");
+  }
+
+  /**
+   * Returns each character of the HTML's text with the attributes of the span it's in, so that
+   * output that's been split into spans differently can be compared. Also checks that the spans
+   * are balanced.
+   */
+  private static String styledText(String html) {
+    StringBuilder result = new StringBuilder();
+    Matcher matcher = TAG.matcher(html);
+    String attributes = null;
+    int position = 0;
+    while (true) {
+      boolean found = matcher.find();
+      String text = html.substring(position, found ? matcher.start() : html.length());
+      for (int i = 0; i < text.length(); i++) {
+        if (text.charAt(i) != '\n') {
+          result.append(attributes == null ? "" : attributes).append('|');
+        }
+        result.append(text.charAt(i));
+      }
+      if (!found) {
+        break;
+      }
+      if (matcher.group(1).isEmpty()) {
+        assertThat(attributes).isNull();
+        attributes = matcher.group(2);
+      } else {
+        assertThat(attributes).isNotNull();
+        attributes = null;
+      }
+      position = matcher.end();
+    }
+    assertThat(attributes).isNull();
+    return result.toString();
+  }
+
+  /** Generates lines of colored text, with colors that often continue onto the next line. */
+  private static String coloredLog(int lines, boolean newlines) {
+    Random random = new Random(lines);
+    String[] codes = {"1", "22", "3", "23;20", "4", "24", "31", "32", "39", "44", "49", "0",
+        "38;5;208", "48;2;10;20;30", "1;31", "", "9", "53", "55", "5", "25", "51", "54"};
+    StringBuilder log = new StringBuilder();
+    for (int line = 0; line < lines; line++) {
+      log.append("line ").append(line).append(" <&> é ");
+      for (int i = random.nextInt(4); i >= 0; i--) {
+        log.append("\u001B[").append(codes[random.nextInt(codes.length)]).append('m')
+            .append("word").append(i).append(' ');
+      }
+      log.append(newlines ? '\n' : ' ');
+    }
+    return log.toString();
+  }
+
+  @Test
+  public void document() throws IOException {
+    try (HtmlConverter converter =
+        AnsiUtils.htmlConverter(write("\u001B[1;31merror:\u001B[m a < b && c\n"))) {
+      String html = convert(converter);
+      assertThat(html).startsWith("<!DOCTYPE html>");
+      assertThat(html).contains(Ansi.htmlStylesheet());
+      assertThat(html).contains("<pre><span class=\"fansi-bold fansi-fg1\">error:</span>"
+          + " a &lt; b &amp;&amp; c\n</pre>");
+      assertThat(html).endsWith("</html>\n");
+    }
+  }
+
+  @Test
+  public void otherSequencesDropped() throws IOException {
+    try (HtmlConverter converter = new HtmlConverter(write("a\u001B[2J\u001B[1;1Hb\u001B]2;title"
+        + "\u0007c\u0007\u001B[38:5:1md\u001B[21;32me\u001B[38;5;300;1mf\u001B[>4;2mg\r\n"),
+        SMALL_CHUNKS)) {
+      assertThat(render(converter, 0, converter.size()))
+          .isEqualTo("abcd<span class=\"fansi-fg2\">efg\r\n</span>");
+    }
+  }
+
+  @Test
+  public void extendedColors() throws IOException {
+    try (HtmlConverter converter = new HtmlConverter(
+        write("\u001B[38;5;208;48;2;1;2;3ma\u001B[20;52;6;104mb\n"), SMALL_CHUNKS)) {
+      assertThat(render(converter, 0, converter.size()))
+          .isEqualTo("<span class=\"fansi-fg208\" style=\"background-color:#010203\">a</span>"
+              + "<span class=\"fansi-blink-rapid fansi-encircle fansi-fraktur fansi-fg208"
+              + " fansi-bg12\">b\n</span>");
+    }
+  }
+
+  @Test
+  public void chunksMatchWholeFile() throws IOException {
+    String log = coloredLog(20000, true);
+    assertThat(log.length()).isGreaterThan(SMALL_CHUNKS * 4);
+    Path input = write(log);
+    try (HtmlConverter chunked = new HtmlConverter(input, SMALL_CHUNKS);
+        HtmlConverter whole = new HtmlConverter(input, Integer.MAX_VALUE)) {
+      String expected = styledText(render(whole, 0, whole.size()));
+      assertThat(styledText(convert(chunked))).contains(expected);
+      assertThat(styledText(render(chunked, 0, chunked.size()))).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void chunksWithoutLineBreaks() throws IOException {
+    String log = coloredLog(20000, false);
+    Path input = write(log);
+    try (HtmlConverter chunked = new HtmlConverter(input, SMALL_CHUNKS);
+        HtmlConverter whole = new HtmlConverter(input, Integer.MAX_VALUE)) {
+      assertThat(styledText(convert(chunked)))
+          .contains(styledText(render(whole, 0, whole.size())));
+    }
+  }
+
+  @Test
+  public void renderLines() throws IOException {
+    String log = "\u001B[31mone\ntwo \u001B[1mthree\nfour\u001B[m\nfive\n";
+    try (HtmlConverter converter = new HtmlConverter(write(log), SMALL_CHUNKS)) {
+      // Ranges are extended to whole lines, and start with the colors already in effect
+      int three = log.indexOf("three");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertThat(converter.render(three, three + 1, out)).isEqualTo(log.indexOf("four"));
+      assertThat(out.toString("UTF-8")).isEqualTo("<span class=\"fansi-fg1\">two </span>"
+          + "<span class=\"fansi-bold fansi-fg1\">three\n</span>");
+      assertThat(render(converter, log.indexOf("four"), log.indexOf("five") + 1))
+          .isEqualTo("<span class=\"fansi-bold fansi-fg1\">four</span>\nfive\n");
+      assertThat(render(converter, 2, 2)).isEmpty();
+    }
+  }
+
+  @Test
+  public void renderPages() throws IOException {
+    String log = coloredLog(5000, true);
+    Path input = write(log);
+    try (HtmlConverter converter = new HtmlConverter(input, SMALL_CHUNKS)) {
+      StringBuilder pages = new StringBuilder();
+      long position = 0;
+      while (position < converter.size()) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        position = converter.render(position, Math.min(position + 10000, converter.size()), out);
+        pages.append(out.toString("UTF-8"));
+      }
+      assertThat(styledText(pages.toString()))
+          .isEqualTo(styledText(render(converter, 0, converter.size())));
+    }
+  }
+
+  @Test
+  public void emptyFile() throws IOException {
+    try (HtmlConverter converter = new HtmlConverter(write(""), SMALL_CHUNKS)) {
+      assertThat(convert(converter)).contains("<pre></pre>");
+      assertThat(render(converter, 0, 0)).isEmpty();
+    }
+  }
+}
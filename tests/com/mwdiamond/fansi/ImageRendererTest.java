@@ -0,0 +1,207 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.AnsiForTests.SystemInfoForTests;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ImageRenderer}.
+ */
+public class ImageRendererTest {
+  private static final String NL = System.lineSeparator();
+  private static final int RED = 0xFFFF0000;
+  private static final int BLUE = 0xFF0000FF;
+  private static final Pattern SGR = Pattern.compile("\\\\e\\[([0-9;]*)m");
+
+  private AnsiForTests ansiForTests;
+  private AnsiUtils ansiUtils;
+
+  @BeforeMethod
+  private void flushAnsi() {
+    ansiForTests = new AnsiForTests();
+    ansiUtils = AnsiUtils.create(ansiForTests);
+  }
+
+  private static AnsiUtils withDepth(ColorDepth depth) {
+    return AnsiUtils.create(
+        new AnsiForTests(Codes.RAW.withColorDepth(depth), new SystemInfoForTests()));
+  }
+
+  private static Set<String> sgrCodes(String rendered) {
+    Set<String> codes = new HashSet<>();
+    Matcher matcher = SGR.matcher(rendered);
+    while (matcher.find()) {
+      codes.add(matcher.group(1));
+    }
+    return codes;
+  }
+
+  @Test
+  public void halfBlocks() {
+    int[] image = {
+      RED, RED,
+      BLUE, BLUE,
+    };
+    assertThat(ansiUtils.imageRenderer().render(image, 2, 2))
+        .isEqualTo("\\e[38;2;255;0;0;48;2;0;0;255m▀▀\\e[m" + NL);
+  }
+
+  @Test
+  public void coalescesUnchangedColors() {
+    int[] image = {
+      RED, RED, BLUE,
+      BLUE, RED, RED,
+    };
+    assertThat(ansiUtils.imageRenderer().render(image, 3, 2))
+        .isEqualTo("\\e[38;2;255;0;0;48;2;0;0;255m▀"
+            + "\\e[48;2;255;0;0m "
+            + "\\e[38;2;0;0;255m▀\\e[m" + NL);
+  }
+
+  @Test
+  public void html() {
+    int[] image = {
+      RED, RED, BLUE,
+      BLUE, RED, RED,
+    };
+    AnsiUtils html = AnsiUtils.create(new AnsiForTests(Codes.HTML, new SystemInfoForTests()));
+    // Each span sets both colors, since it replaces the previous span
+    assertThat(html.imageRenderer().render(image, 3, 2))
+        .isEqualTo("<span></span><span style=\"color:#ff0000;background-color:#0000ff\">▀"
+            + "</span><span style=\"color:#ff0000;background-color:#ff0000\"> "
+            + "</span><span style=\"color:#0000ff;background-color:#ff0000\">▀</span>" + NL);
+  }
+
+  @Test
+  public void oddHeight() {
+    int[] image = {
+      RED,
+      BLUE,
+      RED,
+    };
+    assertThat(ansiUtils.imageRenderer().render(image, 1, 3))
+        .isEqualTo("\\e[38;2;255;0;0;48;2;0;0;255m▀\\e[m" + NL
+            + "\\e[38;2;255;0;0;49m▀\\e[m" + NL);
+  }
+
+  @Test
+  public void bufferedImage() {
+    BufferedImage image = new BufferedImage(1, 2, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(0, 0, RED);
+    image.setRGB(0, 1, BLUE);
+    assertThat(ansiUtils.imageRenderer().render(image))
+        .isEqualTo("\\e[38;2;255;0;0;48;2;0;0;255m▀\\e[m" + NL);
+  }
+
+  @Test
+  public void print() {
+    ansiUtils.imageRenderer().print(new int[] {RED, BLUE}, 1, 2);
+    // The test stdout uses the default charset, which may not be able to encode the block
+    assertThat(ansiForTests.getStdout()).startsWith("\\e[38;2;255;0;0;48;2;0;0;255m");
+    assertThat(ansiForTests.getStdout()).endsWith("\\e[m" + NL);
+  }
+
+  @Test
+  public void scalesToWidth() {
+    int[] image = {
+      0x000000, 0x0000FF, 0xFF0000, 0xFF0000,
+      0x000000, 0x0000FF, 0xFF0000, 0xFF0000,
+      0x00FF00, 0x00FF00, 0x00FF00, 0x00FF00,
+      0x00FF00, 0x00FF00, 0x00FF00, 0x00FF00,
+    };
+    assertThat(ansiUtils.imageRendererBuilder().width(2).build().render(image, 4, 4))
+        .isEqualTo("\\e[38;2;0;0;127;48;2;0;255;0m▀\\e[38;2;255;0;0m▀\\e[m" + NL);
+  }
+
+  @Test
+  public void scalesToTerminalWidth() {
+    String rendered = ansiUtils.imageRenderer().render(new int[200 * 100], 200, 100);
+    String[] lines = rendered.split(NL);
+    assertThat(lines).hasLength(20);
+    assertThat(lines[0]).isEqualTo("\\e[48;2;0;0;0m" + new String(new char[80]).replace('\0', ' ')
+        + "\\e[m");
+  }
+
+  @Test
+  public void largeImage() {
+    int[] image = new int[200 * 100];
+    for (int y = 0; y < 100; y++) {
+      for (int x = 0; x < 200; x++) {
+        image[y * 200 + x] = (x * 255 / 199) << 16 | (y * 255 / 99) << 8;
+      }
+    }
+    String rendered = ansiUtils.imageRendererBuilder().width(200).build().render(image, 200, 100);
+
+    String[] lines = rendered.split(NL);
+    assertThat(lines).hasLength(50);
+    for (String line : lines) {
+      assertThat(SGR.matcher(line).replaceAll("")).hasLength(200);
+    }
+    // Each line coalesces horizontal runs of the same color
+    int naiveLength = 200 * 50 * "\\e[38;2;255;255;0;48;2;255;255;0m▀".length();
+    assertThat(rendered.length()).isLessThan(naiveLength);
+  }
+
+  @Test
+  public void colors256() {
+    int[] image = {0xFFFF0000, 0xFFFF0A0A};
+    assertThat(withDepth(ColorDepth.COLORS_256).imageRenderer().render(image, 1, 2))
+        .isEqualTo("\\e[48;5;196m \\e[m" + NL);
+  }
+
+  @Test
+  public void colors16() {
+    int[] image = {RED, BLUE};
+    assertThat(withDepth(ColorDepth.COLORS_16).imageRenderer().render(image, 1, 2))
+        .isEqualTo("\\e[91;44m▀\\e[m" + NL);
+  }
+
+  @Test
+  public void palette() {
+    int[] image = new int[16];
+    Arrays.fill(image, 0x808080);
+    String rendered =
+        ansiUtils.imageRendererBuilder().palette(Palette.ansi16()).build().render(image, 4, 4);
+    assertThat(rendered).isEqualTo("\\e[100m    \\e[m" + NL + "\\e[100m    \\e[m" + NL);
+  }
+
+  @Test
+  public void dither() {
+    int[] image = new int[32 * 32];
+    Arrays.fill(image, 0xB0B0B0);
+    AnsiUtils utils = withDepth(ColorDepth.COLORS_16);
+
+    String plain = utils.imageRenderer().render(image, 32, 32);
+    String dithered = utils.imageRendererBuilder().dither(true).build().render(image, 32, 32);
+
+    assertThat(sgrCodes(plain)).hasSize(2); // one background, and the reset
+    Set<String> ditheredCodes = new HashSet<>();
+    for (String code : sgrCodes(dithered)) {
+      for (String part : code.split(";")) {
+        ditheredCodes.add(part);
+      }
+    }
+    // A mix of dark grey and grey approximates the mid-grey
+    assertThat(ditheredCodes).containsAllOf("90", "37");
+  }
+
+  @Test
+  public void noOpCodes() {
+    AnsiUtils utils = AnsiUtils.create(AnsiFactory.NO_OP);
+    assertThat(utils.imageRenderer().render(new int[] {RED, BLUE}, 1, 2)).isEqualTo("▀" + NL);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void tooFewPixels() {
+    ansiUtils.imageRenderer().render(new int[3], 2, 2);
+  }
+}
@@ -0,0 +1,104 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link Palette}.
+ */
+public class PaletteTest {
+  @Test
+  public void ansi16_namedColors() {
+    Palette palette = Palette.ansi16();
+    assertThat(palette.size()).isEqualTo(16);
+    assertThat(palette.nearestColor(0x000000)).isEqualTo(Color.BLACK);
+    assertThat(palette.nearestColor(0xFFFFFF)).isEqualTo(Color.WHITE);
+    assertThat(palette.nearestColor(0xFF0000)).isEqualTo(Color.LIGHT_RED);
+    assertThat(palette.nearestColor(0xB00000)).isEqualTo(Color.RED);
+    assertThat(palette.nearestColor(0x0000C0)).isEqualTo(Color.BLUE);
+    assertThat(palette.nearestColor(0x808080)).isEqualTo(Color.DARK_GREY);
+    assertThat(palette.nearestColor(0x30C0C0)).isEqualTo(Color.CYAN);
+  }
+
+  @Test
+  public void ansi16_paletteColorsMapToThemselves() {
+    Palette palette = Palette.ansi16();
+    for (int i = 0; i < palette.size(); i++) {
+      assertWithMessage("Index %s", i).that(palette.nearestIndex(palette.rgb(i))).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void ansi16_customTheme() {
+    // A theme where "red" is rendered as blue
+    int[] theme = new int[16];
+    theme[1] = 0x0000FF;
+    theme[15] = 0xFFFFFF;
+    Palette palette = Palette.ansi16(theme);
+    assertThat(palette.nearestColor(0x0000F0)).isEqualTo(Color.RED);
+    assertThat(palette.nearestColor(0xF0F0F0)).isEqualTo(Color.WHITE);
+  }
+
+  @Test
+  public void ansi16_invalidTheme() {
+    Assert.expectThrows(IllegalArgumentException.class, () -> Palette.ansi16(1, 2, 3));
+  }
+
+  @Test
+  public void xterm256_colors() {
+    Palette palette = Palette.xterm256();
+    assertThat(palette.size()).isEqualTo(256);
+    assertThat(palette.rgb(16)).isEqualTo(0x000000);
+    assertThat(palette.rgb(196)).isEqualTo(0xFF0000);
+    assertThat(palette.rgb(231)).isEqualTo(0xFFFFFF);
+    assertThat(palette.rgb(232)).isEqualTo(0x080808);
+    assertThat(palette.rgb(255)).isEqualTo(0xEEEEEE);
+    Assert.expectThrows(IllegalStateException.class, () -> palette.nearestColor(0));
+  }
+
+  @DataProvider
+  public static Object[][] palettes() {
+    return new Object[][] {{Palette.ansi16()}, {Palette.xterm256()}};
+  }
+
+  @Test(dataProvider = "palettes")
+  public void exactColors(Palette palette) {
+    for (int i = 0; i < palette.size(); i++) {
+      int rgb = palette.rgb(i);
+      int index = palette.nearestIndex(rgb);
+      // Repeated colors map to their first index
+      assertWithMessage("Index %s", i).that(palette.rgb(index)).isEqualTo(rgb);
+      assertWithMessage("Index %s", i).that(index).isAtMost(i);
+    }
+  }
+
+  @Test
+  public void xterm256_exactColorsInSharedBuckets() {
+    // Each bucket's cached result is for its center, which is closer to another color
+    Palette palette = Palette.xterm256();
+    assertThat(palette.nearestIndex(0x000000)).isEqualTo(0);
+    assertThat(palette.nearestIndex(0x808080)).isEqualTo(244);
+    assertThat(palette.nearestIndex(0x5F5FFF)).isEqualTo(63);
+  }
+
+  @Test
+  public void xterm256_betterThanToColorIndex() {
+    // A dark blue that toColorIndex maps to a grey
+    int rgb = 0x10104A;
+    assertThat(Ansi.toColorIndex(rgb)).isEqualTo(0xEA);
+    assertThat(Palette.xterm256().nearestIndex(rgb)).isEqualTo(17);
+  }
+
+  @Test
+  public void cached() {
+    Palette palette = Palette.xterm256(new int[16]);
+    int first = palette.nearestIndex(0x123456);
+    assertThat(palette.nearestIndex(0x123456)).isEqualTo(first);
+    assertThat(palette.nearestIndex(0xFF123456)).isEqualTo(first);
+  }
+}
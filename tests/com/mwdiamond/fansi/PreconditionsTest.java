@@ -0,0 +1,76 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.testng.Assert.fail;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link Preconditions}, mostly that messages are formatted like Guava's.
+ */
+public class PreconditionsTest {
+  @Test
+  public void format() {
+    assertThat(Preconditions.format("Invalid size: %sx%s", 3, 4)).isEqualTo("Invalid size: 3x4");
+    assertThat(Preconditions.format("No placeholders")).isEqualTo("No placeholders");
+    assertThat(Preconditions.format("Too few %s", 1, 2, "three"))
+        .isEqualTo("Too few 1 [2, three]");
+    assertThat(Preconditions.format("Too many %s %s", "args")).isEqualTo("Too many args %s");
+    assertThat(Preconditions.format(null, (Object) null)).isEqualTo("null [null]");
+  }
+
+  @Test
+  public void checkArgument() {
+    Preconditions.checkArgument(true, "Unused %s", 1L);
+    try {
+      Preconditions.checkArgument(false, "Invalid dimensions: %sx%s", 0, 5);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Invalid dimensions: 0x5");
+    }
+  }
+
+  @Test
+  public void checkState() {
+    try {
+      Preconditions.checkState(false, "Bad state: %s", "broken");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Bad state: broken");
+    }
+  }
+
+  @Test
+  public void checkNotNull() {
+    Object value = new Object();
+    assertThat(Preconditions.checkNotNull(value)).isSameAs(value);
+    try {
+      Preconditions.checkNotNull(null, "value");
+      fail();
+    } catch (NullPointerException e) {
+      assertThat(e).hasMessageThat().isEqualTo("value");
+    }
+  }
+
+  @Test
+  public void checkElementIndex() {
+    assertThat(Preconditions.checkElementIndex(2, 3)).isEqualTo(2);
+    try {
+      Preconditions.checkElementIndex(3, 3);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      assertThat(e).hasMessageThat().isEqualTo("index (3) must be less than size (3)");
+    }
+  }
+
+  @Test
+  public void checkPositionIndexes() {
+    Preconditions.checkPositionIndexes(0, 3, 3);
+    try {
+      Preconditions.checkPositionIndexes(2, 4, 3);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      assertThat(e).hasMessageThat().isEqualTo("range [2, 4) is not within [0, 3)");
+    }
+  }
+}
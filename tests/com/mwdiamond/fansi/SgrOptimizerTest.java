@@ -0,0 +1,149 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.Ansi.Style;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link SgrOptimizer}.
+ */
+public class SgrOptimizerTest {
+  /** Optimizes the input, written in one chunk, and returns the output. */
+  private static String optimize(String input) throws IOException {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    SgrOptimizer optimizer = AnsiUtils.optimizeSgr(sink);
+    optimizer.write(input.getBytes(StandardCharsets.UTF_8));
+    optimizer.flush();
+    assertThat(optimizer.bytesSaved()).isEqualTo(input.getBytes(StandardCharsets.UTF_8).length
+        - sink.size());
+    return new String(sink.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /** Optimizes the input a byte at a time, and returns the output. */
+  private static String optimizeBytewise(String input) throws IOException {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    SgrOptimizer optimizer = AnsiUtils.optimizeSgr(sink);
+    for (byte b : input.getBytes(StandardCharsets.UTF_8)) {
+      optimizer.write(b);
+    }
+    optimizer.flush();
+    return new String(sink.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void textUnchanged() throws IOException {
+    assertThat(optimize("Hello\tWorld é€\r\n")).isEqualTo("Hello\tWorld é€\r\n");
+  }
+
+  @Test
+  public void necessaryCodesKept() throws IOException {
+    String input = "\u001B[1;31mred\u001B[m plain";
+    assertThat(optimize(input)).isEqualTo(input);
+  }
+
+  @Test
+  public void resetAndColorMerged() throws IOException {
+    assertThat(optimize("\u001B[31ma\u001B[m\u001B[32mb\u001B[m"))
+        .isEqualTo("\u001B[31ma\u001B[32mb\u001B[m");
+  }
+
+  @Test
+  public void overriddenCodesDropped() throws IOException {
+    assertThat(optimize("\u001B[31m\u001B[1m\u001B[32m\u001B[22mgreen"))
+        .isEqualTo("\u001B[32mgreen");
+  }
+
+  @Test
+  public void repeatedCodesDropped() throws IOException {
+    assertThat(optimize("\u001B[1;31ma\u001B[31mb\u001B[1mc"))
+        .isEqualTo("\u001B[1;31mabc");
+  }
+
+  @Test
+  public void unnecessaryResetsDropped() throws IOException {
+    assertThat(optimize("\u001B[m\u001B[10;39ma\u001B[0mb")).isEqualTo("ab");
+  }
+
+  @Test
+  public void shorterOfChangesAndReset() throws IOException {
+    // Removing four attributes takes longer than resetting and re-applying the color
+    assertThat(optimize("\u001B[1;3;4;9;31ma\u001B[0;31mb"))
+        .isEqualTo("\u001B[1;3;4;9;31ma\u001B[0;31mb");
+    assertThat(optimize("\u001B[1;4;31ma\u001B[0;4;32mb"))
+        .isEqualTo("\u001B[1;4;31ma\u001B[22;32mb");
+  }
+
+  @Test
+  public void boldAndDim() throws IOException {
+    assertThat(optimize("\u001B[1;2;4ma\u001B[22;2mb"))
+        .isEqualTo("\u001B[1;2;4ma\u001B[22;2mb");
+  }
+
+  @Test
+  public void italicEndsFraktur() throws IOException {
+    assertThat(optimize("\u001B[3;4;20ma\u001B[23;20mb"))
+        .isEqualTo("\u001B[3;4;20ma\u001B[23;20mb");
+  }
+
+  @Test
+  public void extendedColors() throws IOException {
+    assertThat(optimize("\u001B[38;5;200;48;2;1;2;3ma\u001B[38;5;200mb\u001B[48;2;1;2;4mc"))
+        .isEqualTo("\u001B[38;5;200;48;2;1;2;3mab\u001B[48;2;1;2;4mc");
+  }
+
+  @Test
+  public void pendingCodesWrittenBeforeOtherSequences() throws IOException {
+    assertThat(optimize("\u001B[44m\u001B[2J\u001B[m\u001B]2;title\u0007\u001B[1m\u001B7x"))
+        .isEqualTo("\u001B[44m\u001B[2J\u001B[m\u001B]2;title\u0007\u001B[1m\u001B7x");
+  }
+
+  @Test
+  public void pendingCodesWrittenOnFlush() throws IOException {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    SgrOptimizer optimizer = AnsiUtils.optimizeSgr(sink);
+    optimizer.write("\u001B[31mred\u001B[m".getBytes(StandardCharsets.UTF_8));
+    assertThat(sink.toString("UTF-8")).isEqualTo("\u001B[31mred");
+    optimizer.flush();
+    assertThat(sink.toString("UTF-8")).isEqualTo("\u001B[31mred\u001B[m");
+    optimizer.flush();
+    assertThat(sink.toString("UTF-8")).isEqualTo("\u001B[31mred\u001B[m");
+  }
+
+  @Test
+  public void unrecognizedCodesPassedThrough() throws IOException {
+    // Once an unrecognized code is written the state is unknown, until it's reset
+    assertThat(optimize("\u001B[31ma\u001B[21;31mb\u001B[31mc\u001B[0;31md\u001B[31me"))
+        .isEqualTo("\u001B[31ma\u001B[21;31mb\u001B[31mc\u001B[0;31mde");
+    assertThat(optimize("\u001B[38:2::1:2:3ma\u001B[1m\u001B[mb"))
+        .isEqualTo("\u001B[38:2::1:2:3ma\u001B[1m\u001B[mb");
+  }
+
+  @Test
+  public void privateAndMalformedSequencesPassedThrough() throws IOException {
+    String input = "\u001B[>4;2m\u001B[1\n2H\u001B[12\u0018x\u001B[1 q";
+    assertThat(optimize(input)).isEqualTo(input);
+  }
+
+  @Test
+  public void splitAcrossWrites() throws IOException {
+    assertThat(optimizeBytewise("\u001B[31ma\u001B[m\u001B[32mé\u001B[m\u001B[2J"))
+        .isEqualTo("\u001B[31ma\u001B[32mé\u001B[m\u001B[2J");
+  }
+
+  @Test
+  public void factory() {
+    AnsiForTests ansiForTests = new AnsiForTests(Codes.REAL,
+        new AnsiForTests.SystemInfoForTests());
+    SgrOptimizer.Factory factory = AnsiUtils.optimizeSgr(ansiForTests);
+    factory.ansi().color(Color.RED).style(Style.BOLD).color(Color.GREEN).out("a");
+    factory.ansi().color(Color.GREEN).outln("b");
+    assertThat(ansiForTests.getStdout())
+        .isEqualTo("\u001B[1;32ma\u001B[m\u001B[32mb\u001B[m" + System.lineSeparator());
+    assertThat(factory.bytesSaved()).isGreaterThan(0L);
+  }
+}
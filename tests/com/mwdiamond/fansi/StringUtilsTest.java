@@ -0,0 +1,46 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link StringUtils}.
+ */
+public class StringUtilsTest {
+  @Test
+  public void nullOrEmpty() {
+    assertThat(StringUtils.isNullOrEmpty(null)).isTrue();
+    assertThat(StringUtils.isNullOrEmpty("")).isTrue();
+    assertThat(StringUtils.isNullOrEmpty(" ")).isFalse();
+    assertThat(StringUtils.nullToEmpty(null)).isEmpty();
+    assertThat(StringUtils.nullToEmpty("a")).isEqualTo("a");
+  }
+
+  @Test
+  public void repeat() {
+    assertThat(StringUtils.repeat("ab", 3)).isEqualTo("ababab");
+    assertThat(StringUtils.repeat("ab", 0)).isEmpty();
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void repeat_negative() {
+    StringUtils.repeat("ab", -1);
+  }
+
+  @Test
+  public void tryParseInt() {
+    assertThat(StringUtils.tryParseInt("0")).isEqualTo(0);
+    assertThat(StringUtils.tryParseInt("120")).isEqualTo(120);
+    assertThat(StringUtils.tryParseInt("-7")).isEqualTo(-7);
+    assertThat(StringUtils.tryParseInt("2147483647")).isEqualTo(Integer.MAX_VALUE);
+    assertThat(StringUtils.tryParseInt("-2147483648")).isEqualTo(Integer.MIN_VALUE);
+    assertThat(StringUtils.tryParseInt("2147483648")).isNull();
+    assertThat(StringUtils.tryParseInt("99999999999")).isNull();
+    assertThat(StringUtils.tryParseInt("")).isNull();
+    assertThat(StringUtils.tryParseInt("-")).isNull();
+    assertThat(StringUtils.tryParseInt("+1")).isNull();
+    assertThat(StringUtils.tryParseInt("1.5")).isNull();
+    assertThat(StringUtils.tryParseInt(" 1")).isNull();
+  }
+}
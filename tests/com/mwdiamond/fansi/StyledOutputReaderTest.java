@@ -0,0 +1,139 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.testng.Assert.fail;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.AnsiForTests.SystemInfoForTests;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link StyledOutputReader}, with output encoded by {@link StyledOutputWriter}.
+ */
+public class StyledOutputReaderTest {
+  /** Writes the same output to any factory. */
+  private static void write(AnsiFactory factory) {
+    factory.ansi().color(Color.RED, Style.BOLD, Style.UNDERLINE).out("Hello <%s>", "World");
+    factory.ansi().outln();
+    factory.ansi().color(Color.GREEN, Color.BLUE, Font.FRAKTUR).errln("error & more");
+    factory.ansi().colorRgb(0xFF8000).background(17).outln("rgb and index");
+    factory.ansi().moveCursor(-2).moveCursor(1, -3).overwriteThisLine().out("moved");
+    factory.ansi().fixed(3, 4).overwriteLastLine().outln("fixed");
+    factory.ansi().title("a title");
+    factory.ansi().out("é \uD83D\uDE00 unpaired \uD800 \u001B[0m\n");
+    AnsiUtils.create(factory).gradient(0xFF0000, 0x0000FF).println("gradient");
+  }
+
+  private static byte[] encode() throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    try (StyledOutputWriter writer = AnsiUtils.styledOutputWriter(encoded)) {
+      write(writer);
+    }
+    return encoded.toByteArray();
+  }
+
+  @DataProvider
+  public static Object[][] codes() {
+    return new Object[][] {{Codes.RAW}, {Codes.REAL}, {Codes.NO_OP}, {Codes.HTML}};
+  }
+
+  @Test(dataProvider = "codes")
+  public void rendersLikeAnsi(Codes codes) throws IOException {
+    AnsiForTests expected = new AnsiForTests(codes, new SystemInfoForTests());
+    write(expected);
+
+    AnsiForTests actual = new AnsiForTests(codes, new SystemInfoForTests());
+    AnsiUtils.styledOutputReader().render(new ByteArrayInputStream(encode()), actual.ansi());
+    // Unpaired surrogates can't be encoded in UTF-8
+    assertThat(actual.getStdout()).isEqualTo(expected.getStdout().replace('\uD800', '?'));
+    assertThat(actual.getStderr()).isEqualTo(expected.getStderr());
+  }
+
+  @Test
+  public void incompleteWritesLeftInBuffer() throws IOException {
+    byte[] encoded = encode();
+    AnsiForTests expected = new AnsiForTests();
+    AnsiUtils.styledOutputReader().render(ByteBuffer.wrap(encoded), expected.ansi());
+
+    // Fed a byte at a time, every write is rendered once it's complete
+    AnsiForTests actual = new AnsiForTests();
+    StyledOutputReader reader = AnsiUtils.styledOutputReader();
+    ByteBuffer buffer = ByteBuffer.allocate(encoded.length);
+    for (byte b : encoded) {
+      buffer.put(b);
+      buffer.flip();
+      reader.render(buffer, actual.ansi());
+      buffer.compact();
+    }
+    assertThat(buffer.position()).isEqualTo(0);
+    assertThat(actual.getStdout()).isEqualTo(expected.getStdout());
+    assertThat(actual.getStderr()).isEqualTo(expected.getStderr());
+  }
+
+  @Test
+  public void slowStream() throws IOException {
+    final byte[] encoded = encode();
+    AnsiForTests expected = new AnsiForTests();
+    AnsiUtils.styledOutputReader().render(new ByteArrayInputStream(encoded), expected.ansi());
+
+    InputStream oneByteAtATime = new ByteArrayInputStream(encoded) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+    AnsiForTests actual = new AnsiForTests();
+    AnsiUtils.styledOutputReader().render(oneByteAtATime, actual.ansi());
+    assertThat(actual.getStdout()).isEqualTo(expected.getStdout());
+  }
+
+  @Test
+  public void longWrite() throws IOException {
+    char[] text = new char[100000];
+    Arrays.fill(text, 'x');
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    try (StyledOutputWriter writer = AnsiUtils.styledOutputWriter(encoded)) {
+      writer.ansi().color(Color.RED).outln(new String(text));
+    }
+    AnsiForTests actual = new AnsiForTests();
+    AnsiUtils.styledOutputReader().render(new ByteArrayInputStream(encoded.toByteArray()),
+        actual.ansi());
+    assertThat(actual.getStdout()).contains(new String(text));
+  }
+
+  @Test
+  public void malformedOutput() throws IOException {
+    byte[] encoded = encode();
+    byte[][] malformed = {
+        {'n', 'o', 'p', 'e'},
+        Arrays.copyOf(encoded, encoded.length - 1),
+        {(byte) 0xFA, 'N', 'S', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},
+        {(byte) 0xFA, 'N', 'S', 1, 1 << 3, 99},
+        {(byte) 0xFA, 'N', 'S', 1, 1 << 3, (byte) DisplayList.DOWN_LINE},
+        {(byte) 0xFA, 'N', 'S', 1, 2 << 3, (byte) DisplayList.DOWN_LINE, 0},
+        {(byte) 0xFA, 'N', 'S', 1, 3 << 3, (byte) DisplayList.TEXT, 5, 'a'},
+        {(byte) 0xFA, 'N', 'S', 1, 2 << 3, (byte) (StyledOutputWriter.SHORT_TEXT | 5), 'a'},
+        {(byte) 0xFA, 'N', 'S', 1, 3 << 3, (byte) DisplayList.COLOR,
+            StyledOutputWriter.FONT_FIELD, 99},
+        {(byte) 0xFA, 'N', 'S', 1, 1 << 3, (byte) (StyledOutputWriter.NAMED_FOREGROUND | 31)},
+        {(byte) 0xFA, 'N', 'S', 1, 2 << 3, (byte) StyledOutputWriter.SET_FOREGROUND, (byte) 0x80},
+    };
+    for (byte[] bytes : malformed) {
+      try {
+        AnsiUtils.styledOutputReader().render(new ByteArrayInputStream(bytes),
+            new AnsiForTests().ansi());
+        fail(Arrays.toString(bytes));
+      } catch (IOException expected) {
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.testng.Assert.fail;
+
+import com.mwdiamond.fansi.Ansi.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link StyledOutputWriter}. See {@link StyledOutputReaderTest} for tests that
+ * decode its output.
+ */
+public class StyledOutputWriterTest {
+  @Test
+  public void encoding() throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    StyledOutputWriter writer = AnsiUtils.styledOutputWriter(encoded);
+    writer.ansi().color(Color.RED).out("hi");
+    writer.ansi().moveCursor(-2, 1).errln("é");
+    assertThat(encoded.toByteArray()).isEqualTo(new byte[] {
+        (byte) 0xFA, 'N', 'S', 1,
+        // a named foreground takes a byte, and the trailing clear is a flag
+        4 << 3 | StyledOutputWriter.CLEARED,
+        (byte) (StyledOutputWriter.NAMED_FOREGROUND | Color.RED.ordinal()),
+        (byte) (StyledOutputWriter.SHORT_TEXT | 2), 'h', 'i',
+        // moving the cursor, to stderr with a newline
+        6 << 3 | StyledOutputWriter.STDERR | StyledOutputWriter.NEW_LINE, DisplayList.MOVE_CURSOR,
+        3, 2, (byte) (StyledOutputWriter.SHORT_TEXT | 2), (byte) 0xC3, (byte) 0xA9});
+  }
+
+  @Test
+  public void shortForms() throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    StyledOutputWriter writer = AnsiUtils.styledOutputWriter(encoded);
+    writer.ansi().color(200).out("a");
+    writer.ansi().color(Color.RED, Color.BLUE).out("b");
+    AnsiUtils.create(writer).gradient(0xFF0000, 0x0000FF).print("cd");
+    assertThat(encoded.toByteArray()).isEqualTo(new byte[] {
+        (byte) 0xFA, 'N', 'S', 1,
+        // a color index takes two bytes
+        5 << 3 | StyledOutputWriter.CLEARED, StyledOutputWriter.FOREGROUND,
+        (byte) 0xA1, 6, (byte) (StyledOutputWriter.SHORT_TEXT | 1), 'a',
+        // a background color needs the full form
+        6 << 3 | StyledOutputWriter.CLEARED, DisplayList.COLOR,
+        StyledOutputWriter.COLOR_FIELD | StyledOutputWriter.BACKGROUND_FIELD,
+        (byte) (Color.RED.ordinal() << 2 | 2), (byte) (Color.BLUE.ordinal() << 2 | 2),
+        (byte) (StyledOutputWriter.SHORT_TEXT | 1), 'b',
+        // each character of a gradient sets only its foreground color
+        13 << 3 | StyledOutputWriter.CLEARED,
+        (byte) (StyledOutputWriter.NAMED_FOREGROUND | Color.DEFAULT.ordinal()),
+        StyledOutputWriter.SET_FOREGROUND, (byte) 0x80, (byte) 0x80, (byte) 0xF0, 0x1F,
+        (byte) (StyledOutputWriter.SHORT_TEXT | 1), 'c',
+        StyledOutputWriter.SET_FOREGROUND, (byte) 0xFC, 7,
+        (byte) (StyledOutputWriter.SHORT_TEXT | 1), 'd'});
+  }
+
+  @Test
+  public void longText() throws IOException {
+    char[] text = new char[StyledOutputWriter.SHORT_TEXT];
+    Arrays.fill(text, 'x');
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    AnsiUtils.styledOutputWriter(encoded).ansi().out(new String(text));
+    byte[] bytes = encoded.toByteArray();
+    assertThat(Arrays.copyOf(bytes, StyledOutputWriter.HEADER.length + 5)).isEqualTo(new byte[] {
+        (byte) 0xFA, 'N', 'S', 1, (byte) 0x98, 8, DisplayList.TEXT, (byte) 0x80, 1});
+    assertThat(bytes).hasLength(StyledOutputWriter.HEADER.length + 5 + text.length);
+  }
+
+  @Test
+  public void colors() {
+    int[] packed = {Codes.ColorType.UNCHANGED, Codes.ColorType.packRgb(0xFFFFFF),
+        Codes.ColorType.packIndex(255), Codes.ColorType.packNamed(Color.DEFAULT)};
+    for (int color : packed) {
+      assertThat(StyledOutputWriter.packedColor(StyledOutputWriter.color(color))).isEqualTo(color);
+    }
+  }
+
+  @Test
+  public void flushedAfterLines() throws IOException {
+    final StringBuilder events = new StringBuilder();
+    StyledOutputWriter writer = AnsiUtils.styledOutputWriter(new OutputStream() {
+      @Override
+      public void write(int b) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        events.append('w');
+      }
+
+      @Override
+      public void flush() {
+        events.append('f');
+      }
+    });
+    writer.ansi().out("partial");
+    writer.ansi().outln("line");
+    writer.flush();
+    assertThat(events.toString()).isEqualTo("wwwff");
+  }
+
+  @Test
+  public void writeFailureReported() throws IOException {
+    StyledOutputWriter writer = AnsiUtils.styledOutputWriter(new OutputStream() {
+      private boolean headerWritten;
+
+      @Override
+      public void write(int b) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (headerWritten) {
+          throw new IOException("pipe closed");
+        }
+        headerWritten = true;
+      }
+    });
+    writer.ansi().outln("text");
+    try {
+      writer.close();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasCauseThat().hasMessageThat().isEqualTo("pipe closed");
+    }
+  }
+}
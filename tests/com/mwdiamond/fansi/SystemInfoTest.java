@@ -0,0 +1,202 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import com.mwdiamond.fansi.SystemInfo.SttySize;
+import com.mwdiamond.fansi.SystemInfo.TerminalSize;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the environment-parsing parts of {@link SystemInfo}; inspecting the actual system
+ * requires integration tests.
+ */
+public class SystemInfoTest {
+  @Test
+  public void colorDepth_property() {
+    assertThat(SystemInfo.getColorDepth("16", "truecolor", "xterm-256color"))
+        .isEqualTo(ColorDepth.COLORS_16);
+    assertThat(SystemInfo.getColorDepth("256", null, null)).isEqualTo(ColorDepth.COLORS_256);
+    assertThat(SystemInfo.getColorDepth("TrueColor", null, "xterm"))
+        .isEqualTo(ColorDepth.TRUE_COLOR);
+  }
+
+  @Test
+  public void colorDepth_turkishLocale() {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      // "i".toUpperCase() is a dotted capital I in Turkish
+      assertThat(SystemInfo.getColorDepth("24bit", null, null)).isEqualTo(ColorDepth.TRUE_COLOR);
+      assertThat(SystemInfo.getColorDepth(null, "TRUECOLOR", null))
+          .isEqualTo(ColorDepth.TRUE_COLOR);
+      assertThat(SystemInfo.getColorDepth(null, null, "XTERM-DIRECT"))
+          .isEqualTo(ColorDepth.TRUE_COLOR);
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void colorDepth_invalidProperty() {
+    SystemInfo.getColorDepth("lots", null, null);
+  }
+
+  @Test
+  public void colorDepth_environment() {
+    assertThat(SystemInfo.getColorDepth(null, "truecolor", "xterm"))
+        .isEqualTo(ColorDepth.TRUE_COLOR);
+    assertThat(SystemInfo.getColorDepth(null, "24bit", null)).isEqualTo(ColorDepth.TRUE_COLOR);
+    assertThat(SystemInfo.getColorDepth(null, null, "xterm-direct"))
+        .isEqualTo(ColorDepth.TRUE_COLOR);
+    assertThat(SystemInfo.getColorDepth(null, null, "xterm-256color"))
+        .isEqualTo(ColorDepth.COLORS_256);
+    assertThat(SystemInfo.getColorDepth(null, "", "screen-256color"))
+        .isEqualTo(ColorDepth.COLORS_256);
+    assertThat(SystemInfo.getColorDepth(null, null, "xterm")).isEqualTo(ColorDepth.COLORS_16);
+    assertThat(SystemInfo.getColorDepth(null, null, "")).isNull();
+    assertThat(SystemInfo.getColorDepth(null, null, null)).isNull();
+  }
+
+  @Test
+  public void colorDepth_terminfo() {
+    Terminfo colors256 = Terminfo.parse(ByteBuffer.wrap(terminfoEntry(256)));
+    Terminfo monochrome = Terminfo.parse(ByteBuffer.wrap(terminfoEntry(-1)));
+    // The entry is preferred over the name of the terminal...
+    assertThat(SystemInfo.getColorDepth(null, null, "xterm", colors256))
+        .isEqualTo(ColorDepth.COLORS_256);
+    assertThat(SystemInfo.getColorDepth(null, null, "xterm-256color", monochrome))
+        .isEqualTo(ColorDepth.COLORS_16);
+    // ...but not over COLORTERM or the property
+    assertThat(SystemInfo.getColorDepth(null, "truecolor", "xterm", colors256))
+        .isEqualTo(ColorDepth.TRUE_COLOR);
+    assertThat(SystemInfo.getColorDepth("16", null, "xterm", colors256))
+        .isEqualTo(ColorDepth.COLORS_16);
+  }
+
+  @Test
+  public void codes() {
+    Terminfo dumb = Terminfo.parse(ByteBuffer.wrap(terminfoEntry(-1)));
+    assertThat(SystemInfo.getCodes(Codes.RAW, dumb)).isSameAs(Codes.RAW);
+    assertThat(SystemInfo.getCodes(null, dumb)).isSameAs(Codes.NO_OP);
+    assertThat(SystemInfo.getCodes(null, null)).isNull();
+  }
+
+  @Test
+  public void escapes() {
+    assertThat(SystemInfo.getEscapes(null, true)).isTrue();
+    assertThat(SystemInfo.getEscapes(null, false)).isFalse();
+    assertThat(SystemInfo.getEscapes(null, null)).isNull();
+    assertThat(SystemInfo.getEscapes("console", false)).isFalse();
+    assertThat(SystemInfo.getEscapes("CONSOLE", true)).isTrue();
+    // Explicit choices apply to both streams, wherever they're redirected
+    assertThat(SystemInfo.getEscapes("REAL", false)).isNull();
+    assertThat(SystemInfo.getEscapes("off", true)).isNull();
+  }
+
+  @Test
+  public void stripRedirected() {
+    assertThat(SystemInfo.getStripRedirected(null)).isNull();
+    assertThat(SystemInfo.getStripRedirected("strip")).isTrue();
+    assertThat(SystemInfo.getStripRedirected("PLAIN")).isFalse();
+  }
+
+  @Test
+  public void stripRedirected_turkishLocale() {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      assertThat(SystemInfo.getStripRedirected("strip")).isTrue();
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void stripRedirected_invalidProperty() {
+    SystemInfo.getStripRedirected("sometimes");
+  }
+
+  @Test
+  public void terminalPath() {
+    assertThat(SystemInfo.isTerminalPath("/dev/pts/3")).isTrue();
+    assertThat(SystemInfo.isTerminalPath("/dev/tty1")).isTrue();
+    assertThat(SystemInfo.isTerminalPath("/dev/console")).isTrue();
+    assertThat(SystemInfo.isTerminalPath("/dev/null")).isFalse();
+    assertThat(SystemInfo.isTerminalPath("/tmp/build.log")).isFalse();
+    // Pipes and sockets can't be resolved, and are left in /proc
+    assertThat(SystemInfo.isTerminalPath("/proc/1234/fd/1")).isFalse();
+  }
+
+  /**
+   * Returns a minimal compiled terminfo entry with no string capabilities, and the given number
+   * of colors; see {@link TerminfoTest} for more complete entries.
+   */
+  private static byte[] terminfoEntry(int colors) {
+    ByteBuffer entry = ByteBuffer.allocate(12 + 2 + 14 * 2).order(ByteOrder.LITTLE_ENDIAN);
+    entry.putShort((short) 0432).putShort((short) 2).putShort((short) 0).putShort((short) 14)
+        .putShort((short) 0).putShort((short) 0);
+    entry.put((byte) 't').put((byte) 0);
+    for (int i = 0; i < 14; i++) {
+      entry.putShort((short) (i == 13 ? colors : -1));
+    }
+    return entry.array();
+  }
+
+  /** Returns a fixed {@code stty size} output, failing if it's requested when it shouldn't be. */
+  private static SttySize stty(final String output) {
+    return new SttySize() {
+      @Override
+      public String get() {
+        if (output == null) {
+          throw new AssertionError("stty should not have been invoked");
+        }
+        return output;
+      }
+    };
+  }
+
+  @Test
+  public void size_environment() {
+    TerminalSize size = SystemInfo.getSize("120", "40", stty(null));
+    assertThat(size.columns).isEqualTo(120);
+    assertThat(size.rows).isEqualTo(40);
+  }
+
+  @Test
+  public void size_stty() {
+    TerminalSize size = SystemInfo.getSize(null, null, stty("50 132\n"));
+    assertThat(size.columns).isEqualTo(132);
+    assertThat(size.rows).isEqualTo(50);
+  }
+
+  @Test
+  public void size_environmentTakesPrecedence() {
+    TerminalSize size = SystemInfo.getSize("100", "", stty("50 132\n"));
+    assertThat(size.columns).isEqualTo(100);
+    assertThat(size.rows).isEqualTo(50);
+  }
+
+  @Test
+  public void size_unknown() {
+    TerminalSize size = SystemInfo.getSize(null, null, new SttySize() {
+      @Override
+      public String get() {
+        return null;
+      }
+    });
+    assertThat(size.columns).isNull();
+    assertThat(size.rows).isNull();
+
+    size = SystemInfo.getSize("0", "abc", stty("garbage"));
+    assertThat(size.columns).isNull();
+    assertThat(size.rows).isNull();
+
+    size = SystemInfo.getSize("80", null, stty("0 0"));
+    assertThat(size.columns).isEqualTo(80);
+    assertThat(size.rows).isNull();
+  }
+}
@@ -0,0 +1,128 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.TerminalQueries.Query;
+import com.mwdiamond.fansi.TerminalQueries.Replies;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link TerminalQueries}, with streams standing in for the terminal.
+ */
+public class TerminalQueriesTest {
+  private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(250);
+  private static final String DA1_REPLY = "\u001B[?62;22c";
+
+  private ByteArrayOutputStream sent;
+  private AnsiForTests.FakeClock clock;
+
+  @BeforeMethod
+  private void reset() {
+    sent = new ByteArrayOutputStream();
+    clock = new AnsiForTests.FakeClock();
+  }
+
+  private Replies exchange(EnumSet<Query> queries, String replies) throws IOException {
+    return TerminalQueries.exchange(queries, sent, input(replies), clock, TIMEOUT);
+  }
+
+  private static InputStream input(String replies) {
+    return new ByteArrayInputStream(replies.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private String sent() {
+    return new String(sent.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void pipelinesQueries() throws IOException {
+    Replies replies = exchange(EnumSet.allOf(Query.class),
+        "\u001B[12;40R"
+        + "\u001B]10;rgb:d0d0/d0d0/d0d0\u001B\\"
+        + "\u001B]11;rgb:1e1e/1e1e/2e2e\u0007"
+        + DA1_REPLY);
+
+    // Every query is written at once, followed by DA1
+    assertThat(sent()).isEqualTo(
+        "\u001B[6n\u001B]10;?\u001B\\\u001B]11;?\u001B\\\u001B[c");
+    assertThat(replies.answered()).isTrue();
+    assertThat(replies.deviceAttributes()).asList().containsExactly(62, 22).inOrder();
+    assertThat(replies.cursorRow()).isEqualTo(12);
+    assertThat(replies.cursorColumn()).isEqualTo(40);
+    assertThat(replies.foreground()).isEqualTo(0xD0D0D0);
+    assertThat(replies.background()).isEqualTo(0x1E1E2E);
+    assertThat(clock.nanoTime()).isEqualTo(0);
+  }
+
+  @Test
+  public void unsupportedQueries() throws IOException {
+    // The DA1 reply arrives without replies to the other queries
+    Replies replies = exchange(EnumSet.allOf(Query.class), DA1_REPLY);
+    assertThat(replies.answered()).isTrue();
+    assertThat(replies.cursorRow()).isNull();
+    assertThat(replies.foreground()).isNull();
+    assertThat(replies.background()).isNull();
+    assertThat(clock.nanoTime()).isEqualTo(0);
+  }
+
+  @Test
+  public void ignoresOtherInput() throws IOException {
+    // Keypresses, including escape sequences for e.g. arrow keys, typed before the replies
+    Replies replies = exchange(EnumSet.of(Query.BACKGROUND_COLOR),
+        "ls\u001B[A\u001BOP\u001B]11;rgb:ff/80/00\u001B\\x" + DA1_REPLY);
+    assertThat(replies.answered()).isTrue();
+    assertThat(replies.background()).isEqualTo(0xFF8000);
+  }
+
+  @Test
+  public void stopsAtDeviceAttributes() throws IOException {
+    InputStream in = input(DA1_REPLY + "\u001B[1;1R");
+    Replies replies = TerminalQueries.exchange(
+        EnumSet.of(Query.CURSOR_POSITION), sent, in, clock, TIMEOUT);
+    assertThat(replies.cursorRow()).isNull();
+  }
+
+  @Test
+  public void timeout() throws IOException {
+    Replies replies = exchange(EnumSet.allOf(Query.class), "");
+    assertThat(replies.answered()).isFalse();
+    assertThat(replies.deviceAttributes()).isNull();
+    assertThat(clock.nanoTime()).isAtLeast(TIMEOUT);
+    assertThat(replies.toString()).isEqualTo("no reply");
+  }
+
+  @Test
+  public void streams() {
+    TerminalQueries queries = TerminalQueries.streams(
+        sent, input("\u001B[3;7R" + DA1_REPLY), clock, 250, TimeUnit.MILLISECONDS);
+    Replies replies = queries.query(EnumSet.of(Query.CURSOR_POSITION));
+    assertThat(replies.cursorRow()).isEqualTo(3);
+    assertThat(replies.cursorColumn()).isEqualTo(7);
+    assertThat(replies.toString()).isEqualTo("DA1 [62, 22], cursor at 3,7");
+  }
+
+  @Test
+  public void none() {
+    assertThat(TerminalQueries.NONE.query(EnumSet.allOf(Query.class)).answered()).isFalse();
+  }
+
+  @Test
+  public void parseColor() {
+    assertThat(TerminalQueries.parseColor("rgb:ffff/8080/0000")).isEqualTo(0xFF8000);
+    assertThat(TerminalQueries.parseColor("rgb:ff/80/00")).isEqualTo(0xFF8000);
+    assertThat(TerminalQueries.parseColor("rgb:f/8/0")).isEqualTo(0xFF8800);
+    assertThat(TerminalQueries.parseColor("rgb:fff/000/fff")).isEqualTo(0xFF00FF);
+    assertThat(TerminalQueries.parseColor("rgb:ffff/ffff")).isNull();
+    assertThat(TerminalQueries.parseColor("rgb:fffff/0/0")).isNull();
+    assertThat(TerminalQueries.parseColor("rgb:gg/00/00")).isNull();
+    assertThat(TerminalQueries.parseColor("#ff8000")).isNull();
+  }
+}
@@ -0,0 +1,153 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.AnsiForTests.FakeClock;
+import com.mwdiamond.fansi.AnsiUtils.ResizeListener;
+import com.mwdiamond.fansi.SystemInfo.SttySize;
+import com.mwdiamond.fansi.SystemInfo.TerminalSize;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link TerminalSizeMonitor}.
+ */
+public class TerminalSizeMonitorTest {
+  private String sttyOutput;
+  private int sttyCalls;
+  private List<String> resizes;
+  private TerminalSizeMonitor monitor;
+
+  @BeforeMethod
+  public void createMonitor() {
+    sttyOutput = null;
+    sttyCalls = 0;
+    resizes = new ArrayList<>();
+    monitor = new TerminalSizeMonitor(new TerminalSize(80, 24), new SttySize() {
+      @Override
+      public String get() {
+        sttyCalls++;
+        return sttyOutput;
+      }
+    });
+    monitor.addListener(new ResizeListener() {
+      @Override
+      public void resized(int columns, int rows) {
+        resizes.add(columns + "x" + rows);
+      }
+    });
+  }
+
+  @Test
+  public void refresh() {
+    sttyOutput = "30 100\n";
+    monitor.refresh();
+    assertThat(monitor.size()).isEqualTo(new TerminalSize(100, 30));
+    assertThat(resizes).containsExactly("100x30");
+  }
+
+  @Test
+  public void refresh_unchanged() {
+    sttyOutput = "24 80\n";
+    monitor.refresh();
+    assertThat(resizes).isEmpty();
+  }
+
+  @Test
+  public void refresh_failureKeepsSize() {
+    monitor.refresh();
+    assertThat(sttyCalls).isEqualTo(1);
+    assertThat(monitor.size()).isEqualTo(new TerminalSize(80, 24));
+    assertThat(resizes).isEmpty();
+  }
+
+  @Test
+  public void update_keepsKnownDimensions() {
+    monitor.update(new TerminalSize(null, 50));
+    assertThat(monitor.size()).isEqualTo(new TerminalSize(80, 50));
+    assertThat(resizes).containsExactly("80x50");
+  }
+
+  @Test
+  public void update_unknownSizeReportsDefaults() {
+    monitor = new TerminalSizeMonitor(SystemInfo.TerminalSize.UNKNOWN, new SttySize() {
+      @Override
+      public String get() {
+        return null;
+      }
+    });
+    final List<String> sizes = new ArrayList<>();
+    monitor.addListener(new ResizeListener() {
+      @Override
+      public void resized(int columns, int rows) {
+        sizes.add(columns + "x" + rows);
+      }
+    });
+    monitor.update(new TerminalSize(100, null));
+    assertThat(sizes).containsExactly("100x24");
+  }
+
+  @Test
+  public void refresh_coalescesConcurrentRequests() {
+    sttyOutput = "30 100";
+    monitor.addListener(new ResizeListener() {
+      @Override
+      public void resized(int columns, int rows) {
+        if (columns == 100) {
+          // A signal arriving mid-refresh is handled after this refresh, not concurrently
+          sttyOutput = "40 120";
+          monitor.refresh();
+          monitor.refresh();
+          assertThat(sttyCalls).isEqualTo(1);
+        }
+      }
+    });
+    monitor.refresh();
+    assertThat(sttyCalls).isEqualTo(2);
+    assertThat(resizes).containsExactly("100x30", "120x40").inOrder();
+  }
+
+  @Test
+  public void poll() {
+    FakeClock clock = new FakeClock();
+    AnimationScheduler scheduler = new AnimationScheduler(clock);
+    AnimationScheduler.Task task = monitor.poll(scheduler, 2, TimeUnit.SECONDS);
+
+    sttyOutput = "30 100";
+    clock.advance(1, TimeUnit.SECONDS);
+    scheduler.runDue();
+    assertThat(resizes).isEmpty();
+    clock.advance(1, TimeUnit.SECONDS);
+    scheduler.runDue();
+    assertThat(resizes).containsExactly("100x30");
+
+    task.cancel();
+    sttyOutput = "40 120";
+    clock.advance(2, TimeUnit.SECONDS);
+    scheduler.runDue();
+    assertThat(resizes).containsExactly("100x30");
+  }
+
+  @Test
+  public void removeListener() {
+    monitor = new TerminalSizeMonitor(new TerminalSize(80, 24), new SttySize() {
+      @Override
+      public String get() {
+        return null;
+      }
+    });
+    ResizeListener listener = new ResizeListener() {
+      @Override
+      public void resized(int columns, int rows) {
+        resizes.add(columns + "x" + rows);
+      }
+    };
+    monitor.addListener(listener);
+    monitor.removeListener(listener);
+    monitor.update(new TerminalSize(100, 30));
+    assertThat(resizes).isEmpty();
+  }
+}
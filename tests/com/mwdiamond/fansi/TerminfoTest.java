@@ -0,0 +1,336 @@
+package com.mwdiamond.fansi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.mwdiamond.fansi.Ansi.Font;
+import com.mwdiamond.fansi.Ansi.Style;
+import com.mwdiamond.fansi.Codes.ColorDepth;
+import com.mwdiamond.fansi.Codes.ColorType;
+import com.mwdiamond.fansi.Terminfo.Capability;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of {@link Terminfo} against synthetic compiled entries, so that they don't depend on the
+ * terminfo database of the machine running them.
+ */
+public class TerminfoTest {
+  private static final ColorType RED = new ColorType(Ansi.Color.RED);
+
+  @Test
+  public void parse() {
+    Terminfo terminfo =
+        new Entry().colors(256).strings(EnumSet.allOf(Capability.class)).parse();
+    assertThat(terminfo.name()).isEqualTo("fansi-test");
+    assertThat(terminfo.colors()).isEqualTo(256);
+    assertThat(terminfo.trueColor()).isFalse();
+    assertThat(terminfo.colorDepth()).isEqualTo(ColorDepth.COLORS_256);
+    for (Capability capability : Capability.values()) {
+      assertThat(terminfo.has(capability)).isTrue();
+    }
+  }
+
+  @Test
+  public void parse_missingCapabilities() {
+    Terminfo terminfo = new Entry().colors(8)
+        .strings(EnumSet.of(Capability.CURSOR_ADDRESS, Capability.CLR_EOL)).parse();
+    assertThat(terminfo.colorDepth()).isEqualTo(ColorDepth.COLORS_16);
+    assertThat(terminfo.has(Capability.CURSOR_ADDRESS)).isTrue();
+    assertThat(terminfo.has(Capability.CLR_EOL)).isTrue();
+    assertThat(terminfo.has(Capability.EXIT_ATTRIBUTE_MODE)).isFalse();
+    assertThat(terminfo.has(Capability.SET_A_FOREGROUND)).isFalse();
+  }
+
+  @Test
+  public void parse_noColors() {
+    Terminfo terminfo = new Entry().parse();
+    assertThat(terminfo.colors()).isEqualTo(-1);
+    assertThat(terminfo.colorDepth()).isNull();
+  }
+
+  @Test
+  public void parse_32bitNumbers() {
+    Terminfo terminfo = new Entry().wideNumbers().colors(0x1000000).parse();
+    assertThat(terminfo.colors()).isEqualTo(0x1000000);
+    assertThat(terminfo.trueColor()).isTrue();
+    assertThat(terminfo.colorDepth()).isEqualTo(ColorDepth.TRUE_COLOR);
+  }
+
+  @Test
+  public void parse_extendedTc() {
+    Terminfo terminfo = new Entry().colors(256).extendedBoolean("AX").extendedBoolean("Tc").parse();
+    assertThat(terminfo.trueColor()).isTrue();
+    assertThat(terminfo.colorDepth()).isEqualTo(ColorDepth.TRUE_COLOR);
+  }
+
+  @Test
+  public void parse_extendedRgb() {
+    assertThat(new Entry().colors(256).extendedBoolean("RGB").parse().trueColor()).isTrue();
+    assertThat(new Entry().colors(256).extendedString("XM", "\\E[?1006;1000%?%p1%{1}%=%th%el%;")
+        .extendedString("RGB", "8/8/8").parse().trueColor()).isTrue();
+  }
+
+  @Test
+  public void parse_extendedWithoutTrueColor() {
+    Terminfo terminfo = new Entry().colors(256).extendedBoolean("AX")
+        .extendedString("Ms", "\\E]52;%p1%s;%p2%s\\007").parse();
+    assertThat(terminfo.trueColor()).isFalse();
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void parse_badMagic() {
+    Terminfo.parse(ByteBuffer.wrap("#!/bin/sh\necho not terminfo\n".getBytes(
+        StandardCharsets.US_ASCII)));
+  }
+
+  @Test(expectedExceptions = IndexOutOfBoundsException.class)
+  public void parse_truncated() {
+    byte[] entry = new Entry().colors(256).strings(EnumSet.allOf(Capability.class)).build();
+    Terminfo.parse(ByteBuffer.wrap(entry, 0, 40));
+  }
+
+  @Test
+  public void forTerm_invalid() {
+    assertThat(Terminfo.forTerm(null)).isNull();
+    assertThat(Terminfo.forTerm("")).isNull();
+    assertThat(Terminfo.forTerm("../../etc/passwd")).isNull();
+    assertThat(Terminfo.forTerm("fansi-no-such-terminal")).isNull();
+  }
+
+  @Test
+  public void find() throws IOException {
+    File first = Files.createTempDirectory("terminfo").toFile();
+    File second = Files.createTempDirectory("terminfo").toFile();
+    byte[] entry = new Entry().build();
+    File letter = write(new File(new File(second, "f"), "fansi-test"), entry);
+    File hex = write(new File(new File(second, "66"), "fansi-hex"), entry);
+
+    ImmutableList<File> directories = ImmutableList.of(first, second);
+    assertThat(Terminfo.find("fansi-test", directories)).isEqualTo(letter);
+    assertThat(Terminfo.find("fansi-hex", directories)).isEqualTo(hex);
+    assertThat(Terminfo.find("fansi-none", directories)).isNull();
+
+    // Earlier directories take precedence
+    File override = write(new File(new File(first, "f"), "fansi-test"), entry);
+    assertThat(Terminfo.find("fansi-test", directories)).isEqualTo(override);
+    assertThat(Terminfo.read(override).name()).isEqualTo("fansi-test");
+  }
+
+  @Test
+  public void restrict_allCapabilities() {
+    Terminfo terminfo =
+        new Entry().colors(256).strings(EnumSet.allOf(Capability.class)).parse();
+    assertThat(terminfo.restrict(Codes.RAW)).isSameAs(Codes.RAW);
+  }
+
+  @Test
+  public void restrict_dumb() {
+    assertThat(new Entry().parse().restrict(Codes.RAW)).isSameAs(Codes.NO_OP);
+  }
+
+  @Test
+  public void restrict_monochrome() {
+    Set<Capability> capabilities = EnumSet.allOf(Capability.class);
+    capabilities.remove(Capability.SET_A_FOREGROUND);
+    capabilities.remove(Capability.CLR_EOL);
+    Codes codes = new Entry().strings(capabilities).parse().restrict(Codes.RAW);
+
+    assertThat(codes.color(RED, RED, Font.DEFAULT, Style.BOLD)).isEqualTo("\\e[1m");
+    assertThat(codes.clear()).isEqualTo(Codes.RAW.clear());
+    assertThat(codes.moveCursor(1, 1)).isEqualTo(Codes.RAW.moveCursor(1, 1));
+    assertThat(codes.clearLine()).isEmpty();
+    assertThat(codes.clearDisplay()).isEqualTo(Codes.RAW.clearDisplay());
+
+    StringBuilder out = new StringBuilder();
+    codes.appendColor(out, ColorType.packRgb(0xFF0000), ColorType.UNCHANGED);
+    assertThat(out.toString()).isEmpty();
+  }
+
+  @Test
+  public void restrict_noCursorAddressing() {
+    Codes codes = new Entry().colors(8).strings(EnumSet.of(
+        Capability.EXIT_ATTRIBUTE_MODE, Capability.SET_A_FOREGROUND)).parse().restrict(Codes.RAW);
+    assertThat(codes.color(RED, ColorType.DEFAULT, Font.DEFAULT)).isEqualTo("\\e[31m");
+    assertThat(codes.moveCursor(1, 1)).isEmpty();
+    assertThat(codes.positionCursor(1, 1)).isEmpty();
+    assertThat(codes.scrollUp(1)).isEmpty();
+    assertThat(codes.hideCursor()).isEmpty();
+  }
+
+  @Test
+  public void restrict_withColorDepth() {
+    Set<Capability> capabilities = EnumSet.allOf(Capability.class);
+    capabilities.remove(Capability.CLR_EOL);
+    Codes codes = new Entry().colors(256).strings(capabilities).parse().restrict(Codes.RAW)
+        .withColorDepth(ColorDepth.COLORS_16);
+    assertThat(codes.colorDepth()).isEqualTo(ColorDepth.COLORS_16);
+    assertThat(codes.color(ColorType.fromRgb(0xFF0000), ColorType.DEFAULT, Font.DEFAULT))
+        .isEqualTo("\\e[91m");
+    assertThat(codes.clearLine()).isEmpty();
+  }
+
+  private static File write(File file, byte[] contents) throws IOException {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), contents);
+    return file;
+  }
+
+  /** Builds a compiled terminfo entry, in the format described by term(5). */
+  private static class Entry {
+    private boolean wideNumbers;
+    private int colors = -1;
+    private Set<Capability> strings = EnumSet.noneOf(Capability.class);
+    private final ImmutableList.Builder<String> extendedBooleans = ImmutableList.builder();
+    private final ImmutableList.Builder<String> extendedStringNames = ImmutableList.builder();
+    private final ImmutableList.Builder<String> extendedStringValues = ImmutableList.builder();
+
+    Entry wideNumbers() {
+      wideNumbers = true;
+      return this;
+    }
+
+    Entry colors(int colors) {
+      this.colors = colors;
+      return this;
+    }
+
+    Entry strings(Set<Capability> strings) {
+      this.strings = strings;
+      return this;
+    }
+
+    Entry extendedBoolean(String name) {
+      extendedBooleans.add(name);
+      return this;
+    }
+
+    Entry extendedString(String name, String value) {
+      extendedStringNames.add(name);
+      extendedStringValues.add(value);
+      return this;
+    }
+
+    Terminfo parse() {
+      return Terminfo.parse(ByteBuffer.wrap(build()));
+    }
+
+    byte[] build() {
+      Output out = new Output();
+      byte[] names = "fansi-test|Terminal for fansi tests\0".getBytes(StandardCharsets.US_ASCII);
+      int numberCount = colors >= 0 ? 14 : 0;
+      int stringCount = 0;
+      for (Capability capability : strings) {
+        stringCount = Math.max(stringCount, capability.index() + 1);
+      }
+      // Each present string capability is just "x"
+      out.writeShort(wideNumbers ? 01036 : 0432);
+      out.writeShort(names.length);
+      out.writeShort(1); // booleans
+      out.writeShort(numberCount);
+      out.writeShort(stringCount);
+      out.writeShort(strings.size() * 2);
+      out.write(names);
+      out.write(1); // auto_left_margin
+      out.align();
+      for (int i = 0; i < numberCount; i++) {
+        out.writeNumber(i == 13 ? colors : -1, wideNumbers);
+      }
+      int offset = 0;
+      for (int i = 0; i < stringCount; i++) {
+        boolean present = false;
+        for (Capability capability : strings) {
+          present |= capability.index() == i;
+        }
+        out.writeShort(present ? offset : -1);
+        offset += present ? 2 : 0;
+      }
+      for (int i = 0; i < strings.size(); i++) {
+        out.write('x');
+        out.write(0);
+      }
+
+      ImmutableList<String> booleanNames = extendedBooleans.build();
+      ImmutableList<String> stringNames = extendedStringNames.build();
+      ImmutableList<String> stringValues = extendedStringValues.build();
+      if (booleanNames.isEmpty() && stringNames.isEmpty()) {
+        return out.toByteArray();
+      }
+      out.align();
+      ByteArrayOutputStream table = new ByteArrayOutputStream();
+      out.writeShort(booleanNames.size());
+      out.writeShort(0); // numbers
+      out.writeShort(stringNames.size());
+      out.writeShort(stringNames.size() * 2 + booleanNames.size());
+      int tableSize = 0;
+      for (String value : stringValues) {
+        tableSize += value.length() + 1;
+      }
+      for (String name : booleanNames) {
+        tableSize += name.length() + 1;
+      }
+      for (String name : stringNames) {
+        tableSize += name.length() + 1;
+      }
+      out.writeShort(tableSize);
+      for (int i = 0; i < booleanNames.size(); i++) {
+        out.write(1);
+      }
+      out.align();
+      for (String value : stringValues) {
+        out.writeShort(table.size());
+        writeString(table, value);
+      }
+      int namesStart = table.size();
+      for (String name : booleanNames) {
+        out.writeShort(table.size() - namesStart);
+        writeString(table, name);
+      }
+      for (String name : stringNames) {
+        out.writeShort(table.size() - namesStart);
+        writeString(table, name);
+      }
+      out.write(table.toByteArray());
+      return out.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+      out.write(bytes, 0, bytes.length);
+      out.write(0);
+    }
+  }
+
+  /** Little-endian output, as terminfo entries are written in. */
+  private static class Output extends ByteArrayOutputStream {
+    void writeShort(int value) {
+      write(value & 0xFF);
+      write(value >> 8 & 0xFF);
+    }
+
+    void writeNumber(int value, boolean wide) {
+      writeShort(value);
+      if (wide) {
+        writeShort(value >> 16);
+      }
+    }
+
+    void align() {
+      if (size() % 2 != 0) {
+        write(0);
+      }
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+      write(bytes, 0, bytes.length);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package demo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.mwdiamond.fansi.AnsiForTests;
+import com.mwdiamond.fansi.AnsiUtils;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link java.util.Spliterator} and {@link Stream} adapters in
+ * {@link ParallelProgressDemo}.
+ */
+public class ParallelProgressDemoTest {
+  private AnsiForTests ansiForTests;
+  private AnsiUtils ansiUtils;
+
+  @BeforeMethod
+  private void flushAnsi() {
+    ansiForTests = new AnsiForTests();
+    ansiUtils = AnsiUtils.create(ansiForTests);
+  }
+
+  @Test
+  public void sizedStream() {
+    Stream<Integer> stream = IntStream.range(0, 1000).boxed();
+    // count() could skip traversing a SIZED stream, so nothing would be reported
+    long sum = ParallelProgressDemo.withProgress(stream, ansiUtils.counterProgressBar(1))
+        .mapToLong(Integer::longValue).sum();
+
+    assertThat(sum).isEqualTo(1000L * 999 / 2);
+    assertThat(ansiForTests.getStdout()).endsWith("] 1000/1000");
+  }
+
+  @Test
+  public void parallelStream() {
+    Stream<Integer> stream = IntStream.range(0, 100_000).boxed().parallel();
+    long sum = ParallelProgressDemo.withProgress(stream, ansiUtils.counterProgressBar(1))
+        .mapToLong(Integer::longValue).sum();
+
+    assertThat(sum).isEqualTo(100_000L * 99_999 / 2);
+    // The total is taken from the SIZED spliterator, and the last split to finish publishes
+    assertThat(ansiForTests.getStdout()).endsWith("] 100000/100000");
+  }
+
+  @Test
+  public void unsizedStream() {
+    Stream<Integer> stream = Stream.iterate(0, i -> i + 1).limit(1000).parallel();
+    long sum = ParallelProgressDemo.withProgress(stream, ansiUtils.counterProgressBar(1))
+        .mapToLong(Integer::longValue).sum();
+
+    assertThat(sum).isEqualTo(1000L * 999 / 2);
+    // The total grows with the count, rather than being estimated
+    assertThat(ansiForTests.getStdout()).endsWith("] 1000/1000");
+  }
+}